@@ -80,7 +80,8 @@ def send_to_orchestrator(endpoint, data):
     url = f"http://localhost:8080/orchestrate/{endpoint}"
     try:
         response = requests.post(url, json=data)
-        if response.status_code == 200:
+        # the ambiguous endpoint answers 202 and resolves in the background
+        if 200 <= response.status_code < 300:
             logging.info(f"Successfully sent to orchestrator at {endpoint}.")
         else: 
             logging.error(f"Failed to send to orchestrator at {endpoint}, Status {response.status_code}")
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import publisherpackage.MqttService;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * MqttService that acknowledges every message immediately, so the benchmarks measure the publisher and not the broker.
+ * It only counts what it receives, which also keeps the JIT from eliminating the payload creation.
+ */
+public class InMemoryMqttService implements MqttService {
+
+    private long messages;
+    private long bytes;
+
+    @Override
+    public void publish(String topic, String message) {
+        messages++;
+        bytes += message.length();
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) {
+        messages++;
+        bytes += payload.length;
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAsync(String topic, byte[] payload) {
+        messages++;
+        bytes += payload.length;
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    public long messages() {
+        return messages;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+}
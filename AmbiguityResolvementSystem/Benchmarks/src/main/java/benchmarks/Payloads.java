@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds realistic payloads for the benchmarks, shaped like what the Faust detector, the ML service
+ * and the camera service actually send.
+ */
+public final class Payloads {
+
+    private static final String[] ACTIVITIES = {"Donor check-in", "Apply tourniquet", "Disinfection", "Injection", "Wrapping"};
+    private static final String[] STATIONS = {"Left station", "Right station"};
+    private static final Instant START = Instant.parse("2024-09-11T15:56:16.000Z");
+
+    private Payloads() {
+    }
+
+    // a single sensor event as flat JSON object
+    public static String event(int index) {
+        return "{"
+                + "\"concept:name\": \"" + ACTIVITIES[index % ACTIVITIES.length] + "\", "
+                + "\"time:timestamp\": \"" + START.plusMillis(index * 250L) + "\", "
+                + "\"perform:donor\": \"D" + String.format("%03d", index % 1000) + "\", "
+                + "\"perform:hcw\": \"HCW" + String.format("%04d", index % 10) + "\", "
+                + "\"location:station\": \"" + STATIONS[index % STATIONS.length] + "\""
+                + "}";
+    }
+
+    // body of /orchestrate/unambiguous-event
+    public static String unambiguousRequest() {
+        return "{\"events\": " + event(0) + "}";
+    }
+
+    // body of /orchestrate/ambiguous-event with windowSize events
+    public static String ambiguousWindow(int windowSize) {
+        StringBuilder body = new StringBuilder("{\"events\": [");
+        for (int i = 0; i < windowSize; i++) {
+            if (i > 0) {
+                body.append(", ");
+            }
+            body.append(event(i));
+        }
+        return body.append("]}").toString();
+    }
+
+    public static List<String> framePaths(int frames) {
+        List<String> paths = new ArrayList<>(frames);
+        for (int i = 0; i < frames; i++) {
+            paths.add("/srv/ambiguity/MachineLearning/ml_api/captured_frames/frame_20240911_155616_" + String.format("%03d", i) + ".jpg");
+        }
+        return paths;
+    }
+
+    // raw /analyze-frames response of the ML service
+    public static String mlResponse(int frames, double confidence) {
+        StringBuilder paths = new StringBuilder();
+        for (String path : framePaths(frames)) {
+            if (paths.length() > 0) {
+                paths.append(", ");
+            }
+            paths.append('"').append(path).append('"');
+        }
+        double rest = (1.0 - confidence) / 4;
+        return "{\"status\": \"success\", \"result\": {"
+                + "\"top_class\": \"injection\", "
+                + "\"confidence\": " + confidence + ", "
+                + "\"all_class_probabilities\": {\"injection\": " + confidence + ", \"wrapping\": " + rest
+                + ", \"disinfection\": " + rest + ", \"tourniquet\": " + rest + ", \"check-in\": " + rest + "}, "
+                + "\"frame_paths\": [" + paths + "]"
+                + "}}";
+    }
+
+    // ML client output as handed to the publisher
+    public static String mlOutput(int frames, boolean resolved) {
+        String response = mlResponse(frames, resolved ? 0.92 : 0.55);
+        String result = response.substring(response.indexOf("\"result\": ") + "\"result\": ".length(), response.length() - 1);
+        return result.substring(0, result.length() - 1) + ", \"resolved_ambiguity\": " + resolved + "}";
+    }
+
+    // /capture-frame response of the camera service
+    public static String cameraCaptureResponse() {
+        return "{\"status\": \"successful\", \"filepath\": \"" + framePaths(1).get(0) + "\"}";
+    }
+}
@@ -0,0 +1,32 @@
+package camerapackage;
+
+import benchmarks.Payloads;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CameraServiceClientBenchmark {
+
+    private CameraServiceClientImpl cameraClient;
+    private byte[] captureResponse;
+
+    @Setup
+    public void setUp() {
+        cameraClient = new CameraServiceClientImpl(new CameraConfigLoader());
+        captureResponse = Payloads.cameraCaptureResponse().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public JsonNode parseJsonResponse() throws Exception {
+        return cameraClient.parseJsonResponse(new ByteArrayInputStream(captureResponse));
+    }
+}
@@ -0,0 +1,43 @@
+package mlpackage;
+
+import benchmarks.Payloads;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MLServiceClientBenchmark {
+
+    // frames sent to the model, the default capture is 5
+    @Param({"1", "5", "50", "500"})
+    public int frames;
+
+    private MLServiceClientImpl mlClient;
+    private List<String> framePaths;
+    private String response;
+
+    @Setup
+    public void setUp() {
+        mlClient = new MLServiceClientImpl(new ConfigLoader(), new ObjectMapper());
+        framePaths = Payloads.framePaths(frames);
+        response = Payloads.mlResponse(frames, 0.85);
+    }
+
+    @Benchmark
+    public String buildRequestPayload() throws Exception {
+        return mlClient.buildRequestPayload(framePaths);
+    }
+
+    @Benchmark
+    public ObjectNode parseResponseAndCheckConfidence() throws Exception {
+        return mlClient.parseResponseAndCheckConfidence(response);
+    }
+}
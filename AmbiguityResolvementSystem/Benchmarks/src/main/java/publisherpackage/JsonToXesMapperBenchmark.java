@@ -0,0 +1,56 @@
+package publisherpackage;
+
+import benchmarks.Payloads;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonToXesMapperBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private JsonToXesMapper mapper;
+    private String eventJson;
+    private JsonNode eventNode;
+    private byte[] requestBody;
+
+    @Setup
+    public void setUp() throws Exception {
+        mapper = new JsonToXesMapper();
+        eventJson = Payloads.event(7);
+        eventNode = objectMapper.readTree(eventJson);
+        requestBody = ("{\"events\": " + eventJson + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String convertJsonString() throws Exception {
+        return mapper.convertJsonToXes(eventJson);
+    }
+
+    @Benchmark
+    public String convertJsonNode() {
+        return mapper.convertJsonToXes(eventNode);
+    }
+
+    // request body bytes to payload bytes in one pass, what /orchestrate/unambiguous-event does
+    @Benchmark
+    public byte[] convertRequestStream() throws Exception {
+        return mapper.convertEventsJsonToXes(new ByteArrayInputStream(requestBody));
+    }
+
+    // the former path: body string, tree, XES string, payload bytes
+    @Benchmark
+    public byte[] convertRequestString() throws Exception {
+        String body = new String(requestBody, StandardCharsets.UTF_8);
+        return mapper.convertJsonToXes(objectMapper.readTree(body).get("events")).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+package publisherpackage;
+
+import benchmarks.InMemoryMqttService;
+import benchmarks.Payloads;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishingServiceClientBenchmark {
+
+    // events in the ambiguous window, from a pair of overlapping sensors up to a long burst
+    @Param({"2", "10", "100", "500"})
+    public int windowSize;
+
+    private InMemoryMqttService mqttService;
+    private PublishingServiceClientImpl publishingClient;
+    private String unambiguousEvent;
+    private String ambiguousWindow;
+    private String resolvedMlOutput;
+    private String unresolvedMlOutput;
+
+    @Setup
+    public void setUp() {
+        mqttService = new InMemoryMqttService();
+        publishingClient = new PublishingServiceClientImpl(mqttService, new JsonToXesMapper(), new ObjectMapper(), new ConfigLoader());
+        unambiguousEvent = Payloads.unambiguousRequest();
+        ambiguousWindow = Payloads.ambiguousWindow(windowSize);
+        resolvedMlOutput = Payloads.mlOutput(5, true);
+        unresolvedMlOutput = Payloads.mlOutput(5, false);
+    }
+
+    @Benchmark
+    public long publishUnambiguousEvent() throws Exception {
+        publishingClient.publishUnambiguousEvent(unambiguousEvent);
+        return mqttService.bytes();
+    }
+
+    @Benchmark
+    public long publishResolvedAmbiguousEvent() {
+        publishingClient.publishResolvedAmbiguousEvent(resolvedMlOutput, ambiguousWindow);
+        return mqttService.bytes();
+    }
+
+    @Benchmark
+    public long publishUnresolvedAmbiguousEvent() {
+        publishingClient.publishResolvedAmbiguousEvent(unresolvedMlOutput, ambiguousWindow);
+        return mqttService.bytes();
+    }
+}
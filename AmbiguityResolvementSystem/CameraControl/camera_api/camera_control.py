@@ -4,8 +4,9 @@
 
 import cv2
 from fastapi import FastAPI
-from fastapi.responses import JSONResponse
+from fastapi.responses import JSONResponse, Response
 import os
+import time
 from datetime import datetime 
 import yaml
 import logging
@@ -67,4 +68,26 @@ def capture_frame():
     filepath = os.path.abspath(os.path.join(SAVE_DIR, f"frame_{timestamp}.jpg"))
     cv2.imwrite(filepath, frame)
 
-    return {"status": "successful", "filepath": filepath}
\ No newline at end of file
+    return {"status": "successful", "filepath": filepath}
+
+# returns the JPEG bytes instead of writing a file, so the frame does not have to go through a shared filesystem
+@app.get("/capture-frame-bytes")
+def capture_frame_bytes():
+    global camera
+
+    if camera is None or not camera.isOpened():
+        logging.error("Camera is not started or lost connection.")
+        return JSONResponse(status_code=500, content={"error": "Camera is not started"})
+
+    ret, frame = camera.read()
+    if not ret:
+        logging.error("Failed to read frame from camera.")
+        return JSONResponse(status_code=500, content={"error": "Failed to read frame", "status": "failed"})
+    captured_at = int(time.time() * 1000)
+
+    ok, jpeg = cv2.imencode(".jpg", frame)
+    if not ok:
+        logging.error("Failed to encode frame.")
+        return JSONResponse(status_code=500, content={"error": "Failed to encode frame", "status": "failed"})
+
+    return Response(content=jpeg.tobytes(), media_type="image/jpeg", headers={"X-Capture-Timestamp": str(captured_at)})
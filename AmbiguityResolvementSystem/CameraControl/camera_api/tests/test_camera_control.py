@@ -29,6 +29,19 @@ def test_capture_frame_when_camera_on():
     response = client.get("/capture-frame")
     assert response.status_code == 200
 
+def test_capture_frame_bytes_when_camera_off():
+    client.get("/stop-camera")
+    response = client.get("/capture-frame-bytes")
+    assert response.status_code == 500
+    assert response.json() == {"error": "Camera is not started"}
+
+def test_capture_frame_bytes_when_camera_on():
+    client.get("/start-camera")
+    response = client.get("/capture-frame-bytes")
+    assert response.status_code == 200
+    assert response.headers["content-type"] == "image/jpeg"
+    assert int(response.headers["x-capture-timestamp"]) > 0
+
 def test_stop_camera():
     response = client.get("/stop-camera")
     assert response.status_code == 200
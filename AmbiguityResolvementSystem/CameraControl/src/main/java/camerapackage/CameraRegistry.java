@@ -0,0 +1,82 @@
+package camerapackage;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The cameras the client captures from and which events each of them sees.
+ * An event is routed by the values of its routingAttributes (e.g. the location or resource of the event):
+ * it goes to every camera that lists one of those values in its matches.
+ * Cameras without matches are the fallback for events no camera matches, if there are none every camera is used.
+ *
+ * @param routingAttributes attributes of the events whose values select the cameras
+ * @param cameras the cameras, in configuration order
+ */
+public record CameraRegistry(List<String> routingAttributes, List<Camera> cameras) {
+
+    /**
+     * A camera service
+     *
+     * @param name name of the camera in the configuration
+     * @param baseUrl address of its camera service
+     * @param matches values of the routing attributes the camera sees, empty for a fallback camera
+     */
+    public record Camera(String name, String baseUrl, List<String> matches) {
+
+        public Camera {
+            matches = List.copyOf(matches);
+        }
+    }
+
+    public CameraRegistry {
+        routingAttributes = List.copyOf(routingAttributes);
+        cameras = List.copyOf(cameras);
+    }
+
+    /**
+     * @return a registry with a single camera that gets every event, used when no cameras are configured
+     */
+    public static CameraRegistry single(String baseUrl) {
+        return new CameraRegistry(List.of(), List.of(new Camera("default", baseUrl, List.of())));
+    }
+
+    /**
+     * @param events attributes of the events, e.g. the json_events of an ambiguous window
+     * @return the cameras that see at least one of the events, the default cameras if none does
+     */
+    public List<Camera> route(Collection<Map<String, String>> events) {
+        Set<String> values = new HashSet<>();
+        for (Map<String, String> event : events) {
+            for (String attribute : routingAttributes) {
+                String value = event.get(attribute);
+                if (value != null) {
+                    values.add(value);
+                }
+            }
+        }
+        List<Camera> matching = cameras.stream()
+                .filter(camera -> camera.matches().stream().anyMatch(values::contains))
+                .toList();
+        return matching.isEmpty() ? defaults() : matching;
+    }
+
+    /**
+     * @param names names of cameras, e.g. returned by route() before the configuration was reloaded
+     * @return the named cameras that are still configured, the default cameras if there are none
+     */
+    public List<Camera> named(Collection<String> names) {
+        List<Camera> named = cameras.stream().filter(camera -> names.contains(camera.name())).toList();
+        return named.isEmpty() ? defaults() : named;
+    }
+
+    /**
+     * @return the fallback cameras, every camera if there is none
+     */
+    public List<Camera> defaults() {
+        List<Camera> fallback = cameras.stream().filter(camera -> camera.matches().isEmpty()).toList();
+        return fallback.isEmpty() ? cameras : fallback;
+    }
+}
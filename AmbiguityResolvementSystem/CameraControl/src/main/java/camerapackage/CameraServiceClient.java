@@ -1,8 +1,68 @@
 package camerapackage;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface CameraServiceClient {
 
     public List<String> getFrames() throws Exception;
+
+    // hands every frame to the consumer as soon as it is captured, returns the number of captured frames
+    public int streamFrames(FrameConsumer consumer) throws Exception;
+
+    // like getFrames, but the frames are kept in memory instead of being written to files, the caller releases them
+    public List<FrameHandle> getFrameHandles() throws Exception;
+
+    // like streamFrames, with the frames kept in memory
+    public int streamFrameHandles(FrameHandleConsumer consumer) throws Exception;
+
+    // the methods below stop capturing once the deadline is near and return the frames captured so far,
+    // a client that cannot shorten its requests only checks the deadline before it starts
+
+    public default List<String> getFrames(Deadline deadline) throws Exception {
+        deadline.check();
+        return getFrames();
+    }
+
+    public default int streamFrames(FrameConsumer consumer, Deadline deadline) throws Exception {
+        deadline.check();
+        return streamFrames(consumer);
+    }
+
+    public default List<FrameHandle> getFrameHandles(Deadline deadline) throws Exception {
+        deadline.check();
+        return getFrameHandles();
+    }
+
+    public default int streamFrameHandles(FrameHandleConsumer consumer, Deadline deadline) throws Exception {
+        deadline.check();
+        return streamFrameHandles(consumer);
+    }
+
+    // names of the cameras that see the events, chosen by the attributes of the events (see CameraRegistry),
+    // empty if the client has a single camera
+    public default Set<String> camerasFor(Collection<Map<String, String>> events) {
+        return Set.of();
+    }
+
+    // the methods below capture from the named cameras in parallel and merge their frames, an empty set uses the default cameras,
+    // a client with a single camera ignores the names
+
+    public default List<String> getFrames(Set<String> cameras, Deadline deadline) throws Exception {
+        return getFrames(deadline);
+    }
+
+    public default int streamFrames(FrameConsumer consumer, Set<String> cameras, Deadline deadline) throws Exception {
+        return streamFrames(consumer, deadline);
+    }
+
+    public default List<FrameHandle> getFrameHandles(Set<String> cameras, Deadline deadline) throws Exception {
+        return getFrameHandles(deadline);
+    }
+
+    public default int streamFrameHandles(FrameHandleConsumer consumer, Set<String> cameras, Deadline deadline) throws Exception {
+        return streamFrameHandles(consumer, deadline);
+    }
 }
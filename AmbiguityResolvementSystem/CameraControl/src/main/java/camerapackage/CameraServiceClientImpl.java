@@ -1,53 +1,372 @@
 package camerapackage;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+// created when first used or when the application validates the clients at startup, see orchestrator.startup.lazyClients
+@Lazy
 @Service
 public class CameraServiceClientImpl implements CameraServiceClient {
 
 
     private static final Logger logger = LoggerFactory.getLogger(CameraServiceClientImpl.class);
     private final CameraConfigLoader cameraConfig;
+    private final HttpClient httpClient;
+    // thread safe, shared by every request
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // built on first use and replaced by reloadSettings(), see settings()
+    private volatile CameraSettings settings;
+    // created on first use, see sessionManager() and frameStore(), one session per camera service
+    private final Map<String, CameraSessionManager> sessionManagers = new HashMap<>();
+    private FrameStore frameStore;
 
     public CameraServiceClientImpl() {
-        this.cameraConfig = new CameraConfigLoader();
+        this(new CameraConfigLoader());
     }
     public CameraServiceClientImpl(CameraConfigLoader config) {
         this.cameraConfig = config;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout(config))
+                .build();
+    }
+    @Autowired
+    public CameraServiceClientImpl(HttpClient httpClient) {
+        this(new CameraConfigLoader(), httpClient);
+        // an invalid configuration stops the application at startup instead of failing the first capture
+        settings();
+    }
+    public CameraServiceClientImpl(CameraConfigLoader config, HttpClient httpClient) {
+        this.cameraConfig = config;
+        this.httpClient = httpClient;
     }
 
     @Override
     public List<String> getFrames() throws Exception {
-        startCamera();
-        Thread.sleep(300);
+        return getFrames(Deadline.none());
+    }
+
+    @Override
+    public List<String> getFrames(Deadline deadline) throws Exception {
+        return getFrames(Set.of(), deadline);
+    }
+
+    // the frames of several cameras are in the order they were captured
+    @Override
+    public List<String> getFrames(Set<String> cameras, Deadline deadline) throws Exception {
         List<String> filepaths = new ArrayList<>();
-        String filepath = captureFrame();
+        streamFrames(filepaths::add, cameras, deadline);
+        return filepaths;
+    }
+
+    /**
+     * Captures up to cameraControl.numberOfFrames frames and passes each one to the consumer right away
+     * Capturing stops early when the consumer does not want more frames
+     * The camera is leased from the session manager, so concurrent callers capture one after another
+     *
+     * @param consumer receives the file path of every successfully captured frame
+     * @return number of frames passed to the consumer
+     */
+    @Override
+    public int streamFrames(FrameConsumer consumer) throws Exception {
+        return streamFrames(consumer, Deadline.none());
+    }
+
+    /**
+     * Like streamFrames, but capturing stops once the deadline is too near to wait for another frame
+     * The request timeouts are shortened to the time left, a request cut short by the deadline ends the capture
+     *
+     * @throws DeadlineExceededException if the deadline expired before the first frame was captured
+     */
+    @Override
+    public int streamFrames(FrameConsumer consumer, Deadline deadline) throws Exception {
+        return streamFrames(consumer, Set.of(), deadline);
+    }
+
+    /**
+     * Like streamFrames, but captures from every named camera at the same time
+     * The frames reach the consumer one at a time in the order they arrive, no matter which camera captured them
+     * A camera that fails is left out, the capture only fails if every camera does
+     *
+     * @param cameras names returned by camerasFor, an empty set uses the default cameras
+     */
+    @Override
+    public int streamFrames(FrameConsumer consumer, Set<String> cameras, Deadline deadline) throws Exception {
+        return capture(this::captureFrame, consumer::accept, consumer::wantsMore, frame -> { }, cameras, deadline);
+    }
+
+    @Override
+    public List<FrameHandle> getFrameHandles() throws Exception {
+        return getFrameHandles(Deadline.none());
+    }
+
+    @Override
+    public List<FrameHandle> getFrameHandles(Deadline deadline) throws Exception {
+        return getFrameHandles(Set.of(), deadline);
+    }
+
+    // the frames of several cameras are sorted by the time the camera services captured them
+    @Override
+    public List<FrameHandle> getFrameHandles(Set<String> cameras, Deadline deadline) throws Exception {
+        List<FrameHandle> frames = new ArrayList<>();
+        try {
+            streamFrameHandles(frames::add, cameras, deadline);
+        } catch (Exception e) {
+            frames.forEach(FrameHandle::release);
+            throw e;
+        }
+        frames.sort(Comparator.comparing(FrameHandle::capturedAt));
+        return frames;
+    }
+
+    /**
+     * Captures frames like streamFrames, but the camera service returns the JPEG bytes instead of writing a file
+     * The bytes are read straight into the memory-mapped frame store, nothing is written to disk
+     *
+     * @param consumer receives every successfully captured frame and has to release it
+     * @return number of frames passed to the consumer
+     */
+    @Override
+    public int streamFrameHandles(FrameHandleConsumer consumer) throws Exception {
+        return streamFrameHandles(consumer, Deadline.none());
+    }
+
+    @Override
+    public int streamFrameHandles(FrameHandleConsumer consumer, Deadline deadline) throws Exception {
+        return streamFrameHandles(consumer, Set.of(), deadline);
+    }
+
+    @Override
+    public int streamFrameHandles(FrameHandleConsumer consumer, Set<String> cameras, Deadline deadline) throws Exception {
+        return capture(this::captureFrameHandle, consumer::accept, consumer::wantsMore, FrameHandle::release, cameras, deadline);
+    }
+
+    /**
+     * @param events attributes of the events, e.g. the json_events of an ambiguous window
+     * @return names of the cameras that see the events, see CameraRegistry.route
+     */
+    @Override
+    public Set<String> camerasFor(Collection<Map<String, String>> events) {
+        return settings().cameras().route(events).stream()
+                .map(CameraRegistry.Camera::name)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private <T> int capture(Capture<T> captureFrame, Sink<T> sink, BooleanSupplier wantsMore, Consumer<T> discard,
+                            Set<String> cameras, Deadline deadline) throws Exception {
+        // one snapshot for the whole capture, a reload meanwhile applies to the next capture
+        CameraSettings settings = settings();
+        List<CameraRegistry.Camera> targets = settings.cameras().named(cameras);
+        if (targets.size() == 1) {
+            return capture(captureFrame, sink, wantsMore, deadline, settings, targets.get(0));
+        }
+        return captureInParallel(captureFrame, sink, wantsMore, discard, deadline, settings, targets);
+    }
+
+    // every camera captures on its own virtual thread, the sink gets their frames one at a time
+    private <T> int captureInParallel(Capture<T> captureFrame, Sink<T> sink, BooleanSupplier wantsMore, Consumer<T> discard,
+                                      Deadline deadline, CameraSettings settings, List<CameraRegistry.Camera> cameras) throws Exception {
+        Object lock = new Object();
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicBoolean stopped = new AtomicBoolean();
+        Sink<T> sharedSink = frame -> {
+            synchronized (lock) {
+                // a camera may still deliver a frame after the sink had enough from another one
+                if (stopped.get()) {
+                    discard.accept(frame);
+                    return false;
+                }
+                accepted.incrementAndGet();
+                stopped.set(!sink.accept(frame));
+                return !stopped.get();
+            }
+        };
+        BooleanSupplier sharedWantsMore = () -> {
+            synchronized (lock) {
+                return !stopped.get() && wantsMore.getAsBoolean();
+            }
+        };
+        logger.info("Capturing from cameras " + cameras.stream().map(CameraRegistry.Camera::name).toList());
+        Exception failure = null;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Integer>> captures = new ArrayList<>();
+            for (CameraRegistry.Camera camera : cameras) {
+                captures.add(executor.submit(() -> capture(captureFrame, sharedSink, sharedWantsMore, deadline, settings, camera)));
+            }
+            for (int i = 0; i < captures.size(); i++) {
+                try {
+                    captures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof Exception cause)) {
+                        throw e;
+                    }
+                    logger.error("Capture from camera " + cameras.get(i).name() + " failed: " + cause.getMessage());
+                    if (failure == null) {
+                        failure = cause;
+                    }
+                }
+            }
+        }
+        // the frames of the other cameras are still worth analyzing
+        if (accepted.get() == 0 && failure != null) {
+            throw failure;
+        }
+        return accepted.get();
+    }
 
-        // get configuration values
-        int numberOfFrames = Integer.parseInt(cameraConfig.get("cameraControl.numberOfFrames"));
-        long waitingTime = Long.parseLong(cameraConfig.get("cameraControl.waitingTime"));
+    private <T> int capture(Capture<T> captureFrame, Sink<T> sink, BooleanSupplier wantsMore, Deadline deadline,
+                            CameraSettings settings, CameraRegistry.Camera camera) throws Exception {
+        try (CameraSessionManager.CameraLease lease = acquire(settings, camera, deadline)) {
+            return capture(captureFrame, sink, wantsMore, deadline, settings, camera.baseUrl());
+        }
+    }
+
+    private CameraSessionManager.CameraLease acquire(CameraSettings settings, CameraRegistry.Camera camera, Deadline deadline) throws Exception {
+        deadline.check();
+        return sessionManager(camera.baseUrl()).acquire(Math.min(settings.acquireTimeoutMillis(), deadline.remainingMillis()), deadline);
+    }
+
+    private <T> int capture(Capture<T> captureFrame, Sink<T> sink, BooleanSupplier wantsMore, Deadline deadline,
+                            CameraSettings settings, String baseUrl) throws Exception {
+        int captured = 0;
+        int numberOfFrames = settings.numberOfFrames();
+        long waitingTime = settings.waitingTimeMillis();
         for (int i = 0; i < numberOfFrames; i++) {
-            if (filepath == null) {
+            if (i > 0) {
+                if (deadline.remainingMillis() <= waitingTime) {
+                    logger.info("Stopping capture after " + captured + " frames, the deadline is near");
+                    break;
+                }
+                waitBeforeNextFrame(waitingTime);
+                if (!wantsMore.getAsBoolean()) {
+                    logger.info("Stopping capture early after " + captured + " frames");
+                    break;
+                }
+            }
+            T frame;
+            try {
+                frame = captureFrame.capture(baseUrl, deadline);
+            } catch (IOException e) {
+                // the frames captured so far are still worth analyzing
+                if (captured == 0 || !deadline.isExpired()) {
+                    throw e;
+                }
+                logger.info("Stopping capture after " + captured + " frames, the deadline expired");
+                break;
+            }
+            if (frame == null) {
                 continue;
             }
-            filepaths.add(filepath);
-            filepath = captureFrame();
-            waitBeforeNextFrame(waitingTime);
+            captured++;
+            if (!sink.accept(frame)) {
+                logger.info("Stopping capture early after " + captured + " frames");
+                break;
+            }
         }
-        stopCamera();
-        return filepaths;
+        return captured;
+    }
+
+    /**
+     * @return the configuration the next capture uses
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    public CameraSettings settings() {
+        CameraSettings current = settings;
+        if (current == null) {
+            synchronized (this) {
+                if (settings == null) {
+                    settings = CameraSettings.from(cameraConfig::get);
+                }
+                current = settings;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * This method reads the configuration again and applies it to the next capture, captures in progress keep their settings
+     * The session managers and frame store are created once, changes to their settings apply after a restart
+     * A camera added by the reload gets its own session on first use
+     *
+     * @return the new settings
+     * @throws IllegalArgumentException if the new configuration is invalid, the current settings stay in use
+     */
+    public CameraSettings reloadSettings() {
+        CameraSettings reloaded = cameraConfig.reload();
+        settings = reloaded;
+        return reloaded;
+    }
+
+    /**
+     * This method stops the camera if it is still kept warm
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        sessionManagers.values().forEach(CameraSessionManager::close);
+        if (frameStore != null) {
+            try {
+                frameStore.close();
+            } catch (IOException e) {
+                logger.error("Failed to close the frame store: " + e.getMessage());
+            }
+        }
+    }
+
+    // created lazily so the start and stop requests go through this instance even when it is wrapped (e.g. by a test spy)
+    private synchronized CameraSessionManager sessionManager(String baseUrl) {
+        return sessionManagers.computeIfAbsent(baseUrl, url -> {
+            CameraSettings settings = settings();
+            // the camera is stopped when the lease is closed or idle, which must not be cut short by a deadline
+            return new CameraSessionManager(deadline -> startCamera(url, deadline), () -> stopCamera(url),
+                    settings.warmUpTimeMillis(), settings.idleTimeoutMillis(), settings.acquireTimeoutMillis());
+        });
+    }
+
+    private synchronized FrameStore frameStore() throws IOException {
+        if (frameStore == null) {
+            CameraSettings settings = settings();
+            frameStore = FrameStore.open(settings.frameStoreFile() == null ? null : Path.of(settings.frameStoreFile()),
+                    settings.frameStoreSlotBytes(), settings.frameStoreSlots(), settings.frameStoreMaxFrameAgeMillis());
+        }
+        return frameStore;
     }
 
     private void waitBeforeNextFrame (long waitingTime) {
@@ -60,64 +379,163 @@ public class CameraServiceClientImpl implements CameraServiceClient {
         }
     }
 
-    private void startCamera() throws IOException, URISyntaxException {
-        logger.info("Starting camera...");
-        String requestEndpoint = cameraConfig.get("cameraControl.startCameraEndpoint");
-        sendGetRequest(requestEndpoint);
+    private void startCamera(String baseUrl, Deadline deadline) throws IOException, URISyntaxException {
+        logger.info("Starting camera " + baseUrl + "...");
+        String requestEndpoint = settings().startCameraEndpoint();
+        timedGetRequest("camera.start", baseUrl, requestEndpoint, deadline);
         logger.info("Camera started!");
     }
-    private void stopCamera() throws IOException , URISyntaxException{
-        logger.info("Stopping camera...");
-        String requestEndpoint = cameraConfig.get("cameraControl.stopCameraEndpoint");
-        sendGetRequest(requestEndpoint);
+    private void stopCamera(String baseUrl) throws IOException , URISyntaxException{
+        logger.info("Stopping camera " + baseUrl + "...");
+        String requestEndpoint = settings().stopCameraEndpoint();
+        timedGetRequest("camera.stop", baseUrl, requestEndpoint, Deadline.none());
         logger.info("Camera stopped!");
     }
-    protected String captureFrame() throws IOException, URISyntaxException, ParseException {
+    protected String captureFrame(String baseUrl, Deadline deadline) throws IOException, URISyntaxException {
+        logger.info("Capturing frame...");
+        Timer.Sample sample = Timer.start();
+        String outcome = "error";
+        try {
+            // get frame filepath from response
+            String requestEndpoint = settings().captureFrameEndpoint();
+            JsonNode response;
+            try {
+                response = sendGetRequest(baseUrl, requestEndpoint, deadline);
+            } catch (UnexpectedResponseException e) {
+                // like a capture that reports a failed status, this frame is skipped
+                outcome = "failed";
+                return null;
+            }
+            String status = response.path("status").asText();
+            if (status.equals("successful")) {
+                outcome = "success";
+                return response.path("filepath").asText();
+            } else {
+                outcome = "failed";
+                logger.error("Failed to capture frame.");
+                return null;
+            }
+        } finally {
+            sample.stop(requestTimer("camera.capture", outcome));
+        }
+    }
+
+    protected FrameHandle captureFrameHandle(String baseUrl, Deadline deadline) throws IOException, URISyntaxException {
         logger.info("Capturing frame...");
-        // get frame filepath from response
-        String requestEndpoint = cameraConfig.get("cameraControl.captureFrameEndpoint");
-        String response = sendGetRequest(requestEndpoint);
-        JSONObject jsonObject = parseJsonResponse(response);
-        String status = jsonObject.get("status").toString();
-        if (status.equals("successful")) {
-            return jsonObject.get("filepath").toString();
-        } else {
-            logger.error("Failed to capture frame.");
-            return null;
+        Timer.Sample sample = Timer.start();
+        String outcome = "error";
+        try {
+            String requestEndpoint = settings().captureFrameBytesEndpoint();
+            HttpResponse<InputStream> response = send(baseUrl, requestEndpoint, deadline, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                    outcome = "failed";
+                    logger.error("Failed to capture frame. Response code: " + response.statusCode());
+                    return null;
+                }
+                long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+                // the camera service sends the capture time in epoch milliseconds
+                Instant capturedAt = response.headers().firstValue("X-Capture-Timestamp")
+                        .map(millis -> Instant.ofEpochMilli(Long.parseLong(millis)))
+                        .orElseGet(Instant::now);
+                FrameHandle frame = frameStore().store(capturedAt, Channels.newChannel(body), length);
+                outcome = "success";
+                return frame;
+            }
+        } finally {
+            sample.stop(requestTimer("camera.capture", outcome));
+        }
+    }
+
+    // sends the request and records its latency, "failed" means the camera service did not answer with 200
+    private JsonNode timedGetRequest(String timerName, String baseUrl, String request, Deadline deadline) throws IOException, URISyntaxException {
+        Timer.Sample sample = Timer.start();
+        String outcome = "error";
+        try {
+            JsonNode response = sendGetRequest(baseUrl, request, deadline);
+            outcome = "success";
+            return response;
+        } catch (UnexpectedResponseException e) {
+            outcome = "failed";
+            throw e;
+        } finally {
+            sample.stop(requestTimer(timerName, outcome));
         }
     }
-    protected JSONObject parseJsonResponse(String response) throws ParseException {
-        JSONParser parser = new JSONParser();
-        return (JSONObject) parser.parse(response);
+
+    private static Timer requestTimer(String name, String outcome) {
+        return Timer.builder(name)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+    // the response is parsed while it arrives, without building a String of it first
+    protected JsonNode parseJsonResponse(InputStream response) throws IOException {
+        return objectMapper.readTree(response);
     }
 
     // Helper method to send the frames
-    // Reference: https://docs.oracle.com/javase/tutorial/networking/urls/connecting.html#:~:text=When%20you%20do%20this%20you,openConnection()%3B%20myURLConnection.
-    // Since URL constructors are deprecated: https://stackoverflow.com/questions/75966165/how-to-replace-the-deprecated-url-constructors-in-java-20
-    // reference used to establish connection
-    protected String sendGetRequest(String request) throws IOException, URISyntaxException {
-        String baseUrl = cameraConfig.get("cameraControl.baseUrl");
+    // The connection to the camera service is kept open by the HttpClient and reused for the next request,
+    // and every request has a timeout so a hung camera service cannot block the caller forever, shortened by the deadline of the capture
+    protected JsonNode sendGetRequest(String baseUrl, String request, Deadline deadline) throws IOException, URISyntaxException {
+        HttpResponse<InputStream> response = send(baseUrl, request, deadline, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            // check the response code
+            int responseCode = response.statusCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                logger.error("Failed to connect to the server. Response code: " + responseCode);
+                // read to the end, so the connection can be reused
+                body.transferTo(OutputStream.nullOutputStream());
+                throw new UnexpectedResponseException("Camera service responded to " + request + " with status " + responseCode);
+            }
+            return parseJsonResponse(body);
+        }
+    }
+
+    private <T> HttpResponse<T> send(String baseUrl, String request, Deadline deadline, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, URISyntaxException {
+        CameraSettings settings = settings();
         URI url = new URI(baseUrl + request);
 
-        HttpURLConnection connection = (HttpURLConnection) url.toURL().openConnection();
-        connection.setRequestMethod("GET");
+        HttpRequest httpRequest = HttpRequest.newBuilder(url)
+                .timeout(deadline.limit(requestTimeout(settings, request)))
+                .GET()
+                .build();
+        try {
+            return httpClient.send(httpRequest, bodyHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // re-interrupt the thread
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        }
+    }
 
-        // check the response code
-        int responseCode = connection.getResponseCode();
-        if (responseCode != HttpURLConnection.HTTP_OK) {
-            logger.error("Failed to connect to the server. Response code: " + responseCode);
-            return null;
+    // starting the camera opens the device and takes longer than capturing or stopping
+    private static Duration requestTimeout(CameraSettings settings, String request) {
+        if (request.equals(settings.startCameraEndpoint())) {
+            return Duration.ofMillis(settings.startCameraTimeoutMillis());
         }
+        return Duration.ofMillis(settings.requestTimeoutMillis());
+    }
+
+    // read before the settings are validated, tests stub the configuration only after creating the client
+    private static Duration connectTimeout(CameraConfigLoader config) {
+        String millis = config.get("cameraControl.connectTimeout");
+        return Duration.ofMillis(millis == null || millis.isBlank() ? CameraSettings.DEFAULT_TIMEOUT_MILLIS : Long.parseLong(millis));
+    }
 
-        // read the response
-        BufferedReader response = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-        String line;
-        StringBuilder responseString = new StringBuilder();
-        while ((line = response.readLine()) != null) {
-            responseString.append(line);
+    // the camera service answered, but not with 200
+    private static final class UnexpectedResponseException extends IOException {
+        UnexpectedResponseException(String message) {
+            super(message);
         }
-        response.close();
+    }
+
+    @FunctionalInterface
+    private interface Capture<T> {
+        T capture(String baseUrl, Deadline deadline) throws Exception;
+    }
 
-        return responseString.toString();
+    @FunctionalInterface
+    private interface Sink<T> {
+        boolean accept(T frame) throws Exception;
     }
-}
\ No newline at end of file
+}
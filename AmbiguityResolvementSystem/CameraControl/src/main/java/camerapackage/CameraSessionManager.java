@@ -0,0 +1,216 @@
+package camerapackage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Arbitrates access to the camera between concurrent resolutions.
+ * Callers take a lease, which gives them exclusive use of the camera until it is closed.
+ * Waiting callers are served in arrival order.
+ * The camera is started by the first lease and kept running after the last lease is closed,
+ * so a burst of ambiguous events only pays the start-up once. It is stopped after it has been idle for idleTimeoutMillis.
+ */
+public class CameraSessionManager implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CameraSessionManager.class);
+
+    /**
+     * A request to the camera service, e.g. starting or stopping the camera
+     */
+    @FunctionalInterface
+    public interface CameraCommand {
+        void run() throws Exception;
+    }
+
+    /**
+     * Starts the camera for the caller taking the lease, the start request is bounded by the deadline of that caller
+     */
+    @FunctionalInterface
+    public interface StartCommand {
+        void run(Deadline deadline) throws Exception;
+    }
+
+    private final StartCommand startCommand;
+    private final CameraCommand stopCommand;
+    private final long warmUpMillis;
+    private final long idleTimeoutMillis;
+    private final long acquireTimeoutMillis;
+    // a single fair permit, so resolutions get the camera in the order they asked for it
+    // (a lease may be closed on another thread than the one that took it, so no owner-bound lock)
+    private final Semaphore camera = new Semaphore(1, true);
+    private final ScheduledExecutorService idleStopScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "camera-idle-stop");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // serializes starting and stopping the camera, a lock instead of a monitor since it is held across
+    // the start request and the warm-up, which would pin a virtual thread to its carrier
+    private final ReentrantLock state = new ReentrantLock();
+    // written under state
+    private volatile boolean running;
+    // guarded by state
+    private ScheduledFuture<?> idleStop;
+    // increased by every lease, an idle stop only goes through if no lease was taken since it was scheduled
+    private long leaseGeneration;
+
+    /**
+     * @param startCommand starts the camera
+     * @param stopCommand stops the camera
+     * @param warmUpMillis time the camera needs after starting before frames can be captured
+     * @param idleTimeoutMillis time the camera is kept running without a lease, 0 stops it when the lease is closed
+     * @param acquireTimeoutMillis time a caller waits for the camera before giving up
+     */
+    public CameraSessionManager(StartCommand startCommand, CameraCommand stopCommand,
+                                long warmUpMillis, long idleTimeoutMillis, long acquireTimeoutMillis) {
+        this.startCommand = startCommand;
+        this.stopCommand = stopCommand;
+        this.warmUpMillis = warmUpMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    /**
+     * Waits for exclusive access to the camera and starts it if it is not running yet
+     *
+     * @return the lease, which must be closed once the frames are captured
+     * @throws TimeoutException if the camera was not free within acquireTimeoutMillis
+     */
+    public CameraLease acquire() throws Exception {
+        return acquire(acquireTimeoutMillis);
+    }
+
+    /**
+     * Like acquire(), but waits at most timeoutMillis, e.g. the time left until the deadline of the caller
+     */
+    public CameraLease acquire(long timeoutMillis) throws Exception {
+        return acquire(timeoutMillis, Deadline.none());
+    }
+
+    /**
+     * Like acquire(timeoutMillis), a start of the camera this lease needs is bounded by the deadline of the caller
+     */
+    public CameraLease acquire(long timeoutMillis, Deadline deadline) throws Exception {
+        if (!camera.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Camera was not available within " + timeoutMillis + " ms");
+        }
+        try {
+            startIfStopped(deadline);
+            return new CameraLease();
+        } catch (Exception e) {
+            camera.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the camera is currently started
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops the camera if it is still running and stops the idle timer
+     */
+    @Override
+    public void close() {
+        idleStopScheduler.shutdownNow();
+        state.lock();
+        try {
+            stopCamera();
+        } finally {
+            state.unlock();
+        }
+    }
+
+    private void startIfStopped(Deadline deadline) throws Exception {
+        state.lock();
+        try {
+            leaseGeneration++;
+            if (idleStop != null) {
+                idleStop.cancel(false);
+                idleStop = null;
+            }
+            if (running) {
+                logger.info("Reusing running camera");
+                return;
+            }
+            startCommand.run(deadline);
+            running = true;
+            Thread.sleep(warmUpMillis);
+        } finally {
+            state.unlock();
+        }
+    }
+
+    private void release() {
+        state.lock();
+        try {
+            if (idleTimeoutMillis <= 0) {
+                stopCamera();
+            } else if (!idleStopScheduler.isShutdown()) {
+                long generation = leaseGeneration;
+                idleStop = idleStopScheduler.schedule(() -> stopIfIdle(generation), idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            state.unlock();
+        }
+        camera.release();
+    }
+
+    private void stopIfIdle(long generation) {
+        state.lock();
+        try {
+            // a lease taken in the meantime makes this stop obsolete
+            if (generation == leaseGeneration) {
+                idleStop = null;
+                logger.info("Camera idle for " + idleTimeoutMillis + " ms");
+                stopCamera();
+            }
+        } finally {
+            state.unlock();
+        }
+    }
+
+    // called with state held
+    private void stopCamera() {
+        if (!running) {
+            return;
+        }
+        // treat the camera as stopped even if the request failed, the next lease starts it again
+        running = false;
+        try {
+            stopCommand.run();
+        } catch (Exception e) {
+            logger.error("Failed to stop camera: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exclusive access to the running camera, closing it hands the camera to the next caller
+     */
+    public class CameraLease implements AutoCloseable {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private CameraLease() {
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package camerapackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Typed and validated snapshot of the cameraControl.* configuration.
+ * A snapshot never changes, a capture reads one snapshot and keeps using it even when the configuration is reloaded meanwhile.
+ * Times are in milliseconds, keys that are missing or empty get the defaults of cameraApplication.properties.
+ * The cameras come from cameraControl.cameras, without it there is one camera at cameraControl.baseUrl.
+ */
+public record CameraSettings(String baseUrl,
+                             int numberOfFrames,
+                             long waitingTimeMillis,
+                             String startCameraEndpoint,
+                             String stopCameraEndpoint,
+                             String captureFrameEndpoint,
+                             String captureFrameBytesEndpoint,
+                             long connectTimeoutMillis,
+                             long startCameraTimeoutMillis,
+                             long requestTimeoutMillis,
+                             long warmUpTimeMillis,
+                             long idleTimeoutMillis,
+                             long acquireTimeoutMillis,
+                             String frameStoreFile,
+                             int frameStoreSlotBytes,
+                             int frameStoreSlots,
+                             long frameStoreMaxFrameAgeMillis,
+                             CameraRegistry cameras) {
+
+    // used when a timeout is missing from the configuration
+    static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Reads and validates the camera configuration
+     *
+     * @param properties returns the value of a key, null if it is missing
+     * @return the settings
+     * @throws IllegalArgumentException listing every missing or invalid key
+     */
+    public static CameraSettings from(Function<String, String> properties) {
+        Reader reader = new Reader(properties);
+        CameraSettings settings = new CameraSettings(
+                reader.required("cameraControl.baseUrl"),
+                (int) reader.number("cameraControl.numberOfFrames", null, 1),
+                reader.number("cameraControl.waitingTime", null, 0),
+                reader.required("cameraControl.startCameraEndpoint"),
+                reader.required("cameraControl.stopCameraEndpoint"),
+                reader.required("cameraControl.captureFrameEndpoint"),
+                reader.optional("cameraControl.captureFrameBytesEndpoint", "/capture-frame-bytes"),
+                reader.number("cameraControl.connectTimeout", DEFAULT_TIMEOUT_MILLIS, 1),
+                reader.number("cameraControl.startCameraTimeout", DEFAULT_TIMEOUT_MILLIS, 1),
+                reader.number("cameraControl.requestTimeout", DEFAULT_TIMEOUT_MILLIS, 1),
+                reader.number("cameraControl.warmUpTime", 300L, 0),
+                reader.number("cameraControl.idleTimeout", 0L, 0),
+                reader.number("cameraControl.acquireTimeout", 30000L, 1),
+                reader.optional("cameraControl.frameStore.file", null),
+                (int) reader.number("cameraControl.frameStore.slotBytes", (long) (1 << 20), 1),
+                (int) reader.number("cameraControl.frameStore.slots", 64L, 1),
+                reader.number("cameraControl.frameStore.maxFrameAgeMillis", 120000L, 0),
+                reader.cameras(reader.optional("cameraControl.baseUrl", null)));
+        reader.check("camera");
+        return settings;
+    }
+
+    // collects every problem, so a broken file is reported in one go instead of one key per attempt
+    private static final class Reader {
+
+        private final Function<String, String> properties;
+        private final List<String> problems = new ArrayList<>();
+
+        private Reader(Function<String, String> properties) {
+            this.properties = properties;
+        }
+
+        private String optional(String key, String defaultValue) {
+            String value = properties.apply(key);
+            return value == null || value.isBlank() ? defaultValue : value.trim();
+        }
+
+        private String required(String key) {
+            String value = optional(key, null);
+            if (value == null) {
+                problems.add(key + " is missing");
+            }
+            return value;
+        }
+
+        // integer values fit into an int, everything the camera counts is far below Integer.MAX_VALUE
+        private long number(String key, Long defaultValue, long min) {
+            String value = defaultValue == null ? required(key) : optional(key, String.valueOf(defaultValue));
+            if (value == null) {
+                return min;
+            }
+            try {
+                long number = Long.parseLong(value);
+                if (number < min || number > Integer.MAX_VALUE) {
+                    problems.add(key + " must be between " + min + " and " + Integer.MAX_VALUE + " but is " + value);
+                    return min;
+                }
+                return number;
+            } catch (NumberFormatException e) {
+                problems.add(key + " must be a whole number but is '" + value + "'");
+                return min;
+            }
+        }
+
+        private List<String> list(String key) {
+            String value = optional(key, null);
+            if (value == null) {
+                return List.of();
+            }
+            return Arrays.stream(value.split(",")).map(String::trim).filter(item -> !item.isEmpty()).toList();
+        }
+
+        // without cameraControl.cameras the client has the single camera of cameraControl.baseUrl, as before routing existed
+        private CameraRegistry cameras(String baseUrl) {
+            List<String> names = list("cameraControl.cameras");
+            if (names.isEmpty()) {
+                return CameraRegistry.single(baseUrl);
+            }
+            if (new HashSet<>(names).size() < names.size()) {
+                problems.add("cameraControl.cameras must not name a camera twice but is '" + String.join(",", names) + "'");
+            }
+            List<CameraRegistry.Camera> cameras = new ArrayList<>();
+            for (String name : names) {
+                String prefix = "cameraControl.camera." + name;
+                cameras.add(new CameraRegistry.Camera(name, required(prefix + ".baseUrl"), list(prefix + ".match")));
+            }
+            return new CameraRegistry(list("cameraControl.routing.attributes"), cameras);
+        }
+
+        private void check(String module) {
+            if (!problems.isEmpty()) {
+                throw new IllegalArgumentException("Invalid " + module + " configuration: " + String.join(", ", problems));
+            }
+        }
+    }
+}
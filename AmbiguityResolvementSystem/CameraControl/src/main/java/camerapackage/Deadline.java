@@ -0,0 +1,90 @@
+package camerapackage;
+
+import java.time.Duration;
+
+/**
+ * Point in time by which work has to be finished, e.g. the capture and analysis of an ambiguous window.
+ * It is passed through the camera and ML clients, which shorten their timeouts to the time left and stop once it is used up.
+ * It is measured with System.nanoTime(), so changes of the wall clock do not move it.
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(0, false);
+
+    private final long expiresAtNanos;
+    private final boolean bounded;
+
+    private Deadline(long expiresAtNanos, boolean bounded) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * @return a deadline that never expires
+     */
+    public static Deadline none() {
+        return NONE;
+    }
+
+    /**
+     * @param budget time from now until the deadline
+     */
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos(), true);
+    }
+
+    /**
+     * @param reserve time kept back for the work that follows, e.g. the analysis after the capture
+     * @return a deadline reserve earlier than this one
+     */
+    public Deadline minus(Duration reserve) {
+        return bounded ? new Deadline(expiresAtNanos - reserve.toNanos(), true) : this;
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    public boolean isExpired() {
+        return bounded && expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return milliseconds left until the deadline, 0 once it expired, Long.MAX_VALUE if it never expires
+     */
+    public long remainingMillis() {
+        return bounded ? Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline already expired
+     */
+    public void check() throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException("Deadline exceeded by " + (System.nanoTime() - expiresAtNanos) / 1_000_000 + " ms");
+        }
+    }
+
+    /**
+     * This method shortens the timeout of a request to the time left
+     *
+     * @param timeout the configured timeout
+     * @return the configured timeout, or the time left if that is shorter
+     * @throws DeadlineExceededException if the deadline already expired
+     */
+    public Duration limit(Duration timeout) throws DeadlineExceededException {
+        if (!bounded) {
+            return timeout;
+        }
+        long remainingNanos = expiresAtNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+            throw new DeadlineExceededException("Deadline exceeded by " + (-remainingNanos / 1_000_000) + " ms");
+        }
+        return remainingNanos < timeout.toNanos() ? Duration.ofNanos(remainingNanos) : timeout;
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? "Deadline[" + remainingMillis() + " ms left]" : "Deadline[none]";
+    }
+}
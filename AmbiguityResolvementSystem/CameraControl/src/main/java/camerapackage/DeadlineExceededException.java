@@ -0,0 +1,17 @@
+package camerapackage;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the deadline of a capture or analysis expired before the work was done, see Deadline
+ */
+public class DeadlineExceededException extends IOException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,25 @@
+package camerapackage;
+
+/**
+ * Receives frames while the camera is still capturing, see CameraServiceClient.streamFrames
+ */
+@FunctionalInterface
+public interface FrameConsumer {
+
+    /**
+     * Called right after a frame was captured
+     *
+     * @param framePath path of the captured frame
+     * @return false to stop capturing
+     */
+    boolean accept(String framePath) throws Exception;
+
+    /**
+     * Checked before each further capture, after waiting between frames
+     *
+     * @return false to stop capturing
+     */
+    default boolean wantsMore() {
+        return true;
+    }
+}
@@ -0,0 +1,133 @@
+package camerapackage;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A captured frame held in the FrameStore.
+ * The JPEG bytes stay in the memory-mapped store, bytes() hands out read-only views of them without copying.
+ * Every holder of a handle owns a reference: retain() adds one, release() (or close()) gives it back,
+ * and the slot of the frame is reused once the last reference is released.
+ * A frame that was not released in time may be evicted and its slot reused while it is still held,
+ * so a holder that read the bytes checks isIntact() before it relies on what it read.
+ */
+public final class FrameHandle implements AutoCloseable {
+
+    private final FrameStore store;
+    private final int slot;
+    // generation of the slot when the frame was written into it
+    private final long generation;
+    private final String id;
+    private final Instant capturedAt;
+    private final ByteBuffer bytes;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile boolean evicted;
+
+    FrameHandle(FrameStore store, int slot, long generation, String id, Instant capturedAt, ByteBuffer bytes) {
+        this.store = store;
+        this.slot = slot;
+        this.generation = generation;
+        this.id = id;
+        this.capturedAt = capturedAt;
+        this.bytes = bytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return identifier of the frame, unique within the store
+     */
+    public String id() {
+        return id;
+    }
+
+    public Instant capturedAt() {
+        return capturedAt;
+    }
+
+    /**
+     * @return size of the JPEG in bytes
+     */
+    public int size() {
+        return bytes.limit();
+    }
+
+    /**
+     * @return read-only view of the JPEG bytes, positioned at the start, valid while a reference is held
+     * @throws IllegalStateException if the frame was released or evicted
+     */
+    public ByteBuffer bytes() {
+        if (!isLive()) {
+            throw new IllegalStateException("Frame " + id + " was released");
+        }
+        return bytes.duplicate();
+    }
+
+    /**
+     * Adds a reference, which the caller has to release
+     *
+     * @return this handle
+     * @throws IllegalStateException if the frame was already released
+     */
+    public FrameHandle retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current <= 0) {
+                throw new IllegalStateException("Frame " + id + " was released");
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return this;
+    }
+
+    /**
+     * Gives back a reference, the frame is removed from the store when the last one is released
+     */
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            store.free(this);
+        } else if (remaining < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("Frame " + id + " was released more often than retained");
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    public int referenceCount() {
+        return Math.max(0, references.get());
+    }
+
+    /**
+     * @return false once the frame was released by all holders or evicted from the store
+     */
+    public boolean isLive() {
+        return !evicted && references.get() > 0;
+    }
+
+    /**
+     * @return true if the slot still holds this frame, so the bytes read from it so far are the bytes of this frame
+     */
+    public boolean isIntact() {
+        // the bytes are read before the generation, like the validation of an optimistic read
+        VarHandle.loadLoadFence();
+        return !evicted && store.generation(slot) == generation;
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    void markEvicted() {
+        evicted = true;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameHandle{" + id + ", " + size() + " bytes, captured at " + capturedAt + "}";
+    }
+}
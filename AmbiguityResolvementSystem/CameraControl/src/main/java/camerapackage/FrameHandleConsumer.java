@@ -0,0 +1,25 @@
+package camerapackage;
+
+/**
+ * Receives frames held in memory while the camera is still capturing, see CameraServiceClient.streamFrameHandles
+ */
+@FunctionalInterface
+public interface FrameHandleConsumer {
+
+    /**
+     * Called right after a frame was captured
+     *
+     * @param frame the captured frame, the consumer owns its reference and has to release it
+     * @return false to stop capturing
+     */
+    boolean accept(FrameHandle frame) throws Exception;
+
+    /**
+     * Checked before each further capture, after waiting between frames
+     *
+     * @return false to stop capturing
+     */
+    default boolean wantsMore() {
+        return true;
+    }
+}
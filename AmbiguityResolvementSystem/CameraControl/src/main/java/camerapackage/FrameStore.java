@@ -0,0 +1,238 @@
+package camerapackage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.lang.invoke.VarHandle;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps captured frames in a memory-mapped file instead of one JPEG file per frame.
+ * The file is split into slots of slotBytes, so at most slots frames are held at once and the working set stays bounded.
+ * A slot is reused as soon as the FrameHandle of its frame is released by all holders.
+ * When every slot is taken, the oldest frame that was not released within maxFrameAgeMillis is evicted and its slot is reused
+ * right away, so a handle that is never released (e.g. leaked by a failed request) cannot keep the store full.
+ * Every slot has a generation that changes whenever a new frame is written into it. A holder that reads the bytes without
+ * copying them checks FrameHandle.isIntact() afterwards, which tells whether its frame was evicted and overwritten meanwhile.
+ */
+public class FrameStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameStore.class);
+
+    private final Path file;
+    private final boolean deleteOnClose;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final int slotBytes;
+    private final long maxFrameAgeNanos;
+    private final AtomicLong nextId = new AtomicLong();
+    private final Counter evictions;
+    // per slot, increased before a new frame is written into it
+    private final AtomicLongArray generations;
+
+    // guarded by this
+    private final FrameHandle[] frames;
+    private final long[] storedAtNanos;
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int storedFrames;
+    private boolean closed;
+
+    private FrameStore(Path file, boolean deleteOnClose, FileChannel channel, int slotBytes, int slots, long maxFrameAgeMillis) throws IOException {
+        this.file = file;
+        this.deleteOnClose = deleteOnClose;
+        this.channel = channel;
+        this.slotBytes = slotBytes;
+        this.maxFrameAgeNanos = maxFrameAgeMillis * 1_000_000;
+        this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slotBytes * slots);
+        this.frames = new FrameHandle[slots];
+        this.storedAtNanos = new long[slots];
+        this.generations = new AtomicLongArray(slots);
+        for (int slot = 0; slot < slots; slot++) {
+            freeSlots.add(slot);
+        }
+        this.evictions = Counter.builder("camera.frames.evicted")
+                .description("Frames removed from the frame store before they were released")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("camera.frames.stored", this, FrameStore::storedFrames)
+                .description("Frames held in the frame store")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Opens a frame store, frames of an earlier run are not kept
+     *
+     * @param file backing file, null creates a temporary file that is deleted on close
+     * @param slotBytes largest frame in bytes
+     * @param slots number of frames held at once
+     * @param maxFrameAgeMillis time after which an unreleased frame may be evicted to make room
+     * @return the store
+     */
+    public static FrameStore open(Path file, int slotBytes, int slots, long maxFrameAgeMillis) throws IOException {
+        if ((long) slotBytes * slots > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The frame store cannot be larger than " + Integer.MAX_VALUE + " bytes");
+        }
+        boolean temporary = file == null;
+        Path path = temporary ? Files.createTempFile("frames-", ".mmap") : file;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new FrameStore(path, temporary, channel, slotBytes, slots, maxFrameAgeMillis);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a frame into a free slot of the store
+     *
+     * @param capturedAt capture time of the frame
+     * @param source JPEG bytes of the frame, read until its end
+     * @param length number of bytes of the frame, -1 if unknown
+     * @return handle holding the only reference to the frame
+     * @throws IOException if the frame is larger than a slot, or every slot holds a frame that is still referenced
+     */
+    public FrameHandle store(Instant capturedAt, ReadableByteChannel source, long length) throws IOException {
+        return store(capturedAt, length, slot -> {
+            while (slot.hasRemaining() && source.read(slot) >= 0) {
+                // keep reading until the frame is complete
+            }
+            if (!slot.hasRemaining() && source.read(ByteBuffer.allocate(1)) >= 0) {
+                throw new IOException("Frame does not fit into a slot of " + slotBytes + " bytes");
+            }
+        });
+    }
+
+    /**
+     * Copies a frame into a free slot of the store
+     *
+     * @see #store(Instant, ReadableByteChannel, long)
+     */
+    public FrameHandle store(Instant capturedAt, ByteBuffer jpeg) throws IOException {
+        return store(capturedAt, jpeg.remaining(), slot -> slot.put(jpeg.duplicate()));
+    }
+
+    private FrameHandle store(Instant capturedAt, long length, SlotWriter writer) throws IOException {
+        if (length > slotBytes) {
+            throw new IOException("Frame of " + length + " bytes does not fit into a slot of " + slotBytes + " bytes");
+        }
+        int slot = allocateSlot();
+        long generation = generations.incrementAndGet(slot);
+        // a holder of the evicted frame of this slot that sees the new bytes also sees the new generation
+        VarHandle.storeStoreFence();
+        try {
+            ByteBuffer target = mapped.slice(slot * slotBytes, slotBytes);
+            writer.write(target);
+            target.flip();
+            FrameHandle frame = new FrameHandle(this, slot, generation, "frame-" + nextId.incrementAndGet(), capturedAt, target);
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Frame store is closed");
+                }
+                frames[slot] = frame;
+                storedAtNanos[slot] = System.nanoTime();
+            }
+            return frame;
+        } catch (IOException | RuntimeException e) {
+            freeSlot(slot);
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of frames in the store
+     */
+    public synchronized int storedFrames() {
+        return storedFrames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        channel.close();
+        if (deleteOnClose) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    long generation(int slot) {
+        return generations.get(slot);
+    }
+
+    // called by the handle once its last reference was released, an evicted frame no longer has its slot
+    synchronized void free(FrameHandle frame) {
+        if (frames[frame.slot()] != frame) {
+            return;
+        }
+        frames[frame.slot()] = null;
+        freeSlot(frame.slot());
+    }
+
+    private synchronized int allocateSlot() throws IOException {
+        if (closed) {
+            throw new IOException("Frame store is closed");
+        }
+        Integer slot = freeSlots.poll();
+        if (slot == null) {
+            slot = evictOldestExpiredFrame();
+        }
+        if (slot == null) {
+            throw new IOException("Frame store is full, all " + frames.length + " frames are still in use");
+        }
+        storedFrames++;
+        return slot;
+    }
+
+    private synchronized void freeSlot(int slot) {
+        freeSlots.add(slot);
+        storedFrames--;
+    }
+
+    // guarded by this, returns the slot of the evicted frame, which is free for the next frame, or null
+    private Integer evictOldestExpiredFrame() {
+        long now = System.nanoTime();
+        int oldest = -1;
+        for (int slot = 0; slot < frames.length; slot++) {
+            if (frames[slot] != null && now - storedAtNanos[slot] >= maxFrameAgeNanos
+                    && (oldest < 0 || storedAtNanos[slot] - storedAtNanos[oldest] < 0)) {
+                oldest = slot;
+            }
+        }
+        if (oldest < 0) {
+            return null;
+        }
+        FrameHandle frame = frames[oldest];
+        logger.warn("Evicting frame " + frame.id() + " that was not released within " + maxFrameAgeNanos / 1_000_000 + " ms");
+        frame.markEvicted();
+        frames[oldest] = null;
+        storedFrames--;
+        evictions.increment();
+        return oldest;
+    }
+
+    @FunctionalInterface
+    private interface SlotWriter {
+        void write(ByteBuffer slot) throws IOException;
+    }
+}
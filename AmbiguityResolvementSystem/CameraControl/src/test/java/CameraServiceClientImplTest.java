@@ -1,12 +1,27 @@
 package camerapackage;
 
-import org.json.simple.parser.ParseException;
+import com.sun.net.httpserver.HttpServer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -33,7 +48,7 @@ public class CameraServiceClientImplTest {
     public void testGetFrames_SuccessfulCapture() throws Exception {
         // Mock sendGetRequest to simulate successful capture
         String mockResponse = "{\"status\": \"successful\", \"filepath\": \"frame1.jpg\"}";
-        doReturn(mockResponse).when(client).sendGetRequest("/capture-frame");
+        doReturn(json(mockResponse)).when(client).sendGetRequest(any(), eq("/capture-frame"), any());
 
         List<String> frames = client.getFrames();
 
@@ -46,13 +61,13 @@ public class CameraServiceClientImplTest {
         String captureFrameEndpoint = mockConfig.get("cameraControl.captureFrameEndpoint");
 
         // Start and Stop camera should be stubbed too
-        doReturn("{\"status\": \"camera started\"}").when(client).sendGetRequest("/start-camera");
-        doReturn("{\"status\": \"Camera stopped!\"}").when(client).sendGetRequest("/stop-camera");
+        doReturn(json("{\"status\": \"camera started\"}")).when(client).sendGetRequest(any(), eq("/start-camera"), any());
+        doReturn(json("{\"status\": \"Camera stopped!\"}")).when(client).sendGetRequest(any(), eq("/stop-camera"), any());
 
-        doReturn("{\"status\": \"successful\", \"filepath\": \"frame2.jpg\"}")
-                .doReturn("{\"status\": \"successful\", \"filepath\": \"frame3.jpg\"}")
-                .doReturn("{\"status\": \"successful\", \"filepath\": \"frame4.jpg\"}")
-                .when(client).sendGetRequest(captureFrameEndpoint);
+        doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame2.jpg\"}"))
+                .doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame3.jpg\"}"))
+                .doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame4.jpg\"}"))
+                .when(client).sendGetRequest(any(), eq(captureFrameEndpoint), any());
 
         List<String> frames = client.getFrames();
 
@@ -61,32 +76,244 @@ public class CameraServiceClientImplTest {
         assertTrue(frames.contains("frame3.jpg"));
     }
 
+    @Test
+    public void testStreamFrames_StopsWhenConsumerHasEnough() throws Exception {
+        doReturn(json("{\"status\": \"camera started\"}")).when(client).sendGetRequest(any(), eq("/start-camera"), any());
+        doReturn(json("{\"status\": \"Camera stopped!\"}")).when(client).sendGetRequest(any(), eq("/stop-camera"), any());
+        doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame1.jpg\"}"))
+                .doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame2.jpg\"}"))
+                .when(client).sendGetRequest(any(), eq("/capture-frame"), any());
+
+        List<String> frames = new ArrayList<>();
+        int captured = client.streamFrames(framePath -> {
+            frames.add(framePath);
+            return frames.size() < 2;
+        });
+
+        assertEquals(2, captured);
+        assertEquals(List.of("frame1.jpg", "frame2.jpg"), frames);
+        verify(client, times(2)).sendGetRequest(any(), eq("/capture-frame"), any());
+        verify(client).sendGetRequest(any(), eq("/stop-camera"), any());
+    }
+
     @Test
     public void testCaptureFrame_HandlesUnsuccessfulStatus() throws Exception {
-        doReturn("{\"status\": \"fail\"}").when(client).sendGetRequest("/capture-frame");
+        doReturn(json("{\"status\": \"fail\"}")).when(client).sendGetRequest(any(), eq("/capture-frame"), any());
 
-        String result = client.captureFrame();
+        String result = client.captureFrame("http://localhost:8000", Deadline.none());
 
         assertNull(result);
     }
 
     @Test
     public void testCaptureFrame_SuccessfulJsonParsing() throws Exception {
-        doReturn("{\"status\": \"successful\", \"filepath\": \"frame5.jpg\"}").when(client).sendGetRequest("/capture-frame");
+        doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame5.jpg\"}")).when(client).sendGetRequest(any(), eq("/capture-frame"), any());
 
-        String result = client.captureFrame();
+        String result = client.captureFrame("http://localhost:8000", Deadline.none());
 
         assertEquals("frame5.jpg", result);
     }
 
     @Test
-    public void testCaptureFrame_ThrowsParseException() {
-        assertThrows(ParseException.class, () -> client.parseJsonResponse("INVALID_JSON"));
+    public void testCaptureFrame_InvalidJson_ThrowsJsonProcessingException() {
+        assertThrows(JsonProcessingException.class,
+                () -> client.parseJsonResponse(new ByteArrayInputStream("INVALID_JSON".getBytes(StandardCharsets.UTF_8))));
     }
 
     @Test
     public void testSendGetRequest_InvalidURL_ThrowsIOException() {
         when(mockConfig.get("cameraControl.baseUrl")).thenReturn("http://localhost:8000");
-        assertThrows(IOException.class, () -> client.sendGetRequest("/capture")); // invalid endpoint
+        assertThrows(IOException.class, () -> client.sendGetRequest("http://localhost:8000", "/capture", Deadline.none())); // invalid endpoint
+    }
+
+    @Test
+    public void testSendGetRequest_HungServer_TimesOut() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        HttpServer hungServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        hungServer.createContext("/capture-frame", exchange -> {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        hungServer.start();
+        try {
+            when(mockConfig.get("cameraControl.baseUrl")).thenReturn("http://localhost:" + hungServer.getAddress().getPort());
+            when(mockConfig.get("cameraControl.requestTimeout")).thenReturn("200");
+
+            assertThrows(HttpTimeoutException.class, () -> client.sendGetRequest("http://localhost:" + hungServer.getAddress().getPort(), "/capture-frame", Deadline.none()));
+        } finally {
+            released.countDown();
+            hungServer.stop(0);
+        }
+    }
+
+    @Test
+    public void testCaptureFrame_ErrorStatus_SkipsTheFrame() throws Exception {
+        HttpServer failingServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        failingServer.createContext("/capture-frame", exchange -> {
+            byte[] error = "{\"detail\": \"camera busy\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(503, error.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(error);
+            }
+        });
+        failingServer.start();
+        try {
+            String baseUrl = "http://localhost:" + failingServer.getAddress().getPort();
+
+            assertNull(client.captureFrame(baseUrl, Deadline.none()));
+            assertThrows(IOException.class, () -> client.sendGetRequest(baseUrl, "/capture-frame", Deadline.none()));
+        } finally {
+            failingServer.stop(0);
+        }
+    }
+
+    @Test
+    public void testGetFrameHandles_KeepsFrameBytesInMemory() throws Exception {
+        HttpServer cameraService = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        cameraService.createContext("/capture-frame-bytes", exchange -> {
+            byte[] jpeg = "jpeg".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("X-Capture-Timestamp", "1700000000000");
+            exchange.sendResponseHeaders(200, jpeg.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(jpeg);
+            }
+        });
+        cameraService.start();
+        try {
+            when(mockConfig.get("cameraControl.baseUrl")).thenReturn("http://localhost:" + cameraService.getAddress().getPort());
+            when(mockConfig.get("cameraControl.captureFrameBytesEndpoint")).thenReturn("/capture-frame-bytes");
+            doReturn(json("{\"status\": \"camera started\"}")).when(client).sendGetRequest(any(), eq("/start-camera"), any());
+            doReturn(json("{\"status\": \"Camera stopped!\"}")).when(client).sendGetRequest(any(), eq("/stop-camera"), any());
+
+            List<FrameHandle> frames = client.getFrameHandles();
+
+            assertEquals(3, frames.size());
+            for (FrameHandle frame : frames) {
+                assertEquals("jpeg", StandardCharsets.UTF_8.decode(frame.bytes()).toString());
+                assertEquals(Instant.ofEpochMilli(1700000000000L), frame.capturedAt());
+                frame.release();
+            }
+        } finally {
+            client.shutdown();
+            cameraService.stop(0);
+        }
+    }
+
+    @Test
+    public void testGetFrameHandles_SeveralCameras_CapturesInParallelAndMergesByCaptureTime() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        HttpServer entrance = slowCameraService("entrance", 0, inFlight, maxInFlight);
+        HttpServer dock = slowCameraService("dock", 5, inFlight, maxInFlight);
+        try {
+            when(mockConfig.get("cameraControl.cameras")).thenReturn("entrance,dock");
+            when(mockConfig.get("cameraControl.routing.attributes")).thenReturn("location");
+            when(mockConfig.get("cameraControl.camera.entrance.baseUrl")).thenReturn("http://localhost:" + entrance.getAddress().getPort());
+            when(mockConfig.get("cameraControl.camera.entrance.match")).thenReturn("station-a");
+            when(mockConfig.get("cameraControl.camera.dock.baseUrl")).thenReturn("http://localhost:" + dock.getAddress().getPort());
+            when(mockConfig.get("cameraControl.camera.dock.match")).thenReturn("station-b");
+            when(mockConfig.get("cameraControl.warmUpTime")).thenReturn("0");
+            doReturn(json("{\"status\": \"camera started\"}")).when(client).sendGetRequest(any(), eq("/start-camera"), any());
+            doReturn(json("{\"status\": \"Camera stopped!\"}")).when(client).sendGetRequest(any(), eq("/stop-camera"), any());
+
+            Set<String> cameras = client.camerasFor(List.of(Map.of("location", "station-a"), Map.of("location", "station-b")));
+            List<FrameHandle> frames = client.getFrameHandles(cameras, Deadline.none());
+
+            assertEquals(Set.of("entrance", "dock"), cameras);
+            assertEquals(2, maxInFlight.get(), "Both cameras must capture at the same time");
+            List<String> sources = new ArrayList<>();
+            for (FrameHandle frame : frames) {
+                sources.add(StandardCharsets.UTF_8.decode(frame.bytes()).toString());
+                frame.release();
+            }
+            assertEquals(List.of("entrance", "dock", "entrance", "dock", "entrance", "dock"), sources);
+        } finally {
+            client.shutdown();
+            entrance.stop(0);
+            dock.stop(0);
+        }
+    }
+
+    // a camera service that takes a while for every frame, the capture times of its frames are offset by offsetMillis
+    private static HttpServer slowCameraService(String name, long offsetMillis, AtomicInteger inFlight, AtomicInteger maxInFlight) throws IOException {
+        AtomicInteger frame = new AtomicInteger();
+        HttpServer cameraService = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        cameraService.createContext("/capture-frame-bytes", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(150);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            byte[] jpeg = name.getBytes(StandardCharsets.UTF_8);
+            long capturedAt = 1700000000000L + frame.getAndIncrement() * 10L + offsetMillis;
+            exchange.getResponseHeaders().add("X-Capture-Timestamp", String.valueOf(capturedAt));
+            exchange.sendResponseHeaders(200, jpeg.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(jpeg);
+            }
+        });
+        cameraService.start();
+        return cameraService;
+    }
+
+    @Test
+    public void testGetFrames_DeadlineNear_StopsCapturing() throws Exception {
+        when(mockConfig.get("cameraControl.waitingTime")).thenReturn("500");
+        when(mockConfig.get("cameraControl.warmUpTime")).thenReturn("0");
+        doReturn(json("{\"status\": \"camera started\"}")).when(client).sendGetRequest(any(), eq("/start-camera"), any());
+        doReturn(json("{\"status\": \"Camera stopped!\"}")).when(client).sendGetRequest(any(), eq("/stop-camera"), any());
+        doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame1.jpg\"}")).when(client).sendGetRequest(any(), eq("/capture-frame"), any());
+
+        // enough time to wait for a second frame, not for a third one
+        List<String> frames = client.getFrames(Deadline.after(Duration.ofMillis(800)));
+
+        assertEquals(2, frames.size());
+    }
+
+    @Test
+    public void testGetFrames_RequestsAreBoundedByTheDeadlineOfTheCapture() throws Exception {
+        when(mockConfig.get("cameraControl.warmUpTime")).thenReturn("0");
+        doReturn(json("{\"status\": \"camera started\"}")).when(client).sendGetRequest(any(), eq("/start-camera"), any());
+        doReturn(json("{\"status\": \"Camera stopped!\"}")).when(client).sendGetRequest(any(), eq("/stop-camera"), any());
+        doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame1.jpg\"}")).when(client).sendGetRequest(any(), eq("/capture-frame"), any());
+        Deadline deadline = Deadline.after(Duration.ofSeconds(30));
+
+        client.getFrames(deadline);
+
+        verify(client).sendGetRequest("http://localhost:8000", "/start-camera", deadline);
+        verify(client, times(3)).sendGetRequest("http://localhost:8000", "/capture-frame", deadline);
+        // stopping the camera must not be cut short by the deadline
+        verify(client).sendGetRequest("http://localhost:8000", "/stop-camera", Deadline.none());
+    }
+
+    @Test
+    public void testGetFrames_DeadlineExpired_DoesNotStartCamera() throws Exception {
+        assertThrows(DeadlineExceededException.class, () -> client.getFrames(Deadline.after(Duration.ZERO)));
+
+        verify(client, never()).sendGetRequest(any(), eq("/start-camera"), any());
+    }
+
+    @Test
+    public void testReloadSettings_NextCaptureUsesNewNumberOfFrames() throws Exception {
+        doReturn(json("{\"status\": \"camera started\"}")).when(client).sendGetRequest(any(), eq("/start-camera"), any());
+        doReturn(json("{\"status\": \"Camera stopped!\"}")).when(client).sendGetRequest(any(), eq("/stop-camera"), any());
+        doReturn(json("{\"status\": \"successful\", \"filepath\": \"frame1.jpg\"}")).when(client).sendGetRequest(any(), eq("/capture-frame"), any());
+        assertEquals(3, client.getFrames().size());
+
+        CameraSettings reloaded = CameraSettings.from(key -> key.equals("cameraControl.numberOfFrames") ? "1" : mockConfig.get(key));
+        when(mockConfig.reload()).thenReturn(reloaded);
+        client.reloadSettings();
+
+        assertEquals(1, client.getFrames().size());
+    }
+
+    private static JsonNode json(String response) throws JsonProcessingException {
+        return new ObjectMapper().readTree(response);
     }
 }
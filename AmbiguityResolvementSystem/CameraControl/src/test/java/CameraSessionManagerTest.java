@@ -0,0 +1,91 @@
+package camerapackage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CameraSessionManagerTest {
+
+    private final AtomicInteger starts = new AtomicInteger();
+    private final AtomicInteger stops = new AtomicInteger();
+
+    private CameraSessionManager manager(long idleTimeoutMillis, long acquireTimeoutMillis) {
+        return new CameraSessionManager(deadline -> starts.incrementAndGet(), stops::incrementAndGet,
+                0, idleTimeoutMillis, acquireTimeoutMillis);
+    }
+
+    @Test
+    public void testAcquire_KeepsCameraWarmBetweenLeases() throws Exception {
+        try (CameraSessionManager manager = manager(10000, 1000)) {
+            manager.acquire().close();
+            manager.acquire().close();
+
+            assertEquals(1, starts.get());
+            assertEquals(0, stops.get());
+            assertTrue(manager.isRunning());
+        }
+        assertEquals(1, stops.get(), "Closing the manager should stop the warm camera");
+    }
+
+    @Test
+    public void testRelease_StopsCameraAfterIdleTimeout() throws Exception {
+        try (CameraSessionManager manager = manager(50, 1000)) {
+            manager.acquire().close();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (manager.isRunning() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertFalse(manager.isRunning());
+            assertEquals(1, stops.get());
+        }
+    }
+
+    @Test
+    public void testRelease_NoIdleTimeout_StopsCameraRightAway() throws Exception {
+        try (CameraSessionManager manager = manager(0, 1000)) {
+            manager.acquire().close();
+
+            assertFalse(manager.isRunning());
+            assertEquals(1, stops.get());
+        }
+    }
+
+    @Test
+    public void testAcquire_WaitsUntilCurrentLeaseIsClosed() throws Exception {
+        try (CameraSessionManager manager = manager(10000, 5000)) {
+            CameraSessionManager.CameraLease first = manager.acquire();
+            CompletableFuture<CameraSessionManager.CameraLease> second = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return manager.acquire();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            Thread.sleep(100);
+            assertFalse(second.isDone(), "The camera must not be shared while it is leased");
+
+            first.close();
+            second.get(5, TimeUnit.SECONDS).close();
+            assertEquals(1, starts.get());
+        }
+    }
+
+    @Test
+    public void testAcquire_CameraBusy_TimesOut() throws Exception {
+        try (CameraSessionManager manager = manager(10000, 50)) {
+            CameraSessionManager.CameraLease lease = manager.acquire();
+            CompletableFuture<Void> second = CompletableFuture.runAsync(() -> assertThrows(TimeoutException.class, manager::acquire));
+
+            second.get(5, TimeUnit.SECONDS);
+            lease.close();
+        }
+    }
+}
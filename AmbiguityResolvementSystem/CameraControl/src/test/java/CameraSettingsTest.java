@@ -0,0 +1,128 @@
+package camerapackage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CameraSettingsTest {
+
+    private static final Map<String, String> REQUIRED = Map.of(
+            "cameraControl.baseUrl", "http://localhost:8000",
+            "cameraControl.numberOfFrames", "5",
+            "cameraControl.waitingTime", "500",
+            "cameraControl.startCameraEndpoint", "/start-camera",
+            "cameraControl.stopCameraEndpoint", "/stop-camera",
+            "cameraControl.captureFrameEndpoint", "/capture-frame");
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    public void tearDown() {
+        System.clearProperty(CameraConfigLoader.CONFIG_FILE_PROPERTY);
+    }
+
+    @Test
+    public void testFrom_MissingOptionalKeys_UsesDefaults() {
+        CameraSettings settings = CameraSettings.from(REQUIRED::get);
+
+        assertEquals(5, settings.numberOfFrames());
+        assertEquals(500, settings.waitingTimeMillis());
+        assertEquals("/capture-frame-bytes", settings.captureFrameBytesEndpoint());
+        assertEquals(2000, settings.requestTimeoutMillis());
+        assertNull(settings.frameStoreFile());
+    }
+
+    @Test
+    public void testFrom_InvalidValues_ReportsEveryProblem() {
+        Map<String, String> properties = Map.of(
+                "cameraControl.numberOfFrames", "0",
+                "cameraControl.waitingTime", "soon");
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> CameraSettings.from(properties::get));
+
+        assertTrue(exception.getMessage().contains("cameraControl.baseUrl is missing"));
+        assertTrue(exception.getMessage().contains("cameraControl.numberOfFrames must be between 1"));
+        assertTrue(exception.getMessage().contains("cameraControl.waitingTime must be a whole number"));
+    }
+
+    @Test
+    public void testFrom_Cameras_RoutesEventsByAttribute() {
+        Map<String, String> properties = new HashMap<>(REQUIRED);
+        properties.put("cameraControl.routing.attributes", "location, org:resource");
+        properties.put("cameraControl.cameras", "entrance,dock,overview");
+        properties.put("cameraControl.camera.entrance.baseUrl", "http://entrance:8000");
+        properties.put("cameraControl.camera.entrance.match", "station-a");
+        properties.put("cameraControl.camera.dock.baseUrl", "http://dock:8000");
+        properties.put("cameraControl.camera.dock.match", "station-b,robot-2");
+        properties.put("cameraControl.camera.overview.baseUrl", "http://overview:8000");
+
+        CameraRegistry cameras = CameraSettings.from(properties::get).cameras();
+
+        assertEquals(List.of("entrance"), names(cameras.route(List.of(Map.of("location", "station-a")))));
+        assertEquals(List.of("entrance", "dock"), names(cameras.route(List.of(
+                Map.of("location", "station-a"), Map.of("org:resource", "robot-2")))));
+        assertEquals(List.of("overview"), names(cameras.route(List.of(Map.of("location", "station-z")))),
+                "Events no camera matches go to the fallback camera");
+        assertEquals(List.of("overview"), names(cameras.named(Set.of())));
+    }
+
+    @Test
+    public void testFrom_NoCameras_UsesBaseUrl() {
+        CameraRegistry cameras = CameraSettings.from(REQUIRED::get).cameras();
+
+        assertEquals(List.of(new CameraRegistry.Camera("default", "http://localhost:8000", List.of())),
+                cameras.route(List.of(Map.of("location", "station-a"))));
+    }
+
+    @Test
+    public void testFrom_InvalidCameras_ReportsEveryProblem() {
+        Map<String, String> properties = new HashMap<>(REQUIRED);
+        properties.put("cameraControl.cameras", "entrance,entrance,dock");
+        properties.put("cameraControl.camera.entrance.baseUrl", "http://entrance:8000");
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> CameraSettings.from(properties::get));
+
+        assertTrue(exception.getMessage().contains("cameraControl.cameras must not name a camera twice"));
+        assertTrue(exception.getMessage().contains("cameraControl.camera.dock.baseUrl is missing"));
+    }
+
+    private static List<String> names(List<CameraRegistry.Camera> cameras) {
+        return cameras.stream().map(CameraRegistry.Camera::name).toList();
+    }
+
+    @Test
+    public void testReload_OverrideFile_ReplacesPackagedValues() throws Exception {
+        Path overrides = Files.writeString(directory.resolve("camera.properties"), "cameraControl.numberOfFrames=8\n");
+        System.setProperty(CameraConfigLoader.CONFIG_FILE_PROPERTY, overrides.toString());
+        CameraConfigLoader loader = new CameraConfigLoader();
+
+        Files.writeString(overrides, "cameraControl.numberOfFrames=3\ncameraControl.waitingTime=100\n");
+        CameraSettings settings = loader.reload();
+
+        assertEquals(3, settings.numberOfFrames());
+        assertEquals(100, settings.waitingTimeMillis());
+        assertEquals("3", loader.get("cameraControl.numberOfFrames"));
+    }
+
+    @Test
+    public void testReload_InvalidOverrideFile_KeepsCurrentValues() throws Exception {
+        Path overrides = Files.writeString(directory.resolve("camera.properties"), "cameraControl.numberOfFrames=8\n");
+        System.setProperty(CameraConfigLoader.CONFIG_FILE_PROPERTY, overrides.toString());
+        CameraConfigLoader loader = new CameraConfigLoader();
+
+        Files.writeString(overrides, "cameraControl.numberOfFrames=many\n");
+
+        assertThrows(IllegalArgumentException.class, loader::reload);
+        assertEquals("8", loader.get("cameraControl.numberOfFrames"));
+    }
+}
@@ -0,0 +1,128 @@
+package camerapackage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameStoreTest {
+
+    private FrameStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = FrameStore.open(null, 64, 2, 60000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    void store_ReadsTheFrameIntoASlot() throws Exception {
+        Instant capturedAt = Instant.ofEpochMilli(1700000000000L);
+        byte[] jpeg = "jpeg bytes".getBytes(StandardCharsets.UTF_8);
+
+        try (FrameHandle frame = store.store(capturedAt, Channels.newChannel(new ByteArrayInputStream(jpeg)), jpeg.length)) {
+            assertEquals(capturedAt, frame.capturedAt());
+            assertEquals(jpeg.length, frame.size());
+            assertEquals(ByteBuffer.wrap(jpeg), frame.bytes());
+            assertTrue(frame.bytes().isReadOnly());
+            assertEquals(1, store.storedFrames());
+        }
+        assertEquals(0, store.storedFrames());
+    }
+
+    @Test
+    void release_LastReference_FreesTheSlot() throws Exception {
+        FrameHandle frame = store.store(Instant.now(), bytes("first"));
+        frame.retain();
+
+        frame.release();
+        assertTrue(frame.isLive());
+        assertEquals(1, store.storedFrames());
+
+        frame.release();
+        assertFalse(frame.isLive());
+        assertEquals(0, store.storedFrames());
+        assertThrows(IllegalStateException.class, frame::bytes);
+        assertThrows(IllegalStateException.class, frame::retain);
+    }
+
+    @Test
+    void store_AllFramesInUse_ThrowsIOException() throws Exception {
+        FrameHandle first = store.store(Instant.now(), bytes("first"));
+        store.store(Instant.now(), bytes("second"));
+
+        assertThrows(IOException.class, () -> store.store(Instant.now(), bytes("third")));
+
+        first.release();
+        assertEquals("third", text(store.store(Instant.now(), bytes("third"))));
+    }
+
+    @Test
+    void store_Full_EvictsTheOldestUnreleasedFrameAfterMaxAge() throws Exception {
+        try (FrameStore evictingStore = FrameStore.open(null, 64, 2, 0)) {
+            FrameHandle slow = evictingStore.store(Instant.now(), bytes("slow"));
+            FrameHandle second = evictingStore.store(Instant.now(), bytes("second"));
+            ByteBuffer reading = slow.bytes();
+
+            FrameHandle third = evictingStore.store(Instant.now(), bytes("third"));
+
+            assertEquals("third", text(third));
+            assertFalse(slow.isLive());
+            assertFalse(slow.isIntact(), "A holder of the evicted frame must see that its bytes were overwritten");
+            assertThrows(IllegalStateException.class, slow::bytes);
+            assertNotEquals("slow", StandardCharsets.UTF_8.decode(reading).toString());
+            assertTrue(second.isLive());
+            assertTrue(second.isIntact());
+            // a late release of the evicted frame does not free the slot of the new one
+            slow.release();
+            assertTrue(third.isIntact());
+            assertEquals(2, evictingStore.storedFrames());
+        }
+    }
+
+    @Test
+    void store_HandlesNeverReleased_LaterCaptureStillSucceeds() throws Exception {
+        try (FrameStore evictingStore = FrameStore.open(null, 64, 2, 0)) {
+            // leaked, e.g. by a request that failed before releasing them
+            evictingStore.store(Instant.now(), bytes("leaked1"));
+            evictingStore.store(Instant.now(), bytes("leaked2"));
+
+            for (int i = 0; i < 4; i++) {
+                try (FrameHandle frame = evictingStore.store(Instant.now(), bytes("frame" + i))) {
+                    assertEquals("frame" + i, text(frame));
+                }
+            }
+            assertEquals(1, evictingStore.storedFrames());
+        }
+    }
+
+    @Test
+    void store_FrameLargerThanASlot_ThrowsIOException() {
+        byte[] jpeg = new byte[65];
+
+        assertThrows(IOException.class, () -> store.store(Instant.now(), ByteBuffer.wrap(jpeg)));
+        // the length of a streamed frame may be unknown
+        assertThrows(IOException.class, () -> store.store(Instant.now(), Channels.newChannel(new ByteArrayInputStream(jpeg)), -1));
+        assertEquals(0, store.storedFrames());
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(FrameHandle frame) {
+        return StandardCharsets.UTF_8.decode(frame.bytes()).toString();
+    }
+}
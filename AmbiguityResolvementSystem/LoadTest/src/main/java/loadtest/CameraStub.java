@@ -0,0 +1,96 @@
+package loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the camera service (camera_control.py) with the same endpoints and responses.
+ * Every capture takes a time drawn from the capture latency and fails with the configured rate.
+ * Every frame has different bytes, so the ML result cache never answers in place of the ML stand-in.
+ * /capture-frame returns paths of frames that are not written, the ML stand-in does not read them.
+ */
+public class CameraStub extends StubServer {
+
+    private final LatencyDistribution startLatency;
+    private final LatencyDistribution captureLatency;
+    private final double failureRate;
+    private final byte[] frame;
+    private final Random random;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong captures = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public CameraStub(LoadTestSettings settings) throws IOException {
+        this.startLatency = settings.cameraStartLatency();
+        this.captureLatency = settings.cameraLatency();
+        this.failureRate = settings.cameraFailureRate();
+        this.random = new Random(settings.seed());
+        this.frame = new byte[settings.frameBytes()];
+        random.nextBytes(frame);
+        handle("/start-camera", this::startCamera);
+        handle("/stop-camera", this::stopCamera);
+        handle("/capture-frame-bytes", this::captureFrameBytes);
+        handle("/capture-frame", this::captureFrame);
+    }
+
+    private void startCamera(HttpExchange exchange) throws IOException {
+        if (running.get()) {
+            respondJson(exchange, 200, "{\"status\": \"Camera already running\"}");
+            return;
+        }
+        sleep(startLatency.sample(random));
+        running.set(true);
+        respondJson(exchange, 200, "{\"status\": \"camera started\"}");
+    }
+
+    private void stopCamera(HttpExchange exchange) throws IOException {
+        boolean wasRunning = running.getAndSet(false);
+        respondJson(exchange, 200, wasRunning ? "{\"status\": \"Camera stopped!\"}" : "{\"status\": \"Camera was not running!\"}");
+    }
+
+    private void captureFrame(HttpExchange exchange) throws IOException {
+        long number = capture(exchange);
+        if (number >= 0) {
+            respondJson(exchange, 200, "{\"status\": \"successful\", \"filepath\": \"loadtest/frame_" + number + ".jpg\"}");
+        }
+    }
+
+    private void captureFrameBytes(HttpExchange exchange) throws IOException {
+        long number = capture(exchange);
+        if (number >= 0) {
+            byte[] bytes = frame.clone();
+            ByteBuffer.wrap(bytes).putLong(number);
+            exchange.getResponseHeaders().set("X-Capture-Timestamp", String.valueOf(System.currentTimeMillis()));
+            respond(exchange, 200, "image/jpeg", bytes);
+        }
+    }
+
+    // the number of the captured frame, -1 if the failure was already answered
+    private long capture(HttpExchange exchange) throws IOException {
+        if (!running.get()) {
+            respondJson(exchange, 500, "{\"error\": \"Camera is not started\"}");
+            failures.incrementAndGet();
+            return -1;
+        }
+        sleep(captureLatency.sample(random));
+        if (random.nextDouble() < failureRate) {
+            respondJson(exchange, 500, "{\"error\": \"Failed to read frame\", \"status\": \"failed\"}");
+            failures.incrementAndGet();
+            return -1;
+        }
+        return captures.incrementAndGet();
+    }
+
+    public long captures() {
+        return captures.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+}
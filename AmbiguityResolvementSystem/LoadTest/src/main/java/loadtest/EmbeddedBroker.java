@@ -0,0 +1,73 @@
+package loadtest;
+
+import io.moquette.BrokerConstants;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.IConfig;
+import io.moquette.broker.config.MemoryConfig;
+import io.moquette.interception.AbstractInterceptHandler;
+import io.moquette.interception.messages.InterceptPublishMessage;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process MQTT broker the publisher of the Orchestrator sends to, counts the messages it receives per topic.
+ */
+public class EmbeddedBroker implements AutoCloseable {
+
+    private final Server server = new Server();
+    private final Map<String, LongAdder> published = new ConcurrentHashMap<>();
+    private final int port;
+
+    public EmbeddedBroker() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Properties properties = new Properties();
+        properties.setProperty(IConfig.HOST_PROPERTY_NAME, "127.0.0.1");
+        properties.setProperty(IConfig.PORT_PROPERTY_NAME, String.valueOf(port));
+        properties.setProperty(IConfig.WEB_SOCKET_PORT_PROPERTY_NAME, BrokerConstants.DISABLED_PORT_BIND);
+        properties.setProperty(IConfig.ALLOW_ANONYMOUS_PROPERTY_NAME, "true");
+        properties.setProperty(IConfig.PERSISTENCE_ENABLED_PROPERTY_NAME, "false");
+        properties.setProperty(BrokerConstants.ENABLE_TELEMETRY_NAME, "false");
+        server.startServer(new MemoryConfig(properties), List.of(new AbstractInterceptHandler() {
+            @Override
+            public String getID() {
+                return "load-test";
+            }
+
+            @Override
+            public void onPublish(InterceptPublishMessage message) {
+                published.computeIfAbsent(message.getTopicName(), topic -> new LongAdder()).increment();
+            }
+
+            @Override
+            public void onSessionLoopError(Throwable error) {
+            }
+        }));
+    }
+
+    public String url() {
+        return "tcp://127.0.0.1:" + port;
+    }
+
+    /**
+     * @return messages received so far per topic
+     */
+    public Map<String, Long> published() {
+        Map<String, Long> counts = new TreeMap<>();
+        published.forEach((topic, count) -> counts.put(topic, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public void close() {
+        server.stopServer();
+    }
+}
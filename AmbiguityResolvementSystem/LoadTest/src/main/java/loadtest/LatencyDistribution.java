@@ -0,0 +1,67 @@
+package loadtest;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Distribution the stand-ins draw their response times from, in milliseconds.
+ * Written as fixed:MILLIS, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA; a log-normal distribution has the long tail
+ * of real inference and capture times, sigma 0.5 puts the p99 at about three times the median.
+ *
+ * @param kind shape of the distribution
+ * @param first the fixed time, the minimum or the median
+ * @param second the maximum or sigma, unused for a fixed time
+ */
+public record LatencyDistribution(Kind kind, double first, double second) {
+
+    public enum Kind { FIXED, UNIFORM, LOGNORMAL }
+
+    public static LatencyDistribution fixed(long millis) {
+        return new LatencyDistribution(Kind.FIXED, millis, 0);
+    }
+
+    /**
+     * @param spec fixed:MILLIS, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA, a plain number is a fixed time
+     * @throws IllegalArgumentException if the spec cannot be parsed or describes negative times
+     */
+    public static LatencyDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        try {
+            LatencyDistribution distribution = switch (parts[0].toLowerCase()) {
+                case "fixed" -> parts.length == 2 ? new LatencyDistribution(Kind.FIXED, Double.parseDouble(parts[1]), 0) : null;
+                case "uniform" -> parts.length == 3
+                        ? new LatencyDistribution(Kind.UNIFORM, Double.parseDouble(parts[1]), Double.parseDouble(parts[2])) : null;
+                case "lognormal" -> parts.length == 3
+                        ? new LatencyDistribution(Kind.LOGNORMAL, Double.parseDouble(parts[1]), Double.parseDouble(parts[2])) : null;
+                default -> parts.length == 1 ? new LatencyDistribution(Kind.FIXED, Double.parseDouble(parts[0]), 0) : null;
+            };
+            if (distribution == null || distribution.first < 0 || distribution.second < 0
+                    || (distribution.kind == Kind.UNIFORM && distribution.second < distribution.first)) {
+                throw new IllegalArgumentException("'" + spec + "' is not fixed:MILLIS, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA");
+            }
+            return distribution;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + spec + "' is not fixed:MILLIS, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA");
+        }
+    }
+
+    /**
+     * @return a response time in milliseconds
+     */
+    public long sample(RandomGenerator random) {
+        double millis = switch (kind) {
+            case FIXED -> first;
+            case UNIFORM -> first + random.nextDouble() * (second - first);
+            case LOGNORMAL -> first * Math.exp(second * random.nextGaussian());
+        };
+        return Math.round(millis);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case FIXED -> "fixed:" + (long) first;
+            case UNIFORM -> "uniform:" + (long) first + ":" + (long) second;
+            case LOGNORMAL -> "lognormal:" + (long) first + ":" + second;
+        };
+    }
+}
@@ -0,0 +1,214 @@
+package loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the requests of a workload to the OrchestratorController at a fixed rate and measures the answers.
+ * The rate is kept no matter how fast the Orchestrator answers (open loop), like sensors that do not wait for it:
+ * requests are sent asynchronously and timed from the moment they were due.
+ * The resolutions of ambiguous windows are followed through the status endpoint until they finished.
+ */
+public class LoadDriver {
+
+    public static final String RESOLUTION = "resolution";
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final HttpClient httpClient;
+    private final String baseUrl;
+    private final LoadTestSettings settings;
+    private final Workload workload;
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final Stats resolutions = new Stats();
+    // resolutions submitted in the measured part of the run that did not finish yet
+    private final Set<String> pendingResolutions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * @param baseUrl address of the Orchestrator, e.g. http://127.0.0.1:8080
+     */
+    public LoadDriver(HttpClient httpClient, String baseUrl, LoadTestSettings settings, Workload workload) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+        this.settings = settings;
+        this.workload = workload;
+        for (String endpoint : List.of(Workload.UNAMBIGUOUS_EVENT, Workload.UNAMBIGUOUS_EVENTS, Workload.AMBIGUOUS_EVENT)) {
+            stats.put(endpoint, new Stats());
+        }
+    }
+
+    // the measurements of one endpoint, only requests due after the warm-up are recorded
+    private static final class Stats {
+        private final Histogram latencyMicros = new ConcurrentHistogram(3);
+        private final Map<String, LongAdder> results = new ConcurrentHashMap<>();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        private void record(String result, long nanos) {
+            results.computeIfAbsent(result, key -> new LongAdder()).increment();
+            latencyMicros.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        }
+
+        private LoadReport.Endpoint toEndpoint(String name) {
+            Map<String, Long> counts = new TreeMap<>();
+            results.forEach((result, count) -> counts.put(result, count.sum()));
+            return new LoadReport.Endpoint(name, counts, dropped.sum(), failed.sum(),
+                    millis(latencyMicros.getValueAtPercentile(50)), millis(latencyMicros.getValueAtPercentile(99)),
+                    millis(latencyMicros.getValueAtPercentile(99.9)), millis(latencyMicros.getMaxValue()));
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+
+    /**
+     * This method runs the warm-up and the measured part and waits for the answers and resolutions still outstanding
+     *
+     * @return the measurements of the run
+     */
+    public LoadReport run() throws InterruptedException {
+        ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor();
+        poller.scheduleWithFixedDelay(this::pollResolutions, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            long periodNanos = TimeUnit.SECONDS.toNanos(1) / settings.rate();
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(settings.warmupSeconds());
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(settings.durationSeconds());
+            logger.info("Sending " + settings.rate() + " requests/s for " + settings.warmupSeconds() + " s of warm-up and "
+                    + settings.durationSeconds() + " s of measurement");
+            for (long i = 0; ; i++) {
+                long due = start + i * periodNanos;
+                if (due >= end) {
+                    break;
+                }
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                send(workload.next(), due, due >= measureFrom);
+            }
+            awaitDrained();
+            return report(TimeUnit.NANOSECONDS.toMillis(end - measureFrom) / 1000.0);
+        } finally {
+            poller.shutdownNow();
+        }
+    }
+
+    private void send(Workload.LoadRequest request, long due, boolean measured) {
+        Stats endpoint = stats.get(request.endpoint());
+        if (outstanding.get() >= settings.maxOutstanding()) {
+            if (measured) {
+                endpoint.dropped.increment();
+            }
+            return;
+        }
+        outstanding.incrementAndGet();
+        HttpRequest httpRequest = HttpRequest.newBuilder(URI.create(baseUrl + "/orchestrate/" + request.endpoint()))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(request.body()))
+                .build();
+        httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            try {
+                if (measured) {
+                    record(request, endpoint, due, response, error);
+                }
+            } finally {
+                // only after a resolution is pending, so the drain cannot miss it
+                outstanding.decrementAndGet();
+            }
+        });
+    }
+
+    private void record(Workload.LoadRequest request, Stats endpoint, long due, HttpResponse<String> response, Throwable error) {
+        if (error != null) {
+            endpoint.failed.increment();
+            return;
+        }
+        endpoint.record(String.valueOf(response.statusCode()), System.nanoTime() - due);
+        if (response.statusCode() == 202 && Workload.AMBIGUOUS_EVENT.equals(request.endpoint())) {
+            try {
+                pendingResolutions.add(objectMapper.readTree(response.body()).get("id").asText());
+            } catch (Exception e) {
+                resolutions.failed.increment();
+            }
+        }
+    }
+
+    // the status endpoint knows when a resolution was submitted and when it finished, so polling adds no error
+    private void pollResolutions() {
+        for (String id : List.copyOf(pendingResolutions)) {
+            try {
+                HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(baseUrl + "/orchestrate/resolutions/" + id))
+                        .timeout(REQUEST_TIMEOUT).GET().build(), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    // no longer retained by the Orchestrator
+                    pendingResolutions.remove(id);
+                    resolutions.failed.increment();
+                    continue;
+                }
+                JsonNode status = objectMapper.readTree(response.body());
+                String stage = status.path("stage").asText();
+                if ("COMPLETED".equals(stage) || "FAILED".equals(stage)) {
+                    pendingResolutions.remove(id);
+                    Duration took = Duration.between(Instant.parse(status.get("submittedAt").asText()), Instant.parse(status.get("updatedAt").asText()));
+                    JsonNode outcome = status.path("outcome");
+                    resolutions.record(outcome.isTextual() ? outcome.asText() : stage, took.toNanos());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.warn("Failed to poll resolution " + id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void awaitDrained() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.drainSeconds());
+        while ((outstanding.get() > 0 || !pendingResolutions.isEmpty()) && System.nanoTime() < deadline) {
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+        if (!pendingResolutions.isEmpty()) {
+            logger.warn(pendingResolutions.size() + " resolutions did not finish within " + settings.drainSeconds() + " s");
+            resolutions.failed.add(pendingResolutions.size());
+            pendingResolutions.clear();
+        }
+    }
+
+    private LoadReport report(double seconds) {
+        List<LoadReport.Endpoint> endpoints = new ArrayList<>();
+        stats.forEach((name, endpoint) -> endpoints.add(endpoint.toEndpoint(name)));
+        endpoints.add(resolutions.toEndpoint(RESOLUTION));
+        return new LoadReport(settings.rate(), seconds, endpoints, Map.of());
+    }
+}
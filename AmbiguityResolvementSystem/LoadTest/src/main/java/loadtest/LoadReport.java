@@ -0,0 +1,67 @@
+package loadtest;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a load test run: throughput and latency of every endpoint measured after the warm-up.
+ * The latency of a request is counted from the time it was due to be sent, so a slow Orchestrator that delays
+ * the driver shows up in the percentiles instead of lowering the rate.
+ *
+ * @param rate requests per second the driver was set to
+ * @param seconds length of the measured part of the run
+ * @param endpoints one row per endpoint, resolution is the time from submission to publication of an ambiguous window
+ * @param notes counters of the stand-ins and the broker
+ */
+public record LoadReport(int rate, double seconds, List<Endpoint> endpoints, Map<String, Long> notes) {
+
+    /**
+     * Measurements of one endpoint
+     *
+     * @param name endpoint below /orchestrate, or resolution
+     * @param results number of answers per HTTP status, or of resolutions per outcome
+     * @param dropped requests not sent because maxOutstanding requests were waiting for an answer
+     * @param failed requests that got no answer (connection errors and timeouts) or resolutions that did not finish in time
+     * @param p50Millis median latency
+     * @param p99Millis 99th percentile latency
+     * @param p999Millis 99.9th percentile latency
+     * @param maxMillis highest latency
+     */
+    public record Endpoint(String name, Map<String, Long> results, long dropped, long failed,
+                           double p50Millis, double p99Millis, double p999Millis, double maxMillis) {
+
+        public long answered() {
+            return results.values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    /**
+     * @return the same report with the counters of the stand-ins and the broker
+     */
+    public LoadReport withNotes(Map<String, Long> notes) {
+        return new LoadReport(rate, seconds, endpoints, notes);
+    }
+
+    public Endpoint endpoint(String name) {
+        return endpoints.stream().filter(endpoint -> endpoint.name().equals(name)).findFirst().orElse(null);
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%nLoad test at %d requests/s, measured for %.1f s%n", rate, seconds);
+        out.printf("%-20s %9s %10s %9s %9s %9s %9s  %s%n", "endpoint", "answered", "per second", "p50 ms", "p99 ms", "p999 ms", "max ms", "results");
+        for (Endpoint endpoint : endpoints) {
+            StringBuilder results = new StringBuilder(endpoint.results().toString());
+            if (endpoint.dropped() > 0) {
+                results.append(" dropped=").append(endpoint.dropped());
+            }
+            if (endpoint.failed() > 0) {
+                results.append(" failed=").append(endpoint.failed());
+            }
+            out.printf("%-20s %9d %10.1f %9.1f %9.1f %9.1f %9.1f  %s%n", endpoint.name(), endpoint.answered(),
+                    endpoint.answered() / seconds, endpoint.p50Millis(), endpoint.p99Millis(), endpoint.p999Millis(),
+                    endpoint.maxMillis(), results);
+        }
+        notes.forEach((name, value) -> out.printf("%-40s %d%n", name, value));
+    }
+}
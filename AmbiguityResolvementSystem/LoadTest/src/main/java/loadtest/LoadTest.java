@@ -0,0 +1,129 @@
+package loadtest;
+
+import orchestrator.OrchestratorApplication;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Load test of the Orchestrator without camera hardware, ML service or MQTT broker.
+ * Starts the camera and ML stand-ins and an embedded MQTT broker, starts the Orchestrator in this JVM pointed at them,
+ * drives it with the configured workload and prints throughput and latency percentiles per endpoint.
+ * Arguments are KEY=VALUE pairs overriding loadtest.properties or configuring the Orchestrator under test.
+ */
+public final class LoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+    // the camera, ML and publisher clients read their keys with their own config loaders,
+    // which take them from the override files named by these system properties
+    private static final Map<String, String> MODULE_PREFIXES = Map.of(
+            camerapackage.CameraConfigLoader.CONFIG_FILE_PROPERTY, "cameraControl.",
+            mlpackage.ConfigLoader.CONFIG_FILE_PROPERTY, "ml.",
+            publisherpackage.ConfigLoader.CONFIG_FILE_PROPERTY, "publisher.");
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = new Properties();
+        try (InputStream defaults = LoadTest.class.getResourceAsStream("/loadtest.properties")) {
+            properties.load(defaults);
+        }
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Arguments must be KEY=VALUE but got " + arg);
+            }
+            properties.setProperty(arg.substring(0, separator).trim(), arg.substring(separator + 1).trim());
+        }
+        LoadTestSettings settings = LoadTestSettings.from(properties::getProperty);
+        run(settings, properties).print(System.out);
+    }
+
+    /**
+     * This method runs a load test against a fresh Orchestrator and shuts everything down afterwards
+     *
+     * @param settings the load test settings
+     * @param properties further keys configuring the Orchestrator under test, loadtest.* keys are ignored
+     * @return the measurements, with the counters of the stand-ins and the broker as notes
+     */
+    public static LoadReport run(LoadTestSettings settings, Properties properties) throws Exception {
+        Path directory = Files.createTempDirectory("loadtest");
+        try (CameraStub camera = new CameraStub(settings);
+             MLStub ml = new MLStub(settings);
+             EmbeddedBroker broker = new EmbeddedBroker()) {
+            camera.start();
+            ml.start();
+            Map<String, Properties> modules = new HashMap<>();
+            MODULE_PREFIXES.keySet().forEach(module -> modules.put(module, new Properties()));
+            modules.get(camerapackage.CameraConfigLoader.CONFIG_FILE_PROPERTY).setProperty("cameraControl.baseUrl", camera.baseUrl());
+            modules.get(mlpackage.ConfigLoader.CONFIG_FILE_PROPERTY).setProperty("ml.baseUrl", ml.baseUrl());
+            // command line arguments of the Orchestrator take precedence over the properties files packaged with it
+            List<String> arguments = new ArrayList<>();
+            arguments.add("--server.port=0");
+            arguments.add("--mqtt.broker.url=" + broker.url());
+            arguments.add("--publisher.outbox.dir=" + directory.resolve("outbox"));
+            // the driver plays the detector
+            arguments.add("--orchestrator.detection.mqtt.enabled=false");
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith("loadtest.")) {
+                    continue;
+                }
+                arguments.add("--" + key + "=" + properties.getProperty(key));
+                MODULE_PREFIXES.forEach((module, prefix) -> {
+                    if (key.startsWith(prefix)) {
+                        modules.get(module).setProperty(key, properties.getProperty(key));
+                    }
+                });
+            }
+            for (Map.Entry<String, Properties> module : modules.entrySet()) {
+                Path file = directory.resolve(module.getKey() + ".properties");
+                try (Writer writer = Files.newBufferedWriter(file)) {
+                    module.getValue().store(writer, "written by the load test");
+                }
+                System.setProperty(module.getKey(), file.toString());
+            }
+            logger.info("Camera stand-in at " + camera.baseUrl() + ", ML stand-in at " + ml.baseUrl() + ", MQTT broker at " + broker.url());
+            try (ConfigurableApplicationContext context = new SpringApplicationBuilder(OrchestratorApplication.class)
+                    .run(arguments.toArray(String[]::new))) {
+                String baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+                HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                LoadReport report = new LoadDriver(httpClient, baseUrl, settings, Workload.of(settings)).run();
+                Map<String, Long> notes = new LinkedHashMap<>();
+                notes.put("camera stand-in captures", camera.captures());
+                notes.put("camera stand-in failures", camera.failures());
+                notes.put("ML stand-in requests", ml.requests());
+                notes.put("ML stand-in frames", ml.frames());
+                broker.published().forEach((topic, count) -> notes.put("MQTT messages on " + topic, count));
+                return report.withNotes(notes);
+            }
+        } finally {
+            MODULE_PREFIXES.keySet().forEach(System::clearProperty);
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
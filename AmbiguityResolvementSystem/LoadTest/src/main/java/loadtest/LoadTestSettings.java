@@ -0,0 +1,179 @@
+package loadtest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Typed and validated loadtest.* configuration of a run.
+ * Optional keys that are missing or empty get the defaults of loadtest.properties.
+ *
+ * @param rate requests per second the driver sends, independent of how fast the Orchestrator answers
+ * @param durationSeconds time the measured part of the run takes
+ * @param warmupSeconds time the driver sends before it starts measuring, lets the JIT and the connection pools settle
+ * @param drainSeconds time the driver waits for the resolutions still running after the last request
+ * @param maxOutstanding requests that may wait for an answer at once, requests beyond are counted as dropped
+ * @param events "synthetic" or the path of a recorded NDJSON file
+ * @param ambiguousRatio share of the synthetic requests that are ambiguous windows
+ * @param batchRatio share of the synthetic unambiguous requests that are batches
+ * @param batchSize events per synthetic batch
+ * @param windowSize events per synthetic ambiguous window
+ * @param seed seed of the synthetic events and the stand-ins' randomness
+ * @param cameraStartLatency time the camera stub takes to start the camera
+ * @param cameraLatency time the camera stub takes per captured frame
+ * @param cameraFailureRate share of the captures the camera stub fails
+ * @param frameBytes size of a frame returned by the camera stub
+ * @param mlLatency time the ML stub takes per analysis request
+ * @param mlConfidenceMin lowest confidence the ML stub reports
+ * @param mlConfidenceMax highest confidence the ML stub reports
+ */
+public record LoadTestSettings(int rate,
+                               long durationSeconds,
+                               long warmupSeconds,
+                               long drainSeconds,
+                               int maxOutstanding,
+                               String events,
+                               double ambiguousRatio,
+                               double batchRatio,
+                               int batchSize,
+                               int windowSize,
+                               long seed,
+                               LatencyDistribution cameraStartLatency,
+                               LatencyDistribution cameraLatency,
+                               double cameraFailureRate,
+                               int frameBytes,
+                               LatencyDistribution mlLatency,
+                               double mlConfidenceMin,
+                               double mlConfidenceMax) {
+
+    public static final String SYNTHETIC = "synthetic";
+
+    /**
+     * Reads and validates the load test configuration
+     *
+     * @param properties returns the value of a key, null if it is missing
+     * @return the settings
+     * @throws IllegalArgumentException listing every missing or invalid key
+     */
+    public static LoadTestSettings from(Function<String, String> properties) {
+        Reader reader = new Reader(properties);
+        double[] confidence = reader.range("loadtest.ml.confidence", "0.9");
+        LoadTestSettings settings = new LoadTestSettings(
+                (int) reader.number("loadtest.rate", 50L, 1),
+                reader.number("loadtest.durationSeconds", 60L, 1),
+                reader.number("loadtest.warmupSeconds", 10L, 0),
+                reader.number("loadtest.drainSeconds", 30L, 0),
+                (int) reader.number("loadtest.maxOutstanding", 1000L, 1),
+                reader.events("loadtest.events"),
+                reader.fraction("loadtest.synthetic.ambiguousRatio", 0.05),
+                reader.fraction("loadtest.synthetic.batchRatio", 0.1),
+                (int) reader.number("loadtest.synthetic.batchSize", 20L, 1),
+                (int) reader.number("loadtest.synthetic.windowSize", 3L, 1),
+                reader.number("loadtest.seed", 42L, 0),
+                reader.latency("loadtest.camera.startLatency", "fixed:200"),
+                reader.latency("loadtest.camera.latency", "lognormal:40:0.3"),
+                reader.fraction("loadtest.camera.failureRate", 0.0),
+                (int) reader.number("loadtest.camera.frameBytes", 50000L, 8),
+                reader.latency("loadtest.ml.latency", "lognormal:300:0.5"),
+                confidence[0],
+                confidence[1]);
+        reader.check();
+        return settings;
+    }
+
+    /**
+     * @return whether the driver generates the events instead of replaying a recording
+     */
+    public boolean synthetic() {
+        return SYNTHETIC.equalsIgnoreCase(events);
+    }
+
+    // collects every problem, so a broken run configuration is reported in one go
+    private static final class Reader {
+
+        private final Function<String, String> properties;
+        private final List<String> problems = new ArrayList<>();
+
+        private Reader(Function<String, String> properties) {
+            this.properties = properties;
+        }
+
+        private String optional(String key, String defaultValue) {
+            String value = properties.apply(key);
+            return value == null || value.isBlank() ? defaultValue : value.trim();
+        }
+
+        private long number(String key, Long defaultValue, long min) {
+            String value = optional(key, String.valueOf(defaultValue));
+            try {
+                long number = Long.parseLong(value);
+                if (number < min || number > Integer.MAX_VALUE) {
+                    problems.add(key + " must be between " + min + " and " + Integer.MAX_VALUE + " but is " + value);
+                    return min;
+                }
+                return number;
+            } catch (NumberFormatException e) {
+                problems.add(key + " must be a whole number but is '" + value + "'");
+                return min;
+            }
+        }
+
+        private double fraction(String key, double defaultValue) {
+            String value = optional(key, String.valueOf(defaultValue));
+            try {
+                double number = Double.parseDouble(value);
+                if (!(number >= 0 && number <= 1)) {
+                    problems.add(key + " must be between 0 and 1 but is " + value);
+                    return 0;
+                }
+                return number;
+            } catch (NumberFormatException e) {
+                problems.add(key + " must be a number but is '" + value + "'");
+                return 0;
+            }
+        }
+
+        // a single fraction or MIN:MAX
+        private double[] range(String key, String defaultValue) {
+            String value = optional(key, defaultValue);
+            String[] parts = value.split(":");
+            try {
+                double min = Double.parseDouble(parts[0]);
+                double max = parts.length > 1 ? Double.parseDouble(parts[1]) : min;
+                if (parts.length > 2 || !(min >= 0 && max <= 1 && min <= max)) {
+                    problems.add(key + " must be a fraction or MIN:MAX between 0 and 1 but is " + value);
+                    return new double[]{0, 0};
+                }
+                return new double[]{min, max};
+            } catch (NumberFormatException e) {
+                problems.add(key + " must be a fraction or MIN:MAX between 0 and 1 but is '" + value + "'");
+                return new double[]{0, 0};
+            }
+        }
+
+        private LatencyDistribution latency(String key, String defaultValue) {
+            try {
+                return LatencyDistribution.parse(optional(key, defaultValue));
+            } catch (IllegalArgumentException e) {
+                problems.add(key + " " + e.getMessage());
+                return LatencyDistribution.fixed(0);
+            }
+        }
+
+        private String events(String key) {
+            String value = optional(key, SYNTHETIC);
+            if (!SYNTHETIC.equalsIgnoreCase(value) && !Files.isReadable(Path.of(value))) {
+                problems.add(key + " must be " + SYNTHETIC + " or a readable recording but is " + value);
+            }
+            return value;
+        }
+
+        private void check() {
+            if (!problems.isEmpty()) {
+                throw new IllegalArgumentException("Invalid load test configuration: " + String.join(", ", problems));
+            }
+        }
+    }
+}
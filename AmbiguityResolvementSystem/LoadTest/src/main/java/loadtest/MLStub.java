@@ -0,0 +1,99 @@
+package loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the ML service (ml_api.py) with the same endpoints and responses.
+ * Every analysis takes a time drawn from the inference latency and reports a confidence drawn uniformly
+ * between the configured minimum and maximum, so the share of resolved windows follows ml.confidenceThreshold.
+ */
+public class MLStub extends StubServer {
+
+    private static final String[] CLASSES = {"injection", "wrapping", "disinfection", "tourniquet", "check-in"};
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LatencyDistribution latency;
+    private final double confidenceMin;
+    private final double confidenceMax;
+    private final Random random;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+
+    public MLStub(LoadTestSettings settings) throws IOException {
+        this.latency = settings.mlLatency();
+        this.confidenceMin = settings.mlConfidenceMin();
+        this.confidenceMax = settings.mlConfidenceMax();
+        this.random = new Random(settings.seed() + 1);
+        handle("/analyze-frames", this::analyzeFrames);
+        handle("/analyze-frame-bytes", this::analyzeFrameBytes);
+    }
+
+    private void analyzeFrames(HttpExchange exchange) throws IOException {
+        JsonNode paths;
+        try (InputStream body = exchange.getRequestBody()) {
+            paths = objectMapper.readTree(body).path("frame_paths");
+        }
+        ArrayNode framePaths = objectMapper.createArrayNode();
+        paths.forEach(framePaths::add);
+        analyze(exchange, framePaths);
+    }
+
+    // the frame ids take the place of the paths, the frame bytes are read but not decoded
+    private void analyzeFrameBytes(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+        ArrayNode framePaths = objectMapper.createArrayNode();
+        String ids = exchange.getRequestHeaders().getFirst("X-Frame-Ids");
+        if (ids != null) {
+            for (String id : ids.split(",")) {
+                if (!id.isEmpty()) {
+                    framePaths.add(id);
+                }
+            }
+        }
+        analyze(exchange, framePaths);
+    }
+
+    private void analyze(HttpExchange exchange, ArrayNode framePaths) throws IOException {
+        if (framePaths.isEmpty()) {
+            respondJson(exchange, 500, "{\"error\": \"No image found!\"}");
+            return;
+        }
+        requests.incrementAndGet();
+        frames.addAndGet(framePaths.size());
+        sleep(latency.sample(random));
+        double confidence = confidenceMin + random.nextDouble() * (confidenceMax - confidenceMin);
+        ObjectNode result = objectMapper.createObjectNode();
+        result.put("top_class", CLASSES[0]);
+        result.put("confidence", confidence);
+        ObjectNode probabilities = result.putObject("all_class_probabilities");
+        probabilities.put(CLASSES[0], confidence);
+        for (int i = 1; i < CLASSES.length; i++) {
+            probabilities.put(CLASSES[i], (1.0 - confidence) / (CLASSES.length - 1));
+        }
+        result.set("frame_paths", framePaths);
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("status", "success");
+        response.set("result", result);
+        respondJson(exchange, 200, objectMapper.writeValueAsString(response));
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    public long frames() {
+        return frames.get();
+    }
+}
@@ -0,0 +1,80 @@
+package loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replays a recording, starting over when it is exhausted.
+ * A recording is newline delimited JSON, one request per line, either
+ * {"endpoint": "unambiguous-event|unambiguous-events|ambiguous-event", "body": ...} or the body of a request as the
+ * detector sends it, which goes to ambiguous-event if its events are an array and to unambiguous-event otherwise.
+ * The body of unambiguous-events is a JSON array of events.
+ */
+public class RecordedWorkload implements Workload {
+
+    private static final Set<String> ENDPOINTS = Set.of(UNAMBIGUOUS_EVENT, UNAMBIGUOUS_EVENTS, AMBIGUOUS_EVENT);
+
+    private final List<LoadRequest> requests;
+    private int next;
+
+    RecordedWorkload(List<LoadRequest> requests) {
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("The recording contains no requests");
+        }
+        this.requests = List.copyOf(requests);
+    }
+
+    /**
+     * @throws IOException if the recording cannot be read
+     * @throws IllegalArgumentException naming the first line that is not a request
+     */
+    public static RecordedWorkload read(Path recording) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<LoadRequest> requests = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(recording)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    requests.add(request(objectMapper.readTree(line), objectMapper));
+                } catch (IOException | IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + number + " of " + recording + " is not a request: " + e.getMessage());
+                }
+            }
+        }
+        return new RecordedWorkload(requests);
+    }
+
+    private static LoadRequest request(JsonNode line, ObjectMapper objectMapper) throws IOException {
+        if (line.has("endpoint")) {
+            String endpoint = line.get("endpoint").asText();
+            if (!ENDPOINTS.contains(endpoint) || !line.has("body")) {
+                throw new IllegalArgumentException("expected an endpoint of " + ENDPOINTS + " and a body");
+            }
+            return new LoadRequest(endpoint, objectMapper.writeValueAsString(line.get("body")));
+        }
+        if (!line.has("events")) {
+            throw new IllegalArgumentException("expected an endpoint and a body or a request with events");
+        }
+        return new LoadRequest(line.get("events").isArray() ? AMBIGUOUS_EVENT : UNAMBIGUOUS_EVENT, objectMapper.writeValueAsString(line));
+    }
+
+    @Override
+    public LoadRequest next() {
+        LoadRequest request = requests.get(next);
+        next = (next + 1) % requests.size();
+        return request;
+    }
+}
@@ -0,0 +1,166 @@
+package loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long the Orchestrator takes from starting its JVM to serving the first /orchestrate request,
+ * e.g. to compare the plain jar with the AOT processed and CDS archived one of the fast-start profile.
+ * Every run starts a new JVM with the given command and polls GET /orchestrate/backlog until it is answered with 200.
+ * Arguments are KEY=VALUE pairs (startup.runs, startup.timeoutSeconds), everything after -- is the command starting the Orchestrator,
+ * without a command the Orchestrator is started from the class path of this JVM.
+ */
+public final class StartupBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupBenchmark.class);
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = 5;
+        long timeoutSeconds = 120;
+        List<String> command = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--")) {
+                command.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                break;
+            }
+            int separator = args[i].indexOf('=');
+            String key = separator > 0 ? args[i].substring(0, separator).trim() : "";
+            switch (key) {
+                case "startup.runs" -> runs = Integer.parseInt(args[i].substring(separator + 1).trim());
+                case "startup.timeoutSeconds" -> timeoutSeconds = Long.parseLong(args[i].substring(separator + 1).trim());
+                default -> throw new IllegalArgumentException("Arguments must be startup.runs=N, startup.timeoutSeconds=N or -- COMMAND but got " + args[i]);
+            }
+        }
+        if (command.isEmpty()) {
+            command = classPathCommand();
+        }
+        print(System.out, command, run(command, runs, Duration.ofSeconds(timeoutSeconds)));
+    }
+
+    /**
+     * @return the command starting the Orchestrator from the class path of this JVM
+     */
+    public static List<String> classPathCommand() {
+        return List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "orchestrator.OrchestratorApplication");
+    }
+
+    /**
+     * This method starts the Orchestrator runs times one after another and stops it again once it served its first request
+     * The Orchestrator gets a free port, a temporary outbox and no MQTT detection added to its arguments
+     *
+     * @param command java and its arguments, up to and including the jar or main class
+     * @param runs number of starts
+     * @param timeout longest time a start may take
+     * @return milliseconds from starting the JVM to the first answered request, per run
+     * @throws IllegalStateException if the Orchestrator stops or does not answer within the timeout, with the end of its output
+     */
+    public static List<Long> run(List<String> command, int runs, Duration timeout) throws IOException, InterruptedException {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+        List<Long> millis = new ArrayList<>();
+        for (int run = 1; run <= runs; run++) {
+            millis.add(startOnce(httpClient, command, timeout));
+            logger.info("Start " + run + " of " + runs + " served its first request after " + millis.get(millis.size() - 1) + " ms");
+        }
+        return millis;
+    }
+
+    private static long startOnce(HttpClient httpClient, List<String> command, Duration timeout) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("startup");
+        Path output = directory.resolve("orchestrator.log");
+        int port = freePort();
+        List<String> arguments = new ArrayList<>(command);
+        arguments.add("--server.port=" + port);
+        arguments.add("--publisher.outbox.dir=" + directory.resolve("outbox"));
+        arguments.add("--orchestrator.detection.mqtt.enabled=false");
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/orchestrate/backlog"))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(arguments)
+                .redirectErrorStream(true)
+                .redirectOutput(output.toFile())
+                .start();
+        try {
+            long deadline = start + timeout.toNanos();
+            while (System.nanoTime() < deadline) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("The Orchestrator stopped with exit code " + process.exitValue() + ":\n" + tail(output));
+                }
+                try {
+                    if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return (System.nanoTime() - start) / 1_000_000;
+                    }
+                } catch (IOException e) {
+                    // not listening yet
+                }
+                Thread.sleep(POLL_INTERVAL.toMillis());
+            }
+            throw new IllegalStateException("The Orchestrator did not answer within " + timeout.toSeconds() + " s:\n" + tail(output));
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+            delete(directory);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String tail(Path output) throws IOException {
+        List<String> lines = Files.readAllLines(output);
+        return String.join("\n", lines.subList(Math.max(0, lines.size() - 20), lines.size()));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    public static void print(PrintStream out, List<String> command, List<Long> millis) {
+        List<Long> sorted = millis.stream().sorted().toList();
+        // the class path is left out, it is long and the same for every variant
+        List<String> shown = new ArrayList<>(command.subList(1, command.size()));
+        for (int i = 0; i < shown.size() - 1; i++) {
+            if (shown.get(i).equals("-cp") || shown.get(i).equals("-classpath")) {
+                shown.set(i + 1, "...");
+            }
+        }
+        out.printf("%nStartup of %s%n", String.join(" ", shown));
+        out.printf("%-8s %9s %9s %9s%n", "starts", "min ms", "median ms", "max ms");
+        out.printf("%-8d %9d %9d %9d%n", sorted.size(), sorted.get(0), sorted.get(sorted.size() / 2), sorted.get(sorted.size() - 1));
+    }
+}
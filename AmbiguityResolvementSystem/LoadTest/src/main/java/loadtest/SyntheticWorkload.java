@@ -0,0 +1,64 @@
+package loadtest;
+
+import java.time.Instant;
+import java.util.Random;
+
+/**
+ * Generates events shaped like the ones of the Faust detector: single unambiguous events, batches of them
+ * and ambiguous windows, mixed by the ratios of the settings.
+ * The events carry the current time, so windows sent close together overlap and are coalesced like real ones.
+ */
+public class SyntheticWorkload implements Workload {
+
+    private static final String[] ACTIVITIES = {"Donor check-in", "Apply tourniquet", "Disinfection", "Injection", "Wrapping"};
+    private static final String[] STATIONS = {"Left station", "Right station"};
+    // time between the events of a window
+    private static final long EVENT_SPACING_MILLIS = 250;
+
+    private final LoadTestSettings settings;
+    private final Random random;
+    private long index;
+
+    public SyntheticWorkload(LoadTestSettings settings) {
+        this.settings = settings;
+        this.random = new Random(settings.seed());
+    }
+
+    @Override
+    public LoadRequest next() {
+        if (random.nextDouble() < settings.ambiguousRatio()) {
+            return new LoadRequest(AMBIGUOUS_EVENT, window(settings.windowSize()));
+        }
+        if (random.nextDouble() < settings.batchRatio()) {
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < settings.batchSize(); i++) {
+                batch.append("{\"events\": ").append(event(Instant.now())).append("}\n");
+            }
+            return new LoadRequest(UNAMBIGUOUS_EVENTS, batch.toString());
+        }
+        return new LoadRequest(UNAMBIGUOUS_EVENT, "{\"events\": " + event(Instant.now()) + "}");
+    }
+
+    private String window(int size) {
+        Instant start = Instant.now().minusMillis(EVENT_SPACING_MILLIS * (size - 1));
+        StringBuilder body = new StringBuilder("{\"events\": [");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                body.append(", ");
+            }
+            body.append(event(start.plusMillis(EVENT_SPACING_MILLIS * i)));
+        }
+        return body.append("]}").toString();
+    }
+
+    private String event(Instant timestamp) {
+        long i = index++;
+        return "{"
+                + "\"concept:name\": \"" + ACTIVITIES[random.nextInt(ACTIVITIES.length)] + "\", "
+                + "\"time:timestamp\": \"" + timestamp + "\", "
+                + "\"perform:donor\": \"D" + String.format("%03d", i % 1000) + "\", "
+                + "\"perform:hcw\": \"HCW" + String.format("%04d", i % 10) + "\", "
+                + "\"location:station\": \"" + STATIONS[random.nextInt(STATIONS.length)] + "\""
+                + "}";
+    }
+}
@@ -0,0 +1,36 @@
+package loadtest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The requests the driver sends to the Orchestrator, one after another.
+ * Called by the driver's single scheduling thread only.
+ */
+public interface Workload {
+
+    /** Endpoints of OrchestratorController the driver sends to */
+    String UNAMBIGUOUS_EVENT = "unambiguous-event";
+    String UNAMBIGUOUS_EVENTS = "unambiguous-events";
+    String AMBIGUOUS_EVENT = "ambiguous-event";
+
+    /**
+     * A request of the workload
+     *
+     * @param endpoint endpoint below /orchestrate
+     * @param body JSON body as the detector sends it
+     */
+    record LoadRequest(String endpoint, String body) {
+    }
+
+    LoadRequest next();
+
+    /**
+     * @return the synthetic workload or the recording named by the settings
+     * @throws IOException if the recording cannot be read
+     * @throws IllegalArgumentException if the recording is invalid
+     */
+    static Workload of(LoadTestSettings settings) throws IOException {
+        return settings.synthetic() ? new SyntheticWorkload(settings) : RecordedWorkload.read(Path.of(settings.events()));
+    }
+}
@@ -0,0 +1,101 @@
+package loadtest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadTestTest {
+
+    @TempDir
+    Path directory;
+
+    private static Properties properties(String... keysAndValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return properties;
+    }
+
+    @Test
+    void run_SyntheticEvents_ReportsEveryEndpointAndResolution() throws Exception {
+        Properties properties = properties(
+                "loadtest.rate", "20",
+                "loadtest.warmupSeconds", "1",
+                "loadtest.durationSeconds", "3",
+                "loadtest.drainSeconds", "20",
+                "loadtest.synthetic.ambiguousRatio", "0.2",
+                "loadtest.synthetic.batchRatio", "0.3",
+                "loadtest.camera.startLatency", "fixed:10",
+                "loadtest.camera.latency", "fixed:5",
+                "loadtest.ml.latency", "uniform:10:30",
+                "cameraControl.numberOfFrames", "2",
+                "cameraControl.waitingTime", "20",
+                "cameraControl.warmUpTime", "10");
+
+        LoadReport report = LoadTest.run(LoadTestSettings.from(properties::getProperty), properties);
+
+        for (String endpoint : new String[]{Workload.UNAMBIGUOUS_EVENT, Workload.UNAMBIGUOUS_EVENTS}) {
+            assertEquals(Map.of("200", report.endpoint(endpoint).answered()), report.endpoint(endpoint).results(), endpoint);
+            assertTrue(report.endpoint(endpoint).answered() > 0, endpoint);
+        }
+        LoadReport.Endpoint ambiguous = report.endpoint(Workload.AMBIGUOUS_EVENT);
+        assertEquals(Map.of("202", ambiguous.answered()), ambiguous.results());
+        LoadReport.Endpoint resolution = report.endpoint(LoadDriver.RESOLUTION);
+        assertEquals(0, resolution.failed());
+        assertEquals(ambiguous.answered(), resolution.answered());
+        assertEquals(Map.of("RESOLVED", resolution.answered()), resolution.results(), "The ML stand-in reports a confidence of 0.9");
+        assertTrue(resolution.p50Millis() > 0);
+        assertTrue(report.notes().get("MQTT messages on clean-events") > 0);
+        assertTrue(report.notes().get("ML stand-in requests") > 0);
+    }
+
+    @Test
+    void run_OrchestratorFromClassPath_MeasuresTimeToFirstRequest() throws Exception {
+        List<Long> millis = StartupBenchmark.run(StartupBenchmark.classPathCommand(), 1, Duration.ofSeconds(120));
+
+        assertEquals(1, millis.size());
+        assertTrue(millis.get(0) > 0);
+    }
+
+    @Test
+    void read_RecordingWithAndWithoutEndpoints_ReplaysInOrder() throws Exception {
+        Path recording = Files.writeString(directory.resolve("events.ndjson"), """
+                {"events": {"concept:name": "Injection"}}
+                {"events": [{"concept:name": "Injection"}, {"concept:name": "Wrapping"}]}
+
+                {"endpoint": "unambiguous-events", "body": [{"concept:name": "Wrapping"}]}
+                """);
+
+        RecordedWorkload workload = RecordedWorkload.read(recording);
+
+        assertEquals(Workload.UNAMBIGUOUS_EVENT, workload.next().endpoint());
+        assertEquals(Workload.AMBIGUOUS_EVENT, workload.next().endpoint());
+        assertEquals(new Workload.LoadRequest(Workload.UNAMBIGUOUS_EVENTS, "[{\"concept:name\":\"Wrapping\"}]"), workload.next());
+        assertEquals(Workload.UNAMBIGUOUS_EVENT, workload.next().endpoint(), "The recording starts over");
+    }
+
+    @Test
+    void from_InvalidSettings_ListsEveryProblem() {
+        Properties properties = properties(
+                "loadtest.rate", "0",
+                "loadtest.ml.latency", "gaussian:300",
+                "loadtest.ml.confidence", "0.9:0.5",
+                "loadtest.events", directory.resolve("missing.ndjson").toString());
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> LoadTestSettings.from(properties::getProperty));
+
+        assertTrue(e.getMessage().startsWith("Invalid load test configuration: "));
+        for (String key : new String[]{"loadtest.rate", "loadtest.ml.latency", "loadtest.ml.confidence", "loadtest.events"}) {
+            assertTrue(e.getMessage().contains(key), e.getMessage());
+        }
+    }
+}
@@ -1,5 +1,7 @@
-from fastapi import FastAPI
+from fastapi import FastAPI, Request
 from fastapi.responses import JSONResponse
+import numpy as np
+import cv2
 from ml_inference import model_inference, format_model_output
 from pydantic import BaseModel
 from typing import List
@@ -18,4 +20,32 @@ def analyze_frames(data: FramePaths):
         result = model_inference(data.frame_paths)
         return {"status": "success", "result": result}
     except Exception as e:
-        return JSONResponse(status_code=500, content={"error": str(e)})
\ No newline at end of file
+        return JSONResponse(status_code=500, content={"error": str(e)})
+
+# frames held in memory by the orchestrator: each frame is a 4 byte big-endian length followed by its JPEG bytes,
+# the X-Frame-Ids header names the frames in the same order and takes the place of the frame paths in the result
+# the optional X-Frame-Timestamps header holds their capture times in epoch milliseconds, frames of several cameras arrive
+# interleaved and are put in capture order before inference
+@service.post("/analyze-frame-bytes")
+async def analyze_frame_bytes(request: Request):
+    try:
+        body = await request.body()
+        frame_ids = [frame_id for frame_id in request.headers.get("X-Frame-Ids", "").split(",") if frame_id]
+        images = []
+        offset = 0
+        while offset < len(body):
+            length = int.from_bytes(body[offset:offset + 4], "big")
+            offset += 4
+            images.append(cv2.imdecode(np.frombuffer(body[offset:offset + length], dtype=np.uint8), cv2.IMREAD_COLOR))
+            offset += length
+        if len(frame_ids) != len(images):
+            return JSONResponse(status_code=400, content={"error": "X-Frame-Ids does not match the number of frames"})
+        timestamps = [int(millis) for millis in request.headers.get("X-Frame-Timestamps", "").split(",") if millis]
+        if len(timestamps) == len(images):
+            order = sorted(range(len(images)), key=lambda index: timestamps[index])
+            images = [images[index] for index in order]
+            frame_ids = [frame_ids[index] for index in order]
+        result = model_inference(images, frame_ids)
+        return {"status": "success", "result": result}
+    except Exception as e:
+        return JSONResponse(status_code=500, content={"error": str(e)})
@@ -7,13 +7,14 @@ import pathlib
 import random
 import logging
 
-def model_inference (frame_paths):
+# frame_paths are paths or decoded images, frame_names are reported as frame_paths and default to the paths
+def model_inference (frame_paths, frame_names=None):
     # frame paths is a list so we check if it's empty
     if not frame_paths:
         return {"error": "No image found!"}
     logging.info("Infering with model...")
     result = model(frame_paths)
-    formatted_result = format_model_output(result, frame_paths)
+    formatted_result = format_model_output(result, frame_names if frame_names is not None else frame_paths)
     return formatted_result
 
 # I used ChatGPT to help me format the model's output
@@ -0,0 +1,327 @@
+package mlpackage;
+
+import camerapackage.Deadline;
+import camerapackage.FrameHandle;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * MLServiceClient that remembers the results of MLServiceClientImpl.
+ * Results are keyed by a SHA-256 hash of the bytes of the analyzed frames and of the model configuration
+ * (ML service, model version and confidence threshold), so frames with exactly the same content are only analyzed once.
+ * The cache holds at most ml.cache.maxEntries results, each for at most ml.cache.ttlMillis.
+ * The cached results do not contain frame paths, the paths (or frame ids) of the current request are put into the result on every hit.
+ * Like its delegate it is created when first used or when the application validates the clients at startup.
+ */
+@Lazy
+@Primary
+@Component
+public class CachingMLServiceClient implements MLServiceClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingMLServiceClient.class);
+
+    private final MLServiceClientImpl delegate;
+    private final ObjectMapper objectMapper;
+    private final Clock clock;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final Duration ttl;
+    // replaced on reload, results of the old configuration are then unreachable and cleared
+    private volatile String configurationKey;
+
+    // access ordered, so the least recently used result is evicted first; guarded by itself
+    private final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public CachingMLServiceClient(MLServiceClientImpl delegate) {
+        this(delegate, new ConfigLoader(), new ObjectMapper(), Clock.systemUTC());
+    }
+
+    public CachingMLServiceClient(MLServiceClientImpl delegate, ConfigLoader mlConfig, ObjectMapper objectMapper, Clock clock) {
+        this.delegate = delegate;
+        this.objectMapper = objectMapper;
+        this.clock = clock;
+        this.enabled = Boolean.parseBoolean(mlConfig.get("ml.cache.enabled"));
+        this.maxEntries = Integer.parseInt(mlConfig.get("ml.cache.maxEntries"));
+        this.ttl = Duration.ofMillis(Long.parseLong(mlConfig.get("ml.cache.ttlMillis")));
+        this.configurationKey = configurationKey(mlConfig.get("ml.baseUrl") + mlConfig.get("ml.requestEndpoint"),
+                mlConfig.get("ml.modelVersion"), mlConfig.get("ml.confidenceThreshold"));
+        registerMetrics();
+    }
+
+    private static String configurationKey(String service, String modelVersion, String confidenceThreshold) {
+        return service + "|" + modelVersion + "|" + confidenceThreshold;
+    }
+
+    private void registerMetrics() {
+        FunctionCounter.builder("ml.cache.requests", hits, AtomicLong::get).tag("result", "hit").register(Metrics.globalRegistry);
+        FunctionCounter.builder("ml.cache.requests", misses, AtomicLong::get).tag("result", "miss").register(Metrics.globalRegistry);
+        FunctionCounter.builder("ml.cache.evictions", evictions, AtomicLong::get).register(Metrics.globalRegistry);
+        Gauge.builder("ml.cache.size", this, client -> client.stats().size()).register(Metrics.globalRegistry);
+    }
+
+    /**
+     * This method returns the cached analysis of frames with the same content, or asks the ML service on a miss
+     *
+     * @param frame_paths List of frame paths captured by the camera to be analyzed
+     * @return JSON string in the same format as MLServiceClientImpl.analyzeFrames
+     */
+    @Override
+    public String analyzeFrames(List<String> frame_paths) throws Exception {
+        return analyzeFrames(frame_paths, Deadline.none());
+    }
+
+    // a cached result is returned even if the deadline expired, only the ML service is not asked anymore
+    @Override
+    public String analyzeFrames(List<String> frame_paths, Deadline deadline) throws Exception {
+        String key = enabled ? cacheKey("frames", frame_paths) : null;
+        JsonNode cached = lookup(key);
+        if (cached != null) {
+            return objectMapper.writeValueAsString(withFramePaths(cached, frame_paths));
+        }
+        String mlOutput = delegate.analyzeFrames(frame_paths, deadline);
+        store(key, objectMapper.readTree(mlOutput));
+        return mlOutput;
+    }
+
+    @Override
+    public JsonNode analyzeFrame(String framePath) throws Exception {
+        return analyzeFrame(framePath, Deadline.none());
+    }
+
+    @Override
+    public JsonNode analyzeFrame(String framePath, Deadline deadline) throws Exception {
+        List<String> frame_paths = List.of(framePath);
+        String key = enabled ? cacheKey("frame", frame_paths) : null;
+        JsonNode cached = lookup(key);
+        if (cached != null) {
+            return withFramePaths(cached, frame_paths);
+        }
+        JsonNode result = delegate.analyzeFrame(framePath, deadline);
+        store(key, result);
+        return result;
+    }
+
+    /**
+     * This method returns the cached analysis of frames with the same content, or sends the frame bytes to the ML service on a miss
+     *
+     * @param frames frames held in memory, hashed straight from their bytes
+     * @return JSON string in the same format as MLServiceClientImpl.analyzeFrameHandles
+     */
+    @Override
+    public String analyzeFrameHandles(List<FrameHandle> frames) throws Exception {
+        return analyzeFrameHandles(frames, Deadline.none());
+    }
+
+    @Override
+    public String analyzeFrameHandles(List<FrameHandle> frames, Deadline deadline) throws Exception {
+        String key = enabled ? cacheKeyOfFrames("frames", frames) : null;
+        JsonNode cached = lookup(key);
+        if (cached != null) {
+            return objectMapper.writeValueAsString(withFramePaths(cached, frameIds(frames)));
+        }
+        String mlOutput = delegate.analyzeFrameHandles(frames, deadline);
+        store(key, objectMapper.readTree(mlOutput));
+        return mlOutput;
+    }
+
+    @Override
+    public JsonNode analyzeFrameHandle(FrameHandle frame) throws Exception {
+        return analyzeFrameHandle(frame, Deadline.none());
+    }
+
+    @Override
+    public JsonNode analyzeFrameHandle(FrameHandle frame, Deadline deadline) throws Exception {
+        String key = enabled ? cacheKeyOfFrames("frame", List.of(frame)) : null;
+        JsonNode cached = lookup(key);
+        if (cached != null) {
+            return withFramePaths(cached, List.of(frame.id()));
+        }
+        JsonNode result = delegate.analyzeFrameHandle(frame, deadline);
+        store(key, result);
+        return result;
+    }
+
+    // the single frame requests of the analysis go through this cache as well
+    @Override
+    public IncrementalFrameAnalysis startIncrementalAnalysis() {
+        return startIncrementalAnalysis(Deadline.none());
+    }
+
+    @Override
+    public IncrementalFrameAnalysis startIncrementalAnalysis(Deadline deadline) {
+        return delegate.startIncrementalAnalysis(this, deadline);
+    }
+
+    /**
+     * This method reloads the configuration of the ML client and drops every cached result,
+     * since the confidence threshold decides whether a cached result resolved the ambiguity
+     * The size and lifetime of the cache are fixed when it is created
+     *
+     * @return the new settings
+     * @throws IllegalArgumentException if the new configuration is invalid, the current settings and results stay
+     */
+    public MLSettings reloadSettings() {
+        MLSettings reloaded = delegate.reloadSettings();
+        synchronized (results) {
+            configurationKey = configurationKey(String.join(",", reloaded.baseUrls()) + reloaded.requestEndpoint(),
+                    reloaded.modelVersion(), String.valueOf(reloaded.confidenceThreshold()));
+            evictions.addAndGet(results.size());
+            results.clear();
+        }
+        return reloaded;
+    }
+
+    /**
+     * @return the configuration the next analysis uses
+     */
+    public MLSettings settings() {
+        return delegate.settings();
+    }
+
+    /**
+     * @return hit, miss and eviction counts since the start, and the current number of cached results
+     */
+    public CacheStats stats() {
+        synchronized (results) {
+            return new CacheStats(hits.get(), misses.get(), evictions.get(), results.size());
+        }
+    }
+
+    private JsonNode lookup(String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (results) {
+            CachedResult cached = results.get(key);
+            if (cached != null && cached.expiresAt().isAfter(clock.instant())) {
+                hits.incrementAndGet();
+                return cached.result();
+            }
+            if (cached != null) {
+                results.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private void store(String key, JsonNode result) {
+        if (key == null || result == null || !result.isObject()) {
+            return;
+        }
+        ObjectNode withoutFramePaths = ((ObjectNode) result).deepCopy();
+        withoutFramePaths.remove("frame_paths");
+        synchronized (results) {
+            results.put(key, new CachedResult(withoutFramePaths, clock.instant().plus(ttl)));
+            while (results.size() > maxEntries) {
+                Map.Entry<String, CachedResult> eldest = results.entrySet().iterator().next();
+                results.remove(eldest.getKey());
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private ObjectNode withFramePaths(JsonNode cached, List<String> frame_paths) {
+        ObjectNode result = ((ObjectNode) cached).deepCopy();
+        ArrayNode framePaths = result.putArray("frame_paths");
+        frame_paths.forEach(framePaths::add);
+        return result;
+    }
+
+    // hash of the request kind, the model configuration and the content of every frame in order,
+    // null if a frame cannot be read, then the request is not cached
+    private String cacheKey(String kind, List<String> frame_paths) {
+        try {
+            MessageDigest digest = newDigest(kind);
+            byte[] buffer = new byte[8192];
+            for (String framePath : frame_paths) {
+                Path path = Path.of(framePath);
+                // the size separates the frames, so moving bytes from one frame to the next changes the hash
+                digest.update(("|" + Files.size(path) + "|").getBytes(StandardCharsets.UTF_8));
+                try (InputStream frame = Files.newInputStream(path)) {
+                    int read;
+                    while ((read = frame.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            logger.warn("Could not read frames for the ML result cache, analyzing without cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // same hash as for frame files with the same content, the bytes are read from the frame store without a copy
+    private String cacheKeyOfFrames(String kind, List<FrameHandle> frames) {
+        MessageDigest digest = newDigest(kind);
+        for (FrameHandle frame : frames) {
+            digest.update(("|" + frame.size() + "|").getBytes(StandardCharsets.UTF_8));
+            digest.update(frame.bytes());
+        }
+        // a frame evicted meanwhile may have been hashed with the bytes of another frame, so it is analyzed without the cache
+        for (FrameHandle frame : frames) {
+            if (!frame.isIntact()) {
+                logger.warn("Frame " + frame.id() + " was evicted while it was hashed, analyzing it without the cache");
+                return null;
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private MessageDigest newDigest(String kind) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((kind + "|" + configurationKey).getBytes(StandardCharsets.UTF_8));
+            return digest;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static List<String> frameIds(List<FrameHandle> frames) {
+        return frames.stream().map(FrameHandle::id).collect(Collectors.toList());
+    }
+
+    private record CachedResult(JsonNode result, Instant expiresAt) {
+    }
+
+    /**
+     * Snapshot of the cache statistics
+     */
+    public record CacheStats(long hits, long misses, long evictions, int size) {
+    }
+}
@@ -1,30 +1,81 @@
 package mlpackage;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Properties;
 
 /**
  * ConfigLoader is a utility class to load configuration properties from a file.
  * It uses the Java Properties class to read key-value pairs from a specified file.
+ * Keys of the file named by the system property ml.configFile override the packaged ones,
+ * reload() reads both again so the analysis can be tuned without a restart.
  */
 
 public class ConfigLoader {
-    private final Properties properties = new Properties();
+    /** System property naming a properties file whose keys override mlApplication.properties */
+    public static final String CONFIG_FILE_PROPERTY = "ml.configFile";
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigLoader.class);
+
+    // replaced as a whole on reload, so a reader never sees a half loaded file
+    private volatile Properties properties;
 
     public ConfigLoader() {
+        this.properties = load();
+    }
+
+    public String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    /**
+     * This method reads the configuration again and only applies it if it is valid, otherwise the current values stay
+     *
+     * @return the new settings
+     * @throws IllegalArgumentException if the new configuration is invalid
+     * @throws UncheckedIOException if the override file cannot be read
+     */
+    public synchronized MLSettings reload() {
+        Properties next = load();
+        MLSettings settings = MLSettings.from(next::getProperty);
+        properties = next;
+        logger.info("Reloaded ML configuration: " + settings);
+        return settings;
+    }
+
+    /**
+     * @return the file overriding the packaged configuration, null if none is configured
+     */
+    public static Path overrideFile() {
+        String file = System.getProperty(CONFIG_FILE_PROPERTY);
+        return file == null || file.isBlank() ? null : Path.of(file);
+    }
+
+    private Properties load() {
+        Properties loaded = new Properties();
         try (InputStream input = getClass().getClassLoader().getResourceAsStream("mlApplication.properties")) {
             if (input == null) {
                 throw new RuntimeException("Unable to find configuration file: mlApplication.properties");
             }
-            properties.load(input);
-            System.out.println("Loaded properties ML: " + properties);
+            loaded.load(input);
         } catch (IOException ex) {
             throw new RuntimeException("Error loading configuration file: " + ex.getMessage(), ex);
         }
-    }
-
-    public String get(String key) {
-        return properties.getProperty(key);
+        Path overrideFile = overrideFile();
+        if (overrideFile != null && Files.exists(overrideFile)) {
+            try (InputStream input = Files.newInputStream(overrideFile)) {
+                loaded.load(input);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Error loading configuration file " + overrideFile + ": " + ex.getMessage(), ex);
+            }
+        }
+        logger.info("Loaded " + loaded.size() + " ML properties" + (overrideFile == null ? "" : ", overridden by " + overrideFile));
+        return loaded;
     }
 }
@@ -0,0 +1,76 @@
+package mlpackage;
+
+import camerapackage.FrameHandle;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Request body of the frame bytes endpoint: every frame as a 4 byte big-endian length followed by its JPEG bytes.
+ * The HttpClient reads the frames straight from their memory-mapped views, they are not copied onto the heap.
+ */
+final class FrameBodyPublisher implements Flow.Publisher<ByteBuffer> {
+
+    private final FrameHandle frame;
+
+    private FrameBodyPublisher(FrameHandle frame) {
+        this.frame = frame;
+    }
+
+    static HttpRequest.BodyPublisher of(List<FrameHandle> frames) {
+        List<HttpRequest.BodyPublisher> parts = new ArrayList<>(frames.size() * 2);
+        for (FrameHandle frame : frames) {
+            parts.add(HttpRequest.BodyPublishers.ofByteArray(ByteBuffer.allocate(Integer.BYTES).putInt(frame.size()).array()));
+            parts.add(HttpRequest.BodyPublishers.fromPublisher(new FrameBodyPublisher(frame), frame.size()));
+        }
+        return HttpRequest.BodyPublishers.concat(parts.toArray(new HttpRequest.BodyPublisher[0]));
+    }
+
+    // a new view for every subscriber, the body may be sent more than once (e.g. on a redirect)
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        ByteBuffer bytes;
+        try {
+            bytes = frame.bytes();
+        } catch (IllegalStateException e) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(e);
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            private boolean done;
+
+            @Override
+            public void request(long n) {
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    done = true;
+                }
+                if (n <= 0) {
+                    subscriber.onError(new IllegalArgumentException("Requested " + n + " buffers"));
+                    return;
+                }
+                subscriber.onNext(bytes);
+                subscriber.onComplete();
+            }
+
+            @Override
+            public synchronized void cancel() {
+                done = true;
+            }
+        });
+    }
+}
@@ -0,0 +1,213 @@
+package mlpackage;
+
+import camerapackage.Deadline;
+import camerapackage.FrameHandle;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Analyzes frames one by one while they are being captured.
+ * The class probabilities of all analyzed frames are averaged the same way the ML service averages a batch,
+ * so the final result equals what analyzeFrames would have returned for the same frames.
+ * As soon as the averaged top confidence reaches the threshold (after at least minFrames frames) the analysis counts as resolved
+ * and the caller can stop capturing.
+ */
+public class IncrementalFrameAnalysis {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalFrameAnalysis.class);
+
+    private final MLServiceClient mlClient;
+    private final ObjectMapper objectMapper;
+    private final Executor executor;
+    private final double confidenceThreshold;
+    private final int minFrames;
+    private final Deadline deadline;
+
+    // guarded by this
+    private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+    private final List<String> submittedFrames = new ArrayList<>();
+    // by the index of the frame in submittedFrames, a frame submitted twice counts twice like in a batch
+    private final Map<Integer, JsonNode> frameResults = new HashMap<>();
+    private final Map<String, Double> probabilitySums = new LinkedHashMap<>();
+    private volatile boolean resolved;
+
+    public IncrementalFrameAnalysis(MLServiceClient mlClient, ObjectMapper objectMapper, Executor executor,
+                                    double confidenceThreshold, int minFrames) {
+        this(mlClient, objectMapper, executor, confidenceThreshold, minFrames, Deadline.none());
+    }
+
+    /**
+     * @param deadline frames are not analyzed after it, awaitResult() returns the result of the frames analyzed until then
+     */
+    public IncrementalFrameAnalysis(MLServiceClient mlClient, ObjectMapper objectMapper, Executor executor,
+                                    double confidenceThreshold, int minFrames, Deadline deadline) {
+        this.mlClient = mlClient;
+        this.objectMapper = objectMapper;
+        this.executor = executor;
+        this.confidenceThreshold = confidenceThreshold;
+        this.minFrames = minFrames;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Starts the analysis of a single frame in the background
+     *
+     * @param framePath path of the captured frame
+     */
+    public synchronized void submit(String framePath) {
+        if (isTooLate(framePath)) {
+            return;
+        }
+        int index = submittedFrames.size();
+        submittedFrames.add(framePath);
+        pending.add(CompletableFuture.runAsync(() -> analyze(index, framePath, () -> mlClient.analyzeFrame(framePath, deadline)), executor));
+    }
+
+    /**
+     * Starts the analysis of a frame held in memory in the background
+     * The analysis keeps its own reference to the frame until the frame is analyzed, the caller still releases its own
+     *
+     * @param frame the captured frame
+     */
+    public synchronized void submit(FrameHandle frame) {
+        if (isTooLate(frame.id())) {
+            return;
+        }
+        frame.retain();
+        int index = submittedFrames.size();
+        submittedFrames.add(frame.id());
+        try {
+            pending.add(CompletableFuture.runAsync(() -> {
+                try (frame) {
+                    analyze(index, frame.id(), () -> mlClient.analyzeFrameHandle(frame, deadline));
+                }
+            }, executor));
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+    }
+
+    private boolean isTooLate(String frameId) {
+        if (deadline.isExpired()) {
+            logger.info("Not analyzing frame " + frameId + ", the deadline expired");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true once the averaged confidence of the analyzed frames reached the threshold
+     */
+    public boolean isResolved() {
+        return resolved;
+    }
+
+    /**
+     * Waits for all submitted frames, but not past the deadline, and builds the combined result
+     *
+     * @return JSON string in the same format as MLServiceClient.analyzeFrames, or null if no frame could be analyzed
+     */
+    public String awaitResult() throws Exception {
+        CompletableFuture<?>[] outstanding;
+        synchronized (this) {
+            outstanding = pending.toArray(new CompletableFuture<?>[0]);
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(outstanding);
+        if (deadline.isBounded()) {
+            try {
+                all.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logger.info("Deadline reached, building the result from the frames analyzed so far");
+            }
+        } else {
+            all.join();
+        }
+        synchronized (this) {
+            if (frameResults.isEmpty()) {
+                return null;
+            }
+            return objectMapper.writeValueAsString(buildResult());
+        }
+    }
+
+    // frameId is the path of the frame, or the id of a frame held in memory
+    private void analyze(int index, String frameId, Callable<JsonNode> request) {
+        JsonNode frameResult;
+        try {
+            frameResult = request.call();
+        } catch (Exception e) {
+            logger.error("Failed to analyze frame " + frameId + ": " + e.getMessage());
+            return;
+        }
+        if (frameResult == null || !frameResult.path("all_class_probabilities").isObject()) {
+            logger.error("No class probabilities returned for frame " + frameId);
+            return;
+        }
+        synchronized (this) {
+            frameResults.put(index, frameResult);
+            Iterator<Map.Entry<String, JsonNode>> probabilities = frameResult.get("all_class_probabilities").fields();
+            while (probabilities.hasNext()) {
+                Map.Entry<String, JsonNode> probability = probabilities.next();
+                probabilitySums.merge(probability.getKey(), probability.getValue().asDouble(), Double::sum);
+            }
+            if (frameResults.size() >= minFrames && topConfidence() >= confidenceThreshold) {
+                resolved = true;
+            }
+        }
+    }
+
+    private double topConfidence() {
+        double top = 0;
+        for (double sum : probabilitySums.values()) {
+            top = Math.max(top, sum / frameResults.size());
+        }
+        return top;
+    }
+
+    private ObjectNode buildResult() {
+        int frames = frameResults.size();
+        ObjectNode classProbabilities = objectMapper.createObjectNode();
+        String topClass = null;
+        double topConfidence = -1;
+        for (Map.Entry<String, Double> sum : probabilitySums.entrySet()) {
+            double probability = sum.getValue() / frames;
+            classProbabilities.put(sum.getKey(), probability);
+            if (probability > topConfidence) {
+                topClass = sum.getKey();
+                topConfidence = probability;
+            }
+        }
+        // keep the capture order of the frames that could be analyzed
+        ArrayNode framePaths = objectMapper.createArrayNode();
+        for (int i = 0; i < submittedFrames.size(); i++) {
+            if (frameResults.containsKey(i)) {
+                framePaths.add(submittedFrames.get(i));
+            }
+        }
+
+        ObjectNode result = objectMapper.createObjectNode();
+        result.put("top_class", topClass);
+        result.put("confidence", topConfidence);
+        result.set("all_class_probabilities", classProbabilities);
+        result.set("frame_paths", framePaths);
+        result.put("resolved_ambiguity", topConfidence >= confidenceThreshold);
+        return result;
+    }
+}
@@ -0,0 +1,221 @@
+package mlpackage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The replicas of the ML service an MLServiceClientImpl spreads its requests over.
+ * Every request goes to the replica with the fewest outstanding requests, so a replica that is busy with a slow
+ * inference gets no more work until it catches up.
+ * A replica that failed maxFailures requests in a row is ejected for ejectionMillis, afterwards it gets requests again
+ * and is ejected right away if the next one fails too.
+ * The pool also tracks the latency of successful requests per mode ("batch" or "frame"),
+ * a request still running after the hedgePercentile of that latency is hedged with a duplicate on another replica.
+ */
+class MLReplicaPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(MLReplicaPool.class);
+    // latencies kept per mode, and number of them needed before requests are hedged
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    // one gauge per replica URL, registered once and pointed at the replica of the pool created last for that URL,
+    // so a reload that creates a new pool does not register the gauge again
+    private static final Map<String, AtomicReference<Replica>> OUTSTANDING_GAUGES = new ConcurrentHashMap<>();
+
+    private final List<Replica> replicas;
+    private final int maxFailures;
+    private final long ejectionNanos;
+    private final double hedgePercentile;
+    private final long hedgeMinDelayMillis;
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    // starting point of the search for the least loaded replica, spreads ties evenly
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter ejections;
+
+    MLReplicaPool(List<String> baseUrls, int maxFailures, long ejectionMillis, double hedgePercentile, long hedgeMinDelayMillis) {
+        this.replicas = baseUrls.stream().map(Replica::new).toList();
+        this.maxFailures = maxFailures;
+        this.ejectionNanos = ejectionMillis * 1_000_000;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelayMillis = hedgeMinDelayMillis;
+        this.ejections = Counter.builder("ml.replica.ejections")
+                .description("Replicas of the ML service ejected after failing requests in a row")
+                .register(Metrics.globalRegistry);
+        for (Replica replica : replicas) {
+            outstandingGauge(replica.baseUrl()).set(replica);
+        }
+    }
+
+    private static AtomicReference<Replica> outstandingGauge(String baseUrl) {
+        return OUTSTANDING_GAUGES.computeIfAbsent(baseUrl, url -> {
+            AtomicReference<Replica> current = new AtomicReference<>();
+            Gauge.builder("ml.replica.outstanding", current, replica -> replica.get() == null ? 0 : replica.get().outstanding())
+                    .description("Requests sent to the replica and not answered yet")
+                    .tag("replica", url)
+                    .register(Metrics.globalRegistry);
+            return current;
+        });
+    }
+
+    static MLReplicaPool of(MLSettings settings) {
+        return new MLReplicaPool(settings.baseUrls(), settings.replicaMaxFailures(), settings.replicaEjectionMillis(),
+                settings.hedgePercentile(), settings.hedgeMinDelayMillis());
+    }
+
+    /**
+     * @return true if the pool was created with the replicas and limits of the settings
+     */
+    boolean matches(MLSettings settings) {
+        return settings.baseUrls().equals(baseUrls()) && settings.replicaMaxFailures() == maxFailures
+                && settings.replicaEjectionMillis() * 1_000_000 == ejectionNanos
+                && settings.hedgePercentile() == hedgePercentile && settings.hedgeMinDelayMillis() == hedgeMinDelayMillis;
+    }
+
+    List<String> baseUrls() {
+        return replicas.stream().map(Replica::baseUrl).toList();
+    }
+
+    /**
+     * Picks the replica for the next request, the caller passes it to start() and then to succeeded(), failed() or released()
+     *
+     * @param exclude replica that must not be picked (the one already running the request), null for none
+     * @return the healthy replica with the fewest outstanding requests; if all are ejected the one whose ejection ends first;
+     *         null if exclude is the only replica
+     */
+    Replica choose(Replica exclude) {
+        long now = System.nanoTime();
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        Replica best = null;
+        Replica leastEjected = null;
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica == exclude) {
+                continue;
+            }
+            if (isEjected(replica, now)) {
+                if (leastEjected == null || replica.ejectedUntilNanos - leastEjected.ejectedUntilNanos < 0) {
+                    leastEjected = replica;
+                }
+            } else if (best == null || replica.outstanding.get() < best.outstanding.get()) {
+                best = replica;
+            }
+        }
+        // rather try an ejected replica than fail without trying
+        return best != null ? best : leastEjected;
+    }
+
+    // a success resets the failures, so a replica that answers while it is ejected gets requests right away again
+    private boolean isEjected(Replica replica, long nowNanos) {
+        return replica.failures.get() >= maxFailures && nowNanos - replica.ejectedUntilNanos < 0;
+    }
+
+    void start(Replica replica) {
+        replica.outstanding.incrementAndGet();
+    }
+
+    void succeeded(Replica replica, String mode, long latencyNanos) {
+        replica.outstanding.decrementAndGet();
+        replica.failures.set(0);
+        latencies.computeIfAbsent(mode, key -> new LatencyWindow()).record(latencyNanos);
+    }
+
+    void failed(Replica replica) {
+        replica.outstanding.decrementAndGet();
+        if (replica.failures.incrementAndGet() >= maxFailures) {
+            replica.ejectedUntilNanos = System.nanoTime() + ejectionNanos;
+            ejections.increment();
+            logger.warn("Ejecting ML replica " + replica.baseUrl() + " for " + ejectionNanos / 1_000_000 + " ms after "
+                    + replica.failures.get() + " failed requests in a row");
+        }
+    }
+
+    // cancelled (e.g. because the hedged duplicate answered first) or rejected as a bad request,
+    // neither a success nor a failure of the replica
+    void released(Replica replica) {
+        replica.outstanding.decrementAndGet();
+    }
+
+    /**
+     * @return time after which a request of the mode is hedged, -1 if it is not hedged
+     *         (hedging disabled, a single replica, or too few latencies known yet)
+     */
+    long hedgeDelayMillis(String mode) {
+        if (hedgePercentile <= 0 || replicas.size() < 2) {
+            return -1;
+        }
+        LatencyWindow window = latencies.get(mode);
+        long percentileNanos = window == null ? -1 : window.percentile(hedgePercentile);
+        if (percentileNanos < 0) {
+            return -1;
+        }
+        return Math.max(hedgeMinDelayMillis, percentileNanos / 1_000_000);
+    }
+
+    /**
+     * A replica of the ML service
+     */
+    static final class Replica {
+
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long ejectedUntilNanos;
+
+        private Replica(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        String baseUrl() {
+            return baseUrl;
+        }
+
+        int outstanding() {
+            return outstanding.get();
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+
+    // the latest LATENCY_SAMPLES latencies, the percentile is recomputed every few samples instead of on every request
+    private static final class LatencyWindow {
+
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private int count;
+        private int nextSample;
+        private long[] sorted;
+        private int samplesSinceSort;
+
+        synchronized void record(long latencyNanos) {
+            samples[nextSample] = latencyNanos;
+            nextSample = (nextSample + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            samplesSinceSort++;
+        }
+
+        synchronized long percentile(double percentile) {
+            if (count < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            if (sorted == null || samplesSinceSort >= MIN_LATENCY_SAMPLES / 2) {
+                sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                samplesSinceSort = 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+}
@@ -1,7 +1,51 @@
 package mlpackage;
 
+import camerapackage.Deadline;
+import camerapackage.FrameHandle;
+import com.fasterxml.jackson.databind.JsonNode;
+
 import java.util.List;
 
 public interface MLServiceClient {
     public String analyzeFrames(List<String> frame_paths) throws Exception;
+
+    // raw result of the ML service for a single frame (top_class, confidence, all_class_probabilities, frame_paths)
+    public JsonNode analyzeFrame(String framePath) throws Exception;
+
+    // like analyzeFrames, but the bytes of the frames are sent instead of their paths, frame_paths holds the frame ids
+    public String analyzeFrameHandles(List<FrameHandle> frames) throws Exception;
+
+    // like analyzeFrame, for a frame held in memory
+    public JsonNode analyzeFrameHandle(FrameHandle frame) throws Exception;
+
+    // analysis that accepts frames one by one while they are captured
+    public IncrementalFrameAnalysis startIncrementalAnalysis();
+
+    // the methods below give up once the deadline expired,
+    // a client that cannot shorten its requests only checks the deadline before it starts
+
+    public default String analyzeFrames(List<String> frame_paths, Deadline deadline) throws Exception {
+        deadline.check();
+        return analyzeFrames(frame_paths);
+    }
+
+    public default JsonNode analyzeFrame(String framePath, Deadline deadline) throws Exception {
+        deadline.check();
+        return analyzeFrame(framePath);
+    }
+
+    public default String analyzeFrameHandles(List<FrameHandle> frames, Deadline deadline) throws Exception {
+        deadline.check();
+        return analyzeFrameHandles(frames);
+    }
+
+    public default JsonNode analyzeFrameHandle(FrameHandle frame, Deadline deadline) throws Exception {
+        deadline.check();
+        return analyzeFrameHandle(frame);
+    }
+
+    // the result of the analysis only includes the frames analyzed before the deadline
+    public default IncrementalFrameAnalysis startIncrementalAnalysis(Deadline deadline) {
+        return startIncrementalAnalysis();
+    }
 }
@@ -1,41 +1,88 @@
 package mlpackage;
 
+import camerapackage.Deadline;
+import camerapackage.DeadlineExceededException;
+import camerapackage.FrameHandle;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
-import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+// created when first used or when the application validates the clients at startup, see orchestrator.startup.lazyClients
+@Lazy
 @Component
 public class MLServiceClientImpl implements MLServiceClient {
 
     private static final Logger logger = LoggerFactory.getLogger(MLServiceClientImpl.class);
     // load mlConfiguration
     private final ConfigLoader mlConfig;
+    // built on first use and replaced by reloadSettings(), see configuration()
+    private volatile Configuration configuration;
     private ObjectMapper objectMapper;
+    private final HttpClient httpClient;
+    // frames analyzed during capture only wait on the ML service, so one virtual thread per frame is enough
+    private final Executor frameAnalysisExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     public MLServiceClientImpl() {
-        this.mlConfig = new ConfigLoader();
-        this.objectMapper = new ObjectMapper();
+        this(new ConfigLoader(), new ObjectMapper());
     }
 
     public MLServiceClientImpl(ConfigLoader mlConfig, ObjectMapper objectMapper) {
         this.mlConfig = mlConfig;
         this.objectMapper = objectMapper;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout(mlConfig))
+                .build();
+    }
+
+    @Autowired
+    public MLServiceClientImpl(HttpClient httpClient) {
+        this(new ConfigLoader(), new ObjectMapper(), httpClient);
+        // an invalid configuration stops the application at startup instead of failing the first analysis
+        settings();
+    }
+
+    public MLServiceClientImpl(ConfigLoader mlConfig, ObjectMapper objectMapper, HttpClient httpClient) {
+        this.mlConfig = mlConfig;
+        this.objectMapper = objectMapper;
+        this.httpClient = httpClient;
     }
 
     public static void main(String[] args) throws Exception {
@@ -58,51 +105,381 @@ public class MLServiceClientImpl implements MLServiceClient {
      */
     @Override
     public String analyzeFrames (List<String> frame_paths) throws URISyntaxException, IOException {
+        return analyzeFrames(frame_paths, Deadline.none());
+    }
+
+    /**
+     * Like analyzeFrames, with the request timeout shortened to the time left until the deadline
+     *
+     * @throws DeadlineExceededException if the deadline already expired
+     */
+    @Override
+    public String analyzeFrames(List<String> frame_paths, Deadline deadline) throws URISyntaxException, IOException {
         logger.info("Sending request to ML service to analyze frames...");
-        String BASE_URL = mlConfig.get("ml.baseUrl");
-        String request = mlConfig.get("ml.requestEndpoint");
-        URI url = new URI(BASE_URL + request);
-        HttpURLConnection connection = (HttpURLConnection) url.toURL().openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setDoOutput(true); // enables writing to request body
+        // one snapshot for the whole analysis, a reload meanwhile applies to the next one
+        Configuration configuration = configuration();
+        MLSettings settings = configuration.settings();
+        JsonNode responseBody = sendAnalyzeRequest(configuration, frame_paths, deadline.limit(Duration.ofMillis(settings.requestTimeoutMillis())), "batch");
+        logger.info("ML model successfully processed frames!");
 
-        // convert input list of frame paths to JSON and write to request body
-        String jsonInputString = buildRequestPayload(frame_paths);
-        connection.getOutputStream().write(jsonInputString.getBytes());
-        // get response code
-        int responseCode = connection.getResponseCode();
-        if (responseCode != HttpURLConnection.HTTP_OK) {
-            logger.error("Failed to connect to the server. Response code: " + responseCode);
-        }
+        ObjectNode resultObject = parseResponseAndCheckConfidence(responseBody, settings.confidenceThreshold());
+        recordConfidence(resultObject, "batch");
+        String mlOutput = objectMapper.writeValueAsString(resultObject);
+        logger.info("ML output: " + mlOutput);
+        return mlOutput;
+    }
+
+    /**
+     * Analyzes a single frame, used to analyze frames while the camera is still capturing
+     *
+     * @param framePath path of the frame to analyze
+     * @return the result node of the ML service response, without the resolved_ambiguity flag
+     */
+    @Override
+    public JsonNode analyzeFrame(String framePath) throws URISyntaxException, IOException {
+        return analyzeFrame(framePath, Deadline.none());
+    }
+
+    @Override
+    public JsonNode analyzeFrame(String framePath, Deadline deadline) throws URISyntaxException, IOException {
+        Configuration configuration = configuration();
+        MLSettings settings = configuration.settings();
+        JsonNode result = sendAnalyzeRequest(configuration, List.of(framePath), deadline.limit(Duration.ofMillis(settings.frameRequestTimeoutMillis())), "frame").path("result");
+        recordConfidence(result, "frame");
+        return result;
+    }
+
+    /**
+     * This method sends the bytes of frames held in memory to the ML service, so the service does not need the camera's filesystem
+     *
+     * @param frames frames captured by the camera, the caller keeps its references
+     * @return JSON string like analyzeFrames, with the frame ids as frame_paths
+     */
+    @Override
+    public String analyzeFrameHandles(List<FrameHandle> frames) throws URISyntaxException, IOException {
+        return analyzeFrameHandles(frames, Deadline.none());
+    }
+
+    @Override
+    public String analyzeFrameHandles(List<FrameHandle> frames, Deadline deadline) throws URISyntaxException, IOException {
+        logger.info("Sending frame bytes to ML service to analyze frames...");
+        Configuration configuration = configuration();
+        MLSettings settings = configuration.settings();
+        JsonNode responseBody = sendAnalyzeBytesRequest(configuration, frames, deadline.limit(Duration.ofMillis(settings.requestTimeoutMillis())), "batch");
         logger.info("ML model successfully processed frames!");
-        // read response
-        BufferedReader response = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-        StringBuilder responseString = new StringBuilder();
-        String line;
-        while ((line = response.readLine()) != null) {
-            responseString.append(line);
-        }
-        response.close();
 
-        ObjectNode resultObject = parseResponseAndCheckConfidence(responseString.toString());
+        ObjectNode resultObject = parseResponseAndCheckConfidence(responseBody, settings.confidenceThreshold());
+        recordConfidence(resultObject, "batch");
         String mlOutput = objectMapper.writeValueAsString(resultObject);
         logger.info("ML output: " + mlOutput);
         return mlOutput;
     }
 
+    @Override
+    public JsonNode analyzeFrameHandle(FrameHandle frame) throws URISyntaxException, IOException {
+        return analyzeFrameHandle(frame, Deadline.none());
+    }
+
+    @Override
+    public JsonNode analyzeFrameHandle(FrameHandle frame, Deadline deadline) throws URISyntaxException, IOException {
+        Configuration configuration = configuration();
+        MLSettings settings = configuration.settings();
+        JsonNode result = sendAnalyzeBytesRequest(configuration, List.of(frame), deadline.limit(Duration.ofMillis(settings.frameRequestTimeoutMillis())), "frame").path("result");
+        recordConfidence(result, "frame");
+        return result;
+    }
+
+    @Override
+    public IncrementalFrameAnalysis startIncrementalAnalysis() {
+        return startIncrementalAnalysis(this, Deadline.none());
+    }
+
+    @Override
+    public IncrementalFrameAnalysis startIncrementalAnalysis(Deadline deadline) {
+        return startIncrementalAnalysis(this, deadline);
+    }
+
+    // lets a wrapping client (e.g. the cache) receive the single frame requests of the analysis
+    // the threshold is fixed when the analysis starts, so a reload does not change the outcome of a running capture
+    IncrementalFrameAnalysis startIncrementalAnalysis(MLServiceClient frameClient, Deadline deadline) {
+        MLSettings settings = settings();
+        return new IncrementalFrameAnalysis(frameClient, objectMapper, frameAnalysisExecutor,
+                settings.confidenceThreshold(), settings.incrementalMinFrames(), deadline);
+    }
+
+    /**
+     * @return the configuration the next analysis uses
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    public MLSettings settings() {
+        return configuration().settings();
+    }
+
+    // the settings and the replicas they configure, read together so an analysis never mixes those of two reloads
+    private Configuration configuration() {
+        Configuration current = configuration;
+        if (current == null) {
+            synchronized (this) {
+                if (configuration == null) {
+                    MLSettings settings = MLSettings.from(mlConfig::get);
+                    configuration = new Configuration(settings, MLReplicaPool.of(settings));
+                }
+                current = configuration;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * This method reads the configuration again and applies it to the next analysis, analyses in progress keep their settings
+     *
+     * @return the new settings
+     * @throws IllegalArgumentException if the new configuration is invalid, the current settings stay in use
+     */
+    public synchronized MLSettings reloadSettings() {
+        MLSettings reloaded = mlConfig.reload();
+        // the outstanding requests and latencies of the replicas are kept unless the replicas or their limits change
+        MLReplicaPool replicas = configuration == null || !configuration.replicas().matches(reloaded)
+                ? MLReplicaPool.of(reloaded) : configuration.replicas();
+        configuration = new Configuration(reloaded, replicas);
+        return reloaded;
+    }
+
+    /**
+     * This method sends the frame paths to a replica of the ML service
+     * The connections are kept open by the HttpClient and reused for the next request
+     *
+     * @param configuration settings and replicas of the analysis
+     * @param frame_paths frame paths to analyze
+     * @param timeout time to wait for the response before giving up
+     * @param mode "batch" or "frame", tags the latency metric
+     * @return the parsed response body
+     */
+    private JsonNode sendAnalyzeRequest(Configuration configuration, List<String> frame_paths, Duration timeout, String mode) throws URISyntaxException, IOException {
+        // convert input list of frame paths to JSON and write to request body
+        String payload = buildRequestPayload(frame_paths);
+        String endpoint = configuration.settings().requestEndpoint();
+        return sendAnalyzeRequest(configuration.replicas(), mode, baseUrl -> analyzeRequest(baseUrl + endpoint, timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload))
+                .build());
+    }
+
+    // the frame ids and capture times (epoch milliseconds) go into headers, the body only holds the length prefixed JPEG bytes
+    // frames of several cameras are interleaved, the capture times let the ML service order them
+    private JsonNode sendAnalyzeBytesRequest(Configuration configuration, List<FrameHandle> frames, Duration timeout, String mode) throws URISyntaxException, IOException {
+        String frameIds = frames.stream().map(FrameHandle::id).collect(Collectors.joining(","));
+        String timestamps = frames.stream().map(frame -> String.valueOf(frame.capturedAt().toEpochMilli())).collect(Collectors.joining(","));
+        // a hedged duplicate gets its own body publisher, both read the same frame bytes
+        String endpoint = configuration.settings().bytesRequestEndpoint();
+        JsonNode response = sendAnalyzeRequest(configuration.replicas(), mode, baseUrl -> analyzeRequest(baseUrl + endpoint, timeout)
+                .header("Content-Type", "application/octet-stream")
+                .header("X-Frame-Ids", frameIds)
+                .header("X-Frame-Timestamps", timestamps)
+                .POST(FrameBodyPublisher.of(frames))
+                .build());
+        // the body is sent without a copy, so a frame evicted meanwhile may have sent the bytes of another frame
+        for (FrameHandle frame : frames) {
+            if (!frame.isIntact()) {
+                throw new IOException("Frame " + frame.id() + " was evicted from the frame store while it was sent");
+            }
+        }
+        return response;
+    }
+
+    private HttpRequest.Builder analyzeRequest(String url, Duration timeout) throws URISyntaxException {
+        return HttpRequest.newBuilder(new URI(url)).timeout(timeout);
+    }
+
+    private JsonNode sendAnalyzeRequest(MLReplicaPool replicas, String mode, AnalyzeRequest request) throws URISyntaxException, IOException {
+        Timer.Sample sample = Timer.start();
+        String outcome = "error";
+        try {
+            JsonNode response = exchange(replicas, mode, request);
+            outcome = "success";
+            return response;
+        } finally {
+            sample.stop(Timer.builder("ml.analyze")
+                    .description("Round trip to the ML service, including inference")
+                    .tag("mode", mode)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(Metrics.globalRegistry));
+        }
+    }
+
+    /**
+     * This method sends the request to the replica with the fewest outstanding requests
+     * If it has not answered within the hedge delay of the mode, the same request is sent to a second replica
+     * and the first successful response is used, the other request is cancelled
+     */
+    private JsonNode exchange(MLReplicaPool pool, String mode, AnalyzeRequest request) throws URISyntaxException, IOException {
+        Attempt primary = attempt(pool, pool.choose(null), mode, request);
+        Attempt hedge = null;
+        try {
+            CompletableFuture<JsonNode> response = primary.response();
+            long hedgeDelay = pool.hedgeDelayMillis(mode);
+            if (hedgeDelay >= 0) {
+                try {
+                    return primary.response().get(hedgeDelay, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    MLReplicaPool.Replica other = pool.choose(primary.replica());
+                    if (other != null) {
+                        logger.info("No answer from " + primary.replica() + " after " + hedgeDelay + " ms, hedging the request to " + other);
+                        hedgedRequests(mode).increment();
+                        hedge = attempt(pool, other, mode, request);
+                        response = firstSuccessful(primary.response(), hedge.response());
+                    }
+                }
+            }
+            return response.get();
+        } catch (ExecutionException e) {
+            throw failure(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // re-interrupt the thread
+            throw new InterruptedIOException("Interrupted while waiting for the ML service");
+        } finally {
+            // no-op for the request that answered
+            primary.response().cancel(true);
+            if (hedge != null) {
+                hedge.response().cancel(true);
+            }
+        }
+    }
+
+    private Attempt attempt(MLReplicaPool pool, MLReplicaPool.Replica replica, String mode, AnalyzeRequest request) throws URISyntaxException {
+        HttpRequest httpRequest = request.create(replica.baseUrl());
+        pool.start(replica);
+        long startNanos = System.nanoTime();
+        CompletableFuture<HttpResponse<InputStream>> sent = httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+        // the body is parsed while it arrives, which blocks, so not on a thread of the HttpClient
+        CompletableFuture<JsonNode> response = sent.thenApplyAsync(this::parseResponse, frameAnalysisExecutor);
+        response.whenComplete((result, error) -> {
+            if (error == null) {
+                pool.succeeded(replica, mode, System.nanoTime() - startNanos);
+            } else if (error instanceof CancellationException) {
+                // cancelling the parsed response does not reach the exchange by itself,
+                // and closing the body stops a parse that is still reading it
+                sent.cancel(true);
+                sent.thenAccept(cancelled -> closeQuietly(cancelled.body()));
+                pool.released(replica);
+            } else if (failure(error) instanceof ClientErrorException) {
+                pool.released(replica);
+            } else {
+                pool.failed(replica);
+            }
+        });
+        return new Attempt(replica, response);
+    }
+
+    private JsonNode parseResponse(HttpResponse<InputStream> response) {
+        try (InputStream body = response.body()) {
+            // get response code, the body of a failed request is not a result and is discarded
+            int responseCode = response.statusCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                logger.error("Failed to connect to the server. Response code: " + responseCode);
+                // read to the end, so the connection can be reused
+                body.transferTo(OutputStream.nullOutputStream());
+                String message = "ML service responded with status " + responseCode;
+                throw new CompletionException(responseCode < 500 ? new ClientErrorException(message) : new IOException(message));
+            }
+            return objectMapper.readTree(body);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close a cancelled response: " + e.getMessage());
+        }
+    }
+
+    // completes with the first response, or with the error of the second request if both fail
+    private static CompletableFuture<JsonNode> firstSuccessful(CompletableFuture<JsonNode> first, CompletableFuture<JsonNode> second) {
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        BiConsumer<JsonNode, Throwable> complete = (response, error) -> {
+            if (error == null) {
+                result.complete(response);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(error);
+            }
+        };
+        first.whenComplete(complete);
+        second.whenComplete(complete);
+        return result;
+    }
+
+    private static IOException failure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof IOException ioException) {
+            return ioException;
+        }
+        return new IOException("Request to the ML service failed: " + cause.getMessage(), cause);
+    }
+
+    private static Counter hedgedRequests(String mode) {
+        return Counter.builder("ml.hedged")
+                .description("Requests duplicated to a second replica because the first was slower than usual")
+                .tag("mode", mode)
+                .register(Metrics.globalRegistry);
+    }
+
+    // builds the request for the replica with the given base URL, called again for a hedged duplicate
+    @FunctionalInterface
+    private interface AnalyzeRequest {
+        HttpRequest create(String baseUrl) throws URISyntaxException;
+    }
+
+    private record Attempt(MLReplicaPool.Replica replica, CompletableFuture<JsonNode> response) {
+    }
+
+    private record Configuration(MLSettings settings, MLReplicaPool replicas) {
+    }
+
+    // the request was rejected, which says nothing about the health of the replica
+    private static final class ClientErrorException extends IOException {
+        private ClientErrorException(String message) {
+            super(message);
+        }
+    }
+
+    // confidence of the top class as reported by the ML service
+    private void recordConfidence(JsonNode result, String mode) {
+        if (result.path("confidence").isNumber()) {
+            DistributionSummary.builder("ml.confidence")
+                    .tag("mode", mode)
+                    .serviceLevelObjectives(0.5, 0.6, 0.7, 0.8, 0.9, 0.95)
+                    .register(Metrics.globalRegistry)
+                    .record(result.get("confidence").asDouble());
+        }
+    }
+
+    // read before the settings are validated, tests may configure the loader only after creating the client
+    private static Duration connectTimeout(ConfigLoader mlConfig) {
+        String millis = mlConfig.get("ml.connectTimeout");
+        return Duration.ofMillis(millis == null || millis.isBlank() ? MLSettings.DEFAULT_TIMEOUT_MILLIS : Long.parseLong(millis));
+    }
+
     protected String buildRequestPayload(List<String> framePaths) throws JsonProcessingException {
         Map<String, Object> payload = new HashMap<>();
         payload.put("frame_paths", framePaths);
         return objectMapper.writeValueAsString(payload);
     }
     protected ObjectNode parseResponseAndCheckConfidence(String responseBody) throws JsonProcessingException {
-        JsonNode fullJsonResponseBody = objectMapper.readTree(responseBody);
+        return parseResponseAndCheckConfidence(objectMapper.readTree(responseBody));
+    }
+    protected ObjectNode parseResponseAndCheckConfidence(JsonNode fullJsonResponseBody) {
+        return parseResponseAndCheckConfidence(fullJsonResponseBody, settings().confidenceThreshold());
+    }
+    private ObjectNode parseResponseAndCheckConfidence(JsonNode fullJsonResponseBody, double confidenceThreshold) {
         JsonNode resultNode = fullJsonResponseBody.path("result");
 
         double confidence = resultNode.path("confidence").asDouble();
-        double CONFIDENCE_THRESHOLD = Double.parseDouble(mlConfig.get("ml.confidenceThreshold"));
-        boolean resolved = confidence >= CONFIDENCE_THRESHOLD;
+        boolean resolved = confidence >= confidenceThreshold;
 
         ObjectNode resultObject = (ObjectNode) resultNode;
         resultObject.put("resolved_ambiguity", resolved);
@@ -0,0 +1,143 @@
+package mlpackage;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Typed and validated snapshot of the ml.* configuration used per analysis.
+ * An analysis reads one snapshot and keeps using it even when the configuration is reloaded meanwhile.
+ * Times are in milliseconds, optional keys that are missing or empty get the defaults of mlApplication.properties.
+ * The ml.cache.* keys are not part of it, the cache is sized once when it is created.
+ * ml.baseUrl lists the replicas of the ML service, separated by commas.
+ */
+public record MLSettings(List<String> baseUrls,
+                         String requestEndpoint,
+                         String bytesRequestEndpoint,
+                         double confidenceThreshold,
+                         int incrementalMinFrames,
+                         long connectTimeoutMillis,
+                         long requestTimeoutMillis,
+                         long frameRequestTimeoutMillis,
+                         String modelVersion,
+                         double hedgePercentile,
+                         long hedgeMinDelayMillis,
+                         int replicaMaxFailures,
+                         long replicaEjectionMillis) {
+
+    // used when a timeout is missing from the configuration
+    static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Reads and validates the ML configuration
+     *
+     * @param properties returns the value of a key, null if it is missing
+     * @return the settings
+     * @throws IllegalArgumentException listing every missing or invalid key
+     */
+    public static MLSettings from(Function<String, String> properties) {
+        Reader reader = new Reader(properties);
+        MLSettings settings = new MLSettings(
+                reader.urls("ml.baseUrl"),
+                reader.required("ml.requestEndpoint"),
+                reader.optional("ml.bytesRequestEndpoint", "/analyze-frame-bytes"),
+                reader.fraction("ml.confidenceThreshold", null),
+                (int) reader.number("ml.incremental.minFrames", 2L, 1),
+                reader.number("ml.connectTimeout", DEFAULT_TIMEOUT_MILLIS, 1),
+                reader.number("ml.requestTimeout", DEFAULT_TIMEOUT_MILLIS, 1),
+                reader.number("ml.frameRequestTimeout", DEFAULT_TIMEOUT_MILLIS, 1),
+                reader.optional("ml.modelVersion", "1"),
+                reader.fraction("ml.hedge.percentile", 0.0),
+                reader.number("ml.hedge.minDelayMillis", 50L, 0),
+                (int) reader.number("ml.replica.maxFailures", 3L, 1),
+                reader.number("ml.replica.ejectionMillis", 10000L, 0));
+        reader.check("ML");
+        return settings;
+    }
+
+    // collects every problem, so a broken file is reported in one go instead of one key per attempt
+    private static final class Reader {
+
+        private final Function<String, String> properties;
+        private final List<String> problems = new ArrayList<>();
+
+        private Reader(Function<String, String> properties) {
+            this.properties = properties;
+        }
+
+        private String optional(String key, String defaultValue) {
+            String value = properties.apply(key);
+            return value == null || value.isBlank() ? defaultValue : value.trim();
+        }
+
+        private String required(String key) {
+            String value = optional(key, null);
+            if (value == null) {
+                problems.add(key + " is missing");
+            }
+            return value;
+        }
+
+        private long number(String key, Long defaultValue, long min) {
+            String value = optional(key, String.valueOf(defaultValue));
+            try {
+                long number = Long.parseLong(value);
+                if (number < min || number > Integer.MAX_VALUE) {
+                    problems.add(key + " must be between " + min + " and " + Integer.MAX_VALUE + " but is " + value);
+                    return min;
+                }
+                return number;
+            } catch (NumberFormatException e) {
+                problems.add(key + " must be a whole number but is '" + value + "'");
+                return min;
+            }
+        }
+
+        private List<String> urls(String key) {
+            String value = required(key);
+            if (value == null) {
+                return List.of();
+            }
+            List<String> urls = Arrays.stream(value.split(",")).map(String::trim).filter(url -> !url.isEmpty()).toList();
+            for (String url : urls) {
+                try {
+                    URI uri = new URI(url);
+                    if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+                        problems.add(key + " must list http or https URLs but contains " + url);
+                    }
+                } catch (URISyntaxException e) {
+                    problems.add(key + " contains the invalid URL " + url);
+                }
+            }
+            return urls;
+        }
+
+        // confidence values of the ML service and percentiles are fractions
+        private double fraction(String key, Double defaultValue) {
+            String value = defaultValue == null ? required(key) : optional(key, String.valueOf(defaultValue));
+            if (value == null) {
+                return 1;
+            }
+            try {
+                double number = Double.parseDouble(value);
+                if (!(number >= 0 && number <= 1)) {
+                    problems.add(key + " must be between 0 and 1 but is " + value);
+                    return 1;
+                }
+                return number;
+            } catch (NumberFormatException e) {
+                problems.add(key + " must be a number but is '" + value + "'");
+                return 1;
+            }
+        }
+
+        private void check(String module) {
+            if (!problems.isEmpty()) {
+                throw new IllegalArgumentException("Invalid " + module + " configuration: " + String.join(", ", problems));
+            }
+        }
+    }
+}
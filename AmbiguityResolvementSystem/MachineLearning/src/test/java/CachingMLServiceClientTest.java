@@ -0,0 +1,182 @@
+package mlpackage;
+
+import camerapackage.FrameHandle;
+import camerapackage.FrameStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class CachingMLServiceClientTest {
+
+    private static final String ML_OUTPUT =
+            "{\"top_class\":\"injection\",\"confidence\":0.9,\"frame_paths\":[\"%s\"],\"resolved_ambiguity\":true}";
+
+    @TempDir
+    Path frames;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private MLServiceClientImpl delegate;
+    private MutableClock clock;
+    private CachingMLServiceClient client;
+
+    // lets the tests move time forward to expire cached results
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-09-11T16:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        delegate = mock(MLServiceClientImpl.class);
+        when(delegate.analyzeFrames(anyList(), any())).thenAnswer(invocation ->
+                String.format(ML_OUTPUT, invocation.<List<String>>getArgument(0).get(0)));
+        ConfigLoader configLoader = new ConfigLoader() {
+            @Override
+            public String get(String key) {
+                return switch (key) {
+                    case "ml.cache.enabled" -> "true";
+                    case "ml.cache.maxEntries" -> "2";
+                    case "ml.cache.ttlMillis" -> "60000";
+                    default -> "test";
+                };
+            }
+        };
+        clock = new MutableClock();
+        client = new CachingMLServiceClient(delegate, configLoader, objectMapper, clock);
+    }
+
+    private String frame(String name, String content) throws Exception {
+        return Files.writeString(frames.resolve(name), content).toString();
+    }
+
+    @Test
+    void analyzeFrames_SameContent_SkipsMLService() throws Exception {
+        String first = frame("frame_1.jpg", "static scene");
+        String second = frame("frame_2.jpg", "static scene");
+
+        client.analyzeFrames(List.of(first));
+        JsonNode cached = objectMapper.readTree(client.analyzeFrames(List.of(second)));
+
+        verify(delegate, times(1)).analyzeFrames(anyList(), any());
+        assertEquals("injection", cached.get("top_class").asText());
+        assertEquals(second, cached.get("frame_paths").get(0).asText(), "The cached result must refer to the new frame");
+        assertEquals(new CachingMLServiceClient.CacheStats(1, 1, 0, 1), client.stats());
+    }
+
+    @Test
+    void analyzeFrameHandles_SameContentAsAFrameFile_SkipsMLService() throws Exception {
+        when(delegate.analyzeFrameHandles(anyList(), any())).thenAnswer(invocation ->
+                String.format(ML_OUTPUT, invocation.<List<FrameHandle>>getArgument(0).get(0).id()));
+        try (FrameStore store = FrameStore.open(null, 64, 2, 60000);
+             FrameHandle first = store.store(Instant.now(), ByteBuffer.wrap("static scene".getBytes(StandardCharsets.UTF_8)));
+             FrameHandle second = store.store(Instant.now(), ByteBuffer.wrap("static scene".getBytes(StandardCharsets.UTF_8)))) {
+
+            client.analyzeFrameHandles(List.of(first));
+            JsonNode cached = objectMapper.readTree(client.analyzeFrameHandles(List.of(second)));
+            // a file with the same bytes has the same key
+            client.analyzeFrames(List.of(frame("frame_1.jpg", "static scene")));
+
+            verify(delegate, times(1)).analyzeFrameHandles(anyList(), any());
+            verify(delegate, never()).analyzeFrames(anyList(), any());
+            assertEquals(second.id(), cached.get("frame_paths").get(0).asText());
+        }
+    }
+
+    @Test
+    void analyzeFrames_DifferentContent_AsksMLService() throws Exception {
+        client.analyzeFrames(List.of(frame("frame_1.jpg", "empty station")));
+        client.analyzeFrames(List.of(frame("frame_2.jpg", "someone at the station")));
+
+        verify(delegate, times(2)).analyzeFrames(anyList(), any());
+    }
+
+    @Test
+    void analyzeFrames_ExpiredResult_AsksMLServiceAgain() throws Exception {
+        String frame = frame("frame_1.jpg", "static scene");
+
+        client.analyzeFrames(List.of(frame));
+        clock.advance(Duration.ofMinutes(2));
+        client.analyzeFrames(List.of(frame));
+
+        verify(delegate, times(2)).analyzeFrames(anyList(), any());
+        assertEquals(1, client.stats().evictions());
+    }
+
+    @Test
+    void analyzeFrames_MoreThanMaxEntries_EvictsLeastRecentlyUsed() throws Exception {
+        String a = frame("a.jpg", "a");
+        String b = frame("b.jpg", "b");
+        String c = frame("c.jpg", "c");
+
+        client.analyzeFrames(List.of(a));
+        client.analyzeFrames(List.of(b));
+        client.analyzeFrames(List.of(a)); // a is now used more recently than b
+        client.analyzeFrames(List.of(c)); // evicts b
+        client.analyzeFrames(List.of(a));
+        client.analyzeFrames(List.of(b));
+
+        verify(delegate, times(2)).analyzeFrames(eq(List.of(b)), any());
+        verify(delegate, times(1)).analyzeFrames(eq(List.of(a)), any());
+        assertEquals(2, client.stats().size());
+    }
+
+    @Test
+    void analyzeFrames_UnreadableFrame_IsNotCached() throws Exception {
+        String missing = frames.resolve("missing.jpg").toString();
+
+        client.analyzeFrames(List.of(missing));
+        client.analyzeFrames(List.of(missing));
+
+        verify(delegate, times(2)).analyzeFrames(anyList(), any());
+        assertEquals(0, client.stats().size());
+    }
+
+    @Test
+    void reloadSettings_NewThreshold_DropsCachedResults() throws Exception {
+        when(delegate.reloadSettings()).thenReturn(new MLSettings(List.of("http://ml"), "/analyze-frames", "/analyze-frame-bytes",
+                0.95, 2, 2000, 10000, 5000, "1", 0.0, 50, 3, 10000));
+        String first = frame("frame_1.jpg", "static scene");
+        client.analyzeFrames(List.of(first));
+
+        client.reloadSettings();
+        client.analyzeFrames(List.of(first));
+
+        verify(delegate, times(2)).analyzeFrames(anyList(), any());
+        assertEquals(new CachingMLServiceClient.CacheStats(0, 2, 1, 1), client.stats());
+    }
+}
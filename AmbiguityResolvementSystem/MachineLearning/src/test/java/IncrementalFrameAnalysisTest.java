@@ -0,0 +1,174 @@
+package mlpackage;
+
+import camerapackage.Deadline;
+import camerapackage.FrameHandle;
+import camerapackage.FrameStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalFrameAnalysisTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // answers every frame with the probabilities configured for its path
+    private MLServiceClient stubClient(Map<String, String> probabilitiesByFrame) {
+        return new MLServiceClient() {
+            @Override
+            public String analyzeFrames(List<String> frame_paths) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public JsonNode analyzeFrame(String framePath) throws Exception {
+                String probabilities = probabilitiesByFrame.get(framePath);
+                if (probabilities == null) {
+                    throw new IllegalStateException("ML service unavailable");
+                }
+                return objectMapper.readTree("{\"all_class_probabilities\": " + probabilities + "}");
+            }
+
+            @Override
+            public String analyzeFrameHandles(List<FrameHandle> frames) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public JsonNode analyzeFrameHandle(FrameHandle frame) throws Exception {
+                assertTrue(frame.isLive(), "The frame must be held until it is analyzed");
+                return analyzeFrame(frame.id());
+            }
+
+            @Override
+            public IncrementalFrameAnalysis startIncrementalAnalysis() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    void awaitResult_AveragesProbabilitiesLikeTheBatchEndpoint() throws Exception {
+        IncrementalFrameAnalysis analysis = new IncrementalFrameAnalysis(stubClient(Map.of(
+                "frame1.jpg", "{\"injection\": 0.9, \"wrapping\": 0.1}",
+                "frame2.jpg", "{\"injection\": 0.5, \"wrapping\": 0.5}")),
+                objectMapper, Runnable::run, 0.8, 2);
+
+        analysis.submit("frame1.jpg");
+        analysis.submit("frame2.jpg");
+        JsonNode result = objectMapper.readTree(analysis.awaitResult());
+
+        assertEquals("injection", result.get("top_class").asText());
+        assertEquals(0.7, result.get("confidence").asDouble(), 1e-9);
+        assertEquals(0.3, result.get("all_class_probabilities").get("wrapping").asDouble(), 1e-9);
+        assertEquals("[\"frame1.jpg\",\"frame2.jpg\"]", result.get("frame_paths").toString());
+        assertFalse(result.get("resolved_ambiguity").asBoolean());
+        assertFalse(analysis.isResolved());
+    }
+
+    @Test
+    void awaitResult_FrameSubmittedTwice_CountsTwiceLikeTheBatchEndpoint() throws Exception {
+        IncrementalFrameAnalysis analysis = new IncrementalFrameAnalysis(stubClient(Map.of(
+                "frame1.jpg", "{\"injection\": 0.9, \"wrapping\": 0.1}",
+                "frame2.jpg", "{\"injection\": 0.3, \"wrapping\": 0.7}")),
+                objectMapper, Runnable::run, 0.8, 3);
+
+        analysis.submit("frame1.jpg");
+        analysis.submit("frame1.jpg");
+        analysis.submit("frame2.jpg");
+        JsonNode result = objectMapper.readTree(analysis.awaitResult());
+
+        assertEquals(0.7, result.get("confidence").asDouble(), 1e-9);
+        assertTrue(result.get("all_class_probabilities").get("injection").asDouble() <= 1.0);
+        assertEquals("[\"frame1.jpg\",\"frame1.jpg\",\"frame2.jpg\"]", result.get("frame_paths").toString());
+    }
+
+    @Test
+    void isResolved_OnlyAfterMinFramesAboveThreshold() {
+        IncrementalFrameAnalysis analysis = new IncrementalFrameAnalysis(stubClient(Map.of(
+                "frame1.jpg", "{\"injection\": 0.95, \"wrapping\": 0.05}",
+                "frame2.jpg", "{\"injection\": 0.85, \"wrapping\": 0.15}")),
+                objectMapper, Runnable::run, 0.8, 2);
+
+        analysis.submit("frame1.jpg");
+        assertFalse(analysis.isResolved(), "A single frame must not resolve the ambiguity");
+
+        analysis.submit("frame2.jpg");
+        assertTrue(analysis.isResolved());
+    }
+
+    @Test
+    void awaitResult_SkipsFramesThatFailed() throws Exception {
+        IncrementalFrameAnalysis analysis = new IncrementalFrameAnalysis(stubClient(Map.of(
+                "frame1.jpg", "{\"injection\": 0.9, \"wrapping\": 0.1}")),
+                objectMapper, Runnable::run, 0.8, 1);
+
+        analysis.submit("frame1.jpg");
+        analysis.submit("missing.jpg");
+        JsonNode result = objectMapper.readTree(analysis.awaitResult());
+
+        assertEquals("[\"frame1.jpg\"]", result.get("frame_paths").toString());
+        assertTrue(result.get("resolved_ambiguity").asBoolean());
+    }
+
+    @Test
+    void awaitResult_NoFrameAnalyzed_ReturnsNull() throws Exception {
+        IncrementalFrameAnalysis analysis = new IncrementalFrameAnalysis(stubClient(Map.of()),
+                objectMapper, Runnable::run, 0.8, 1);
+
+        analysis.submit("missing.jpg");
+
+        assertNull(analysis.awaitResult());
+    }
+
+    @Test
+    void awaitResult_DeadlineReached_UsesFramesAnalyzedInTime() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        IncrementalFrameAnalysis analysis = new IncrementalFrameAnalysis(stubClient(Map.of(
+                "frame1.jpg", "{\"injection\": 0.9, \"wrapping\": 0.1}",
+                "frame2.jpg", "{\"injection\": 0.1, \"wrapping\": 0.9}")),
+                objectMapper, queued::add, 0.8, 1, Deadline.after(Duration.ofMillis(200)));
+
+        analysis.submit("frame1.jpg");
+        queued.forEach(Runnable::run);
+        // never answered, e.g. a hung replica
+        analysis.submit("frame2.jpg");
+        JsonNode result = objectMapper.readTree(analysis.awaitResult());
+        analysis.submit("frame3.jpg");
+
+        assertEquals("[\"frame1.jpg\"]", result.get("frame_paths").toString());
+        assertTrue(result.get("resolved_ambiguity").asBoolean());
+        assertEquals(2, queued.size(), "No frame is analyzed after the deadline");
+    }
+
+    @Test
+    void submit_FrameHandle_HoldsTheFrameUntilItIsAnalyzed() throws Exception {
+        try (FrameStore store = FrameStore.open(null, 16, 1, 60000)) {
+            FrameHandle frame = store.store(Instant.now(), ByteBuffer.wrap(new byte[]{1, 2, 3}));
+            List<Runnable> queued = new ArrayList<>();
+            IncrementalFrameAnalysis analysis = new IncrementalFrameAnalysis(stubClient(Map.of(
+                    frame.id(), "{\"injection\": 0.9, \"wrapping\": 0.1}")),
+                    objectMapper, queued::add, 0.8, 1);
+
+            analysis.submit(frame);
+            // the capture loop gives back its reference right away
+            frame.release();
+            assertEquals(1, frame.referenceCount());
+
+            queued.forEach(Runnable::run);
+            JsonNode result = objectMapper.readTree(analysis.awaitResult());
+
+            assertEquals("[\"" + frame.id() + "\"]", result.get("frame_paths").toString());
+            assertFalse(frame.isLive());
+            assertEquals(0, store.storedFrames());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package mlpackage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MLReplicaPoolTest {
+
+    private static final List<String> REPLICAS = List.of("http://ml-1", "http://ml-2", "http://ml-3");
+
+    @Test
+    void choose_PicksReplicaWithFewestOutstandingRequests() {
+        MLReplicaPool pool = new MLReplicaPool(REPLICAS, 3, 10000, 0.95, 50);
+
+        for (int i = 0; i < 6; i++) {
+            pool.start(pool.choose(null));
+        }
+        MLReplicaPool.Replica busy = pool.choose(null);
+        pool.start(busy);
+        pool.start(busy);
+
+        for (int i = 0; i < 10; i++) {
+            MLReplicaPool.Replica chosen = pool.choose(null);
+            assertNotSame(busy, chosen);
+            assertEquals(2, chosen.outstanding());
+        }
+    }
+
+    @Test
+    void choose_ExcludedReplica_IsNeverPicked() {
+        MLReplicaPool pool = new MLReplicaPool(List.of("http://ml-1"), 3, 10000, 0.95, 50);
+        MLReplicaPool.Replica only = pool.choose(null);
+
+        assertNull(pool.choose(only));
+    }
+
+    @Test
+    void failed_MaxFailuresInARow_EjectsUntilEjectionEnds() throws Exception {
+        MLReplicaPool pool = new MLReplicaPool(List.of("http://ml-1", "http://ml-2"), 2, 100, 0.95, 50);
+        MLReplicaPool.Replica failing = pool.choose(null);
+        for (int i = 0; i < 2; i++) {
+            pool.start(failing);
+            pool.failed(failing);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertNotSame(failing, pool.choose(null));
+        }
+        Thread.sleep(150);
+
+        assertTrue(List.of(pool.choose(null), pool.choose(null)).contains(failing));
+    }
+
+    @Test
+    void choose_AllReplicasEjected_StillPicksOne() {
+        MLReplicaPool pool = new MLReplicaPool(List.of("http://ml-1"), 1, 10000, 0.95, 50);
+        MLReplicaPool.Replica replica = pool.choose(null);
+        pool.start(replica);
+        pool.failed(replica);
+
+        assertSame(replica, pool.choose(null));
+    }
+
+    @Test
+    void hedgeDelayMillis_UsesPercentileOfObservedLatencies() {
+        MLReplicaPool pool = new MLReplicaPool(REPLICAS, 3, 10000, 0.9, 50);
+        MLReplicaPool.Replica replica = pool.choose(null);
+
+        assertEquals(-1, pool.hedgeDelayMillis("batch"), "Not hedged before enough latencies are known");
+        for (int i = 1; i <= 100; i++) {
+            pool.start(replica);
+            pool.succeeded(replica, "batch", i * 10_000_000L);
+        }
+
+        assertEquals(900, pool.hedgeDelayMillis("batch"));
+        assertEquals(-1, pool.hedgeDelayMillis("frame"));
+        assertEquals(-1, new MLReplicaPool(List.of("http://ml-1"), 3, 10000, 0.9, 50).hedgeDelayMillis("batch"));
+    }
+
+    @Test
+    void newPool_SameReplica_KeepsOneOutstandingGaugeForIt() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            new MLReplicaPool(List.of("http://ml-gauge"), 3, 10000, 0.9, 50);
+            // e.g. a reload that changed the limits of the replica
+            MLReplicaPool reloaded = new MLReplicaPool(List.of("http://ml-gauge"), 5, 10000, 0.9, 50);
+            reloaded.start(reloaded.choose(null));
+
+            Collection<Gauge> gauges = registry.find("ml.replica.outstanding").tag("replica", "http://ml-gauge").gauges();
+            assertEquals(1, gauges.size());
+            assertEquals(1, gauges.iterator().next().value());
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+}
@@ -1,31 +1,215 @@
 package mlpackage;
 
+import camerapackage.FrameHandle;
+import camerapackage.FrameStore;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class MLServiceClientImplTest {
 
     private MLServiceClientImpl client;
+    private HttpServer mlService;
+    private int mlServiceStatus;
+    private String mlServiceResponse;
+    private volatile byte[] receivedBytes;
+    private volatile String receivedFrameIds;
+    private volatile String receivedFrameTimestamps;
 
     @BeforeEach
-    void setUp() {
-        ConfigLoader configLoader = new ConfigLoader() {
+    void setUp() throws IOException {
+        // stands in for the python ML service
+        mlService = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        mlService.createContext("/analyze-frames", exchange -> {
+            byte[] body = mlServiceResponse.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(mlServiceStatus, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        mlService.createContext("/analyze-frame-bytes", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                receivedBytes = in.readAllBytes();
+            }
+            receivedFrameIds = exchange.getRequestHeaders().getFirst("X-Frame-Ids");
+            receivedFrameTimestamps = exchange.getRequestHeaders().getFirst("X-Frame-Timestamps");
+            byte[] body = mlServiceResponse.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(mlServiceStatus, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        mlService.start();
+        client = new MLServiceClientImpl(config("http://localhost:" + mlService.getAddress().getPort(), "0", "500"), new ObjectMapper());
+    }
+
+    private static ConfigLoader config(String baseUrl, String hedgePercentile, String requestTimeout) {
+        return new ConfigLoader() {
             @Override
             public String get(String key) {
                 return switch (key) {
                     case "ml.confidenceThreshold" -> "0.8";
+                    case "ml.connectTimeout", "ml.requestTimeout", "ml.frameRequestTimeout" -> requestTimeout;
+                    case "ml.baseUrl" -> baseUrl;
+                    case "ml.requestEndpoint" -> "/analyze-frames";
+                    case "ml.bytesRequestEndpoint" -> "/analyze-frame-bytes";
+                    case "ml.incremental.minFrames" -> "1";
+                    case "ml.hedge.percentile" -> hedgePercentile;
+                    case "ml.hedge.minDelayMillis" -> "20";
+                    case "ml.replica.maxFailures" -> "2";
+                    case "ml.replica.ejectionMillis" -> "60000";
                     default -> "http://dummy-url.com/";
                 };
             }
         };
-        client = new MLServiceClientImpl(configLoader, new ObjectMapper());
+    }
+
+    // a replica answering /analyze-frames after delayMillis with the given status, counts its requests
+    private static HttpServer replica(AtomicLong delayMillis, int status, AtomicInteger requests) throws IOException {
+        HttpServer replica = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        replica.setExecutor(Executors.newCachedThreadPool());
+        replica.createContext("/analyze-frames", exchange -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(delayMillis.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"result\": {\"top_class\": \"injection\", \"confidence\": 0.9}}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        replica.start();
+        return replica;
+    }
+
+    private static String url(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        mlService.stop(0);
+    }
+
+    @Test
+    void testAnalyzeFrames_ParsesResponseFromService() throws Exception {
+        mlServiceStatus = 200;
+        mlServiceResponse = "{\"result\": {\"top_class\": \"injection\", \"confidence\": 0.9}}";
+
+        JsonNode result = new ObjectMapper().readTree(client.analyzeFrames(List.of("frame1.jpg")));
+
+        assertEquals("injection", result.get("top_class").asText());
+        assertTrue(result.get("resolved_ambiguity").asBoolean());
+    }
+
+    @Test
+    void testAnalyzeFrames_ErrorStatus_ThrowsIOException() {
+        mlServiceStatus = 500;
+        mlServiceResponse = "Internal Server Error";
+
+        assertThrows(IOException.class, () -> client.analyzeFrames(List.of("frame1.jpg")));
+    }
+
+    @Test
+    void testAnalyzeFrames_SlowReplica_HedgedToOtherReplica() throws Exception {
+        AtomicLong slowDelay = new AtomicLong(0);
+        AtomicInteger slowRequests = new AtomicInteger();
+        AtomicInteger fastRequests = new AtomicInteger();
+        HttpServer slow = replica(slowDelay, 200, slowRequests);
+        HttpServer fast = replica(new AtomicLong(0), 200, fastRequests);
+        try {
+            MLServiceClientImpl hedgingClient = new MLServiceClientImpl(config(url(slow) + "," + url(fast), "0.9", "10000"), new ObjectMapper());
+            // the latencies the hedge delay is derived from
+            for (int i = 0; i < 30; i++) {
+                hedgingClient.analyzeFrames(List.of("frame1.jpg"));
+            }
+            slowDelay.set(5000);
+            int slowBefore = slowRequests.get();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 4; i++) {
+                JsonNode result = new ObjectMapper().readTree(hedgingClient.analyzeFrames(List.of("frame1.jpg")));
+                assertTrue(result.get("resolved_ambiguity").asBoolean());
+            }
+
+            // every request the slow replica got was answered by the fast one instead of waiting 5 s
+            assertTrue(System.nanoTime() - start < 4_000_000_000L);
+            assertTrue(slowRequests.get() > slowBefore);
+        } finally {
+            slow.stop(0);
+            fast.stop(0);
+        }
+    }
+
+    @Test
+    void testAnalyzeFrames_FailingReplica_IsEjected() throws Exception {
+        AtomicInteger failingRequests = new AtomicInteger();
+        AtomicInteger healthyRequests = new AtomicInteger();
+        HttpServer failing = replica(new AtomicLong(0), 503, failingRequests);
+        HttpServer healthy = replica(new AtomicLong(0), 200, healthyRequests);
+        try {
+            MLServiceClientImpl balancingClient = new MLServiceClientImpl(config(url(failing) + "," + url(healthy), "0", "2000"), new ObjectMapper());
+            int failures = 0;
+            for (int i = 0; i < 10; i++) {
+                try {
+                    balancingClient.analyzeFrames(List.of("frame1.jpg"));
+                } catch (IOException e) {
+                    failures++;
+                }
+            }
+
+            // ejected after ml.replica.maxFailures failures, the remaining requests went to the healthy replica
+            assertEquals(2, failingRequests.get());
+            assertEquals(2, failures);
+            assertEquals(8, healthyRequests.get());
+        } finally {
+            failing.stop(0);
+            healthy.stop(0);
+        }
+    }
+
+    @Test
+    void testAnalyzeFrameHandles_SendsLengthPrefixedFrameBytes() throws Exception {
+        mlServiceStatus = 200;
+        mlServiceResponse = "{\"result\": {\"top_class\": \"injection\", \"confidence\": 0.9}}";
+        try (FrameStore store = FrameStore.open(null, 64, 2, 60000);
+             FrameHandle first = store.store(Instant.ofEpochMilli(1700000000000L), ByteBuffer.wrap("jpeg1".getBytes(StandardCharsets.UTF_8)));
+             FrameHandle second = store.store(Instant.ofEpochMilli(1700000000500L), ByteBuffer.wrap("jpeg22".getBytes(StandardCharsets.UTF_8)))) {
+
+            JsonNode result = new ObjectMapper().readTree(client.analyzeFrameHandles(List.of(first, second)));
+
+            assertTrue(result.get("resolved_ambiguity").asBoolean());
+            assertEquals(first.id() + "," + second.id(), receivedFrameIds);
+            assertEquals("1700000000000,1700000000500", receivedFrameTimestamps);
+            ByteBuffer body = ByteBuffer.wrap(receivedBytes);
+            assertEquals(5, body.getInt());
+            assertEquals("jpeg1", new String(receivedBytes, 4, 5, StandardCharsets.UTF_8));
+            body.position(9);
+            assertEquals(6, body.getInt());
+            assertEquals("jpeg22", new String(receivedBytes, 13, 6, StandardCharsets.UTF_8));
+            assertEquals(19, receivedBytes.length);
+        }
     }
 
     @Test
@@ -0,0 +1,149 @@
+package orchestrator.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded admission for one kind of request.
+ * At most maxConcurrent requests hold a permit at once, up to maxQueued more wait at most maxWaitMillis for one,
+ * everything beyond that is rejected with a LaneSaturatedException that tells the caller when to retry.
+ * The number of requests in flight and queued, and the rejections are exposed as
+ * admission.in_flight, admission.queued and admission.rejected, tagged with the lane.
+ */
+public class AdmissionLane {
+
+    // weight of the latest request in the moving average of the time a permit is held
+    private static final double SMOOTHING = 0.1;
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    // fair, so queued requests get the next free permit in arrival order
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Counter rejected;
+    // guarded by this
+    private double meanServiceMillis = Double.NaN;
+
+    public AdmissionLane(String name, int maxConcurrent, int maxQueued, long maxWaitMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.rejected = rejectedCounter(name);
+        Gauge.builder("admission.in_flight", this, AdmissionLane::inFlight)
+                .description("Requests of the lane that are being processed")
+                .tag("lane", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("admission.queued", queued, AtomicInteger::get)
+                .description("Requests of the lane that wait for a free slot")
+                .tag("lane", name)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * @return the counter of rejected requests of the lane
+     */
+    public static Counter rejectedCounter(String lane) {
+        return Counter.builder("admission.rejected")
+                .description("Requests rejected because their lane was saturated")
+                .tag("lane", lane)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Estimates when a saturated lane has room again, assuming the queued requests take the usual time
+     *
+     * @param meanServiceMillis usual time of a request, NaN if unknown
+     * @param waiting number of requests ahead of the caller
+     * @param concurrency number of requests processed at once
+     * @return seconds to wait before retrying, at least 1
+     */
+    public static long estimateRetryAfterSeconds(double meanServiceMillis, int waiting, int concurrency) {
+        if (Double.isNaN(meanServiceMillis) || concurrency <= 0) {
+            return 1;
+        }
+        double millis = meanServiceMillis * (waiting + 1) / concurrency;
+        return Math.max(1, (long) Math.ceil(millis / 1000));
+    }
+
+    /**
+     * Takes a permit of the lane, waiting at most maxWaitMillis if all are taken and the queue has room
+     *
+     * @return the permit, which must be closed when the request is done
+     * @throws LaneSaturatedException if the queue is full or no permit got free in time
+     */
+    public Permit enter() {
+        if (permits.tryAcquire()) {
+            return new Permit();
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            throw saturated();
+        }
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw saturated();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw saturated();
+        } finally {
+            queued.decrementAndGet();
+        }
+        return new Permit();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int inFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int queued() {
+        return queued.get();
+    }
+
+    private LaneSaturatedException saturated() {
+        rejected.increment();
+        double mean;
+        synchronized (this) {
+            mean = meanServiceMillis;
+        }
+        return new LaneSaturatedException(name, estimateRetryAfterSeconds(mean, queued.get(), maxConcurrent));
+    }
+
+    private synchronized void recordServiceTime(double millis) {
+        meanServiceMillis = Double.isNaN(meanServiceMillis) ? millis : meanServiceMillis + SMOOTHING * (millis - meanServiceMillis);
+    }
+
+    /**
+     * A slot of the lane, closing it hands the slot to the next queued request
+     */
+    public class Permit implements AutoCloseable {
+
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                recordServiceTime((System.nanoTime() - startNanos) / 1e6);
+                permits.release();
+            }
+        }
+    }
+}
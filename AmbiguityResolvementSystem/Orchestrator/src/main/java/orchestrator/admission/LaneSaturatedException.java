@@ -0,0 +1,29 @@
+package orchestrator.admission;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a request is not admitted because its lane is at its concurrency cap and its queue is full.
+ */
+public class LaneSaturatedException extends RejectedExecutionException {
+
+    private final String lane;
+    private final long retryAfterSeconds;
+
+    public LaneSaturatedException(String lane, long retryAfterSeconds) {
+        super("The " + lane + " lane is saturated, retry in " + retryAfterSeconds + " s");
+        this.lane = lane;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+    /**
+     * @return estimated number of seconds until the lane has room again, at least 1
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,24 @@
+package orchestrator.config;
+
+import orchestrator.admission.AdmissionLane;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+
+/**
+ * Provides the admission lane of the unambiguous events.
+ * It has its own slots, so clean events never wait behind ambiguity resolutions,
+ * which are admitted by the bounded resolution executor instead.
+ */
+@Configuration
+@PropertySource("classpath:orchestrator.properties")
+public class AdmissionConfiguration {
+
+    @Bean(name = "unambiguousLane")
+    public AdmissionLane unambiguousLane(@Value("${orchestrator.admission.unambiguous.maxConcurrent}") int maxConcurrent,
+                                         @Value("${orchestrator.admission.unambiguous.maxQueued}") int maxQueued,
+                                         @Value("${orchestrator.admission.unambiguous.maxWaitMillis}") long maxWaitMillis) {
+        return new AdmissionLane("unambiguous", maxConcurrent, maxQueued, maxWaitMillis);
+    }
+}
@@ -0,0 +1,51 @@
+package orchestrator.config;
+
+import camerapackage.CameraServiceClientImpl;
+import mlpackage.CachingMLServiceClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the camera and ML clients at startup unless orchestrator.startup.lazyClients is set.
+ * The clients, their config loaders and their HttpClient are lazy beans that are otherwise created on their first use,
+ * which is the first ambiguous window; unambiguous events never need them.
+ * Creating them here keeps an invalid camera or ML configuration stopping the orchestrator before it serves requests.
+ */
+@Component
+public class ClientInitializer implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClientInitializer.class);
+
+    private final ObjectProvider<CameraServiceClientImpl> cameraClient;
+    private final ObjectProvider<CachingMLServiceClient> mlClient;
+    private final boolean lazyClients;
+
+    @Autowired
+    public ClientInitializer(ObjectProvider<CameraServiceClientImpl> cameraClient,
+                             ObjectProvider<CachingMLServiceClient> mlClient,
+                             @Value("${orchestrator.startup.lazyClients}") boolean lazyClients) {
+        this.cameraClient = cameraClient;
+        this.mlClient = mlClient;
+        this.lazyClients = lazyClients;
+    }
+
+    /**
+     * This method runs once all eager beans exist, before the web server accepts requests
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (lazyClients) {
+            logger.info("Camera and ML clients are created on their first use");
+            return;
+        }
+        long start = System.nanoTime();
+        cameraClient.getObject();
+        mlClient.getObject();
+        logger.info("Created the camera and ML clients in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
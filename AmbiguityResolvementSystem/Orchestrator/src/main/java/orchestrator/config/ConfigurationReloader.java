@@ -0,0 +1,177 @@
+package orchestrator.config;
+
+import camerapackage.CameraConfigLoader;
+import camerapackage.CameraServiceClientImpl;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import mlpackage.CachingMLServiceClient;
+import mlpackage.ConfigLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import publisherpackage.PublishingServiceClientImpl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Applies changes of the camera, ML and publisher configuration while the orchestrator is running.
+ * Each module reads and validates its configuration into a new settings snapshot and swaps it in one step,
+ * an invalid configuration is rejected and the module keeps its current settings.
+ * Captures, analyses and publishes in progress keep the snapshot they started with, only the next ones use the new settings.
+ * The override files (system properties cameraControl.configFile, ml.configFile and publisher.configFile)
+ * are checked every orchestrator.config.watchIntervalMillis, reload() applies the configuration on demand.
+ */
+@Component
+public class ConfigurationReloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigurationReloader.class);
+
+    private final List<Module> modules;
+    private final long watchIntervalMillis;
+    // last seen modification time per module, guarded by this
+    private final Map<String, FileTime> modifiedTimes = new HashMap<>();
+    private ScheduledExecutorService watcher;
+
+    // a reload of a client that was not created yet creates it, its settings are read then anyway
+    @Autowired
+    public ConfigurationReloader(@Lazy CameraServiceClientImpl cameraClient,
+                                 @Lazy CachingMLServiceClient mlClient,
+                                 PublishingServiceClientImpl publishingClient,
+                                 @Value("${orchestrator.config.watchIntervalMillis}") long watchIntervalMillis) {
+        this(List.of(
+                new Module("camera", CameraConfigLoader::overrideFile, cameraClient::reloadSettings, cameraClient::settings),
+                new Module("ml", ConfigLoader::overrideFile, mlClient::reloadSettings, mlClient::settings),
+                new Module("publisher", publisherpackage.ConfigLoader::overrideFile, publishingClient::reloadSettings, publishingClient::settings)),
+                watchIntervalMillis);
+    }
+
+    ConfigurationReloader(List<Module> modules, long watchIntervalMillis) {
+        this.modules = modules;
+        this.watchIntervalMillis = watchIntervalMillis;
+    }
+
+    /**
+     * This method starts watching the override files, 0 as interval disables it
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (watchIntervalMillis <= 0) {
+            return;
+        }
+        for (Module module : modules) {
+            modifiedTimes.put(module.name(), modifiedTime(module.file().get()));
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("config-watcher").daemon().factory());
+        watcher.scheduleWithFixedDelay(this::reloadChangedModules, watchIntervalMillis, watchIntervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Watching configuration files every " + watchIntervalMillis + " ms");
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    /**
+     * This method reloads the configuration of every module
+     *
+     * @return the settings of every module and the error of every module whose configuration was rejected
+     */
+    public synchronized ReloadResult reload() {
+        Map<String, String> errors = new LinkedHashMap<>();
+        for (Module module : modules) {
+            String error = reload(module);
+            if (error != null) {
+                errors.put(module.name(), error);
+            }
+            modifiedTimes.put(module.name(), modifiedTime(module.file().get()));
+        }
+        return new ReloadResult(currentSettings(), errors);
+    }
+
+    /**
+     * @return the settings every module uses right now, by module name
+     */
+    public Map<String, Object> currentSettings() {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        for (Module module : modules) {
+            settings.put(module.name(), module.current().get());
+        }
+        return settings;
+    }
+
+    // called by the watcher, only modules whose override file changed are reloaded
+    synchronized void reloadChangedModules() {
+        for (Module module : modules) {
+            FileTime modified = modifiedTime(module.file().get());
+            if (Objects.equals(modified, modifiedTimes.get(module.name()))) {
+                continue;
+            }
+            modifiedTimes.put(module.name(), modified);
+            reload(module);
+        }
+    }
+
+    // null if the new configuration was applied, otherwise the reason it was rejected
+    private String reload(Module module) {
+        try {
+            module.reload().get();
+            return null;
+        } catch (RuntimeException e) {
+            logger.error("Rejected " + module.name() + " configuration, keeping the current settings: " + e.getMessage());
+            return e.getMessage();
+        }
+    }
+
+    private static FileTime modifiedTime(Path file) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            // not created yet or removed, the packaged configuration applies
+            return null;
+        }
+    }
+
+    /**
+     * A module whose settings can be reloaded
+     *
+     * @param file the override file of the module, null if none is configured
+     * @param reload reloads and applies the configuration, throws IllegalArgumentException if it is invalid
+     *               and UncheckedIOException if the override file cannot be read
+     * @param current the settings in use
+     */
+    record Module(String name, Supplier<Path> file, Supplier<Object> reload, Supplier<Object> current) {
+    }
+
+    /**
+     * Outcome of a reload
+     *
+     * @param settings settings in use after the reload, by module name
+     * @param errors reason every rejected module configuration was rejected, by module name
+     */
+    public record ReloadResult(Map<String, Object> settings, Map<String, String> errors) {
+
+        public boolean isSuccessful() {
+            return errors.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package orchestrator.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.PropertySource;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Provides the HttpClient shared by the camera and ML clients.
+ * It keeps the connections to both services open between requests, so a resolution
+ * does not pay a new TCP handshake for every start, capture, stop and analyze call.
+ * Request timeouts are set per endpoint by the clients themselves.
+ * Like the clients it is created on their first use, see ClientInitializer.
+ */
+@Configuration
+@PropertySource("classpath:orchestrator.properties")
+public class HttpClientConfiguration {
+
+    @Lazy
+    @Bean
+    public HttpClient serviceHttpClient(@Value("${orchestrator.http.connectTimeout}") long connectTimeoutMillis) {
+        // the python services speak plain HTTP/1.1, so skip the h2c upgrade attempt
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+    }
+}
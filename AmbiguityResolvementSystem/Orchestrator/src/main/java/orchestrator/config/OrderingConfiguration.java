@@ -0,0 +1,30 @@
+package orchestrator.config;
+
+import orchestrator.ordering.KeyedExecutor;
+import orchestrator.ordering.OrderingKeys;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the executor that publishes events in the order they arrived per case.
+ * Publishes of different cases run in parallel on virtual threads, which are spread over the cores.
+ */
+@Configuration
+@PropertySource("classpath:orchestrator.properties")
+public class OrderingConfiguration {
+
+    @Bean
+    public OrderingKeys orderingKeys(@Value("${orchestrator.ordering.keyAttributes:}") String keyAttributes) {
+        return new OrderingKeys(Arrays.stream(keyAttributes.split(",")).map(String::trim).filter(attribute -> !attribute.isEmpty()).toList());
+    }
+
+    @Bean(name = "publishOrder", destroyMethod = "close")
+    public KeyedExecutor publishOrder() {
+        return new KeyedExecutor("publish", Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ordered-publish-", 0).factory()));
+    }
+}
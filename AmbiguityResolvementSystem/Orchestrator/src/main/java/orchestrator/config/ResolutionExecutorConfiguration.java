@@ -0,0 +1,53 @@
+package orchestrator.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import orchestrator.service.OrchestratorService;
+import orchestrator.service.ResolutionBudget;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the executor that ambiguity resolutions run on.
+ * The pool and its queue are bounded, so a burst of ambiguous windows is rejected
+ * instead of piling up behind the (exclusive) camera.
+ * This is the ambiguous admission lane: maxConcurrent caps the resolutions that hold the camera at once,
+ * its queue depth and the running resolutions are exposed like those of the unambiguous lane.
+ * Also provides the time budget every resolution gets from its submission to its publication.
+ */
+@Configuration
+@PropertySource("classpath:orchestrator.properties")
+public class ResolutionExecutorConfiguration {
+
+    @Bean(name = "resolutionExecutor", destroyMethod = "shutdown")
+    public ExecutorService resolutionExecutor(@Value("${orchestrator.resolution.maxConcurrent}") int maxConcurrent,
+                                              @Value("${orchestrator.resolution.queueCapacity}") int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofVirtual().name("resolution-", 0).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        Gauge.builder("admission.in_flight", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Requests of the lane that are being processed")
+                .tag("lane", OrchestratorService.AMBIGUOUS_LANE)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("admission.queued", executor, pool -> pool.getQueue().size())
+                .description("Requests of the lane that wait for a free slot")
+                .tag("lane", OrchestratorService.AMBIGUOUS_LANE)
+                .register(Metrics.globalRegistry);
+        return executor;
+    }
+
+    @Bean
+    public ResolutionBudget resolutionBudget(@Value("${orchestrator.resolution.deadlineMillis}") long deadlineMillis,
+                                             @Value("${orchestrator.resolution.analysisReserveMillis}") long analysisReserveMillis,
+                                             @Value("${orchestrator.resolution.publishReserveMillis}") long publishReserveMillis) {
+        return new ResolutionBudget(deadlineMillis, analysisReserveMillis, publishReserveMillis);
+    }
+}
@@ -0,0 +1,40 @@
+package orchestrator.controller;
+
+import orchestrator.config.ConfigurationReloader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+// Lets operators tune the camera, ML and publisher clients under load without a restart
+@RestController
+@RequestMapping("/admin/config")
+public class ConfigurationController {
+
+    private final ConfigurationReloader reloader;
+
+    @Autowired
+    public ConfigurationController(ConfigurationReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    // settings every module uses right now
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getConfiguration() {
+        return ResponseEntity.ok(reloader.currentSettings());
+    }
+
+    // reads the configuration files again, a module with an invalid configuration keeps its settings and is answered with 400
+    @PostMapping("/reload")
+    public ResponseEntity<ConfigurationReloader.ReloadResult> reloadConfiguration() {
+        ConfigurationReloader.ReloadResult result = reloader.reload();
+        if (!result.isSuccessful()) {
+            return ResponseEntity.badRequest().body(result);
+        }
+        return ResponseEntity.ok(result);
+    }
+}
@@ -1,43 +1,114 @@
 package orchestrator.controller;
 
+import orchestrator.admission.AdmissionLane;
+import orchestrator.admission.LaneSaturatedException;
 import orchestrator.service.OrchestratorService;
+import orchestrator.service.Resolution;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import publisherpackage.EventPublishStatus;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 // Reference: GitHub repo of my group project --> Software Engineering Course (BuyTicketController.java)
 @RestController
 @RequestMapping("/orchestrate")
 public class OrchestratorController {
 
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     private final OrchestratorService orchestrator;
+    private final AdmissionLane unambiguousLane;
 
     @Autowired
-    public OrchestratorController(OrchestratorService orchestrator) {
+    public OrchestratorController(OrchestratorService orchestrator, @Qualifier("unambiguousLane") AdmissionLane unambiguousLane) {
         this.orchestrator = orchestrator;
+        this.unambiguousLane = unambiguousLane;
     }
     // Post mapping for when the orchestrator is triggered --> meaning a new event has happened
+    // the body is converted to XES while it is read from the request, it is never held as a String
+    // a resent event (same Idempotency-Key header, or the same body without one) is answered without publishing it again
     @PostMapping("/unambiguous-event")
-    public ResponseEntity<String> receiveNewEvent(@RequestBody String jsonEvent) {
-        try {
-            orchestrator.publishUnambiguousEvent(jsonEvent);
+    public ResponseEntity<String> receiveNewEvent(InputStream jsonEvent,
+                                                  @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        try (AdmissionLane.Permit permit = unambiguousLane.enter()) {
+            if (!orchestrator.publishUnambiguousEvent(jsonEvent, idempotencyKey, permit)) {
+                return ResponseEntity.ok("Event was received before and is not published again");
+            }
             return ResponseEntity.ok("Event received and processed successfully");
+        } catch (LaneSaturatedException e) {
+            return tooManyRequests(e);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing event: " + e.getMessage());
         }
     }
 
+    // Batch of unambiguous events as JSON array or NDJSON, published in one burst, answers with the status of every event
+    @PostMapping("/unambiguous-events")
+    public ResponseEntity<?> receiveNewEvents(@RequestBody String jsonEvents,
+                                              @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        try (AdmissionLane.Permit permit = unambiguousLane.enter()) {
+            List<EventPublishStatus> statuses = orchestrator.publishUnambiguousEvents(jsonEvents, idempotencyKey, permit);
+            return ResponseEntity.ok(statuses);
+        } catch (LaneSaturatedException e) {
+            return tooManyRequests(e);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid batch: " + e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing events: " + e.getMessage());
+        }
+    }
+
+    // Ambiguity resolution takes several seconds, so it runs in the background and the caller gets the resolution id
+    // a resent window gets the resolution of the first one, it is not captured and analyzed again
     @PostMapping("/ambiguous-event")
-    public ResponseEntity<String> receiveAmbiguousEvent(@RequestBody String jsonEvent) {
+    public ResponseEntity<?> receiveAmbiguousEvent(@RequestBody String jsonEvent,
+                                                   @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
         try {
-            orchestrator.resolveAmbiguityAndPublishEvent(jsonEvent);
-            return ResponseEntity.ok("Ambiguous event received and processed successfully");
+            Resolution resolution = orchestrator.submitAmbiguousEvent(jsonEvent, idempotencyKey);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/orchestrate/resolutions/" + resolution.getId()))
+                    .body(resolution.toStatus());
+        } catch (LaneSaturatedException e) {
+            return tooManyRequests(e);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Resolutions are not accepted anymore");
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing ambiguous event: " + e.getMessage());
         }
     }
+
+    @GetMapping("/resolutions/{id}")
+    public ResponseEntity<Resolution.ResolutionStatus> getResolution(@PathVariable("id") String id) {
+        return orchestrator.findResolution(id)
+                .map(resolution -> ResponseEntity.ok(resolution.toStatus()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // publishes per case that wait for an earlier event of the case or are running, a case that stays here is stuck behind a resolution
+    @GetMapping("/backlog")
+    public ResponseEntity<Map<String, Integer>> getPublishBacklog() {
+        return ResponseEntity.ok(orchestrator.publishBacklog());
+    }
+
+    // the detector backs off for the estimated time until the lane has room again
+    private static ResponseEntity<String> tooManyRequests(LaneSaturatedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body("The " + e.getLane() + " lane is full, try again later");
+    }
 }
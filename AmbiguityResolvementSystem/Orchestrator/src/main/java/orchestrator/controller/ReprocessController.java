@@ -0,0 +1,51 @@
+package orchestrator.controller;
+
+import orchestrator.reprocess.EventLogReprocessor;
+import orchestrator.reprocess.ReprocessJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+// Reprocesses recorded logs offline after the model or the confidence threshold changed, without going through the HTTP endpoints
+@RestController
+@RequestMapping("/admin/reprocess")
+public class ReprocessController {
+
+    private final EventLogReprocessor reprocessor;
+
+    @Autowired
+    public ReprocessController(EventLogReprocessor reprocessor) {
+        this.reprocessor = reprocessor;
+    }
+
+    /**
+     * Paths relative to orchestrator.reprocess.dir on the host of the Orchestrator, output and framesDir may be left out
+     */
+    public record ReprocessRequest(String input, String output, String framesDir) {
+    }
+
+    // a run takes long, so it runs in the background and is followed with GET, only one runs at a time
+    @PostMapping
+    public ResponseEntity<?> startReprocessing(@RequestBody ReprocessRequest request) {
+        try {
+            return ResponseEntity.accepted().body(reprocessor.start(request.input(), request.output(), request.framesDir()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    // the run in progress or the last one, with its counts once it completed
+    @GetMapping
+    public ResponseEntity<ReprocessJob> getReprocessing() {
+        return reprocessor.job()
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -0,0 +1,38 @@
+package orchestrator.detection;
+
+/**
+ * Decides how long a partition has to be quiet before its session window is closed.
+ */
+@FunctionalInterface
+public interface GapPolicy {
+
+    /**
+     * @param meanInterArrivalMillis moving average of the time between events of the same window of this partition,
+     *                               NaN as long as the partition has not seen two events in one window
+     * @return inactivity gap in milliseconds after which the window is closed
+     */
+    long gapMillis(double meanInterArrivalMillis);
+
+    /**
+     * The same gap for every partition, like the one second window of the Faust worker
+     */
+    static GapPolicy fixed(long gapMillis) {
+        return meanInterArrivalMillis -> gapMillis;
+    }
+
+    /**
+     * A gap of factor times the usual time between events of a window, kept between minGapMillis and maxGapMillis
+     * Partitions whose sensors fire in quick succession close their windows early, slow ones get more time
+     *
+     * @param initialGapMillis gap used until the partition has a moving average
+     */
+    static GapPolicy adaptive(long initialGapMillis, double factor, long minGapMillis, long maxGapMillis) {
+        return meanInterArrivalMillis -> {
+            if (Double.isNaN(meanInterArrivalMillis)) {
+                return initialGapMillis;
+            }
+            long gap = Math.round(meanInterArrivalMillis * factor);
+            return Math.max(minGapMillis, Math.min(maxGapMillis, gap));
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package orchestrator.detection;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the SessionWindowEngine with the XES events of the sensors, straight from their MQTT topic.
+ * This replaces the MQTT-Kafka bridge and the Faust worker, so only one of the two should run.
+ * It is off unless orchestrator.detection.mqtt.enabled is true.
+ */
+@Component
+public class MqttEventSource implements MqttCallbackExtended {
+
+    private static final Logger logger = LoggerFactory.getLogger(MqttEventSource.class);
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    private final boolean enabled;
+    private final String brokerUrl;
+    private final String topic;
+    private final SessionWindowEngine engine;
+    // only used on the Paho callback thread
+    private final XesEventParser parser = new XesEventParser();
+    private MqttAsyncClient client;
+    private volatile boolean stopped;
+
+    @Autowired
+    public MqttEventSource(@Value("${orchestrator.detection.mqtt.enabled}") boolean enabled,
+                           @Value("${orchestrator.detection.mqtt.brokerUrl}") String brokerUrl,
+                           @Value("${orchestrator.detection.mqtt.topic}") String topic,
+                           SessionWindowEngine engine) {
+        this.enabled = enabled;
+        this.brokerUrl = brokerUrl;
+        this.topic = topic;
+        this.engine = engine;
+    }
+
+    @PostConstruct
+    public void start() throws MqttException {
+        if (!enabled) {
+            return;
+        }
+        client = new MqttAsyncClient(brokerUrl, MqttAsyncClient.generateClientId(), new MemoryPersistence());
+        client.setCallback(this);
+        connect();
+    }
+
+    // automatic reconnect only covers connections that were established once, so retry the first one ourselves
+    private void connect() throws MqttException {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setAutomaticReconnect(true);
+        logger.info("Connecting to sensor topic " + topic + " at " + brokerUrl);
+        client.connect(options, null, new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken token) {
+                // the topic is subscribed in connectComplete
+            }
+
+            @Override
+            public void onFailure(IMqttToken token, Throwable e) {
+                logger.warn("Could not connect to " + brokerUrl + ", retrying in " + RETRY_DELAY_MILLIS + " ms: " + e.getMessage());
+                CompletableFuture.delayedExecutor(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS).execute(() -> {
+                    try {
+                        if (!stopped) {
+                            connect();
+                        }
+                    } catch (MqttException retryError) {
+                        logger.error("Failed to connect to " + brokerUrl + ": " + retryError.getMessage());
+                    }
+                });
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws MqttException {
+        stopped = true;
+        if (client == null) {
+            return;
+        }
+        if (client.isConnected()) {
+            client.disconnect(5000).waitForCompletion(5000);
+        }
+        client.close();
+    }
+
+    // a clean session forgets the subscription, so subscribe again on every reconnect
+    @Override
+    public void connectComplete(boolean reconnect, String serverURI) {
+        try {
+            client.subscribe(topic, 1);
+            logger.info("Subscribed to sensor topic " + topic + " at " + serverURI);
+        } catch (MqttException e) {
+            logger.error("Failed to subscribe to sensor topic " + topic + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        logger.warn("Lost connection to the sensor topic, reconnecting: " + cause.getMessage());
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) {
+        ObjectNode event = parser.parse(message.getPayload());
+        if (event != null) {
+            engine.offer(event);
+        }
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+        // this client only subscribes
+    }
+}
@@ -0,0 +1,345 @@
+package orchestrator.detection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PreDestroy;
+import orchestrator.service.OrchestratorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Detects ambiguity with session windows, in the JVM of the Orchestrator instead of the Faust worker.
+ * Events are partitioned by an attribute (e.g. the station), every partition has its own session window,
+ * which is closed once the partition was quiet for the gap of the GapPolicy.
+ * A closed window with more than one event is ambiguous and is resolved, a single event is published right away.
+ * Partitions are spread over shards by the hash of their key. Every shard is one thread that owns its windows
+ * and a TimerWheel for their gaps, so the shards need no locks and windows are evaluated on all cores.
+ * The closed windows of a shard are handed to the sink on a forwarding thread of the shard, in the order they were closed,
+ * so a sink waiting for the broker does not hold back the windows of the shard.
+ * A partition without an open window is dropped once it was quiet for idleMillis.
+ * The gaps are measured in arrival time, like the inactivity timer of the Faust worker.
+ */
+@Component
+public class SessionWindowEngine implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionWindowEngine.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int WHEEL_SIZE = 512;
+    // events handled by a shard before it advances its wheel, so a flood does not hold back closing windows
+    private static final int MAX_BATCH = 256;
+    // weight of the latest inter-arrival time in the moving average of the adaptive gap
+    private static final double SMOOTHING = 0.2;
+    private static final long NO_TIMER = Long.MAX_VALUE;
+
+    private final WindowSink sink;
+    private final String partitionAttribute;
+    private final GapPolicy gapPolicy;
+    private final long tickMillis;
+    private final long idleMillis;
+    private final LongSupplier clock;
+    private final List<Shard> shards;
+    private final Counter ambiguousWindows;
+    private final Counter unambiguousWindows;
+    private final Counter droppedEvents;
+    private volatile boolean closed;
+
+    @Autowired
+    public SessionWindowEngine(OrchestratorService orchestratorService,
+                               @Value("${orchestrator.detection.partitionAttribute}") String partitionAttribute,
+                               @Value("${orchestrator.detection.shards}") int shards,
+                               @Value("${orchestrator.detection.queueCapacity}") int queueCapacity,
+                               @Value("${orchestrator.detection.gapMillis}") long gapMillis,
+                               @Value("${orchestrator.detection.adaptiveGap}") boolean adaptiveGap,
+                               @Value("${orchestrator.detection.gapFactor}") double gapFactor,
+                               @Value("${orchestrator.detection.minGapMillis}") long minGapMillis,
+                               @Value("${orchestrator.detection.maxGapMillis}") long maxGapMillis,
+                               @Value("${orchestrator.detection.tickMillis}") long tickMillis) {
+        this(forwardTo(orchestratorService), partitionAttribute,
+                shards > 0 ? shards : Runtime.getRuntime().availableProcessors(), queueCapacity,
+                adaptiveGap ? GapPolicy.adaptive(gapMillis, gapFactor, minGapMillis, maxGapMillis) : GapPolicy.fixed(gapMillis),
+                tickMillis, Math.max(gapMillis, maxGapMillis), System::currentTimeMillis);
+    }
+
+    /**
+     * @param sink receives the closed windows
+     * @param partitionAttribute event attribute whose value is the partition key, events without it share one partition
+     * @param shards number of shard threads
+     * @param queueCapacity events a shard buffers before offer rejects new ones, and closed windows it buffers for the sink
+     * @param gapPolicy gap after which a window is closed
+     * @param tickMillis resolution of the timer wheels
+     * @param idleMillis time a partition without an open window is kept for its moving average of the time between events
+     * @param clock current time in milliseconds
+     */
+    public SessionWindowEngine(WindowSink sink, String partitionAttribute, int shards, int queueCapacity,
+                               GapPolicy gapPolicy, long tickMillis, long idleMillis, LongSupplier clock) {
+        this.sink = sink;
+        this.partitionAttribute = partitionAttribute;
+        this.gapPolicy = gapPolicy;
+        this.tickMillis = tickMillis;
+        this.idleMillis = idleMillis;
+        this.clock = clock;
+        this.ambiguousWindows = windowCounter("ambiguous");
+        this.unambiguousWindows = windowCounter("unambiguous");
+        this.droppedEvents = Counter.builder("detection.events.dropped")
+                .description("Events rejected because their shard was full or had no timestamp, or dropped because the sink fell behind")
+                .register(Metrics.globalRegistry);
+        this.shards = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            this.shards.add(new Shard(i, queueCapacity));
+        }
+        this.shards.forEach(shard -> shard.thread.start());
+        Gauge.builder("detection.partitions", this, SessionWindowEngine::partitions)
+                .description("Partitions kept by the detection engine, with an open window or quiet for less than idleMillis")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * @return partitions kept by the shards, with an open window or quiet for less than idleMillis
+     */
+    public int partitions() {
+        return shards.stream().mapToInt(shard -> shard.partitionCount).sum();
+    }
+
+    private static Counter windowCounter(String type) {
+        return Counter.builder("detection.windows")
+                .description("Session windows closed by the detection engine")
+                .tag("type", type)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * This method adds the event to the session window of its partition
+     * It only queues the event on the shard of the partition and does not block
+     *
+     * @param event the event in the JSON format of the detection, with a time:timestamp attribute
+     * @return false if the event was rejected because it has no timestamp, the shard is full or the engine is closed
+     */
+    public boolean offer(ObjectNode event) {
+        if (!event.hasNonNull("time:timestamp")) {
+            logger.warn("No timestamp found in event, skipping");
+            droppedEvents.increment();
+            return false;
+        }
+        if (closed) {
+            return false;
+        }
+        String key = event.path(partitionAttribute).asText("");
+        Shard shard = shards.get(Math.floorMod(key.hashCode(), shards.size()));
+        if (!shard.inbox.offer(new Arrival(key, event, clock.getAsLong()))) {
+            logger.warn("Detection shard " + shard.index + " is full, dropping event of " + key);
+            droppedEvents.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops the shards, the windows that are still open are closed and handed to the sink before it returns
+     */
+    @PreDestroy
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        shards.forEach(shard -> shard.thread.interrupt());
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join(5000);
+                shard.forwarder.shutdown();
+                shard.forwarder.awaitTermination(5000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // the same requests the Faust worker sent over HTTP, without leaving the JVM
+    private static WindowSink forwardTo(OrchestratorService orchestratorService) {
+        return (partitionKey, events) -> {
+            if (events.size() > 1) {
+                logger.info("Ambiguity detected at " + partitionKey + ". Resolving " + events.size() + " events...");
+                ObjectNode body = objectMapper.createObjectNode();
+                body.putArray("events").addAll(events);
+                try {
+                    orchestratorService.submitAmbiguousEvent(body.toString());
+                } catch (RejectedExecutionException e) {
+                    logger.error("Resolution queue is full, dropping ambiguous window of " + partitionKey);
+                }
+            } else {
+                // already parsed, converted to XES without a round trip through JSON text
+                orchestratorService.publishUnambiguousEvent(events.get(0));
+            }
+        };
+    }
+
+    private record Arrival(String key, ObjectNode event, long arrivedAt) {
+    }
+
+    private record PartitionTimer(Partition partition, long deadline) {
+    }
+
+    // state of one partition, only touched by the thread of its shard
+    private static final class Partition {
+        private final String key;
+        private List<ObjectNode> window = new ArrayList<>();
+        private long lastArrival;
+        private long deadline;
+        private double meanInterArrival = Double.NaN;
+        // deadline of the current timer in the wheel, a later deadline is picked up when that timer fires,
+        // an earlier one (the adaptive gap shrank) replaces it
+        private long timerDeadline = NO_TIMER;
+
+        private Partition(String key) {
+            this.key = key;
+        }
+    }
+
+    private final class Shard implements Runnable {
+
+        private final int index;
+        private final BlockingQueue<Arrival> inbox;
+        // one entry per partition key (station or sensor), kept between windows for the moving average until it is idle
+        private final Map<String, Partition> partitions = new HashMap<>();
+        private final TimerWheel<PartitionTimer> wheel;
+        private final Thread thread;
+        // hands the closed windows to the sink, a single thread keeps them in the order they were closed
+        private final ThreadPoolExecutor forwarder;
+        // partitions.size() for other threads
+        private volatile int partitionCount;
+
+        private Shard(int index, int queueCapacity) {
+            this.index = index;
+            this.inbox = new ArrayBlockingQueue<>(queueCapacity);
+            this.wheel = new TimerWheel<>(tickMillis, WHEEL_SIZE, clock.getAsLong());
+            this.thread = new Thread(this, "detection-shard-" + index);
+            thread.setDaemon(true);
+            this.forwarder = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread forwarding = new Thread(runnable, "detection-forward-" + index);
+                forwarding.setDaemon(true);
+                return forwarding;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    // without open windows there is nothing to time out, so wait for the next event
+                    Arrival arrival = wheel.isEmpty() ? inbox.take() : inbox.poll(tickMillis, TimeUnit.MILLISECONDS);
+                    for (int handled = 0; arrival != null; arrival = ++handled < MAX_BATCH ? inbox.poll() : null) {
+                        add(arrival);
+                    }
+                    long now = clock.getAsLong();
+                    wheel.advance(now, timer -> expire(timer, now));
+                }
+            } catch (InterruptedException e) {
+                // closing
+            } finally {
+                Arrival arrival;
+                while ((arrival = inbox.poll()) != null) {
+                    add(arrival);
+                }
+                partitions.values().forEach(this::flush);
+            }
+        }
+
+        private void add(Arrival arrival) {
+            Partition partition = partitions.computeIfAbsent(arrival.key(), Partition::new);
+            partitionCount = partitions.size();
+            if (!partition.window.isEmpty() && arrival.arrivedAt() > partition.deadline) {
+                // the gap passed before the shard got to expire the window, the event starts a new one
+                flush(partition);
+            }
+            if (!partition.window.isEmpty()) {
+                long interArrival = Math.max(0, arrival.arrivedAt() - partition.lastArrival);
+                partition.meanInterArrival = Double.isNaN(partition.meanInterArrival) ? interArrival
+                        : partition.meanInterArrival + SMOOTHING * (interArrival - partition.meanInterArrival);
+            }
+            partition.window.add(arrival.event());
+            partition.lastArrival = Math.max(partition.lastArrival, arrival.arrivedAt());
+            partition.deadline = partition.lastArrival + gapPolicy.gapMillis(partition.meanInterArrival);
+            if (partition.deadline < partition.timerDeadline) {
+                schedule(partition, partition.deadline);
+            }
+        }
+
+        private void schedule(Partition partition, long deadline) {
+            partition.timerDeadline = deadline;
+            wheel.schedule(new PartitionTimer(partition, deadline), deadline);
+        }
+
+        private void expire(PartitionTimer timer, long now) {
+            Partition partition = timer.partition();
+            // replaced by a timer with an earlier deadline
+            if (timer.deadline() != partition.timerDeadline) {
+                return;
+            }
+            partition.timerDeadline = NO_TIMER;
+            if (partition.window.isEmpty()) {
+                expireIdle(partition, now);
+                return;
+            }
+            // events arrived after the timer was set and moved the deadline
+            if (partition.deadline > now) {
+                schedule(partition, partition.deadline);
+                return;
+            }
+            flush(partition);
+            schedule(partition, partition.lastArrival + idleMillis);
+        }
+
+        // a station that is not used any more must not be kept for the lifetime of the engine
+        private void expireIdle(Partition partition, long now) {
+            long idleUntil = partition.lastArrival + idleMillis;
+            if (idleUntil > now) {
+                schedule(partition, idleUntil);
+                return;
+            }
+            partitions.remove(partition.key);
+            partitionCount = partitions.size();
+        }
+
+        private void flush(Partition partition) {
+            if (partition.window.isEmpty()) {
+                return;
+            }
+            List<ObjectNode> events = partition.window;
+            partition.window = new ArrayList<>();
+            (events.size() > 1 ? ambiguousWindows : unambiguousWindows).increment();
+            String key = partition.key;
+            try {
+                forwarder.execute(() -> {
+                    try {
+                        sink.windowClosed(key, events);
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to hand over the window of " + key + ": " + e.getMessage(), e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the sink is queueCapacity windows behind, like a full inbox the events are dropped instead of blocking the shard
+                logger.warn("Detection shard " + index + " has too many windows waiting for the sink, dropping the window of " + key);
+                droppedEvents.increment(events.size());
+            }
+        }
+    }
+}
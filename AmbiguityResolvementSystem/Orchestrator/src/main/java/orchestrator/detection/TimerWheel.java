@@ -0,0 +1,89 @@
+package orchestrator.detection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel with a fixed tick.
+ * Scheduling and expiring a timer are O(1), independent of how many session windows are open.
+ * A timer fires on the first advance at or after its deadline, rounded up to the next tick, never before it.
+ * Not thread safe, every shard of the SessionWindowEngine owns its own wheel.
+ */
+final class TimerWheel<T> {
+
+    private final long tickMillis;
+    private final List<ArrayDeque<Timer<T>>> slots;
+    private final int mask;
+    // the next tick that has not been processed yet
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis resolution of the wheel
+     * @param wheelSize number of slots, rounded up to a power of two; deadlines further away take more than one lap
+     * @param startMillis current time
+     */
+    TimerWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        }
+        int slotCount = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = slotCount - 1;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayDeque<>());
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Schedules the item to expire at the deadline, a deadline in the past expires on the next advance
+     */
+    void schedule(T item, long deadlineMillis) {
+        long tick = Math.max(Math.ceilDiv(deadlineMillis, tickMillis), currentTick);
+        slots.get((int) (tick & mask)).add(new Timer<>(item, tick));
+        size++;
+    }
+
+    /**
+     * Expires all timers whose deadline is at or before now
+     * The items are handed to onExpiry after the wheel has been advanced, so onExpiry may schedule new timers
+     */
+    void advance(long nowMillis, Consumer<T> onExpiry) {
+        long nowTick = nowMillis / tickMillis;
+        if (nowTick < currentTick) {
+            return;
+        }
+        List<T> expired = new ArrayList<>();
+        // one lap visits every slot, timers that are due are expired whatever lap they were scheduled in
+        long lastTick = Math.min(nowTick, currentTick + mask);
+        for (long tick = currentTick; tick <= lastTick; tick++) {
+            Iterator<Timer<T>> timers = slots.get((int) (tick & mask)).iterator();
+            while (timers.hasNext()) {
+                Timer<T> timer = timers.next();
+                if (timer.tick() <= nowTick) {
+                    timers.remove();
+                    size--;
+                    expired.add(timer.item());
+                }
+            }
+        }
+        currentTick = nowTick + 1;
+        expired.forEach(onExpiry);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private record Timer<T>(T item, long tick) {
+    }
+}
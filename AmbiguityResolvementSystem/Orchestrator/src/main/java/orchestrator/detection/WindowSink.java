@@ -0,0 +1,19 @@
+package orchestrator.detection;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.List;
+
+/**
+ * Receives the session windows closed by the SessionWindowEngine.
+ * It is called on the forwarding thread of the shard of the partition, one window after another in the order they were closed.
+ */
+@FunctionalInterface
+public interface WindowSink {
+
+    /**
+     * @param partitionKey value of the partition attribute shared by the events
+     * @param events the events of the window in arrival order, more than one means the window is ambiguous
+     */
+    void windowClosed(String partitionKey, List<ObjectNode> events);
+}
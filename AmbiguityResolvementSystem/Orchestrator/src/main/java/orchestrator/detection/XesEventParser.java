@@ -0,0 +1,84 @@
+package orchestrator.detection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Converts a single XES event as sent by the sensors into the JSON format of the detection,
+ * the same conversion xes_to_json_mapper.py does for the Faust worker.
+ * Not thread safe, the DocumentBuilder is reused.
+ */
+final class XesEventParser {
+
+    private static final Logger logger = LoggerFactory.getLogger(XesEventParser.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final DocumentBuilder documentBuilder;
+
+    XesEventParser() {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            // the events come from the network, so no doctypes and no external entities
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            this.documentBuilder = factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("No XML parser available", e);
+        }
+    }
+
+    /**
+     * @param xesEvent XES event, e.g. {@code <event><string key="concept:name" value="Donor check-in"/>...</event>}
+     * @return the attributes of the event as JSON object, or null if it is not valid XML
+     */
+    ObjectNode parse(byte[] xesEvent) {
+        try {
+            Element root = documentBuilder.parse(new ByteArrayInputStream(xesEvent)).getDocumentElement();
+            ObjectNode jsonEvent = objectMapper.createObjectNode();
+            NodeList children = root.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                if (children.item(i).getNodeType() != Node.ELEMENT_NODE) {
+                    continue;
+                }
+                Element child = (Element) children.item(i);
+                if (!child.hasAttribute("key") || !child.hasAttribute("value")) {
+                    logger.error("Missing key or value in child: " + child.getTagName());
+                    continue;
+                }
+                String key = child.getAttribute("key");
+                String value = child.getAttribute("value");
+                jsonEvent.put(key, "time:timestamp".equals(key) ? toLocalTimestamp(value) : value);
+            }
+            return jsonEvent;
+        } catch (Exception e) {
+            logger.error("Exception occured when converting XES to JSON: " + e.getMessage());
+            return null;
+        } finally {
+            documentBuilder.reset();
+        }
+    }
+
+    // the detection works with local timestamps without offset, see xes_to_json_mapper.py
+    private static String toLocalTimestamp(String timestamp) {
+        try {
+            return OffsetDateTime.parse(timestamp).toLocalDateTime().format(TIMESTAMP_FORMAT);
+        } catch (DateTimeParseException e) {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package orchestrator.ordering;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks in the order their tickets were reserved among tasks that share a key, and tasks of different keys in parallel.
+ * A ticket takes its place in the FIFO of each of its keys when it is reserved, so a slow task (e.g. a resolution that
+ * is still capturing) can reserve its place early and hand over its task once it is ready; later tasks of its keys wait for it.
+ * A task runs once its ticket is first in the FIFO of every key: on the thread that hands it over if nothing is ahead of it,
+ * otherwise on the executor as soon as the task ahead finished. Tickets without keys run right away.
+ * Every reserved ticket has to be run or cancelled, otherwise the tasks behind it never run.
+ * The tickets not finished yet and the keys with tickets are exposed as ordering.pending and ordering.keys.
+ */
+public class KeyedExecutor implements AutoCloseable {
+
+    private final ExecutorService executor;
+    // the tickets of every key that has any, the first one is running or waiting for its task; guarded by this
+    private final Map<String, ArrayDeque<Ticket>> queues = new HashMap<>();
+    // guarded by this
+    private int pending;
+
+    /**
+     * @param name tags the metrics of the executor
+     * @param executor runs the tasks that had to wait for a task ahead of them
+     */
+    public KeyedExecutor(String name, ExecutorService executor) {
+        this.executor = executor;
+        Gauge.builder("ordering.pending", this, KeyedExecutor::pending)
+                .description("Tasks reserved in order that did not finish yet")
+                .tag("executor", name)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("ordering.keys", this, KeyedExecutor::keys)
+                .description("Keys with tasks that did not finish yet")
+                .tag("executor", name)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * A place in the order of its keys, run() hands over the task that runs there
+     */
+    public final class Ticket {
+
+        private final Set<String> keys;
+        // guarded by KeyedExecutor.this
+        private Callable<?> task;
+        private CompletableFuture<Object> result;
+        private boolean started;
+        private boolean released;
+
+        private Ticket(Set<String> keys) {
+            this.keys = keys;
+        }
+
+        /**
+         * This method runs the task once every earlier ticket of its keys finished
+         *
+         * @return completes with the result of the task, or exceptionally with its exception
+         * @throws IllegalStateException if the ticket was already run or cancelled
+         */
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> run(Callable<T> task) {
+            CompletableFuture<Object> result = new CompletableFuture<>();
+            boolean runNow;
+            synchronized (KeyedExecutor.this) {
+                if (this.task != null || released) {
+                    throw new IllegalStateException("The ticket was already run or cancelled");
+                }
+                this.task = task;
+                this.result = result;
+                runNow = isFirst();
+                started = runNow;
+            }
+            if (runNow) {
+                execute(this);
+            }
+            return (CompletableFuture<T>) result;
+        }
+
+        public CompletableFuture<Void> run(Runnable task) {
+            return run(() -> {
+                task.run();
+                return null;
+            });
+        }
+
+        /**
+         * Gives up the place of a ticket whose task will not run, does nothing if the task was handed over already
+         */
+        public void cancel() {
+            synchronized (KeyedExecutor.this) {
+                if (task != null || released) {
+                    return;
+                }
+            }
+            release(this);
+        }
+
+        // guarded by KeyedExecutor.this
+        private boolean isFirst() {
+            for (String key : keys) {
+                if (queues.get(key).peekFirst() != this) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param keys keys of the task, e.g. the cases of the events it publishes
+     * @return the ticket, placed behind every ticket reserved before with one of the keys
+     */
+    public Ticket reserve(Collection<String> keys) {
+        Ticket ticket = new Ticket(Set.copyOf(keys));
+        if (ticket.keys.isEmpty()) {
+            return ticket;
+        }
+        synchronized (this) {
+            for (String key : ticket.keys) {
+                queues.computeIfAbsent(key, k -> new ArrayDeque<>()).addLast(ticket);
+            }
+            pending++;
+        }
+        return ticket;
+    }
+
+    /**
+     * Like reserve(keys).run(task), for a task that is ready right away
+     */
+    public <T> CompletableFuture<T> submit(Collection<String> keys, Callable<T> task) {
+        return reserve(keys).run(task);
+    }
+
+    /**
+     * @return the tickets not finished yet per key, the keys with the most first
+     */
+    public synchronized Map<String, Integer> backlog() {
+        Map<String, Integer> backlog = new LinkedHashMap<>();
+        queues.entrySet().stream()
+                .sorted(Comparator.comparingInt((Map.Entry<String, ArrayDeque<Ticket>> entry) -> entry.getValue().size()).reversed()
+                        .thenComparing(Map.Entry::getKey))
+                .forEach(entry -> backlog.put(entry.getKey(), entry.getValue().size()));
+        return backlog;
+    }
+
+    public synchronized int pending() {
+        return pending;
+    }
+
+    public synchronized int keys() {
+        return queues.size();
+    }
+
+    // the ticket is released before its result completes, so whatever is chained on the result sees it finished
+    private void execute(Ticket ticket) {
+        Object value = null;
+        Throwable failure = null;
+        try {
+            value = ticket.task.call();
+        } catch (Throwable e) {
+            failure = e;
+        }
+        release(ticket);
+        if (failure != null) {
+            ticket.result.completeExceptionally(failure);
+        } else {
+            ticket.result.complete(value);
+        }
+    }
+
+    // removes the ticket from its keys and starts the tickets that are now first of all their keys
+    private void release(Ticket ticket) {
+        List<Ticket> ready = new ArrayList<>();
+        synchronized (this) {
+            if (ticket.released || ticket.keys.isEmpty()) {
+                ticket.released = true;
+                return;
+            }
+            ticket.released = true;
+            pending--;
+            for (String key : ticket.keys) {
+                ArrayDeque<Ticket> queue = queues.get(key);
+                queue.remove(ticket);
+                if (queue.isEmpty()) {
+                    queues.remove(key);
+                }
+            }
+            for (String key : ticket.keys) {
+                ArrayDeque<Ticket> queue = queues.get(key);
+                Ticket next = queue == null ? null : queue.peekFirst();
+                if (next != null && next.task != null && !next.started && next.isFirst()) {
+                    next.started = true;
+                    ready.add(next);
+                }
+            }
+        }
+        for (Ticket next : ready) {
+            try {
+                executor.execute(() -> execute(next));
+            } catch (RejectedExecutionException e) {
+                // shutting down, the task will not run but the tickets behind it are released
+                release(next);
+                next.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,105 @@
+package orchestrator.ordering;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Takes the keys events are ordered by from their JSON: the values of the key attributes (e.g. perform:donor, the case
+ * of the process) of every event in a request, as attribute=value. Events without any key attribute are not ordered.
+ * The request bodies are scanned with a streaming parser, whatever their shape (single event, window or batch).
+ */
+public class OrderingKeys {
+
+    public static final OrderingKeys NONE = new OrderingKeys(List.of());
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderingKeys.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<String> attributes;
+
+    public OrderingKeys(List<String> attributes) {
+        this.attributes = List.copyOf(attributes);
+    }
+
+    /**
+     * @return whether any attribute is configured, without one nothing is ordered
+     */
+    public boolean isEnabled() {
+        return !attributes.isEmpty();
+    }
+
+    public List<String> attributes() {
+        return attributes;
+    }
+
+    /**
+     * @param json request body, also newline delimited JSON
+     * @return the keys of all events in it, empty if the body is not valid JSON (it is then rejected by the publisher)
+     */
+    public Set<String> of(byte[] json) {
+        if (!isEnabled()) {
+            return Set.of();
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return scan(parser);
+        } catch (IOException e) {
+            logger.warn("Could not read the ordering keys of the events: " + e.getMessage());
+            return Set.of();
+        }
+    }
+
+    public Set<String> of(String json) {
+        if (!isEnabled()) {
+            return Set.of();
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return scan(parser);
+        } catch (IOException e) {
+            logger.warn("Could not read the ordering keys of the events: " + e.getMessage());
+            return Set.of();
+        }
+    }
+
+    /**
+     * @param events an event, or a request or array holding events
+     */
+    public Set<String> of(JsonNode events) {
+        Set<String> keys = new HashSet<>();
+        for (String attribute : attributes) {
+            for (JsonNode value : events.findValues(attribute)) {
+                if (value.isValueNode() && !value.isNull()) {
+                    keys.add(attribute + "=" + value.asText());
+                }
+            }
+        }
+        return keys;
+    }
+
+    // a key attribute at any depth, only scalar values are keys
+    private Set<String> scan(JsonParser parser) throws IOException {
+        Set<String> keys = new HashSet<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            if (token != JsonToken.FIELD_NAME || !attributes.contains(parser.currentName())) {
+                continue;
+            }
+            String attribute = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+                keys.add(attribute + "=" + parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return keys;
+    }
+}
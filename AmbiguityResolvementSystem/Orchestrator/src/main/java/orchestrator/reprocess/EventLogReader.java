@@ -0,0 +1,162 @@
+package orchestrator.reprocess;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the events of a recorded log one by one, so a log of several days never has to fit into memory.
+ * XES logs (.xes) are read with StAX, the events of all traces in document order; the attributes of the traces are not kept.
+ * JSON logs (.jsonl, .ndjson) hold one entry per line, either a request of the detection ({"events": ...}) or a bare event.
+ * A .gz suffix is decompressed while reading.
+ */
+final class EventLogReader {
+
+    enum Format {XES, JSONL}
+
+    private static final Logger logger = LoggerFactory.getLogger(EventLogReader.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final XMLInputFactory XML_INPUT_FACTORY = newXmlInputFactory();
+
+    private EventLogReader() {
+    }
+
+    private static XMLInputFactory newXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // logs are recorded elsewhere, so no doctypes and no external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * @return the format of the log, taken from its suffix
+     * @throws IllegalArgumentException if the suffix is not one of a known format
+     */
+    static Format format(Path log) {
+        String name = log.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".xes")) {
+            return Format.XES;
+        }
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+            return Format.JSONL;
+        }
+        throw new IllegalArgumentException("Unknown format of " + log.getFileName() + ", expected .xes, .jsonl or .ndjson, optionally with .gz");
+    }
+
+    /**
+     * This method hands every event of the log to the consumer in the order of the log
+     *
+     * @param log path of the log
+     * @param consumer receives the events as flat JSON objects of attribute key and value, like the detection gets them
+     * @return the number of entries that were skipped because they were not valid events
+     * @throws IOException if the log cannot be read or an XES log is not well-formed
+     */
+    static long read(Path log, Consumer<ObjectNode> consumer) throws IOException {
+        Format format = format(log);
+        InputStream in = new BufferedInputStream(Files.newInputStream(log), 1 << 16);
+        if (log.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        try (InputStream input = in) {
+            return format == Format.XES ? readXes(input, consumer) : readJsonLines(input, consumer);
+        }
+    }
+
+    // attribute elements nested in an attribute of the event (meta attributes) are skipped
+    private static long readXes(InputStream in, Consumer<ObjectNode> consumer) throws IOException {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in, StandardCharsets.UTF_8.name());
+            try {
+                ObjectNode event = null;
+                int nesting = 0;
+                while (reader.hasNext()) {
+                    int type = reader.next();
+                    if (type == XMLStreamConstants.START_ELEMENT) {
+                        if (event == null) {
+                            if ("event".equals(reader.getLocalName())) {
+                                event = objectMapper.createObjectNode();
+                            }
+                        } else if (nesting++ == 0) {
+                            String key = reader.getAttributeValue(null, "key");
+                            String value = reader.getAttributeValue(null, "value");
+                            if (key != null && value != null) {
+                                event.put(key, value);
+                            }
+                        }
+                    } else if (type == XMLStreamConstants.END_ELEMENT && event != null) {
+                        if (nesting > 0) {
+                            nesting--;
+                        } else {
+                            consumer.accept(event);
+                            event = null;
+                        }
+                    }
+                }
+                return 0;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid XES log: " + e.getMessage(), e);
+        }
+    }
+
+    // line by line, so a broken line only invalidates itself
+    private static long readJsonLines(InputStream in, Consumer<ObjectNode> consumer) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        long skipped = 0;
+        long number = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                JsonNode entry = objectMapper.readTree(line);
+                JsonNode events = entry.has("events") ? entry.get("events") : entry;
+                if (events.isObject()) {
+                    consumer.accept((ObjectNode) events);
+                } else if (events.isArray() && !events.isEmpty()) {
+                    for (JsonNode event : events) {
+                        if (event.isObject()) {
+                            consumer.accept((ObjectNode) event);
+                        } else {
+                            skipped++;
+                        }
+                    }
+                } else {
+                    logger.warn("Skipping line " + number + ", it holds no event");
+                    skipped++;
+                }
+            } catch (JsonProcessingException e) {
+                logger.warn("Skipping line " + number + ", it is not valid JSON: " + e.getOriginalMessage());
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+}
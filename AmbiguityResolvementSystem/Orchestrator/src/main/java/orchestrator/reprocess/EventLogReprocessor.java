@@ -0,0 +1,475 @@
+package orchestrator.reprocess;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import mlpackage.MLServiceClient;
+import orchestrator.detection.GapPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import publisherpackage.JsonToXesMapper;
+import publisherpackage.PublishingServiceClientImpl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reprocesses a recorded XES or JSON log offline, e.g. after the ML model or its confidence threshold changed.
+ * The log is streamed and its events are grouped into session windows like the SessionWindowEngine does,
+ * but the gap is measured in event time, so days of events are replayed as fast as they can be read.
+ * Ambiguous windows are resolved with the frames the camera service stored at the time of the window,
+ * a window without stored frames or that the ML model does not resolve is written with its events labelled unresolved.
+ * The windows are resolved and converted to XES on a pool of threads and written to a resolved XES log
+ * in the order they were closed, compressed if its name ends with .gz.
+ * A run only reads and writes below orchestrator.reprocess.dir, the paths it is given are resolved against it.
+ */
+@Component
+public class EventLogReprocessor {
+
+    static final String RESOLUTION_ATTRIBUTE = "ambiguity:resolution";
+    static final String RESOLVED = "resolved";
+    static final String UNRESOLVED = "unresolved";
+
+    private static final Logger logger = LoggerFactory.getLogger(EventLogReprocessor.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // windows closed but not written yet per thread, bounds the memory while the ML service is slower than the log is read
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+    // events read between two looks for windows the log has moved past
+    private static final int SWEEP_INTERVAL = 1024;
+    // the events are written into a single trace, a process mining tool splits them into cases by their attributes
+    private static final String LOG_HEADER = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <log xes.version="1.0">
+            <extension name="Concept" prefix="concept" uri="http://www.xes-standard.org/concept.xesext"/>
+            <extension name="Time" prefix="time" uri="http://www.xes-standard.org/time.xesext"/>
+            <trace>
+            """;
+    private static final String LOG_FOOTER = "</trace>\n</log>\n";
+
+    private final MLServiceClient mlClient;
+    private final JsonToXesMapper jsonToXesMapper;
+    private final String partitionAttribute;
+    private final GapPolicy gapPolicy;
+    private final int threads;
+    private final Path dir;
+    private final long frameWindowMillis;
+    private final int maxFrames;
+    private final String defaultFramesDir;
+    private final AtomicReference<ReprocessJob> job = new AtomicReference<>();
+
+    @Autowired
+    public EventLogReprocessor(@Lazy MLServiceClient mlClient, JsonToXesMapper jsonToXesMapper,
+                               @Value("${orchestrator.detection.partitionAttribute}") String partitionAttribute,
+                               @Value("${orchestrator.detection.gapMillis}") long gapMillis,
+                               @Value("${orchestrator.detection.adaptiveGap}") boolean adaptiveGap,
+                               @Value("${orchestrator.detection.gapFactor}") double gapFactor,
+                               @Value("${orchestrator.detection.minGapMillis}") long minGapMillis,
+                               @Value("${orchestrator.detection.maxGapMillis}") long maxGapMillis,
+                               @Value("${orchestrator.reprocess.threads}") int threads,
+                               @Value("${orchestrator.reprocess.dir}") String dir,
+                               @Value("${orchestrator.reprocess.framesDir:}") String framesDir,
+                               @Value("${orchestrator.reprocess.frameWindowMillis}") long frameWindowMillis,
+                               @Value("${orchestrator.reprocess.maxFrames}") int maxFrames) {
+        this(mlClient, jsonToXesMapper, partitionAttribute,
+                adaptiveGap ? GapPolicy.adaptive(gapMillis, gapFactor, minGapMillis, maxGapMillis) : GapPolicy.fixed(gapMillis),
+                threads, dir, framesDir, frameWindowMillis, maxFrames);
+    }
+
+    /**
+     * @param partitionAttribute event attribute whose value is the partition key, like the detection
+     * @param gapPolicy gap in event time after which a window is closed
+     * @param threads threads that resolve and convert windows, mostly waiting for the ML service
+     * @param dir directory the logs, frames and resolved logs of a run must be in
+     * @param framesDir directory of the stored frames used when a run is not given one, empty for none
+     * @param frameWindowMillis frames captured from the first event of a window until this long after its last one belong to it
+     * @param maxFrames most frames of a window sent to the ML service
+     */
+    public EventLogReprocessor(MLServiceClient mlClient, JsonToXesMapper jsonToXesMapper, String partitionAttribute,
+                               GapPolicy gapPolicy, int threads, String dir, String framesDir, long frameWindowMillis, int maxFrames) {
+        this.mlClient = mlClient;
+        this.jsonToXesMapper = jsonToXesMapper;
+        this.partitionAttribute = partitionAttribute;
+        this.gapPolicy = gapPolicy;
+        this.threads = threads;
+        this.dir = Path.of(dir).toAbsolutePath().normalize();
+        this.defaultFramesDir = framesDir;
+        this.frameWindowMillis = frameWindowMillis;
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * This method starts reprocessing a log in the background, job() shows how it is going
+     * The paths are relative to orchestrator.reprocess.dir, absolute ones must lie below it as well
+     *
+     * @param input path of the log
+     * @param output path of the resolved XES log, null writes it next to the input as name.resolved.xes.gz
+     * @param framesDir directory of the stored frames, null uses orchestrator.reprocess.framesDir, empty resolves without frames
+     * @throws IllegalArgumentException if a path leads out of orchestrator.reprocess.dir, the input does not exist
+     * or its format is unknown, or the output exists already
+     * @throws IllegalStateException if another run is in progress
+     */
+    public ReprocessJob start(String input, String output, String framesDir) {
+        if (input == null || input.isBlank()) {
+            throw new IllegalArgumentException("No input log given");
+        }
+        Path inputPath = confine(input);
+        if (!Files.isRegularFile(inputPath)) {
+            throw new IllegalArgumentException("Input log " + input + " does not exist");
+        }
+        EventLogReader.format(inputPath);
+        Path outputPath = output == null || output.isBlank() ? defaultOutput(inputPath) : confine(output);
+        // a run never replaces a file, e.g. the log of another day given as output by mistake
+        if (Files.exists(outputPath)) {
+            throw new IllegalArgumentException("Output log " + outputPath + " exists already");
+        }
+        String frames = framesDir == null ? defaultFramesDir : framesDir;
+        Path framesPath = frames.isBlank() ? null : confine(frames);
+
+        ReprocessJob started = new ReprocessJob(inputPath.toString(), outputPath.toString(),
+                framesPath == null ? null : framesPath.toString(), Instant.now(), ReprocessJob.State.RUNNING, null, null);
+        ReprocessJob previous = job.get();
+        if ((previous != null && previous.state() == ReprocessJob.State.RUNNING) || !job.compareAndSet(previous, started)) {
+            throw new IllegalStateException("Another reprocessing run is in progress");
+        }
+        Thread.ofPlatform().name("reprocess").start(() -> {
+            try {
+                job.set(started.completed(reprocess(inputPath, outputPath, framesPath)));
+            } catch (Exception e) {
+                logger.error("Reprocessing " + inputPath + " failed: " + e.getMessage(), e);
+                job.set(started.failed(e.getMessage()));
+            }
+        });
+        return started;
+    }
+
+    // the path resolved against the reprocess directory, rejected if it leads out of it,
+    // also through a symbolic link on the way to the part of it that exists
+    private Path confine(String path) {
+        Path resolved = dir.resolve(path).normalize();
+        if (!resolved.startsWith(dir)) {
+            throw new IllegalArgumentException(path + " is outside of the reprocess directory " + dir);
+        }
+        Path existing = resolved;
+        while (!Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        try {
+            if (!existing.toRealPath().startsWith(dir.toRealPath())) {
+                throw new IllegalArgumentException(path + " is outside of the reprocess directory " + dir);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The reprocess directory " + dir + " cannot be read: " + e.getMessage());
+        }
+        return resolved;
+    }
+
+    /**
+     * @return the run in progress or the last one, empty if none was started
+     */
+    public Optional<ReprocessJob> job() {
+        return Optional.ofNullable(job.get());
+    }
+
+    /**
+     * This method reprocesses a log and returns once the resolved log is written
+     * The log is read on the calling thread. The output is written next to its final path and moved there when complete,
+     * so a failed run never leaves a truncated log behind. An existing output is not replaced.
+     *
+     * @param input path of the log, .xes, .jsonl or .ndjson, optionally .gz
+     * @param output path of the resolved XES log
+     * @param framesDir directory of the stored frames, null labels every ambiguous window unresolved
+     */
+    public ReprocessReport reprocess(Path input, Path output, Path framesDir) throws IOException {
+        long start = System.nanoTime();
+        FrameIndex frameIndex = framesDir == null ? FrameIndex.EMPTY : FrameIndex.scan(framesDir);
+        logger.info("Reprocessing " + input + " to " + output + " with " + frameIndex.size() + " stored frames");
+        Path partial = output.resolveSibling(output.getFileName() + ".part");
+        ExecutorService workers = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("reprocess-", 0).factory());
+        try {
+            Run run;
+            try (Writer writer = openOutput(partial, output)) {
+                run = new Run(frameIndex, workers, writer);
+                writer.write(LOG_HEADER);
+                long invalid = EventLogReader.read(input, run::add);
+                run.skipped += invalid;
+                run.finish();
+                writer.write(LOG_FOOTER);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(partial, output);
+            ReprocessReport report = run.report(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            logger.info("Reprocessed " + input + ": " + report);
+            return report;
+        } finally {
+            workers.shutdownNow();
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    private static Writer openOutput(Path partial, Path output) throws IOException {
+        OutputStream out = Files.newOutputStream(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        if (output.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz")) {
+            out = new GZIPOutputStream(out, 1 << 16);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    // log.jsonl.gz becomes log.resolved.xes.gz
+    static Path defaultOutput(Path input) {
+        String name = input.getFileName().toString();
+        if (name.toLowerCase(Locale.ROOT).endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        int extension = name.lastIndexOf('.');
+        return input.resolveSibling((extension > 0 ? name.substring(0, extension) : name) + ".resolved.xes.gz");
+    }
+
+    /**
+     * @return the time:timestamp of the event without its offset, like the detection compares them, null if it has none
+     */
+    static LocalDateTime timestamp(JsonNode event) {
+        JsonNode timestamp = event.get("time:timestamp");
+        if (timestamp == null || !timestamp.isTextual()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(timestamp.asText()).toLocalDateTime();
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDateTime.parse(timestamp.asText());
+            } catch (DateTimeParseException notLocal) {
+                return null;
+            }
+        }
+    }
+
+    private enum Outcome {UNAMBIGUOUS, RESOLVED, UNRESOLVED}
+
+    // the XES of a window, ready to be written
+    private record WindowResult(Outcome outcome, String xes, int invalid, boolean withoutFrames) {
+    }
+
+    // the open session window of a partition
+    private final class Window {
+        private final String key;
+        private final List<ObjectNode> events = new ArrayList<>();
+        private LocalDateTime first;
+        private LocalDateTime last;
+        private LocalDateTime deadline;
+        private double meanInterArrival = Double.NaN;
+
+        private Window(String key) {
+            this.key = key;
+        }
+
+        private void add(ObjectNode event, LocalDateTime time) {
+            if (events.isEmpty()) {
+                first = time;
+                last = time;
+            } else {
+                long interArrival = Math.max(0, ChronoUnit.MILLIS.between(last, time));
+                meanInterArrival = Double.isNaN(meanInterArrival) ? interArrival
+                        : meanInterArrival + 0.2 * (interArrival - meanInterArrival);
+                if (time.isAfter(last)) {
+                    last = time;
+                }
+            }
+            events.add(event);
+            deadline = last.plus(gapPolicy.gapMillis(meanInterArrival), ChronoUnit.MILLIS);
+        }
+    }
+
+    // state of one run, only touched by the thread reading the log
+    private final class Run {
+        private final FrameIndex frameIndex;
+        private final ExecutorService workers;
+        private final Writer writer;
+        private final Map<String, Window> windows = new HashMap<>();
+        private final ArrayDeque<CompletableFuture<WindowResult>> unwritten = new ArrayDeque<>();
+        private LocalDateTime latest = LocalDateTime.MIN;
+        private long events;
+        private long skipped;
+        private long unambiguousEvents;
+        private long ambiguousWindows;
+        private long resolved;
+        private long unresolved;
+        private long withoutFrames;
+
+        private Run(FrameIndex frameIndex, ExecutorService workers, Writer writer) {
+            this.frameIndex = frameIndex;
+            this.workers = workers;
+            this.writer = writer;
+        }
+
+        private void add(ObjectNode event) {
+            events++;
+            LocalDateTime time = timestamp(event);
+            if (time == null) {
+                skipped++;
+                return;
+            }
+            String key = event.path(partitionAttribute).asText("");
+            Window window = windows.get(key);
+            if (window != null && time.isAfter(window.deadline)) {
+                windows.remove(key);
+                close(window);
+                window = null;
+            }
+            if (window == null) {
+                window = new Window(key);
+                windows.put(key, window);
+            }
+            window.add(event, time);
+            if (time.isAfter(latest)) {
+                latest = time;
+            }
+            if (events % SWEEP_INTERVAL == 0) {
+                // in a log ordered by time, no more events come for a window whose gap the log has moved past
+                closeWindows(open -> open.deadline.isBefore(latest));
+            }
+            writeFinished();
+        }
+
+        private void finish() {
+            closeWindows(window -> true);
+            while (!unwritten.isEmpty()) {
+                write(unwritten.poll());
+            }
+        }
+
+        private void closeWindows(Predicate<Window> due) {
+            List<Window> closing = new ArrayList<>();
+            for (Iterator<Window> open = windows.values().iterator(); open.hasNext(); ) {
+                Window window = open.next();
+                if (due.test(window)) {
+                    closing.add(window);
+                    open.remove();
+                }
+            }
+            closing.sort(Comparator.comparing((Window window) -> window.first).thenComparing(window -> window.key));
+            closing.forEach(this::close);
+        }
+
+        private void close(Window window) {
+            while (unwritten.size() >= threads * IN_FLIGHT_PER_THREAD) {
+                write(unwritten.poll());
+            }
+            unwritten.add(CompletableFuture.supplyAsync(() -> resolve(window, frameIndex), workers));
+        }
+
+        private void writeFinished() {
+            while (!unwritten.isEmpty() && unwritten.peek().isDone()) {
+                write(unwritten.poll());
+            }
+        }
+
+        private void write(CompletableFuture<WindowResult> pending) {
+            WindowResult result;
+            try {
+                result = pending.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+            }
+            try {
+                writer.write(result.xes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            skipped += result.invalid();
+            switch (result.outcome()) {
+                case UNAMBIGUOUS -> unambiguousEvents++;
+                case RESOLVED -> {
+                    ambiguousWindows++;
+                    resolved++;
+                }
+                case UNRESOLVED -> {
+                    ambiguousWindows++;
+                    unresolved++;
+                    if (result.withoutFrames()) {
+                        withoutFrames++;
+                    }
+                }
+            }
+        }
+
+        private ReprocessReport report(long millis) {
+            return new ReprocessReport(events, skipped, unambiguousEvents, ambiguousWindows, resolved, unresolved, withoutFrames, millis);
+        }
+    }
+
+    // runs on the worker threads, the frame index is only read
+    private WindowResult resolve(Window window, FrameIndex frameIndex) {
+        if (window.events.size() == 1) {
+            return toXes(Outcome.UNAMBIGUOUS, window.events, false);
+        }
+        List<String> frames = frameIndex.framesBetween(window.first, window.last.plus(frameWindowMillis, ChronoUnit.MILLIS), maxFrames);
+        if (!frames.isEmpty()) {
+            try {
+                JsonNode mlOutput = objectMapper.readTree(mlClient.analyzeFrames(frames));
+                if (mlOutput.path("resolved_ambiguity").asBoolean()) {
+                    ObjectNode resolvedEvent = PublishingServiceClientImpl.createResolvedEvent(objectMapper.createObjectNode(),
+                            mlOutput.path("top_class").asText(),
+                            objectMapper.createArrayNode().addAll(window.events));
+                    resolvedEvent.put(RESOLUTION_ATTRIBUTE, RESOLVED);
+                    return toXes(Outcome.RESOLVED, List.of(resolvedEvent), false);
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to analyze the frames of the window of " + window.key + " at " + window.first + ": " + e.getMessage());
+            }
+        }
+        window.events.forEach(event -> event.put(RESOLUTION_ATTRIBUTE, UNRESOLVED));
+        return toXes(Outcome.UNRESOLVED, window.events, frames.isEmpty());
+    }
+
+    // one event per line, an event that cannot be written as XML (e.g. a control character in a value) is left out
+    private WindowResult toXes(Outcome outcome, List<ObjectNode> events, boolean withoutFrames) {
+        StringBuilder xes = new StringBuilder(events.size() * 256);
+        int invalid = 0;
+        for (ObjectNode event : events) {
+            StringBuilder eventXes = new StringBuilder(256);
+            try {
+                jsonToXesMapper.writeXes(event, eventXes);
+                xes.append(eventXes).append('\n');
+            } catch (IllegalArgumentException e) {
+                logger.warn("Leaving out an event that is not valid in XES: " + e.getMessage());
+                invalid++;
+            }
+        }
+        return new WindowResult(outcome, xes.toString(), invalid, withoutFrames);
+    }
+}
@@ -0,0 +1,86 @@
+package orchestrator.reprocess;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The frames the camera service stored on disk, indexed by the time they were captured.
+ * The camera service names every frame after its capture time (frame_yyyyMMdd_HHmmss_SSS.jpg in its SAVE_DIR),
+ * other files are ignored. Only the paths are kept, so the frames of several days fit.
+ */
+final class FrameIndex {
+
+    static final FrameIndex EMPTY = new FrameIndex(new TreeMap<>());
+
+    private static final Pattern FRAME_NAME = Pattern.compile("frame_(\\d{8}_\\d{6}_\\d{3})\\.jpg");
+    private static final DateTimeFormatter CAPTURE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+
+    private final NavigableMap<LocalDateTime, List<String>> frames;
+
+    private FrameIndex(NavigableMap<LocalDateTime, List<String>> frames) {
+        this.frames = frames;
+    }
+
+    /**
+     * @param directory directory the camera service saved its frames to, it is not searched recursively
+     */
+    static FrameIndex scan(Path directory) throws IOException {
+        NavigableMap<LocalDateTime, List<String>> frames = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = FRAME_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    return;
+                }
+                try {
+                    LocalDateTime capturedAt = LocalDateTime.parse(matcher.group(1), CAPTURE_TIME);
+                    // the ML service opens the frames by the path it is sent, like the paths the camera service returns
+                    frames.computeIfAbsent(capturedAt, time -> new ArrayList<>(1)).add(file.toAbsolutePath().toString());
+                } catch (DateTimeParseException e) {
+                    // not a capture time, e.g. month 13
+                }
+            });
+        }
+        return new FrameIndex(frames);
+    }
+
+    int size() {
+        return frames.values().stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * @param from first capture time, inclusive
+     * @param to last capture time, inclusive
+     * @param maxFrames most frames returned
+     * @return the paths of the frames captured in the range, at most maxFrames spread evenly over it, in capture order
+     */
+    List<String> framesBetween(LocalDateTime from, LocalDateTime to, int maxFrames) {
+        if (from.isAfter(to)) {
+            return List.of();
+        }
+        List<String> inRange = new ArrayList<>();
+        for (Collection<String> paths : frames.subMap(from, true, to, true).values()) {
+            inRange.addAll(paths);
+        }
+        if (inRange.size() <= maxFrames) {
+            return inRange;
+        }
+        List<String> sampled = new ArrayList<>(maxFrames);
+        for (int i = 0; i < maxFrames; i++) {
+            sampled.add(inRange.get((int) ((long) i * inRange.size() / maxFrames)));
+        }
+        return sampled;
+    }
+}
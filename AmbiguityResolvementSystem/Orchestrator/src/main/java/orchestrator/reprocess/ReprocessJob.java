@@ -0,0 +1,23 @@
+package orchestrator.reprocess;
+
+import java.time.Instant;
+
+/**
+ * State of a reprocessing run started through the admin endpoint, replaced as a whole when the run finishes
+ *
+ * @param report the counts once the run completed, otherwise null
+ * @param error why the run failed, otherwise null
+ */
+public record ReprocessJob(String input, String output, String framesDir, Instant startedAt, State state,
+                           ReprocessReport report, String error) {
+
+    public enum State {RUNNING, COMPLETED, FAILED}
+
+    ReprocessJob completed(ReprocessReport report) {
+        return new ReprocessJob(input, output, framesDir, startedAt, State.COMPLETED, report, null);
+    }
+
+    ReprocessJob failed(String error) {
+        return new ReprocessJob(input, output, framesDir, startedAt, State.FAILED, null, error);
+    }
+}
@@ -0,0 +1,17 @@
+package orchestrator.reprocess;
+
+/**
+ * Counts of a finished reprocessing run
+ *
+ * @param events events read from the log
+ * @param skipped entries of the log that were not valid events or had no timestamp, they are not in the output
+ * @param unambiguousEvents events alone in their window, written as they are
+ * @param ambiguousWindows windows with more than one event
+ * @param resolved ambiguous windows the ML model resolved, written as one event
+ * @param unresolved ambiguous windows whose events are written labelled unresolved
+ * @param withoutFrames unresolved windows without stored frames
+ * @param millis duration of the run
+ */
+public record ReprocessReport(long events, long skipped, long unambiguousEvents, long ambiguousWindows,
+                              long resolved, long unresolved, long withoutFrames, long millis) {
+}
@@ -0,0 +1,157 @@
+package orchestrator.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the outcome of requests by their idempotency key, so a request that is sent again
+ * (a retry of the detector or a client that timed out) gets the original outcome instead of being processed twice.
+ * A key is either given by the client (Idempotency-Key header) or derived from a hash of the request body.
+ * Memory is bounded: at most maxEntries keys are kept, once it is full the key seen first is dropped,
+ * and every key expires ttlMillis after it was first seen, a resent request does not extend it.
+ */
+@Component
+public class IdempotencyCache {
+
+    public static final IdempotencyCache DISABLED = new IdempotencyCache(0, 0, false, System::currentTimeMillis);
+
+    private record Entry(Object outcome, long expiresAt) {
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final boolean hashContent;
+    private final LongSupplier clock;
+    // in the order the keys were first seen, so the expired ones are at the head; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    @Autowired
+    public IdempotencyCache(@Value("${orchestrator.idempotency.maxEntries}") int maxEntries,
+                            @Value("${orchestrator.idempotency.ttlMillis}") long ttlMillis,
+                            @Value("${orchestrator.idempotency.hashContent}") boolean hashContent) {
+        this(maxEntries, ttlMillis, hashContent, System::currentTimeMillis);
+        Gauge.builder("idempotency.entries", this, IdempotencyCache::size)
+                .description("Request keys remembered to recognize duplicates")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * @param maxEntries most keys kept, 0 disables the deduplication
+     * @param ttlMillis time a key is kept after it was first seen
+     * @param hashContent whether requests without a key given by the client are recognized by a hash of their body
+     * @param clock current time in milliseconds
+     */
+    public IdempotencyCache(int maxEntries, long ttlMillis, boolean hashContent, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.hashContent = hashContent;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlMillis > 0;
+    }
+
+    /**
+     * @return whether keyOf needs the body of a request that comes without a key
+     */
+    public boolean hashesContent() {
+        return isEnabled() && hashContent;
+    }
+
+    /**
+     * @param scope kind of request, the same key of different kinds of requests never matches
+     * @param idempotencyKey key given by the client, null to derive it from the body
+     * @param body the request body, only read if no key is given
+     * @return the key the request is remembered by, null if it is not deduplicated
+     */
+    public String keyOf(String scope, String idempotencyKey, byte[] body) {
+        if (!isEnabled()) {
+            return null;
+        }
+        if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+            return scope + ":key:" + idempotencyKey;
+        }
+        if (!hashContent || body == null) {
+            return null;
+        }
+        return scope + ":sha256:" + Base64.getUrlEncoder().withoutPadding().encodeToString(sha256(body));
+    }
+
+    public String keyOf(String scope, String idempotencyKey, String body) {
+        return keyOf(scope, idempotencyKey, hashesContent() && body != null ? body.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static byte[] sha256(byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * This method remembers the outcome of the first request with the key
+     * The outcome is typically still in progress (a resolution, a future), so a duplicate that arrives meanwhile shares it
+     *
+     * @param key key from keyOf, null is never remembered
+     * @param outcome outcome of this request
+     * @return the outcome of an earlier request with the key that did not expire, otherwise the given outcome
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T putIfAbsent(String key, T outcome) {
+        if (key == null) {
+            return outcome;
+        }
+        long now = clock.getAsLong();
+        expire(now);
+        Entry existing = entries.get(key);
+        if (existing != null) {
+            return (T) existing.outcome();
+        }
+        entries.put(key, new Entry(outcome, now + ttlMillis));
+        if (entries.size() > maxEntries) {
+            Iterator<String> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return outcome;
+    }
+
+    /**
+     * Forgets the key if it still holds the outcome, e.g. because the request failed and a retry should be processed again
+     */
+    public synchronized void remove(String key, Object outcome) {
+        if (key == null) {
+            return;
+        }
+        Entry existing = entries.get(key);
+        if (existing != null && existing.outcome() == outcome) {
+            entries.remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // every key has the same time to live, so they expire in the order they were first seen
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext() && eldest.next().getValue().expiresAt() <= now) {
+            eldest.remove();
+        }
+    }
+}
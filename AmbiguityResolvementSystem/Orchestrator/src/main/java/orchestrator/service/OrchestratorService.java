@@ -1,12 +1,52 @@
 package orchestrator.service;
 
 import camerapackage.CameraServiceClient;
+import camerapackage.Deadline;
+import camerapackage.DeadlineExceededException;
+import camerapackage.FrameConsumer;
+import camerapackage.FrameHandle;
+import camerapackage.FrameHandleConsumer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import mlpackage.IncrementalFrameAnalysis;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import mlpackage.MLServiceClient;
+import orchestrator.admission.AdmissionLane;
+import orchestrator.admission.LaneSaturatedException;
+import orchestrator.ordering.KeyedExecutor;
+import orchestrator.ordering.OrderingKeys;
+import org.eclipse.paho.client.mqttv3.MqttException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
+import publisherpackage.EventPublishStatus;
 import publisherpackage.PublishingServiceClient;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,38 +65,324 @@ This service does the following:
 @Service
 public class OrchestratorService {
 
+    // the camera and ML clients are resolved on their first call, an unambiguous event never creates them
     @Autowired
-    public OrchestratorService(CameraServiceClient cameraClient, MLServiceClient mlClient, PublishingServiceClient publishingClient) {
+    public OrchestratorService(@Lazy CameraServiceClient cameraClient, @Lazy MLServiceClient mlClient, PublishingServiceClient publishingClient,
+                               ResolutionTracker resolutionTracker, ResolutionCoalescer resolutionCoalescer,
+                               @Qualifier("resolutionExecutor") ExecutorService resolutionExecutor,
+                               @Value("${orchestrator.resolution.pipelined}") boolean pipelined,
+                               @Value("${orchestrator.resolution.inMemoryFrames}") boolean inMemoryFrames,
+                               ResolutionBudget budget,
+                               @Qualifier("publishOrder") KeyedExecutor publishOrder, OrderingKeys orderingKeys,
+                               IdempotencyCache idempotencyCache) {
         this.cameraClient = cameraClient;
         this.mlClient = mlClient;
         this.publishingClient = publishingClient;
+        this.resolutionTracker = resolutionTracker;
+        this.resolutionCoalescer = resolutionCoalescer;
+        this.resolutionExecutor = resolutionExecutor;
+        this.pipelined = pipelined;
+        this.inMemoryFrames = inMemoryFrames;
+        this.budget = Objects.requireNonNull(budget, "budget");
+        this.publishOrder = Objects.requireNonNull(publishOrder, "publishOrder");
+        this.orderingKeys = Objects.requireNonNull(orderingKeys, "orderingKeys");
+        this.idempotencyCache = Objects.requireNonNull(idempotencyCache, "idempotencyCache");
     }
 
     private static final Logger logger = LoggerFactory.getLogger(OrchestratorService.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    public static final String AMBIGUOUS_LANE = "ambiguous";
+    // scopes of the idempotency keys
+    private static final String UNAMBIGUOUS_EVENT = "unambiguous-event";
+    private static final String UNAMBIGUOUS_EVENTS = "unambiguous-events";
     CameraServiceClient cameraClient;
     MLServiceClient mlClient;
     PublishingServiceClient publishingClient;
+    private final ResolutionTracker resolutionTracker;
+    private final ResolutionCoalescer resolutionCoalescer;
+    private final ExecutorService resolutionExecutor;
+    private final boolean pipelined;
+    // frames stay in the camera module's frame store and their bytes go to the ML service, no frame files are written
+    private final boolean inMemoryFrames;
+    private final ResolutionBudget budget;
+    // publishes of events of the same case run in arrival order, a resolution takes its place when it is submitted
+    private final KeyedExecutor publishOrder;
+    private final OrderingKeys orderingKeys;
+    // a resent request gets the outcome of the first one instead of a second capture or publish
+    private final IdempotencyCache idempotencyCache;
+    private final Counter rejectedResolutions = AdmissionLane.rejectedCounter(AMBIGUOUS_LANE);
+    // moving average of the time a resolution takes once it runs, used to tell rejected callers when to retry; guarded by this
+    private double meanResolutionMillis = Double.NaN;
 
     /**
      * This method is called when ambiguity is detected by the AmbiguityDetection module via HTTP POST request
-     * It triggers the ambiguity resolution process
+     * It queues the ambiguity resolution on the resolution executor and returns immediately
      *
      * @param json_events JSON string containing the ambiguous events
+     * @return the queued resolution, whose id can be used to query its status
+     * @throws LaneSaturatedException if all resolutions are running and the resolution queue is full
+     * @throws RejectedExecutionException if the resolution executor is shut down
      */
-    public void resolveAmbiguityAndPublishEvent(String json_events) {
+    public Resolution submitAmbiguousEvent(String json_events) {
+        return submitAmbiguousEvent(json_events, null);
+    }
+
+    /**
+     * Like submitAmbiguousEvent(String), a window that was submitted before is not resolved again
+     *
+     * @param idempotencyKey key given by the client, null to recognize a resent window by its events
+     * @return the new resolution, or the resolution of the same window submitted before
+     */
+    public Resolution submitAmbiguousEvent(String json_events, String idempotencyKey) {
+        String key = idempotencyCache.keyOf(AMBIGUOUS_LANE, idempotencyKey, json_events);
+        // a duplicate is not tracked, it would push the resolutions of other windows out of the bounded tracker
+        Resolution resolution = new Resolution();
+        Resolution original = idempotencyCache.putIfAbsent(key, resolution);
+        if (original != resolution) {
+            logger.info("Ambiguous events were submitted before, returning resolution " + original.getId());
+            duplicate(AMBIGUOUS_LANE);
+            return original;
+        }
+        resolutionTracker.track(resolution);
+        // the time waiting in the queue counts against the budget
+        Deadline deadline = budget.start();
+        // later events of the same cases are published after this window, even while it waits in the queue
+        KeyedExecutor.Ticket ticket = publishOrder.reserve(orderingKeys.of(json_events));
+        try {
+            resolutionExecutor.execute(() -> {
+                long started = System.nanoTime();
+                resolve(resolution, key, json_events, deadline, ticket).whenComplete((ignored, error) -> recordResolutionTime((System.nanoTime() - started) / 1e6));
+            });
+        } catch (RejectedExecutionException e) {
+            ticket.cancel();
+            resolutionTracker.forget(resolution.getId());
+            // not an outcome, the retry is resolved
+            idempotencyCache.remove(key, resolution);
+            if (resolutionExecutor.isShutdown()) {
+                throw e;
+            }
+            logger.warn("Resolution queue is full, rejecting ambiguous event");
+            rejectedResolutions.increment();
+            throw ambiguousLaneSaturated();
+        }
+        return resolution;
+    }
+
+    private synchronized void recordResolutionTime(double millis) {
+        meanResolutionMillis = Double.isNaN(meanResolutionMillis) ? millis : meanResolutionMillis + 0.1 * (millis - meanResolutionMillis);
+    }
+
+    // every queued resolution takes about the mean resolution time on one of the executor threads
+    private LaneSaturatedException ambiguousLaneSaturated() {
+        int waiting = 0;
+        int concurrency = 1;
+        if (resolutionExecutor instanceof ThreadPoolExecutor pool) {
+            waiting = pool.getQueue().size();
+            concurrency = pool.getMaximumPoolSize();
+        }
+        double mean;
+        synchronized (this) {
+            mean = meanResolutionMillis;
+        }
+        return new LaneSaturatedException(AMBIGUOUS_LANE, AdmissionLane.estimateRetryAfterSeconds(mean, waiting, concurrency));
+    }
+
+    public Optional<Resolution> findResolution(String id) {
+        return resolutionTracker.find(id);
+    }
+
+    /**
+     * Resolves the ambiguity on the calling thread
+     * It triggers the ambiguity resolution process --> camera, ml model and publisher
+     * If the window joined the capture of an overlapping window, it waits until that capture is analyzed and published
+     *
+     * @param json_events JSON string containing the ambiguous events
+     * @return the finished resolution
+     */
+    public Resolution resolveAmbiguityAndPublishEvent(String json_events) {
+        Resolution resolution = resolutionTracker.register();
+        // a failure is reported on the resolution
+        resolve(resolution, null, json_events, budget.start(), publishOrder.reserve(orderingKeys.of(json_events)))
+                .exceptionally(error -> null)
+                .join();
+        return resolution;
+    }
+
+    // windows overlapping an in-flight capture share its ML output, only the window that started the capture runs it
+    // the window is published at the place of its ticket, once the events of its cases that arrived earlier are published
+    // completes exceptionally if the window could not join a capture, the resolution is failed then
+    // and forgotten under its idempotency key (null if none), so a retry is resolved again
+    private CompletableFuture<Void> resolve(Resolution resolution, String idempotencyKey, String json_events, Deadline deadline,
+                                            KeyedExecutor.Ticket ticket) {
+        ResolutionCoalescer.Run run;
         try {
-            List<String> image_paths = cameraClient.getFrames();
-            String mlOutput = mlClient.analyzeFrames(image_paths);
+            Set<String> cameras = cameraClient.camerasFor(eventAttributes(json_events));
+            run = resolutionCoalescer.join(resolution, json_events, cameras);
+        } catch (RuntimeException e) {
+            // e.g. the lazily created camera client has an invalid configuration, the resolution must not stay queued
+            logger.error("Error while resolving ambiguity " + resolution.getId() + ": " + e.getMessage(), e);
+            ticket.cancel();
+            if (idempotencyKey != null) {
+                idempotencyCache.remove(idempotencyKey, resolution);
+            }
+            resolution.fail(e.getMessage());
+            recordOutcome(resolution);
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Void> published = withinDeadline(run.mlOutput(), deadline)
+                .handle((mlOutput, error) -> ticket.run(() -> publish(resolution, json_events, mlOutput, error, deadline)))
+                .thenCompose(Function.identity());
+        if (run.isStartedBy(resolution)) {
+            try {
+                run.complete(pipelined ? captureAndAnalyzeIncrementally(run, deadline) : captureAndAnalyze(run, deadline));
+            } catch (Exception e) {
+                run.fail(e);
+            }
+        }
+        return published;
+    }
+
+    // the attributes of every event as text, the camera client picks the cameras that see the events by them
+    private static List<Map<String, String>> eventAttributes(String json_events) {
+        try {
+            JsonNode events = objectMapper.readTree(json_events).path("events");
+            List<Map<String, String>> attributes = new ArrayList<>();
+            for (JsonNode event : events.isArray() ? events : List.of(events)) {
+                Map<String, String> values = new HashMap<>();
+                event.fields().forEachRemaining(field -> {
+                    if (field.getValue().isValueNode()) {
+                        values.put(field.getKey(), field.getValue().asText());
+                    }
+                });
+                attributes.add(values);
+            }
+            return attributes;
+        } catch (Exception e) {
+            // the events then go to the default cameras
+            logger.warn("Could not read the attributes of the ambiguous events: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    // the events are published at the deadline even if the camera or ML service still has not answered,
+    // a window that joined a capture waits for it only until its own deadline
+    private static CompletableFuture<String> withinDeadline(CompletableFuture<String> mlOutput, Deadline deadline) {
+        if (!deadline.isBounded()) {
+            return mlOutput;
+        }
+        return mlOutput.copy().orTimeout(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void publish(Resolution resolution, String json_events, String mlOutput, Throwable error, Deadline deadline) {
+        try {
+            if ((error != null || mlOutput == null) && (deadline.isExpired() || isDeadlineExceeded(error))) {
+                logger.warn("Resolution " + resolution.getId() + " ran out of time, publishing its events unresolved");
+                resolution.moveTo(Resolution.Stage.PUBLISHING);
+                publishingClient.publishAmbiguousEvents(json_events);
+                resolution.complete(Resolution.Outcome.DEADLINE_EXCEEDED);
+                return;
+            }
+            if (error != null) {
+                logger.error("Error while resolving ambiguity " + resolution.getId() + ": " + error.getMessage(), error);
+                resolution.fail(error.getMessage());
+                return;
+            }
             // check if the camera output is empty
-            if (mlOutput != null) {
-                publishingClient.publishResolvedAmbiguousEvent(mlOutput, json_events);
+            if (mlOutput == null) {
+                resolution.complete(Resolution.Outcome.NO_RESULT);
+                return;
             }
+            resolution.moveTo(Resolution.Stage.PUBLISHING);
+            boolean resolved = publishingClient.publishResolvedAmbiguousEvent(mlOutput, json_events);
+            resolution.complete(resolved ? Resolution.Outcome.RESOLVED : Resolution.Outcome.UNRESOLVED);
         } catch (Exception e) {
-            logger.error("Error while resolving ambiguity: " + e.getMessage());
-            e.printStackTrace();
+            logger.error("Error while resolving ambiguity " + resolution.getId() + ": " + e.getMessage(), e);
+            resolution.fail(e.getMessage());
+        } finally {
+            recordOutcome(resolution);
         }
     }
 
+    private static boolean isDeadlineExceeded(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof TimeoutException || cause instanceof DeadlineExceededException;
+    }
+
+    // time from submission to the end of the resolution, the count per outcome shows resolved vs unresolved windows
+    private void recordOutcome(Resolution resolution) {
+        Resolution.ResolutionStatus status = resolution.toStatus();
+        String outcome = status.outcome() != null ? status.outcome().name() : status.stage().name();
+        Timer.builder("resolution.duration")
+                .description("Time from submission until the resolution completed or failed")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry)
+                .record(Duration.between(status.submittedAt(), Instant.now()));
+    }
+
+    // the camera stops early enough to leave the analysis its reserve of the budget
+    private String captureAndAnalyze(ResolutionCoalescer.Run run, Deadline deadline) throws Exception {
+        if (inMemoryFrames) {
+            return captureAndAnalyzeInMemory(run, deadline);
+        }
+        run.moveTo(Resolution.Stage.CAPTURING);
+        List<String> image_paths = cameraClient.getFrames(run.cameras(), budget.captureDeadline(deadline));
+        run.moveTo(Resolution.Stage.ANALYZING);
+        return mlClient.analyzeFrames(image_paths, deadline);
+    }
+
+    // the frames are released once they are analyzed, the published resolution only refers to their ids
+    private String captureAndAnalyzeInMemory(ResolutionCoalescer.Run run, Deadline deadline) throws Exception {
+        run.moveTo(Resolution.Stage.CAPTURING);
+        List<FrameHandle> frames = cameraClient.getFrameHandles(run.cameras(), budget.captureDeadline(deadline));
+        try {
+            run.moveTo(Resolution.Stage.ANALYZING);
+            return mlClient.analyzeFrameHandles(frames, deadline);
+        } finally {
+            frames.forEach(FrameHandle::release);
+        }
+    }
+
+    // frames go to the ML service while the camera keeps capturing, capture stops once the confidence is high enough
+    private String captureAndAnalyzeIncrementally(ResolutionCoalescer.Run run, Deadline deadline) throws Exception {
+        IncrementalFrameAnalysis analysis = mlClient.startIncrementalAnalysis(deadline);
+        Deadline captureDeadline = budget.captureDeadline(deadline);
+        run.moveTo(Resolution.Stage.CAPTURING);
+        if (inMemoryFrames) {
+            cameraClient.streamFrameHandles(new FrameHandleConsumer() {
+                @Override
+                public boolean accept(FrameHandle frame) {
+                    // the analysis holds its own reference until the frame is analyzed
+                    try (frame) {
+                        analysis.submit(frame);
+                    }
+                    return !analysis.isResolved();
+                }
+
+                @Override
+                public boolean wantsMore() {
+                    return !analysis.isResolved();
+                }
+            }, run.cameras(), captureDeadline);
+            run.moveTo(Resolution.Stage.ANALYZING);
+            return analysis.awaitResult();
+        }
+        cameraClient.streamFrames(new FrameConsumer() {
+            @Override
+            public boolean accept(String framePath) {
+                analysis.submit(framePath);
+                return !analysis.isResolved();
+            }
+
+            @Override
+            public boolean wantsMore() {
+                return !analysis.isResolved();
+            }
+        }, run.cameras(), captureDeadline);
+        run.moveTo(Resolution.Stage.ANALYZING);
+        return analysis.awaitResult();
+    }
+
     /**
      * This method is called when ambiguity isn't detected by the AmbiguityDetection module
      * It publishes the unambiguous event to the MQTT broker
@@ -65,10 +391,198 @@ public class OrchestratorService {
      */
     public void publishUnambiguousEvent(String jsonEvent) {
         try {
+            publishUnambiguousEvent(jsonEvent, null);
+        } catch (Exception e) {
+            logger.error("Error while publishing unambiguous event: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Like publishUnambiguousEvent(String), an event that was published before is not published again
+     *
+     * @param idempotencyKey key given by the client, null to recognize a resent event by its body
+     * @return false if the event was a duplicate and not published
+     * @throws MqttException if the event could not be published, it is then forgotten so a retry is published
+     */
+    public boolean publishUnambiguousEvent(String jsonEvent, String idempotencyKey) throws MqttException {
+        return publishOnce(idempotencyCache.keyOf(UNAMBIGUOUS_EVENT, idempotencyKey, jsonEvent), () -> inOrder(orderingKeys.of(jsonEvent), () -> {
             publishingClient.publishUnambiguousEvent(jsonEvent);
+            return null;
+        }));
+    }
+
+    /**
+     * Like publishUnambiguousEvent(String), the event is converted while it is read from the stream
+     * When events are ordered, the body is read into a byte array first to find its keys, it is still never a String
+     *
+     * @param jsonEvent the request body, JSON object whose events field holds the unambiguous event
+     */
+    public void publishUnambiguousEvent(InputStream jsonEvent) {
+        try {
+            publishUnambiguousEvent(jsonEvent, null);
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.error("Error while publishing unambiguous event: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Like publishUnambiguousEvent(InputStream), an event that was published before is not published again
+     * A body without idempotency key is read into a byte array first to hash it
+     *
+     * @param idempotencyKey key given by the client, null to recognize a resent event by its body
+     * @return false if the event was a duplicate and not published
+     * @throws IOException if the body could not be read
+     * @throws MqttException if the event could not be published, it is then forgotten so a retry is published
+     */
+    public boolean publishUnambiguousEvent(InputStream jsonEvent, String idempotencyKey) throws IOException, MqttException {
+        return publishUnambiguousEvent(jsonEvent, idempotencyKey, null);
+    }
+
+    /**
+     * Like publishUnambiguousEvent(InputStream, String), the admission permit of the request is given back while the event
+     * waits for earlier events of its case, so events stuck behind a resolution do not keep other events out of the lane
+     *
+     * @param admission permit the caller took for the request, closed here once the event has to wait, null if none
+     */
+    public boolean publishUnambiguousEvent(InputStream jsonEvent, String idempotencyKey, AdmissionLane.Permit admission) throws IOException, MqttException {
+        if (!orderingKeys.isEnabled() && (idempotencyKey != null || !idempotencyCache.hashesContent())) {
+            return publishOnce(idempotencyCache.keyOf(UNAMBIGUOUS_EVENT, idempotencyKey, (byte[]) null),
+                    () -> publishingClient.publishUnambiguousEvent(jsonEvent));
+        }
+        byte[] body = jsonEvent.readAllBytes();
+        return publishOnce(idempotencyCache.keyOf(UNAMBIGUOUS_EVENT, idempotencyKey, body), () -> inOrder(orderingKeys.of(body), () -> {
+            publishingClient.publishUnambiguousEvent(new ByteArrayInputStream(body));
+            return null;
+        }, admission));
+    }
+
+    @FunctionalInterface
+    private interface Publish {
+        void run() throws MqttException;
+    }
+
+    // a failed publish is forgotten and its error goes to the caller, so the client retries and the retry is published
+    private boolean publishOnce(String key, Publish publish) throws MqttException {
+        Object claim = new Object();
+        if (idempotencyCache.putIfAbsent(key, claim) != claim) {
+            logger.info("Unambiguous event was published before, skipping it");
+            duplicate(UNAMBIGUOUS_EVENT);
+            return false;
+        }
+        try {
+            publish.run();
+        } catch (MqttException | RuntimeException e) {
+            idempotencyCache.remove(key, claim);
+            throw e;
+        }
+        return true;
+    }
+
+    private static void duplicate(String scope) {
+        Counter.builder("idempotency.duplicates")
+                .description("Requests recognized as sent before, answered with the outcome of the first one")
+                .tag("endpoint", scope)
+                .register(Metrics.globalRegistry)
+                .increment();
+    }
+
+    /**
+     * Like publishUnambiguousEvent(String), for an event that is already parsed
+     * It does not wait for earlier events of the same case, the detection thread goes on while the event waits for them
+     *
+     * @param event the unambiguous event
+     */
+    public void publishUnambiguousEvent(JsonNode event) {
+        publishOrder.submit(orderingKeys.of(event), () -> {
+            try {
+                publishingClient.publishUnambiguousEvent(event);
+            } catch (Exception e) {
+                logger.error("Error while publishing unambiguous event: " + e.getMessage(), e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * This method publishes a batch of unambiguous events to the MQTT broker in one burst
+     *
+     * @param jsonEvents JSON array or newline delimited JSON of unambiguous events
+     * @return the publish status of every event, in batch order
+     * @throws IllegalArgumentException if the body is not a valid batch
+     */
+    public List<EventPublishStatus> publishUnambiguousEvents(String jsonEvents) {
+        return publishUnambiguousEvents(jsonEvents, null);
+    }
+
+    /**
+     * Like publishUnambiguousEvents(String), a batch that was published before is not published again
+     *
+     * @param idempotencyKey key given by the client, null to recognize a resent batch by its body
+     * @return the publish status of every event, of the first time the batch was sent if it is a duplicate
+     */
+    public List<EventPublishStatus> publishUnambiguousEvents(String jsonEvents, String idempotencyKey) {
+        return publishUnambiguousEvents(jsonEvents, idempotencyKey, null);
+    }
+
+    /**
+     * Like publishUnambiguousEvents(String, String), the admission permit of the request is given back while the batch
+     * waits for earlier events of its cases or for the first batch it duplicates
+     *
+     * @param admission permit the caller took for the request, closed here once the batch has to wait, null if none
+     */
+    public List<EventPublishStatus> publishUnambiguousEvents(String jsonEvents, String idempotencyKey, AdmissionLane.Permit admission) {
+        String key = idempotencyCache.keyOf(UNAMBIGUOUS_EVENTS, idempotencyKey, jsonEvents);
+        CompletableFuture<List<EventPublishStatus>> statuses = new CompletableFuture<>();
+        CompletableFuture<List<EventPublishStatus>> original = idempotencyCache.putIfAbsent(key, statuses);
+        if (original != statuses) {
+            logger.info("Batch of unambiguous events was published before, returning its statuses");
+            duplicate(UNAMBIGUOUS_EVENTS);
+            try {
+                return await(original, admission);
+            } catch (CompletionException e) {
+                // the first batch was rejected and forgotten meanwhile
+                return publishUnambiguousEvents(jsonEvents, idempotencyKey, admission);
+            }
+        }
+        try {
+            statuses.complete(inOrder(orderingKeys.of(jsonEvents), () -> publishingClient.publishUnambiguousEvents(jsonEvents), admission));
+            return statuses.join();
+        } catch (RuntimeException e) {
+            idempotencyCache.remove(key, statuses);
+            statuses.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return publishes waiting for earlier events of their case or running, per case key, the most first
+     */
+    public Map<String, Integer> publishBacklog() {
+        return publishOrder.backlog();
+    }
+
+    private <T> T inOrder(Set<String> keys, Callable<T> task) {
+        return inOrder(keys, task, null);
+    }
+
+    // runs the task after the earlier events of the same keys were published and waits for it
+    private <T> T inOrder(Set<String> keys, Callable<T> task, AdmissionLane.Permit admission) {
+        try {
+            return await(publishOrder.submit(keys, task), admission);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // a task that ran on the calling thread is done already, one that waits for another request does not hold a slot of the lane
+    private static <T> T await(CompletableFuture<T> result, AdmissionLane.Permit admission) {
+        if (admission != null && !result.isDone()) {
+            admission.close();
         }
+        return result.join();
     }
 
 }
@@ -0,0 +1,71 @@
+package orchestrator.service;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Tracks a single ambiguity resolution while it runs in the background.
+ * The stage and outcome are updated by the resolving thread and read by the status endpoint.
+ */
+public class Resolution {
+
+    public enum Stage { QUEUED, CAPTURING, ANALYZING, PUBLISHING, COMPLETED, FAILED }
+
+    // DEADLINE_EXCEEDED: the resolution ran out of time and the events were published unresolved
+    public enum Outcome { RESOLVED, UNRESOLVED, NO_RESULT, DEADLINE_EXCEEDED }
+
+    private final String id;
+    private final Instant submittedAt;
+    private volatile Stage stage = Stage.QUEUED;
+    private volatile Outcome outcome;
+    private volatile String error;
+    private volatile Instant updatedAt;
+
+    public Resolution() {
+        this.id = UUID.randomUUID().toString();
+        this.submittedAt = Instant.now();
+        this.updatedAt = submittedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public boolean isFinished() {
+        return stage == Stage.COMPLETED || stage == Stage.FAILED;
+    }
+
+    void moveTo(Stage stage) {
+        this.stage = stage;
+        this.updatedAt = Instant.now();
+    }
+
+    void complete(Outcome outcome) {
+        this.outcome = outcome;
+        moveTo(Stage.COMPLETED);
+    }
+
+    void fail(String error) {
+        this.error = error;
+        moveTo(Stage.FAILED);
+    }
+
+    public ResolutionStatus toStatus() {
+        return new ResolutionStatus(id, stage, outcome, error, submittedAt, updatedAt);
+    }
+
+    /**
+     * Immutable view of a resolution, returned by the status endpoint
+     */
+    public record ResolutionStatus(String id, Stage stage, Outcome outcome, String error,
+                                   Instant submittedAt, Instant updatedAt) {
+    }
+}
@@ -0,0 +1,43 @@
+package orchestrator.service;
+
+import camerapackage.Deadline;
+
+import java.time.Duration;
+
+/**
+ * Time an ambiguous window may take from its submission until its events are published, time spent queued included.
+ * The capture has to end analysisReserveMillis and the analysis publishReserveMillis before the deadline,
+ * a window that runs out of time is published unresolved to the ambiguous topic.
+ *
+ * @param deadlineMillis upper bound on the time until the events are published, 0 for no bound
+ * @param analysisReserveMillis part of the budget kept for analyzing the frames after capturing
+ * @param publishReserveMillis part of the budget kept for publishing the events
+ */
+public record ResolutionBudget(long deadlineMillis, long analysisReserveMillis, long publishReserveMillis) {
+
+    public static final ResolutionBudget UNLIMITED = new ResolutionBudget(0, 0, 0);
+
+    public ResolutionBudget {
+        if (deadlineMillis < 0 || analysisReserveMillis < 0 || publishReserveMillis < 0) {
+            throw new IllegalArgumentException("The resolution deadline and its reserves must not be negative");
+        }
+        if (deadlineMillis > 0 && analysisReserveMillis + publishReserveMillis >= deadlineMillis) {
+            throw new IllegalArgumentException("The reserves (" + analysisReserveMillis + " + " + publishReserveMillis
+                    + " ms) leave no time to capture within the resolution deadline of " + deadlineMillis + " ms");
+        }
+    }
+
+    /**
+     * @return deadline for the ML output of a window submitted now, the publish reserve is already taken off
+     */
+    Deadline start() {
+        return deadlineMillis > 0 ? Deadline.after(Duration.ofMillis(deadlineMillis - publishReserveMillis)) : Deadline.none();
+    }
+
+    /**
+     * @return deadline for the capture, so the analysis reserve is left for analyzing the frames
+     */
+    Deadline captureDeadline(Deadline analysisDeadline) {
+        return analysisDeadline.minus(Duration.ofMillis(analysisReserveMillis));
+    }
+}
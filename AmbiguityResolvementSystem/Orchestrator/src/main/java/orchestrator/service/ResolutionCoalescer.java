@@ -0,0 +1,210 @@
+package orchestrator.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lets ambiguous windows that cover the same moment share one camera capture and ML analysis.
+ * A window whose event time range overlaps the range of a run that is still capturing or analyzing
+ * (widened by the tolerance on both sides) and that is routed to the same cameras joins that run instead of starting its own.
+ * Every window of a run is published separately with the shared ML output.
+ */
+@Component
+public class ResolutionCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResolutionCoalescer.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean enabled;
+    private final Duration tolerance;
+    // guarded by this
+    private final List<Run> inFlight = new ArrayList<>();
+
+    @Autowired
+    public ResolutionCoalescer(@Value("${orchestrator.resolution.coalesce}") boolean enabled,
+                               @Value("${orchestrator.resolution.coalesceToleranceMillis}") long toleranceMillis) {
+        this.enabled = enabled;
+        this.tolerance = Duration.ofMillis(toleranceMillis);
+    }
+
+    /**
+     * Adds the resolution to an in-flight run with an overlapping time range, or starts a new run for it
+     * The caller has to execute the run if run.isStartedBy(resolution) is true
+     *
+     * @param resolution the resolution of the ambiguous window
+     * @param json_events JSON string containing the ambiguous events
+     * @return the run whose ML output the resolution is published with
+     */
+    public Run join(Resolution resolution, String json_events) {
+        return join(resolution, json_events, Set.of());
+    }
+
+    /**
+     * Like join, but the window only joins a run that captures from the same cameras,
+     * windows at different places at the same moment need frames of different cameras
+     *
+     * @param cameras names of the cameras the events are routed to, empty for the default cameras
+     */
+    public Run join(Resolution resolution, String json_events, Set<String> cameras) {
+        TimeRange range = enabled ? TimeRange.of(json_events) : null;
+        synchronized (this) {
+            if (range != null) {
+                for (Run run : inFlight) {
+                    if (run.cameras.equals(cameras) && run.range.overlaps(range, tolerance)) {
+                        logger.info("Resolution " + resolution.getId() + " joins the capture of resolution " + run.starter.getId());
+                        run.add(resolution, range);
+                        return run;
+                    }
+                }
+            }
+            Run run = new Run(resolution, range, cameras);
+            // windows without a usable time range are never shared
+            if (range != null) {
+                inFlight.add(run);
+            }
+            return run;
+        }
+    }
+
+    private synchronized void remove(Run run) {
+        inFlight.remove(run);
+    }
+
+    /**
+     * One camera capture and ML analysis, shared by all resolutions that joined it
+     */
+    public class Run {
+
+        private final Resolution starter;
+        // guarded by ResolutionCoalescer.this
+        private final List<Resolution> resolutions = new ArrayList<>();
+        private TimeRange range;
+        private final Set<String> cameras;
+        private Resolution.Stage stage = Resolution.Stage.QUEUED;
+        private final CompletableFuture<String> mlOutput = new CompletableFuture<>();
+
+        private Run(Resolution starter, TimeRange range, Set<String> cameras) {
+            this.starter = starter;
+            this.range = range;
+            this.cameras = Set.copyOf(cameras);
+            resolutions.add(starter);
+        }
+
+        public boolean isStartedBy(Resolution resolution) {
+            return starter == resolution;
+        }
+
+        /**
+         * @return names of the cameras the run captures from, empty for the default cameras
+         */
+        public Set<String> cameras() {
+            return cameras;
+        }
+
+        /**
+         * @return the ML output, or null if no frame could be analyzed
+         */
+        public CompletableFuture<String> mlOutput() {
+            return mlOutput;
+        }
+
+        /**
+         * Moves every resolution of the run to the given stage
+         */
+        public void moveTo(Resolution.Stage stage) {
+            synchronized (ResolutionCoalescer.this) {
+                this.stage = stage;
+                resolutions.forEach(resolution -> resolution.moveTo(stage));
+            }
+        }
+
+        /**
+         * Ends the run and hands the ML output to all its resolutions, later windows start a new capture
+         */
+        public void complete(String output) {
+            remove(this);
+            mlOutput.complete(output);
+        }
+
+        public void fail(Throwable error) {
+            remove(this);
+            mlOutput.completeExceptionally(error);
+        }
+
+        // called with ResolutionCoalescer.this held
+        private void add(Resolution resolution, TimeRange joined) {
+            resolutions.add(resolution);
+            range = range.union(joined);
+            resolution.moveTo(stage);
+        }
+    }
+
+    /**
+     * Earliest and latest event timestamp of an ambiguous window
+     */
+    record TimeRange(Instant from, Instant to) {
+
+        boolean overlaps(TimeRange other, Duration tolerance) {
+            return !from.minus(tolerance).isAfter(other.to) && !other.from.isAfter(to.plus(tolerance));
+        }
+
+        TimeRange union(TimeRange other) {
+            return new TimeRange(from.isBefore(other.from) ? from : other.from, to.isAfter(other.to) ? to : other.to);
+        }
+
+        /**
+         * @return the range of the time:timestamp attributes of the events, or null if an event has no parsable timestamp
+         */
+        static TimeRange of(String json_events) {
+            try {
+                JsonNode events = objectMapper.readTree(json_events).path("events");
+                Instant from = null;
+                Instant to = null;
+                for (JsonNode event : events.isArray() ? events : List.of(events)) {
+                    Instant timestamp = parseTimestamp(event.path("time:timestamp").asText(null));
+                    if (timestamp == null) {
+                        return null;
+                    }
+                    from = from == null || timestamp.isBefore(from) ? timestamp : from;
+                    to = to == null || timestamp.isAfter(to) ? timestamp : to;
+                }
+                return from == null ? null : new TimeRange(from, to);
+            } catch (Exception e) {
+                logger.warn("Could not read the time range of the ambiguous events: " + e.getMessage());
+                return null;
+            }
+        }
+
+        // the detection sends local timestamps without offset, they all come from the same clock
+        private static Instant parseTimestamp(String timestamp) {
+            if (timestamp == null) {
+                return null;
+            }
+            try {
+                return OffsetDateTime.parse(timestamp).toInstant();
+            } catch (DateTimeParseException e) {
+                try {
+                    return LocalDateTime.parse(timestamp).toInstant(ZoneOffset.UTC);
+                } catch (DateTimeParseException ignored) {
+                    return null;
+                }
+            }
+        }
+    }
+}
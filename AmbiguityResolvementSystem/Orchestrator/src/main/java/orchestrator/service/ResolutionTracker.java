@@ -0,0 +1,48 @@
+package orchestrator.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps the most recent resolutions so their status can be queried by id.
+ * The map is bounded: once it is full the oldest resolution is forgotten.
+ */
+@Component
+public class ResolutionTracker {
+
+    private final Map<String, Resolution> resolutions;
+
+    public ResolutionTracker(@Value("${orchestrator.resolution.retainedResults}") int retainedResults) {
+        this.resolutions = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+                return size() > retainedResults;
+            }
+        });
+    }
+
+    public Resolution register() {
+        return track(new Resolution());
+    }
+
+    /**
+     * Makes a resolution created before, e.g. once it is known not to be a duplicate, queryable by its id
+     */
+    public Resolution track(Resolution resolution) {
+        resolutions.put(resolution.getId(), resolution);
+        return resolution;
+    }
+
+    public Optional<Resolution> find(String id) {
+        return Optional.ofNullable(resolutions.get(id));
+    }
+
+    public void forget(String id) {
+        resolutions.remove(id);
+    }
+}
@@ -0,0 +1,62 @@
+package orchestrator.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionLaneTest {
+
+    @Test
+    void enter_AllSlotsTakenAndQueueFull_ThrowsLaneSaturatedException() {
+        AdmissionLane lane = new AdmissionLane("test-full", 1, 0, 1000);
+
+        try (AdmissionLane.Permit permit = lane.enter()) {
+            assertEquals(1, lane.inFlight());
+            LaneSaturatedException e = assertThrows(LaneSaturatedException.class, lane::enter);
+            assertEquals("test-full", e.getLane());
+            assertEquals(1, e.getRetryAfterSeconds());
+        }
+        assertEquals(0, lane.inFlight());
+    }
+
+    @Test
+    void enter_SlotFreedWhileQueued_AdmitsTheQueuedRequest() throws Exception {
+        AdmissionLane lane = new AdmissionLane("test-queued", 1, 1, 5000);
+        AdmissionLane.Permit first = lane.enter();
+
+        CompletableFuture<AdmissionLane.Permit> second = CompletableFuture.supplyAsync(lane::enter);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (lane.queued() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, lane.queued());
+        // the queue holds one request only
+        assertThrows(LaneSaturatedException.class, lane::enter);
+
+        first.close();
+        second.get(5, TimeUnit.SECONDS).close();
+        assertEquals(0, lane.queued());
+        assertEquals(0, lane.inFlight());
+    }
+
+    @Test
+    void enter_NoSlotFreeWithinMaxWait_ThrowsLaneSaturatedException() {
+        AdmissionLane lane = new AdmissionLane("test-timeout", 1, 1, 20);
+
+        try (AdmissionLane.Permit permit = lane.enter()) {
+            assertThrows(LaneSaturatedException.class, lane::enter);
+            assertEquals(0, lane.queued());
+        }
+    }
+
+    @Test
+    void estimateRetryAfterSeconds_ScalesWithQueueDepth() {
+        assertEquals(1, AdmissionLane.estimateRetryAfterSeconds(Double.NaN, 10, 4));
+        assertEquals(1, AdmissionLane.estimateRetryAfterSeconds(100, 0, 4));
+        // 7 resolutions of 4 s ahead plus the caller's own, on 4 threads
+        assertEquals(8, AdmissionLane.estimateRetryAfterSeconds(4000, 7, 4));
+    }
+}
@@ -0,0 +1,46 @@
+package orchestrator.config;
+
+import camerapackage.CameraServiceClientImpl;
+import mlpackage.CachingMLServiceClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.ObjectProvider;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ClientInitializerTest {
+
+    private ObjectProvider<CameraServiceClientImpl> cameraClient;
+    private ObjectProvider<CachingMLServiceClient> mlClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        cameraClient = mock(ObjectProvider.class);
+        mlClient = mock(ObjectProvider.class);
+    }
+
+    @Test
+    void afterSingletonsInstantiated_Eager_CreatesBothClients() {
+        new ClientInitializer(cameraClient, mlClient, false).afterSingletonsInstantiated();
+
+        verify(cameraClient).getObject();
+        verify(mlClient).getObject();
+    }
+
+    @Test
+    void afterSingletonsInstantiated_InvalidConfiguration_StopsTheStartup() {
+        when(cameraClient.getObject()).thenThrow(new BeanCreationException("cameraServiceClientImpl", "Invalid camera configuration"));
+
+        assertThrows(BeanCreationException.class, () -> new ClientInitializer(cameraClient, mlClient, false).afterSingletonsInstantiated());
+    }
+
+    @Test
+    void afterSingletonsInstantiated_Lazy_LeavesClientsToTheirFirstUse() {
+        new ClientInitializer(cameraClient, mlClient, true).afterSingletonsInstantiated();
+
+        verifyNoInteractions(cameraClient, mlClient);
+    }
+}
@@ -0,0 +1,68 @@
+package orchestrator.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigurationReloaderTest {
+
+    @TempDir
+    Path directory;
+
+    // a module whose reload applies next as its settings, or rejects it if it starts with "invalid"
+    private static ConfigurationReloader.Module module(String name, Path file, AtomicReference<String> next, AtomicReference<Object> current) {
+        return new ConfigurationReloader.Module(name, () -> file, () -> {
+            if (next.get().startsWith("invalid")) {
+                throw new IllegalArgumentException("Invalid " + name + " configuration: " + next.get());
+            }
+            current.set(next.get());
+            return current.get();
+        }, current::get);
+    }
+
+    @Test
+    void reload_InvalidModule_KeepsItsSettingsAndAppliesTheOthers() {
+        AtomicReference<Object> camera = new AtomicReference<>("camera-1");
+        AtomicReference<Object> ml = new AtomicReference<>("ml-1");
+        ConfigurationReloader reloader = new ConfigurationReloader(List.of(
+                module("camera", null, new AtomicReference<>("camera-2"), camera),
+                module("ml", null, new AtomicReference<>("invalid threshold"), ml)), 0);
+
+        ConfigurationReloader.ReloadResult result = reloader.reload();
+
+        assertFalse(result.isSuccessful());
+        assertEquals("camera-2", result.settings().get("camera"));
+        assertEquals("ml-1", result.settings().get("ml"));
+        assertEquals("Invalid ml configuration: invalid threshold", result.errors().get("ml"));
+    }
+
+    @Test
+    void reloadChangedModules_OnlyReloadsModulesWhoseFileChanged() throws Exception {
+        Path cameraFile = Files.writeString(directory.resolve("camera.properties"), "cameraControl.numberOfFrames=5\n");
+        Path mlFile = Files.writeString(directory.resolve("ml.properties"), "ml.confidenceThreshold=0.8\n");
+        AtomicInteger reloads = new AtomicInteger();
+        AtomicReference<Object> camera = new AtomicReference<>("camera-1");
+        ConfigurationReloader reloader = new ConfigurationReloader(List.of(
+                module("camera", cameraFile, new AtomicReference<>("camera-2"), camera),
+                new ConfigurationReloader.Module("ml", () -> mlFile, () -> reloads.incrementAndGet(), reloads::get)), 0);
+        reloader.reload();
+        reloads.set(0);
+
+        Files.writeString(cameraFile, "cameraControl.numberOfFrames=3\n");
+        Files.setLastModifiedTime(cameraFile, FileTime.from(Instant.now().plusSeconds(10)));
+        camera.set("camera-1");
+        reloader.reloadChangedModules();
+
+        assertEquals("camera-2", camera.get());
+        assertEquals(0, reloads.get());
+    }
+}
@@ -0,0 +1,200 @@
+package orchestrator.detection;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionWindowEngineTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicLong clock = new AtomicLong();
+    private final ConcurrentLinkedQueue<Window> windows = new ConcurrentLinkedQueue<>();
+    private SessionWindowEngine engine;
+
+    private SessionWindowEngine engine(int shards, GapPolicy gapPolicy) {
+        engine = new SessionWindowEngine((key, events) -> windows.add(new Window(key, events, Thread.currentThread().getName())),
+                "location:station", shards, 1000, gapPolicy, 10, 5000, clock::get);
+        return engine;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    @Test
+    void offer_EventsOfOnePartitionWithinGap_FormOneAmbiguousWindow() throws Exception {
+        engine(2, GapPolicy.fixed(1000));
+
+        engine.offer(event("Donor check-in", "Left station"));
+        clock.set(400);
+        engine.offer(event("Blood pressure", "Left station"));
+        engine.offer(event("Donor check-in", "Right station"));
+        clock.set(1300);
+        Thread.sleep(100);
+        assertTrue(windows.isEmpty(), "The windows must stay open until their partition was quiet for the gap");
+
+        clock.set(1500);
+        awaitWindows(2);
+
+        Map<String, Window> byStation = windows.stream().collect(Collectors.toMap(Window::key, window -> window));
+        assertEquals(List.of("Donor check-in", "Blood pressure"), byStation.get("Left station").names());
+        assertEquals(List.of("Donor check-in"), byStation.get("Right station").names());
+    }
+
+    @Test
+    void offer_EventAfterGap_StartsNewWindow() throws Exception {
+        engine(1, GapPolicy.fixed(1000));
+
+        engine.offer(event("Donor check-in", "Left station"));
+        clock.set(1000);
+        awaitWindows(1);
+        clock.set(1200);
+        engine.offer(event("Blood pressure", "Left station"));
+        clock.set(2200);
+        awaitWindows(2);
+
+        assertTrue(windows.stream().allMatch(window -> window.events().size() == 1));
+    }
+
+    @Test
+    void offer_EventWithoutTimestamp_IsRejected() {
+        engine(1, GapPolicy.fixed(1000));
+        ObjectNode event = objectMapper.createObjectNode().put("concept:name", "Donor check-in");
+
+        assertFalse(engine.offer(event));
+    }
+
+    @Test
+    void close_HandsOverOpenWindows() {
+        engine(2, GapPolicy.fixed(1000));
+        engine.offer(event("Donor check-in", "Left station"));
+        engine.offer(event("Blood pressure", "Left station"));
+
+        engine.close();
+
+        assertEquals(1, windows.size());
+        assertEquals(2, windows.peek().events().size());
+        assertFalse(engine.offer(event("Donor check-in", "Left station")));
+    }
+
+    @Test
+    void offer_WindowClosed_IsHandedToTheSinkOffTheShardThread() throws Exception {
+        engine(1, GapPolicy.fixed(1000));
+        engine.offer(event("Donor check-in", "Left station"));
+
+        clock.set(1100);
+        awaitWindows(1);
+
+        assertEquals("detection-forward-0", windows.peek().thread());
+    }
+
+    @Test
+    void expire_PartitionQuietForIdleTime_IsDropped() throws Exception {
+        engine(2, GapPolicy.fixed(1000));
+        engine.offer(event("Donor check-in", "Left station"));
+        engine.offer(event("Donor check-in", "Right station"));
+        clock.set(1100);
+        awaitWindows(2);
+        // kept for its moving average until it was quiet for the idle time
+        assertEquals(2, engine.partitions());
+
+        clock.set(5100);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (engine.partitions() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, engine.partitions());
+        assertTrue(engine.offer(event("Blood pressure", "Left station")));
+        clock.set(6200);
+        awaitWindows(3);
+    }
+
+    @Test
+    void adaptiveGap_FollowsTheTimeBetweenEvents() {
+        GapPolicy gapPolicy = GapPolicy.adaptive(1000, 3, 200, 5000);
+
+        assertEquals(1000, gapPolicy.gapMillis(Double.NaN));
+        assertEquals(300, gapPolicy.gapMillis(100));
+        assertEquals(200, gapPolicy.gapMillis(10));
+        assertEquals(5000, gapPolicy.gapMillis(4000));
+    }
+
+    @Test
+    void offer_AdaptiveGap_ClosesWindowsOfFastPartitionsEarly() throws Exception {
+        engine(1, GapPolicy.adaptive(1000, 3, 200, 5000));
+
+        engine.offer(event("Donor check-in", "Left station"));
+        clock.set(100);
+        engine.offer(event("Blood pressure", "Left station"));
+        // mean time between events is 100 ms, so the window closes 300 ms after the last event instead of 1000
+        clock.set(450);
+        awaitWindows(1);
+
+        assertEquals(2, windows.peek().events().size());
+    }
+
+    @Test
+    void offer_SyntheticSource_EveryBurstBecomesOneWindow() throws Exception {
+        engine(4, GapPolicy.fixed(1000));
+        Random random = new Random(42);
+        Map<String, Integer> expectedSizes = new ConcurrentHashMap<>();
+        int stations = 200;
+
+        // every station fires a burst of 1 to 3 events within 300 ms, the stations are spread over all shards
+        for (int offset = 0; offset < 300; offset += 100) {
+            clock.set(offset);
+            for (int station = 0; station < stations; station++) {
+                if (offset == 0 || random.nextInt(3) == 0) {
+                    assertTrue(engine.offer(event("Activity " + offset, "Station " + station)));
+                    expectedSizes.merge("Station " + station, 1, Integer::sum);
+                }
+            }
+        }
+        clock.set(1400);
+        awaitWindows(stations);
+
+        Map<String, Integer> sizes = windows.stream().collect(Collectors.toMap(Window::key, window -> window.events().size()));
+        assertEquals(expectedSizes, sizes);
+    }
+
+    private void awaitWindows(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (windows.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, windows.size());
+    }
+
+    private static ObjectNode event(String name, String station) {
+        return objectMapper.createObjectNode()
+                .put("concept:name", name)
+                .put("time:timestamp", "2024-09-11T16:00:52")
+                .put("location:station", station);
+    }
+
+    private record Window(String key, List<ObjectNode> events, String thread) {
+
+        List<String> names() {
+            List<String> names = new ArrayList<>();
+            events.forEach(event -> names.add(event.get("concept:name").asText()));
+            return names;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package orchestrator.detection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    @Test
+    void advance_FiresTimersAtTheirDeadline() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 8, 0);
+        List<String> expired = new ArrayList<>();
+        wheel.schedule("a", 25);
+        wheel.schedule("b", 40);
+
+        wheel.advance(29, expired::add);
+        assertEquals(List.of(), expired, "A timer must not fire before its deadline");
+
+        wheel.advance(30, expired::add);
+        assertEquals(List.of("a"), expired);
+
+        wheel.advance(45, expired::add);
+        assertEquals(List.of("a", "b"), expired);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    void advance_DeadlineBeyondOneLap_WaitsForItsLap() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 8, 0);
+        List<String> expired = new ArrayList<>();
+        // 8 slots of 10 ms, so 250 ms shares a slot with 90 ms and 170 ms
+        wheel.schedule("late", 250);
+
+        wheel.advance(90, expired::add);
+        wheel.advance(170, expired::add);
+        assertEquals(List.of(), expired);
+
+        wheel.advance(1000, expired::add);
+        assertEquals(List.of("late"), expired);
+    }
+
+    @Test
+    void advance_OnExpiryMaySchedule() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 8, 0);
+        List<String> expired = new ArrayList<>();
+        wheel.schedule("a", 10);
+
+        wheel.advance(10, item -> {
+            expired.add(item);
+            wheel.schedule("again", 5);
+        });
+        assertEquals(1, wheel.size());
+
+        wheel.advance(20, expired::add);
+        assertEquals(List.of("a", "again"), expired);
+    }
+}
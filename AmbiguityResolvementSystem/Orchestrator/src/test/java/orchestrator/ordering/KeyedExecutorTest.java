@@ -0,0 +1,106 @@
+package orchestrator.ordering;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyedExecutorTest {
+
+    private final KeyedExecutor executor = new KeyedExecutor("test", Executors.newCachedThreadPool());
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    private CompletableFuture<String> submit(String name, String... keys) {
+        return executor.submit(Set.of(keys), () -> {
+            ran.add(name);
+            return name;
+        });
+    }
+
+    @Test
+    void submit_SameKeyAsAReservedTicket_WaitsForItsTask() throws Exception {
+        KeyedExecutor.Ticket first = executor.reserve(Set.of("D001"));
+
+        CompletableFuture<String> second = submit("second", "D001");
+        CompletableFuture<String> third = submit("third", "D001");
+
+        assertFalse(second.isDone());
+        assertEquals(Map.of("D001", 3), executor.backlog());
+        first.run(() -> ran.add("first"));
+        assertEquals("third", third.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "second", "third"), ran);
+        assertEquals(0, executor.pending());
+        assertEquals(Map.of(), executor.backlog());
+    }
+
+    @Test
+    void submit_Finished_IsReleasedBeforeItsResultCompletes() throws Exception {
+        CompletableFuture<Integer> pendingWhenDone = submit("only", "D001").thenApply(name -> executor.pending());
+
+        assertEquals(0, pendingWhenDone.get(5, TimeUnit.SECONDS));
+        assertEquals(Map.of(), executor.backlog());
+    }
+
+    @Test
+    void submit_OtherKeyOrNoKey_RunsRightAway() {
+        executor.reserve(Set.of("D001"));
+
+        assertEquals("other", submit("other", "D002").join());
+        assertEquals("unkeyed", submit("unkeyed").join());
+        assertEquals(Map.of("D001", 1), executor.backlog());
+    }
+
+    @Test
+    void submit_SeveralKeys_WaitsForEveryKey() throws Exception {
+        KeyedExecutor.Ticket first = executor.reserve(Set.of("D001"));
+        KeyedExecutor.Ticket second = executor.reserve(Set.of("D002"));
+
+        CompletableFuture<String> batch = submit("batch", "D001", "D002");
+        first.run(() -> ran.add("first"));
+        assertFalse(batch.isDone());
+        second.run(() -> ran.add("second"));
+
+        assertEquals("batch", batch.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "second", "batch"), ran);
+    }
+
+    @Test
+    void cancel_ReservedTicket_ReleasesTheTasksBehindIt() throws Exception {
+        KeyedExecutor.Ticket cancelled = executor.reserve(Set.of("D001"));
+        CompletableFuture<String> next = submit("next", "D001");
+
+        cancelled.cancel();
+
+        assertEquals("next", next.get(5, TimeUnit.SECONDS));
+        assertThrows(IllegalStateException.class, () -> cancelled.run(() -> ran.add("cancelled")));
+        assertEquals(List.of("next"), ran);
+    }
+
+    @Test
+    void run_FailingTask_CompletesExceptionallyAndReleasesItsKeys() throws Exception {
+        KeyedExecutor.Ticket failing = executor.reserve(Set.of("D001"));
+        CompletableFuture<String> next = submit("next", "D001");
+
+        CompletableFuture<Void> failed = failing.run(() -> {
+            throw new IllegalStateException("broker down");
+        });
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertEquals("broker down", e.getCause().getMessage());
+        assertEquals("next", next.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,32 @@
+package orchestrator.ordering;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderingKeysTest {
+
+    private final OrderingKeys keys = new OrderingKeys(List.of("perform:donor", "location:station"));
+
+    @Test
+    void of_WindowAndBatch_TakesTheKeysOfEveryEvent() throws Exception {
+        String window = "{\"events\": [{\"perform:donor\": \"D001\", \"location:station\": \"Left station\"}, {\"perform:donor\": \"D002\"}]}";
+        String batch = "{\"events\": {\"perform:donor\": \"D003\"}}\n{\"events\": {\"perform:donor\": \"D004\", \"concept:name\": \"Injection\"}}\n";
+
+        assertEquals(Set.of("perform:donor=D001", "perform:donor=D002", "location:station=Left station"), keys.of(window));
+        assertEquals(Set.of("perform:donor=D003", "perform:donor=D004"), keys.of(batch.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(keys.of(window), keys.of(new ObjectMapper().readTree(window)));
+    }
+
+    @Test
+    void of_EventsWithoutKeyOrInvalidJson_HaveNoKeys() {
+        assertEquals(Set.of(), keys.of("{\"events\": {\"concept:name\": \"Injection\", \"perform:donor\": null}}"));
+        assertEquals(Set.of(), keys.of("not json"));
+        assertEquals(Set.of(), OrderingKeys.NONE.of("{\"events\": {\"perform:donor\": \"D001\"}}"));
+    }
+}
@@ -0,0 +1,153 @@
+package orchestrator.reprocess;
+
+import mlpackage.MLServiceClient;
+import orchestrator.detection.GapPolicy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import publisherpackage.JsonToXesMapper;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class EventLogReprocessorTest {
+
+    @TempDir
+    Path dir;
+
+    private MLServiceClient mlClient;
+    private EventLogReprocessor reprocessor;
+
+    @BeforeEach
+    void setUp() {
+        mlClient = mock(MLServiceClient.class);
+        reprocessor = new EventLogReprocessor(mlClient, new JsonToXesMapper(), "location:station",
+                GapPolicy.fixed(1000), 4, dir.toString(), "", 3000, 5);
+    }
+
+    private static String xesEvent(String activity, String station, String timestamp) {
+        return "<event><string key=\"concept:name\" value=\"" + activity + "\"/>"
+                + "<string key=\"location:station\" value=\"" + station + "\"/>"
+                + "<date key=\"time:timestamp\" value=\"" + timestamp + "\"/></event>";
+    }
+
+    private static String readGzip(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int countEvents(String xes) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xes.getBytes(StandardCharsets.UTF_8)))
+                .getElementsByTagName("event").getLength();
+    }
+
+    @Test
+    void reprocess_XesLogWithStoredFrames_ResolvesAmbiguousWindow() throws Exception {
+        Path log = dir.resolve("day.xes");
+        Files.writeString(log, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><log xes.version=\"1.0\">"
+                + "<trace><string key=\"concept:name\" value=\"D001\"/>"
+                + xesEvent("Injection", "Left", "2024-05-01T10:00:00.000+02:00")
+                + xesEvent("Wrapping", "Left", "2024-05-01T10:00:00.400+02:00")
+                + "</trace><trace>"
+                + xesEvent("Check-in", "Right", "2024-05-01T10:00:00.200+02:00")
+                + xesEvent("Disinfection", "Left", "2024-05-01T10:00:05.000+02:00")
+                + "</trace></log>");
+        Path frames = Files.createDirectory(dir.resolve("frames"));
+        Path inWindow = Files.createFile(frames.resolve("frame_20240501_100000_500.jpg"));
+        Path lastInWindow = Files.createFile(frames.resolve("frame_20240501_100003_000.jpg"));
+        Files.createFile(frames.resolve("frame_20240501_100030_000.jpg"));
+        Files.createFile(frames.resolve("notes.txt"));
+        when(mlClient.analyzeFrames(anyList())).thenReturn("{\"top_class\": \"Injection\", \"all_class_probabilities\": {}, "
+                + "\"frame_paths\": [], \"resolved_ambiguity\": true}");
+        Path output = dir.resolve("day.resolved.xes.gz");
+
+        ReprocessReport report = reprocessor.reprocess(log, output, frames);
+
+        verify(mlClient).analyzeFrames(List.of(inWindow.toAbsolutePath().toString(), lastInWindow.toAbsolutePath().toString()));
+        assertEquals(new ReprocessReport(4, 0, 2, 1, 1, 0, 0, report.millis()), report);
+        String xes = readGzip(output);
+        assertEquals(3, countEvents(xes));
+        int resolved = xes.indexOf("<string key=\"concept:name\" value=\"Injection\"/>");
+        assertTrue(resolved >= 0);
+        assertTrue(xes.contains("<string key=\"ambiguity:resolution\" value=\"resolved\"/>"));
+        assertTrue(xes.contains("<date key=\"time:timestamp\" value=\"2024-05-01T10:00:00.000+02:00\"/>"));
+        assertFalse(xes.contains("Wrapping"));
+        // windows are written in the order they were closed, the last ones by their first event
+        assertTrue(resolved < xes.indexOf("Check-in"));
+        assertTrue(xes.indexOf("Check-in") < xes.indexOf("Disinfection"));
+        assertFalse(Files.exists(dir.resolve("day.resolved.xes.gz.part")));
+    }
+
+    @Test
+    void start_JsonLogWithoutFrames_LabelsAmbiguousWindowUnresolved() throws Exception {
+        Path log = dir.resolve("day.jsonl.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(log))) {
+            out.write(("""
+                    {"events": [{"concept:name": "Injection", "location:station": "Left", "time:timestamp": "2024-05-01T10:00:00"},\
+                     {"concept:name": "Wrapping", "location:station": "Left", "time:timestamp": "2024-05-01T10:00:00"}]}
+                    not json
+                    {"concept:name": "Check-in", "location:station": "Right"}
+                    {"events": {"concept:name": "Disinfection", "location:station": "Right", "time:timestamp": "2024-05-01T10:00:02"}}
+                    """).getBytes(StandardCharsets.UTF_8));
+        }
+
+        ReprocessJob started = reprocessor.start(log.toString(), null, null);
+        assertThrows(IllegalStateException.class, () -> reprocessor.start(log.toString(), null, null));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reprocessor.job().orElseThrow().state() == ReprocessJob.State.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        ReprocessJob job = reprocessor.job().orElseThrow();
+        assertEquals(ReprocessJob.State.COMPLETED, job.state(), job.error());
+        assertEquals(dir.resolve("day.resolved.xes.gz").toString(), started.output());
+        ReprocessReport report = job.report();
+        assertEquals(new ReprocessReport(4, 2, 1, 1, 0, 1, 1, report.millis()), report);
+        verifyNoInteractions(mlClient);
+        String xes = readGzip(Path.of(started.output()));
+        assertEquals(3, countEvents(xes));
+        assertEquals(2, xes.split("<string key=\"ambiguity:resolution\" value=\"unresolved\"/>", -1).length - 1);
+    }
+
+    @Test
+    void start_UnknownFormatOrMissingLog_IsRejected() throws Exception {
+        Path csv = Files.writeString(dir.resolve("day.csv"), "concept:name,time:timestamp\n");
+
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start(csv.toString(), null, null));
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start(dir.resolve("missing.xes").toString(), null, null));
+        assertTrue(reprocessor.job().isEmpty());
+    }
+
+    @Test
+    void start_PathOutsideTheReprocessDir_IsRejected(@TempDir Path outside) throws Exception {
+        Path log = Files.writeString(dir.resolve("day.jsonl"), "{\"concept:name\": \"Check-in\"}\n");
+        Path foreignLog = Files.writeString(outside.resolve("day.jsonl"), "{\"concept:name\": \"Check-in\"}\n");
+        Path link = Files.createSymbolicLink(dir.resolve("link"), outside);
+        Files.writeString(dir.resolve("taken.xes.gz"), "");
+
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start(foreignLog.toString(), null, null));
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start("../" + outside.getFileName() + "/day.jsonl", null, null));
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start("link/day.jsonl", null, null));
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start(log.toString(), outside.resolve("out.xes.gz").toString(), null));
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start("day.jsonl", "link/out.xes.gz", null));
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start("day.jsonl", "taken.xes.gz", null));
+        assertThrows(IllegalArgumentException.class, () -> reprocessor.start("day.jsonl", null, outside.toString()));
+        assertTrue(reprocessor.job().isEmpty());
+        assertEquals("", Files.readString(dir.resolve("taken.xes.gz")));
+    }
+}
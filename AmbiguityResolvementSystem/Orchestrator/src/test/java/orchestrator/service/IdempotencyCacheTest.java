@@ -0,0 +1,58 @@
+package orchestrator.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final IdempotencyCache cache = new IdempotencyCache(2, 1000, true, now::get);
+
+    @Test
+    void keyOf_HeaderOrBody_DerivesKeyPerScope() {
+        String key = cache.keyOf("ambiguous", null, "{\"events\": []}");
+
+        assertEquals(key, cache.keyOf("ambiguous", null, "{\"events\": []}"));
+        assertNotEquals(key, cache.keyOf("ambiguous", null, "{\"events\": [{}]}"));
+        assertNotEquals(key, cache.keyOf("unambiguous-event", null, "{\"events\": []}"));
+        assertEquals("ambiguous:key:retry-1", cache.keyOf("ambiguous", "retry-1", "{\"events\": []}"));
+        assertNull(new IdempotencyCache(2, 1000, false, now::get).keyOf("ambiguous", null, "{\"events\": []}"));
+        assertNull(IdempotencyCache.DISABLED.keyOf("ambiguous", "retry-1", "{\"events\": []}"));
+    }
+
+    @Test
+    void putIfAbsent_KeySeenBefore_ReturnsFirstOutcomeUntilItExpires() {
+        assertEquals("first", cache.putIfAbsent("a", "first"));
+        now.set(999);
+        assertEquals("first", cache.putIfAbsent("a", "second"));
+
+        now.set(1000);
+        assertEquals("third", cache.putIfAbsent("a", "third"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void putIfAbsent_Full_DropsKeySeenFirst() {
+        cache.putIfAbsent("a", "a1");
+        cache.putIfAbsent("b", "b1");
+        cache.putIfAbsent("c", "c1");
+
+        assertEquals(2, cache.size());
+        assertEquals("a2", cache.putIfAbsent("a", "a2"));
+        assertEquals("c1", cache.putIfAbsent("c", "c2"));
+    }
+
+    @Test
+    void remove_OnlyForgetsTheGivenOutcome() {
+        cache.putIfAbsent("a", "first");
+
+        cache.remove("a", "other");
+        assertEquals("first", cache.putIfAbsent("a", "second"));
+        cache.remove("a", "first");
+        assertEquals("second", cache.putIfAbsent("a", "second"));
+        assertEquals("x", cache.putIfAbsent(null, "x"));
+    }
+}
@@ -0,0 +1,546 @@
+package orchestrator.service;
+
+import camerapackage.CameraServiceClient;
+import camerapackage.Deadline;
+import camerapackage.FrameConsumer;
+import camerapackage.FrameHandle;
+import camerapackage.FrameStore;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import mlpackage.IncrementalFrameAnalysis;
+import mlpackage.MLServiceClient;
+import orchestrator.admission.AdmissionLane;
+import orchestrator.admission.LaneSaturatedException;
+import orchestrator.ordering.KeyedExecutor;
+import orchestrator.ordering.OrderingKeys;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import publisherpackage.EventPublishStatus;
+import publisherpackage.PublishingServiceClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class OrchestratorServiceTest {
+
+    private static final String EVENTS = "{ \"events\": [{ \"concept:name\": \"Event1\" }, { \"concept:name\": \"Event2\" }] }";
+
+    private CameraServiceClient cameraClient;
+    private MLServiceClient mlClient;
+    private PublishingServiceClient publishingClient;
+    private ExecutorService executor;
+    private KeyedExecutor publishOrder;
+    private OrchestratorService service;
+
+    @BeforeEach
+    void setUp() {
+        cameraClient = mock(CameraServiceClient.class);
+        mlClient = mock(MLServiceClient.class);
+        publishingClient = mock(PublishingServiceClient.class);
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+        publishOrder = new KeyedExecutor("test", Executors.newSingleThreadExecutor());
+        service = serviceBuilder().build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        publishOrder.close();
+    }
+
+    private ServiceBuilder serviceBuilder() {
+        return new ServiceBuilder();
+    }
+
+    // the service under test with the mocked clients, unordered, without deadline and without deduplication unless set
+    private final class ServiceBuilder {
+
+        private ExecutorService resolutionExecutor = executor;
+        private boolean coalesce = true;
+        private boolean pipelined;
+        private boolean inMemoryFrames;
+        private ResolutionBudget budget = ResolutionBudget.UNLIMITED;
+        private KeyedExecutor order = publishOrder;
+        private OrderingKeys orderingKeys = OrderingKeys.NONE;
+        private IdempotencyCache idempotencyCache = IdempotencyCache.DISABLED;
+
+        ServiceBuilder resolutionExecutor(ExecutorService resolutionExecutor) {
+            this.resolutionExecutor = resolutionExecutor;
+            return this;
+        }
+
+        ServiceBuilder coalesce(boolean coalesce) {
+            this.coalesce = coalesce;
+            return this;
+        }
+
+        ServiceBuilder pipelined() {
+            this.pipelined = true;
+            return this;
+        }
+
+        ServiceBuilder inMemoryFrames() {
+            this.inMemoryFrames = true;
+            return this;
+        }
+
+        ServiceBuilder budget(ResolutionBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        ServiceBuilder ordered(KeyedExecutor order, OrderingKeys orderingKeys) {
+            this.order = order;
+            this.orderingKeys = orderingKeys;
+            return this;
+        }
+
+        ServiceBuilder idempotencyCache(IdempotencyCache idempotencyCache) {
+            this.idempotencyCache = idempotencyCache;
+            return this;
+        }
+
+        OrchestratorService build() {
+            return new OrchestratorService(cameraClient, mlClient, publishingClient, new ResolutionTracker(10),
+                    new ResolutionCoalescer(coalesce, 500), resolutionExecutor, pipelined, inMemoryFrames, budget,
+                    order, orderingKeys, idempotencyCache);
+        }
+    }
+
+    @Test
+    void submitAmbiguousEvent_ReturnsBeforeResolutionFinishes() throws Exception {
+        CountDownLatch cameraReleased = new CountDownLatch(1);
+        when(cameraClient.getFrames(any(), any())).thenAnswer(invocation -> {
+            cameraReleased.await();
+            return List.of("frame1.jpg");
+        });
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(EVENTS))).thenReturn(true);
+
+        Resolution resolution = service.submitAmbiguousEvent(EVENTS);
+        assertFalse(resolution.isFinished());
+
+        cameraReleased.countDown();
+        awaitFinished(resolution);
+
+        assertEquals(Resolution.Stage.COMPLETED, resolution.getStage());
+        assertEquals(Resolution.Outcome.RESOLVED, resolution.getOutcome());
+        assertSame(resolution, service.findResolution(resolution.getId()).orElseThrow());
+    }
+
+    @Test
+    void submitAmbiguousEvent_FailureIsReportedOnResolution() throws Exception {
+        when(cameraClient.getFrames(any(), any())).thenThrow(new IllegalStateException("camera offline"));
+
+        Resolution resolution = service.submitAmbiguousEvent(EVENTS);
+        awaitFinished(resolution);
+
+        assertEquals(Resolution.Stage.FAILED, resolution.getStage());
+        assertEquals("camera offline", resolution.toStatus().error());
+        verifyNoInteractions(publishingClient);
+    }
+
+    @Test
+    void submitAmbiguousEvent_CamerasCannotBeChosen_FailsAndRetryIsResolvedAgain() throws Exception {
+        when(cameraClient.camerasFor(any())).thenThrow(new IllegalArgumentException("cameraControl.baseUrl is missing"))
+                .thenReturn(Set.of());
+        when(cameraClient.getFrames(any(), any())).thenReturn(List.of("frame1.jpg"));
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(EVENTS))).thenReturn(true);
+        OrchestratorService idempotentService = serviceBuilder()
+                .idempotencyCache(new IdempotencyCache(100, 60000, true, System::currentTimeMillis))
+                .build();
+
+        Resolution failed = idempotentService.submitAmbiguousEvent(EVENTS);
+        awaitFinished(failed);
+        assertEquals(Resolution.Stage.FAILED, failed.getStage());
+        assertEquals("cameraControl.baseUrl is missing", failed.toStatus().error());
+
+        Resolution retried = idempotentService.submitAmbiguousEvent(EVENTS);
+        awaitFinished(retried);
+
+        assertNotSame(failed, retried);
+        assertEquals(Resolution.Outcome.RESOLVED, retried.getOutcome());
+    }
+
+    @Test
+    void submitAmbiguousEvent_QueueFull_ThrowsRejectedExecutionException() throws Exception {
+        CountDownLatch cameraReleased = new CountDownLatch(1);
+        when(cameraClient.getFrames(any(), any())).thenAnswer(invocation -> {
+            cameraReleased.await();
+            return List.of();
+        });
+
+        service.submitAmbiguousEvent(EVENTS); // running
+        service.submitAmbiguousEvent(EVENTS); // queued
+        RejectedExecutionException e = assertThrows(RejectedExecutionException.class, () -> service.submitAmbiguousEvent(EVENTS));
+        LaneSaturatedException saturated = assertInstanceOf(LaneSaturatedException.class, e);
+        assertEquals(OrchestratorService.AMBIGUOUS_LANE, saturated.getLane());
+        assertTrue(saturated.getRetryAfterSeconds() >= 1);
+        cameraReleased.countDown();
+    }
+
+    @Test
+    void resolveAmbiguity_Pipelined_StopsCapturingOnceResolved() throws Exception {
+        IncrementalFrameAnalysis analysis = mock(IncrementalFrameAnalysis.class);
+        when(mlClient.startIncrementalAnalysis(any())).thenReturn(analysis);
+        when(analysis.isResolved()).thenReturn(false, true);
+        when(analysis.awaitResult()).thenReturn("{\"resolved_ambiguity\": true}");
+        when(cameraClient.streamFrames(any(), any(), any())).thenAnswer(invocation -> {
+            FrameConsumer consumer = invocation.getArgument(0);
+            int captured = 0;
+            for (String frame : List.of("frame1.jpg", "frame2.jpg", "frame3.jpg")) {
+                captured++;
+                if (!consumer.accept(frame)) {
+                    break;
+                }
+            }
+            return captured;
+        });
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(EVENTS))).thenReturn(true);
+        OrchestratorService pipelinedService = serviceBuilder().pipelined().build();
+
+        Resolution resolution = pipelinedService.resolveAmbiguityAndPublishEvent(EVENTS);
+
+        assertEquals(Resolution.Outcome.RESOLVED, resolution.getOutcome());
+        verify(analysis).submit("frame1.jpg");
+        verify(analysis).submit("frame2.jpg");
+        verify(analysis, never()).submit("frame3.jpg");
+        verify(cameraClient, never()).getFrames(any(), any());
+        verify(mlClient, never()).analyzeFrames(anyList(), any());
+    }
+
+    @Test
+    void resolveAmbiguity_InMemoryFrames_ReleasesFramesOnceAnalyzed() throws Exception {
+        try (FrameStore store = FrameStore.open(null, 16, 2, 60000)) {
+            List<FrameHandle> frames = List.of(store.store(Instant.now(), ByteBuffer.wrap(new byte[]{1})),
+                    store.store(Instant.now(), ByteBuffer.wrap(new byte[]{2})));
+            when(cameraClient.getFrameHandles(any(), any())).thenReturn(frames);
+            when(mlClient.analyzeFrameHandles(eq(frames), any())).thenReturn("{\"resolved_ambiguity\": true}");
+            when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(EVENTS))).thenReturn(true);
+            OrchestratorService inMemoryService = serviceBuilder().inMemoryFrames().build();
+
+            Resolution resolution = inMemoryService.resolveAmbiguityAndPublishEvent(EVENTS);
+
+            assertEquals(Resolution.Outcome.RESOLVED, resolution.getOutcome());
+            assertEquals(0, store.storedFrames());
+            verify(cameraClient, never()).getFrames(any(), any());
+        }
+    }
+
+    @Test
+    void submitAmbiguousEvent_OverlappingWindows_ShareOneCapture() throws Exception {
+        String firstWindow = "{ \"events\": [{ \"concept:name\": \"Event1\", \"time:timestamp\": \"2024-09-11T16:00:52\" },"
+                + " { \"concept:name\": \"Event2\", \"time:timestamp\": \"2024-09-11T16:00:54\" }] }";
+        String secondWindow = "{ \"events\": [{ \"concept:name\": \"Event3\", \"time:timestamp\": \"2024-09-11T16:00:54.300\" },"
+                + " { \"concept:name\": \"Event4\", \"time:timestamp\": \"2024-09-11T16:00:55\" }] }";
+        CountDownLatch cameraReleased = new CountDownLatch(1);
+        when(cameraClient.getFrames(any(), any())).thenAnswer(invocation -> {
+            cameraReleased.await();
+            return List.of("frame1.jpg");
+        });
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), anyString())).thenReturn(true);
+        ExecutorService parallelExecutor = Executors.newFixedThreadPool(2);
+        OrchestratorService coalescingService = serviceBuilder().resolutionExecutor(parallelExecutor).build();
+
+        try {
+            Resolution first = coalescingService.submitAmbiguousEvent(firstWindow);
+            verify(cameraClient, timeout(5000)).getFrames(any(), any());
+            Resolution second = coalescingService.submitAmbiguousEvent(secondWindow);
+            awaitStage(second, Resolution.Stage.CAPTURING);
+
+            cameraReleased.countDown();
+            awaitFinished(first);
+            awaitFinished(second);
+
+            verify(cameraClient, times(1)).getFrames(any(), any());
+            verify(mlClient, times(1)).analyzeFrames(anyList(), any());
+            verify(publishingClient).publishResolvedAmbiguousEvent("{\"resolved_ambiguity\": true}", firstWindow);
+            verify(publishingClient).publishResolvedAmbiguousEvent("{\"resolved_ambiguity\": true}", secondWindow);
+            assertEquals(Resolution.Outcome.RESOLVED, second.getOutcome());
+        } finally {
+            parallelExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void resolveAmbiguity_RecordsDurationPerOutcome() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            when(cameraClient.getFrames(any(), any())).thenReturn(List.of("frame1.jpg"));
+            when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": false}");
+            when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(EVENTS))).thenReturn(false);
+
+            service.resolveAmbiguityAndPublishEvent(EVENTS);
+
+            assertEquals(1, registry.get("resolution.duration").tag("outcome", "UNRESOLVED").timer().count());
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    void submitAmbiguousEvent_SlowCamera_PublishesUnresolvedAtDeadline() throws Exception {
+        CountDownLatch cameraReleased = new CountDownLatch(1);
+        when(cameraClient.getFrames(any(), any())).thenAnswer(invocation -> {
+            cameraReleased.await();
+            return List.of("frame1.jpg");
+        });
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        OrchestratorService boundedService = serviceBuilder().budget(new ResolutionBudget(300, 100, 50)).build();
+
+        try {
+            Resolution resolution = boundedService.submitAmbiguousEvent(EVENTS);
+            awaitFinished(resolution);
+
+            assertEquals(Resolution.Outcome.DEADLINE_EXCEEDED, resolution.getOutcome());
+            assertTrue(Duration.between(resolution.toStatus().submittedAt(), resolution.toStatus().updatedAt()).toMillis() < 1000);
+            verify(publishingClient).publishAmbiguousEvents(EVENTS);
+        } finally {
+            cameraReleased.countDown();
+        }
+        verify(mlClient, timeout(5000)).analyzeFrames(anyList(), any());
+        verify(publishingClient, never()).publishResolvedAmbiguousEvent(anyString(), anyString());
+    }
+
+    @Test
+    void resolveAmbiguity_CaptureEndsBeforeAnalysisDeadline() throws Exception {
+        ArgumentCaptor<Deadline> captureDeadline = ArgumentCaptor.forClass(Deadline.class);
+        ArgumentCaptor<Deadline> analysisDeadline = ArgumentCaptor.forClass(Deadline.class);
+        when(cameraClient.getFrames(any(), captureDeadline.capture())).thenReturn(List.of("frame1.jpg"));
+        when(mlClient.analyzeFrames(anyList(), analysisDeadline.capture())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(EVENTS))).thenReturn(true);
+        OrchestratorService boundedService = serviceBuilder().budget(new ResolutionBudget(10000, 3000, 500)).build();
+
+        Resolution resolution = boundedService.resolveAmbiguityAndPublishEvent(EVENTS);
+
+        assertEquals(Resolution.Outcome.RESOLVED, resolution.getOutcome());
+        assertTrue(captureDeadline.getValue().remainingMillis() <= 6500);
+        assertTrue(analysisDeadline.getValue().remainingMillis() > 6500);
+        assertTrue(analysisDeadline.getValue().remainingMillis() <= 9500);
+    }
+
+    @Test
+    void resolveAmbiguity_CapturesFromCamerasRoutedByEventAttributes() throws Exception {
+        String events = "{ \"events\": [{ \"concept:name\": \"Event1\", \"location\": \"station-a\" },"
+                + " { \"concept:name\": \"Event2\", \"location\": \"station-b\" }] }";
+        when(cameraClient.camerasFor(any())).thenReturn(Set.of("entrance", "dock"));
+        when(cameraClient.getFrames(any(), any())).thenReturn(List.of("frame1.jpg", "frame2.jpg"));
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(events))).thenReturn(true);
+
+        Resolution resolution = service.resolveAmbiguityAndPublishEvent(events);
+
+        assertEquals(Resolution.Outcome.RESOLVED, resolution.getOutcome());
+        verify(cameraClient).camerasFor(List.of(
+                Map.of("concept:name", "Event1", "location", "station-a"),
+                Map.of("concept:name", "Event2", "location", "station-b")));
+        verify(cameraClient).getFrames(eq(Set.of("entrance", "dock")), any());
+    }
+
+    @Test
+    void publishUnambiguousEvent_WindowOfTheSameCaseStillResolving_IsPublishedAfterIt() throws Exception {
+        String window = "{ \"events\": [{ \"concept:name\": \"Injection\", \"perform:donor\": \"D001\" },"
+                + " { \"concept:name\": \"Wrapping\", \"perform:donor\": \"D001\" }] }";
+        String sameCase = "{ \"events\": { \"concept:name\": \"Disinfection\", \"perform:donor\": \"D001\" } }";
+        String otherCase = "{ \"events\": { \"concept:name\": \"Disinfection\", \"perform:donor\": \"D002\" } }";
+        CountDownLatch cameraReleased = new CountDownLatch(1);
+        when(cameraClient.getFrames(any(), any())).thenAnswer(invocation -> {
+            cameraReleased.await();
+            return List.of("frame1.jpg");
+        });
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(window))).thenReturn(true);
+        try (KeyedExecutor casePublishOrder = new KeyedExecutor("cases", Executors.newCachedThreadPool())) {
+            OrchestratorService orderedService = serviceBuilder()
+                    .ordered(casePublishOrder, new OrderingKeys(List.of("perform:donor")))
+                    .build();
+
+            Resolution resolution = orderedService.submitAmbiguousEvent(window);
+            CompletableFuture<Void> sameCasePublished = CompletableFuture.runAsync(() -> orderedService.publishUnambiguousEvent(sameCase));
+            orderedService.publishUnambiguousEvent(otherCase);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (orderedService.publishBacklog().getOrDefault("perform:donor=D001", 0) < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // only the event of the other case got past the resolving window
+            verify(publishingClient).publishUnambiguousEvent(otherCase);
+            verify(publishingClient, never()).publishUnambiguousEvent(sameCase);
+            assertEquals(Map.of("perform:donor=D001", 2), orderedService.publishBacklog());
+            cameraReleased.countDown();
+            sameCasePublished.get(5, TimeUnit.SECONDS);
+
+            assertEquals(Resolution.Outcome.RESOLVED, resolution.getOutcome());
+            InOrder publishes = inOrder(publishingClient);
+            publishes.verify(publishingClient).publishResolvedAmbiguousEvent(anyString(), eq(window));
+            publishes.verify(publishingClient).publishUnambiguousEvent(sameCase);
+            assertEquals(Map.of(), orderedService.publishBacklog());
+        }
+    }
+
+    @Test
+    void publishUnambiguousEvent_WaitingForAResolvingWindow_GivesBackItsAdmissionPermit() throws Exception {
+        String window = "{ \"events\": [{ \"concept:name\": \"Injection\", \"perform:donor\": \"D001\" }] }";
+        String sameCase = "{ \"events\": { \"concept:name\": \"Disinfection\", \"perform:donor\": \"D001\" } }";
+        CountDownLatch cameraReleased = new CountDownLatch(1);
+        when(cameraClient.getFrames(any(), any())).thenAnswer(invocation -> {
+            cameraReleased.await();
+            return List.of("frame1.jpg");
+        });
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(window))).thenReturn(true);
+        AdmissionLane lane = new AdmissionLane("unambiguous", 1, 0, 0);
+        try (KeyedExecutor casePublishOrder = new KeyedExecutor("cases", Executors.newCachedThreadPool())) {
+            OrchestratorService orderedService = serviceBuilder()
+                    .ordered(casePublishOrder, new OrderingKeys(List.of("perform:donor")))
+                    .build();
+
+            orderedService.submitAmbiguousEvent(window);
+            CompletableFuture<Boolean> sameCasePublished = CompletableFuture.supplyAsync(() -> {
+                try (AdmissionLane.Permit permit = lane.enter()) {
+                    return orderedService.publishUnambiguousEvent(stream(sameCase), null, permit);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+            long deadline = System.currentTimeMillis() + 5000;
+            while (orderedService.publishBacklog().getOrDefault("perform:donor=D001", 0) < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // the single slot of the lane is free for other events while this one waits
+            try (AdmissionLane.Permit other = lane.enter()) {
+                assertEquals(1, lane.inFlight());
+            }
+            cameraReleased.countDown();
+            assertTrue(sameCasePublished.get(5, TimeUnit.SECONDS));
+            assertEquals(0, lane.inFlight());
+        }
+    }
+
+    @Test
+    void submitAmbiguousEvent_SentAgain_ReturnsFirstResolutionWithoutCapturing() throws Exception {
+        when(cameraClient.getFrames(any(), any())).thenReturn(List.of("frame1.jpg"));
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), eq(EVENTS))).thenReturn(true);
+        OrchestratorService idempotentService = serviceBuilder()
+                .coalesce(false)
+                .idempotencyCache(new IdempotencyCache(100, 60000, true, System::currentTimeMillis))
+                .build();
+
+        Resolution first = idempotentService.submitAmbiguousEvent(EVENTS);
+        awaitFinished(first);
+        Resolution resent = idempotentService.submitAmbiguousEvent(EVENTS);
+        Resolution keyed = idempotentService.submitAmbiguousEvent(EVENTS, "window-1");
+        Resolution keyedAgain = idempotentService.submitAmbiguousEvent(EVENTS.replace(" ", ""), "window-1");
+        awaitFinished(keyed);
+
+        assertSame(first, resent);
+        assertNotSame(first, keyed);
+        assertSame(keyed, keyedAgain);
+        assertEquals(Resolution.Outcome.RESOLVED, resent.getOutcome());
+        verify(cameraClient, times(2)).getFrames(any(), any());
+        verify(publishingClient, times(2)).publishResolvedAmbiguousEvent(anyString(), eq(EVENTS));
+    }
+
+    @Test
+    void submitAmbiguousEvent_SentAgainManyTimes_OtherResolutionsStayQueryable() throws Exception {
+        when(cameraClient.getFrames(any(), any())).thenReturn(List.of("frame1.jpg"));
+        when(mlClient.analyzeFrames(anyList(), any())).thenReturn("{\"resolved_ambiguity\": true}");
+        when(publishingClient.publishResolvedAmbiguousEvent(anyString(), anyString())).thenReturn(true);
+        OrchestratorService idempotentService = serviceBuilder()
+                .coalesce(false)
+                .idempotencyCache(new IdempotencyCache(100, 60000, true, System::currentTimeMillis))
+                .build();
+
+        Resolution other = idempotentService.submitAmbiguousEvent(EVENTS, "window-1");
+        Resolution resent = idempotentService.submitAmbiguousEvent(EVENTS, "window-2");
+        // more duplicates than the tracker retains
+        for (int i = 0; i < 20; i++) {
+            assertSame(resent, idempotentService.submitAmbiguousEvent(EVENTS, "window-2"));
+        }
+        awaitFinished(other);
+        awaitFinished(resent);
+
+        assertSame(other, idempotentService.findResolution(other.getId()).orElseThrow());
+        assertSame(resent, idempotentService.findResolution(resent.getId()).orElseThrow());
+    }
+
+    @Test
+    void publishUnambiguousEvent_SentAgain_IsPublishedOnceUnlessItFailed() throws Exception {
+        String event = "{ \"events\": { \"concept:name\": \"Disinfection\" } }";
+        String batch = "{\"concept:name\": \"Injection\"}\n{\"concept:name\": \"Wrapping\"}";
+        List<EventPublishStatus> statuses = List.of(new EventPublishStatus(0, EventPublishStatus.Status.PUBLISHED, null),
+                new EventPublishStatus(1, EventPublishStatus.Status.PUBLISHED, null));
+        when(publishingClient.publishUnambiguousEvents(batch)).thenReturn(statuses);
+        doThrow(new RuntimeException("broker down")).doNothing().when(publishingClient).publishUnambiguousEvent(any(InputStream.class));
+        OrchestratorService idempotentService = serviceBuilder()
+                .coalesce(false)
+                .idempotencyCache(new IdempotencyCache(100, 60000, true, System::currentTimeMillis))
+                .build();
+
+        RuntimeException failure = assertThrows(RuntimeException.class, () -> idempotentService.publishUnambiguousEvent(stream(event), null));
+        assertEquals("broker down", failure.getMessage());
+        assertTrue(idempotentService.publishUnambiguousEvent(stream(event), null));
+        assertFalse(idempotentService.publishUnambiguousEvent(stream(event), null));
+        assertSame(statuses, idempotentService.publishUnambiguousEvents(batch, "batch-1"));
+        assertSame(statuses, idempotentService.publishUnambiguousEvents(batch, "batch-1"));
+
+        // the first publish failed, so the retry was published
+        verify(publishingClient, times(2)).publishUnambiguousEvent(any(InputStream.class));
+        verify(publishingClient).publishUnambiguousEvents(batch);
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void resolutionBudget_ReservesExceedDeadline_IsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ResolutionBudget(1000, 800, 200));
+    }
+
+    private static void awaitStage(Resolution resolution, Resolution.Stage stage) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (resolution.getStage() != stage && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(stage, resolution.getStage());
+    }
+
+    private static void awaitFinished(Resolution resolution) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!resolution.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(resolution.isFinished(), "Resolution should finish in time");
+    }
+}
@@ -0,0 +1,74 @@
+package orchestrator.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResolutionCoalescerTest {
+
+    private static String window(String from, String to) {
+        return "{ \"events\": [{ \"concept:name\": \"Event1\", \"time:timestamp\": \"" + from + "\" },"
+                + " { \"concept:name\": \"Event2\", \"time:timestamp\": \"" + to + "\" }] }";
+    }
+
+    @Test
+    void join_OverlapWithinTolerance_SharesRun() {
+        ResolutionCoalescer coalescer = new ResolutionCoalescer(true, 500);
+        Resolution first = new Resolution();
+        Resolution second = new Resolution();
+
+        ResolutionCoalescer.Run run = coalescer.join(first, window("2024-09-11T16:00:52", "2024-09-11T16:00:54"));
+        ResolutionCoalescer.Run joined = coalescer.join(second, window("2024-09-11T16:00:54.400", "2024-09-11T16:00:56"));
+
+        assertSame(run, joined);
+        assertTrue(run.isStartedBy(first));
+        assertFalse(run.isStartedBy(second));
+    }
+
+    @Test
+    void join_GapLargerThanTolerance_StartsNewRun() {
+        ResolutionCoalescer coalescer = new ResolutionCoalescer(true, 500);
+
+        ResolutionCoalescer.Run run = coalescer.join(new Resolution(), window("2024-09-11T16:00:52", "2024-09-11T16:00:54"));
+        ResolutionCoalescer.Run other = coalescer.join(new Resolution(), window("2024-09-11T16:00:55", "2024-09-11T16:00:56"));
+
+        assertNotSame(run, other);
+    }
+
+    @Test
+    void join_OverlapAtOtherCameras_StartsNewRun() {
+        ResolutionCoalescer coalescer = new ResolutionCoalescer(true, 500);
+        String events = window("2024-09-11T16:00:52", "2024-09-11T16:00:54");
+
+        ResolutionCoalescer.Run entrance = coalescer.join(new Resolution(), events, Set.of("entrance"));
+        ResolutionCoalescer.Run dock = coalescer.join(new Resolution(), events, Set.of("dock"));
+
+        assertNotSame(entrance, dock);
+        assertSame(entrance, coalescer.join(new Resolution(), events, Set.of("entrance")));
+        assertEquals(Set.of("dock"), dock.cameras());
+    }
+
+    @Test
+    void join_AfterRunCompleted_StartsNewRun() {
+        ResolutionCoalescer coalescer = new ResolutionCoalescer(true, 500);
+        String events = window("2024-09-11T16:00:52", "2024-09-11T16:00:54");
+
+        ResolutionCoalescer.Run run = coalescer.join(new Resolution(), events);
+        run.complete("{}");
+
+        assertNotSame(run, coalescer.join(new Resolution(), events));
+    }
+
+    @Test
+    void join_WithoutTimestampsOrDisabled_NeverShares() {
+        ResolutionCoalescer coalescer = new ResolutionCoalescer(true, 500);
+        String withoutTimestamps = "{ \"events\": [{ \"concept:name\": \"Event1\" }, { \"concept:name\": \"Event2\" }] }";
+        assertNotSame(coalescer.join(new Resolution(), withoutTimestamps), coalescer.join(new Resolution(), withoutTimestamps));
+
+        ResolutionCoalescer disabled = new ResolutionCoalescer(false, 500);
+        String events = window("2024-09-11T16:00:52", "2024-09-11T16:00:54");
+        assertNotSame(disabled.join(new Resolution(), events), disabled.join(new Resolution(), events));
+    }
+}
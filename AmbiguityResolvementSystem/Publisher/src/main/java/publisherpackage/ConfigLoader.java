@@ -1,29 +1,34 @@
 package publisherpackage;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Properties;
 
 /**
  * ConfigLoader is a utility class to load configuration properties from a file.
  * It uses the Java Properties class to read key-value pairs from a specified file.
+ * Keys of the file named by the system property publisher.configFile override the packaged ones,
+ * reload() reads both again so the topics can be changed without a restart.
  */
 @Component
 public class ConfigLoader {
-    private final Properties properties = new Properties();
+    /** System property naming a properties file whose keys override application.properties */
+    public static final String CONFIG_FILE_PROPERTY = "publisher.configFile";
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigLoader.class);
+
+    // replaced as a whole on reload, so a reader never sees a half loaded file
+    private volatile Properties properties;
 
     public ConfigLoader() {
-        try (InputStream input = getClass().getClassLoader().getResourceAsStream("application.properties")) {
-            if (input == null) {
-                throw new RuntimeException("Unable to find configuration file: application.properties");
-            }
-            properties.load(input);
-            System.out.println("Loaded properties Publisher: " + properties);
-        } catch (IOException ex) {
-            throw new RuntimeException("Error loading configuration file: " + ex.getMessage(), ex);
-        }
+        this.properties = load();
     }
 
     public String get(String key) {
@@ -33,4 +38,57 @@ public class ConfigLoader {
         }
         return value;
     }
+
+    /**
+     * @return the settings of the loaded configuration
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    public PublisherSettings settings() {
+        return PublisherSettings.from(properties::getProperty);
+    }
+
+    /**
+     * This method reads the configuration again and only applies it if it is valid, otherwise the current values stay
+     *
+     * @return the new settings
+     * @throws IllegalArgumentException if the new configuration is invalid
+     * @throws UncheckedIOException if the override file cannot be read
+     */
+    public synchronized PublisherSettings reload() {
+        Properties next = load();
+        PublisherSettings settings = PublisherSettings.from(next::getProperty);
+        properties = next;
+        logger.info("Reloaded publisher configuration: " + settings);
+        return settings;
+    }
+
+    /**
+     * @return the file overriding the packaged configuration, null if none is configured
+     */
+    public static Path overrideFile() {
+        String file = System.getProperty(CONFIG_FILE_PROPERTY);
+        return file == null || file.isBlank() ? null : Path.of(file);
+    }
+
+    private Properties load() {
+        Properties loaded = new Properties();
+        try (InputStream input = getClass().getClassLoader().getResourceAsStream("application.properties")) {
+            if (input == null) {
+                throw new RuntimeException("Unable to find configuration file: application.properties");
+            }
+            loaded.load(input);
+        } catch (IOException ex) {
+            throw new RuntimeException("Error loading configuration file: " + ex.getMessage(), ex);
+        }
+        Path overrideFile = overrideFile();
+        if (overrideFile != null && Files.exists(overrideFile)) {
+            try (InputStream input = Files.newInputStream(overrideFile)) {
+                loaded.load(input);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Error loading configuration file " + overrideFile + ": " + ex.getMessage(), ex);
+            }
+        }
+        logger.info("Loaded " + loaded.size() + " publisher properties" + (overrideFile == null ? "" : ", overridden by " + overrideFile));
+        return loaded;
+    }
 }
@@ -0,0 +1,253 @@
+package publisherpackage;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * MqttService that writes every message to the MqttOutbox before MqttServiceImpl publishes it.
+ * A message stays in the outbox until the broker acknowledged it, so a message that cost a camera capture and an ML
+ * analysis is not lost while the broker is unreachable. Messages that could not be delivered (the broker was down,
+ * the connection was lost before the acknowledgement, or the application was restarted) are replayed from the outbox
+ * in batches once the connection is established. While messages wait for a replay, new ones queue up behind them.
+ * The outbox is their only buffer: they bypass the in-memory buffer of MqttServiceImpl, so a message is never sent
+ * both from that buffer and from a replay.
+ * The future of publishAsync only completes once the broker acknowledged the message, it does not fail on outages.
+ */
+@Primary
+@Service
+public class DurableMqttService implements MqttService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DurableMqttService.class);
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final MqttServiceImpl delegate;
+    private final MqttOutbox outbox;
+    private final int replayBatchSize;
+    private final long replayAckTimeoutMillis;
+    private final ScheduledExecutorService replayExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mqtt-outbox-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // messages waiting for a replay, oldest first; guarded by this
+    private final NavigableMap<Long, MqttOutbox.Entry> unsent = new TreeMap<>();
+    // true while a replay batch is handed to the delegate, new messages wait so they do not overtake it; guarded by this
+    private boolean handingOver;
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+
+    @Autowired
+    public DurableMqttService(MqttServiceImpl delegate,
+                              @Value("${publisher.outbox.enabled:true}") boolean enabled,
+                              @Value("${publisher.outbox.dir:outbox}") String directory,
+                              @Value("${publisher.outbox.segmentBytes:4194304}") int segmentBytes,
+                              @Value("${publisher.outbox.maxBytes:268435456}") long maxBytes,
+                              @Value("${publisher.outbox.fsync:false}") boolean fsync,
+                              @Value("${publisher.outbox.replayBatchSize:100}") int replayBatchSize,
+                              @Value("${publisher.outbox.replayAckTimeoutMillis:10000}") long replayAckTimeoutMillis) throws IOException {
+        this(delegate, enabled ? MqttOutbox.open(Path.of(directory), segmentBytes, maxBytes, fsync) : null,
+                replayBatchSize, replayAckTimeoutMillis);
+    }
+
+    /**
+     * @param outbox the outbox, null publishes straight through the delegate
+     */
+    DurableMqttService(MqttServiceImpl delegate, MqttOutbox outbox, int replayBatchSize, long replayAckTimeoutMillis) {
+        this.delegate = delegate;
+        this.outbox = outbox;
+        this.replayBatchSize = replayBatchSize;
+        this.replayAckTimeoutMillis = replayAckTimeoutMillis;
+        if (outbox != null) {
+            // messages of an earlier run that the broker never acknowledged
+            outbox.unacknowledged().forEach(entry -> unsent.put(entry.sequence(), entry));
+            delegate.onConnected(this::scheduleReplay);
+            // the delegate may have connected before the listener was registered
+            if (delegate.isConnected()) {
+                scheduleReplay();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() throws IOException {
+        replayExecutor.shutdownNow();
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Publishes the message, delivery failures are retried from the outbox
+     */
+    @Override
+    public void publish(String topic, String message) throws MqttException {
+        publish(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) throws MqttException {
+        publishAsync(topic, payload);
+    }
+
+    /**
+     * Writes the message to the outbox and publishes it
+     *
+     * @return future that completes once the broker acknowledged the message
+     * @throws MqttException with REASON_CODE_DISCONNECTED_BUFFER_FULL if the outbox is full
+     */
+    @Override
+    public CompletableFuture<Void> publishAsync(String topic, byte[] payload) throws MqttException {
+        if (outbox == null) {
+            return delegate.publishAsync(topic, payload);
+        }
+        MqttOutbox.Entry entry;
+        try {
+            entry = outbox.append(topic, payload);
+        } catch (MqttOutbox.OutboxFullException e) {
+            logger.error(e.getMessage());
+            throw new MqttException(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL);
+        } catch (IOException e) {
+            throw new MqttException(e);
+        }
+        boolean queued;
+        synchronized (this) {
+            queued = handingOver || !unsent.isEmpty();
+            if (queued) {
+                unsent.put(entry.sequence(), entry);
+            }
+        }
+        if (!queued) {
+            send(entry, topic, payload);
+        } else if (delegate.isConnected()) {
+            scheduleReplay();
+        }
+        return entry.acknowledged();
+    }
+
+    @Override
+    public void connect() throws MqttException {
+        delegate.connect();
+    }
+
+    @Override
+    public void disconnect() throws MqttException {
+        delegate.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    /**
+     * @return number of messages in the outbox that the broker has not acknowledged yet
+     */
+    public int unacknowledgedCount() {
+        return outbox == null ? 0 : outbox.size();
+    }
+
+    private CompletableFuture<Void> send(MqttOutbox.Entry entry, String topic, byte[] payload) {
+        return delegate.publishUnbuffered(topic, payload).whenComplete((ignored, e) -> {
+            if (e == null) {
+                outbox.acknowledge(entry);
+            } else {
+                requeue(entry, e);
+            }
+        });
+    }
+
+    private void requeue(MqttOutbox.Entry entry, Throwable cause) {
+        logger.debug("Message " + entry.sequence() + " was not delivered, keeping it for a replay: " + cause.getMessage());
+        synchronized (this) {
+            unsent.put(entry.sequence(), entry);
+        }
+        // a reconnect replays it as well, this covers failures without a disconnect
+        scheduleRetry();
+    }
+
+    // one pending retry is enough, it replays everything that is waiting
+    private void scheduleRetry() {
+        if (!retryScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            replayExecutor.schedule(() -> {
+                retryScheduled.set(false);
+                replay();
+            }, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            retryScheduled.set(false);
+        }
+    }
+
+    private void scheduleReplay() {
+        try {
+            replayExecutor.execute(this::replay);
+        } catch (RejectedExecutionException e) {
+            // shutting down, the outbox keeps the messages for the next start
+        }
+    }
+
+    // runs on the replay thread only, one batch at a time, so a long outage does not flood the in-flight window
+    private void replay() {
+        while (delegate.isConnected()) {
+            List<MqttOutbox.Entry> batch = new ArrayList<>();
+            synchronized (this) {
+                while (batch.size() < replayBatchSize && !unsent.isEmpty()) {
+                    batch.add(unsent.pollFirstEntry().getValue());
+                }
+                handingOver = !batch.isEmpty();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            logger.info("Replaying " + batch.size() + " unacknowledged messages from the outbox");
+            List<CompletableFuture<Void>> acks = new ArrayList<>(batch.size());
+            try {
+                for (MqttOutbox.Entry entry : batch) {
+                    MqttOutbox.Message message = outbox.read(entry);
+                    acks.add(send(entry, message.topic(), message.payload()));
+                }
+            } finally {
+                synchronized (this) {
+                    handingOver = false;
+                }
+            }
+            try {
+                CompletableFuture.allOf(acks.toArray(new CompletableFuture[0])).get(replayAckTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                // the failed messages were put back and are replayed later
+                return;
+            } catch (TimeoutException e) {
+                logger.warn("Replayed messages were not acknowledged within " + replayAckTimeoutMillis + " ms, continuing later");
+                scheduleRetry();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package publisherpackage;
+
+/**
+ * Result of publishing one event of a batch
+ *
+ * @param index position of the event in the batch
+ * @param status what happened to the event
+ * @param error reason if the event was not published, otherwise null
+ */
+public record EventPublishStatus(int index, Status status, String error) {
+
+    public enum Status {
+        // acknowledged by the broker
+        PUBLISHED,
+        // handed to the MQTT client but not acknowledged within the timeout, e.g. buffered while the broker is down
+        PENDING,
+        // the MQTT client rejected or lost the message
+        FAILED,
+        // not a valid event, nothing was published
+        INVALID
+    }
+
+    static EventPublishStatus of(int index, Status status) {
+        return new EventPublishStatus(index, status, null);
+    }
+}
@@ -1,56 +1,152 @@
 package publisherpackage;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.StringWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 import java.util.Map;
 
 @Service
 public class JsonToXesMapper {
 
-    public String convertJsonToXes(String jsonEventString) throws ParserConfigurationException, TransformerException, JsonProcessingException {
-        JsonNode jsonEvent = new ObjectMapper().readTree(jsonEventString);
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.newDocument();
+    // ObjectMapper is thread-safe once configured, so one instance is shared by all calls
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Timer CONVERT_TIMER = Timer.builder("publisher.xes.convert")
+            .description("Conversion of a JSON event to XES")
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry);
+    private static final JsonFactory JSON_FACTORY = OBJECT_MAPPER.getFactory();
+    // the XES of an event is encoded into the buffer of the thread, only the finished payload is copied out
+    private static final ThreadLocal<Utf8Buffer> BUFFERS = ThreadLocal.withInitial(() -> new Utf8Buffer(1024));
 
-        Element eventElement = doc.createElement("event");
-        doc.appendChild(eventElement);
+    public String convertJsonToXes(String jsonEventString) throws JsonProcessingException {
+        return convertJsonToXes(OBJECT_MAPPER.readTree(jsonEventString));
+    }
 
-        Iterator<Map.Entry<String, JsonNode>> fields = jsonEvent.fields();
-        while (fields.hasNext()) {
-            Map.Entry<String, JsonNode> entry = fields.next();
-            String key = entry.getKey();
-            Element attrElement;
+    /**
+     * Converts a flat JSON event to an XES event element
+     * Textual fields whose key starts with "time:" become date attributes, all other fields string attributes
+     *
+     * @param jsonEvent the JSON event, any node other than an object results in an empty event
+     * @return the XES event as XML string
+     */
+    public String convertJsonToXes(JsonNode jsonEvent) {
+        Timer.Sample sample = Timer.start();
+        StringBuilder xes = new StringBuilder(64 + jsonEvent.size() * 64);
+        writeXes(jsonEvent, xes);
+        sample.stop(CONVERT_TIMER);
+        return xes.toString();
+    }
 
-            if (entry.getValue().isTextual() && key.startsWith("time:")) {
-                attrElement = doc.createElement("date");
-            } else {
-                attrElement = doc.createElement("string");
+    /**
+     * Like convertJsonToXes, but returns the XES as UTF-8 bytes, ready to be published
+     */
+    public byte[] convertJsonToXesBytes(JsonNode jsonEvent) {
+        Timer.Sample sample = Timer.start();
+        Utf8Buffer buffer = BUFFERS.get().reset();
+        try {
+            writeXes(jsonEvent, buffer);
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+            sample.stop(CONVERT_TIMER);
+        }
+    }
+
+    /**
+     * Converts the body of an unambiguous event request ({"events": {...}}) to XES in a single streaming pass
+     * Neither a JsonNode nor a String of the event is built, the fields are written as XES while they are read
+     *
+     * @param body the request body, read up to the end of its JSON object
+     * @return the XES event as UTF-8 bytes, the same XML convertJsonToXes returns for the events field
+     * @throws JsonProcessingException if the body is not valid JSON
+     * @throws IllegalArgumentException if the body is not a JSON object with an events field
+     */
+    public byte[] convertEventsJsonToXes(InputStream body) throws IOException {
+        Timer.Sample sample = Timer.start();
+        Utf8Buffer buffer = BUFFERS.get().reset();
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected a JSON object with an events field");
+            }
+            boolean found = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                if (name.equals("events")) {
+                    // like readTree, the last events field wins
+                    writeXes(parser, buffer.reset());
+                    found = true;
+                } else {
+                    parser.skipChildren();
+                }
             }
+            if (!found) {
+                throw new IllegalArgumentException("The JSON object has no events field");
+            }
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+            sample.stop(CONVERT_TIMER);
+        }
+    }
 
-            attrElement.setAttribute("key", key);
-            attrElement.setAttribute("value", entry.getValue().asText());
-            eventElement.appendChild(attrElement);
+    private static void release(Utf8Buffer buffer) {
+        if (buffer.capacity() > Utf8Buffer.RETAINED_CAPACITY) {
+            BUFFERS.remove();
         }
+    }
 
-        // Convert Document to XML String
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-        StringWriter writer = new StringWriter();
-        transformer.transform(new DOMSource(doc), new StreamResult(writer));
-        return writer.getBuffer().toString();
+    // the parser is on the value of the events field, anything but an object results in an empty event like convertJsonToXes
+    private static void writeXes(JsonParser parser, Appendable out) throws IOException {
+        XesEventWriter writer = new XesEventWriter(out).start();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            writer.end();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            JsonToken value = parser.nextToken();
+            writer.attribute(key, text(parser, value), value == JsonToken.VALUE_STRING && key.startsWith("time:"));
+        }
+        writer.end();
+    }
+
+    // the text JsonNode.asText() returns for the value, nested objects and arrays have none
+    private static String text(JsonParser parser, JsonToken value) throws IOException {
+        return switch (value) {
+            case VALUE_STRING -> parser.getText();
+            case VALUE_NUMBER_INT -> parser.getNumberValue().toString();
+            case VALUE_NUMBER_FLOAT -> String.valueOf(parser.getDoubleValue());
+            case VALUE_TRUE -> "true";
+            case VALUE_FALSE -> "false";
+            case VALUE_NULL -> "null";
+            default -> {
+                parser.skipChildren();
+                yield "";
+            }
+        };
+    }
+
+    public void writeXes(JsonNode jsonEvent, Appendable out) {
+        XesEventWriter writer = new XesEventWriter(out).start();
+        Iterator<Map.Entry<String, JsonNode>> fields = jsonEvent.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> entry = fields.next();
+            String key = entry.getKey();
+            boolean date = entry.getValue().isTextual() && key.startsWith("time:");
+            writer.attribute(key, entry.getValue().asText(), date);
+        }
+        writer.end();
     }
 }
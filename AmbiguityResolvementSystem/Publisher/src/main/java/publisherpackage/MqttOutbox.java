@@ -0,0 +1,362 @@
+package publisherpackage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the messages handed to the MQTT broker, kept in memory-mapped segment files.
+ * A message is appended before it is published and marked as acknowledged once the broker acked it,
+ * so messages that were not acknowledged survive a broker outage and a restart of the application and can be replayed.
+ * Segments without unacknowledged messages are deleted. A sealed segment whose messages are mostly acknowledged
+ * is compacted: the remaining messages are copied to the active segment and the old segment is deleted.
+ * The log guarantees at-least-once delivery, a message can be replayed although the broker already got it.
+ *
+ * Record layout: length (int), state (byte), sequence (long), CRC32 of topic and payload (int),
+ * topic length (short), topic, payload. The length is written last, so a record torn by a crash is not read.
+ */
+public class MqttOutbox implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MqttOutbox.class);
+    private static final int HEADER_BYTES = 4 + 1 + 8 + 4 + 2;
+    private static final int STATE_OFFSET = 4;
+    private static final byte PENDING = 1;
+    private static final byte ACKNOWLEDGED = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // a sealed segment is compacted once at most this share of its records is still unacknowledged
+    private static final double COMPACTION_THRESHOLD = 0.25;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final boolean fsync;
+    // guarded by this, in creation order
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    private long nextSequence;
+    // segment files are numbered in creation order, a record copied by a compaction lives in a later segment
+    private long nextSegmentId;
+    private final ConcurrentSkipListMap<Long, Entry> unacknowledged = new ConcurrentSkipListMap<>();
+
+    /**
+     * Opens the outbox in the directory and recovers the unacknowledged messages of earlier runs
+     *
+     * @param directory directory of the segment files, created if missing
+     * @param segmentBytes size of a segment file
+     * @param maxBytes total size of all segment files, append fails beyond it
+     * @param fsync force every appended record to the disk, otherwise the page cache of the OS writes it
+     *              (which survives a crash of the application, but not of the machine)
+     */
+    public static MqttOutbox open(Path directory, int segmentBytes, long maxBytes, boolean fsync) throws IOException {
+        MqttOutbox outbox = new MqttOutbox(directory, segmentBytes, maxBytes, fsync);
+        outbox.recover();
+        return outbox;
+    }
+
+    private MqttOutbox(Path directory, int segmentBytes, long maxBytes, boolean fsync) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Writes the message to the log, it stays unacknowledged until acknowledge is called
+     *
+     * @return the entry of the message, its future completes when the message is acknowledged
+     * @throws OutboxFullException if the log reached maxBytes
+     */
+    public synchronized Entry append(String topic, byte[] payload) throws IOException {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        Entry entry = new Entry(nextSequence++);
+        write(entry, topicBytes, payload);
+        unacknowledged.put(entry.sequence, entry);
+        return entry;
+    }
+
+    /**
+     * Marks the message as acknowledged by the broker, it will not be replayed anymore
+     */
+    public synchronized void acknowledge(Entry entry) {
+        if (unacknowledged.remove(entry.sequence) == null) {
+            return;
+        }
+        Segment segment = entry.segment;
+        segment.buffer.put(entry.offset + STATE_OFFSET, ACKNOWLEDGED);
+        segment.pending--;
+        if (segment != active) {
+            if (segment.pending == 0) {
+                delete(segment);
+            } else if (segment.pending <= segment.records * COMPACTION_THRESHOLD) {
+                compact(segment);
+            }
+        } else if (segment.pending == 0 && segment.position > segment.buffer.capacity() / 2) {
+            // start the next record in a fresh segment, so the acknowledged ones can be deleted
+            active = null;
+            delete(segment);
+        }
+        entry.acknowledged.complete(null);
+    }
+
+    /**
+     * Reads topic and payload of an unacknowledged message
+     */
+    public synchronized Message read(Entry entry) {
+        Segment segment = entry.segment;
+        int offset = entry.offset;
+        int length = segment.buffer.getInt(offset);
+        int topicLength = segment.buffer.getShort(offset + HEADER_BYTES - 2);
+        byte[] topic = new byte[topicLength];
+        byte[] payload = new byte[length - HEADER_BYTES - topicLength];
+        segment.buffer.get(offset + HEADER_BYTES, topic);
+        segment.buffer.get(offset + HEADER_BYTES + topicLength, payload);
+        return new Message(new String(topic, StandardCharsets.UTF_8), payload);
+    }
+
+    /**
+     * @return the unacknowledged messages, oldest first
+     */
+    public List<Entry> unacknowledged() {
+        return new ArrayList<>(unacknowledged.values());
+    }
+
+    /**
+     * @return number of unacknowledged messages
+     */
+    public int size() {
+        return unacknowledged.size();
+    }
+
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.channel.close();
+        }
+        segments.clear();
+        active = null;
+    }
+
+    private void write(Entry entry, byte[] topicBytes, byte[] payload) throws IOException {
+        int length = HEADER_BYTES + topicBytes.length + payload.length;
+        if (active == null || active.position + length > active.buffer.capacity()) {
+            roll(length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(topicBytes);
+        crc.update(payload);
+        MappedByteBuffer buffer = active.buffer;
+        int offset = active.position;
+        buffer.put(offset + STATE_OFFSET, PENDING);
+        buffer.putLong(offset + 5, entry.sequence);
+        buffer.putInt(offset + 13, (int) crc.getValue());
+        buffer.putShort(offset + 17, (short) topicBytes.length);
+        buffer.put(offset + HEADER_BYTES, topicBytes);
+        buffer.put(offset + HEADER_BYTES + topicBytes.length, payload);
+        // the length makes the record visible to recovery, so it is written last
+        buffer.putInt(offset, length);
+        if (fsync) {
+            buffer.force(offset, length);
+        }
+        active.position += length;
+        active.records++;
+        active.pending++;
+        entry.segment = active;
+        entry.offset = offset;
+    }
+
+    private void roll(int recordLength) throws IOException {
+        // a message larger than a segment gets a segment of its own
+        int size = Math.max(segmentBytes, recordLength);
+        long used = segments.stream().mapToLong(segment -> segment.buffer.capacity()).sum();
+        if (used + size > maxBytes) {
+            throw new OutboxFullException("Outbox is full with " + unacknowledged.size() + " unacknowledged messages");
+        }
+        Segment sealed = active;
+        active = createSegment(size);
+        if (sealed != null && sealed.pending == 0) {
+            delete(sealed);
+        }
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        segments.add(segment);
+        return segment;
+    }
+
+    // the remaining messages keep their sequence, so they are still replayed in order
+    private void compact(Segment segment) {
+        logger.info("Compacting outbox segment " + segment.path.getFileName() + " with " + segment.pending + " unacknowledged messages");
+        try {
+            for (Entry entry : unacknowledged.values()) {
+                if (entry.segment == segment) {
+                    Message message = read(entry);
+                    write(entry, message.topic().getBytes(StandardCharsets.UTF_8), message.payload());
+                    segment.pending--;
+                }
+            }
+            delete(segment);
+        } catch (IOException e) {
+            // the segment stays as it is, its messages are still in the log
+            logger.warn("Could not compact outbox segment " + segment.path.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment);
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.warn("Could not delete outbox segment " + segment.path.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private void recover() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.matches(SEGMENT_PREFIX + "\\d{20}\\" + SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            nextSegmentId = Math.max(nextSegmentId,
+                    Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())) + 1);
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            segments.add(segment);
+            recover(segment);
+        }
+        for (Segment segment : new ArrayList<>(segments)) {
+            if (segment.pending == 0) {
+                delete(segment);
+            }
+        }
+        if (!unacknowledged.isEmpty()) {
+            logger.info("Recovered " + unacknowledged.size() + " unacknowledged messages from the outbox in " + directory);
+        }
+        // new records go into a new segment, the recovered ones are not appended to
+    }
+
+    private void recover(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length < HEADER_BYTES || offset + length > buffer.capacity() || !isIntact(buffer, offset, length)) {
+                // end of the written records, or a record torn by a crash
+                break;
+            }
+            long sequence = buffer.getLong(offset + 5);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            segment.records++;
+            if (buffer.get(offset + STATE_OFFSET) == PENDING) {
+                Entry entry = new Entry(sequence);
+                entry.segment = segment;
+                entry.offset = offset;
+                Entry copied = unacknowledged.put(sequence, entry);
+                // a compaction was interrupted, the older copy of the record is dropped
+                if (copied != null) {
+                    copied.segment.buffer.put(copied.offset + STATE_OFFSET, ACKNOWLEDGED);
+                    copied.segment.pending--;
+                }
+                segment.pending++;
+            }
+            offset += length;
+        }
+        segment.position = offset;
+    }
+
+    private static boolean isIntact(MappedByteBuffer buffer, int offset, int length) {
+        int topicLength = buffer.getShort(offset + HEADER_BYTES - 2);
+        if (topicLength < 0 || HEADER_BYTES + topicLength > length) {
+            return false;
+        }
+        byte[] content = new byte[length - HEADER_BYTES];
+        buffer.get(offset + HEADER_BYTES, content);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue() == buffer.getInt(offset + 13);
+    }
+
+    /**
+     * Position of an unacknowledged message in the log
+     */
+    public static final class Entry {
+        private final long sequence;
+        private final CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+        // guarded by the outbox, changed when the segment is compacted
+        private Segment segment;
+        private int offset;
+
+        private Entry(long sequence) {
+            this.sequence = sequence;
+        }
+
+        public long sequence() {
+            return sequence;
+        }
+
+        /**
+         * @return future that completes once the message is acknowledged
+         */
+        public CompletableFuture<Void> acknowledged() {
+            return acknowledged;
+        }
+    }
+
+    public record Message(String topic, byte[] payload) {
+    }
+
+    /**
+     * Thrown by append when the log reached its maximum size
+     */
+    public static class OutboxFullException extends IOException {
+        public OutboxFullException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int position;
+        private int records;
+        private int pending;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -2,8 +2,14 @@ package publisherpackage;
 
 import org.eclipse.paho.client.mqttv3.MqttException;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface MqttService {
     void publish (String topic, String message) throws MqttException;
+    // like publish(topic, message) for a payload that is already encoded, the array must not be changed afterwards
+    void publish(String topic, byte[] payload) throws MqttException;
+    // completes once the broker acknowledged the message
+    CompletableFuture<Void> publishAsync(String topic, byte[] payload) throws MqttException;
     void connect() throws MqttException;
     void disconnect() throws MqttException;
     boolean isConnected();
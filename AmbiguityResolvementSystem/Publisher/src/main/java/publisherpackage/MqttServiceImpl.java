@@ -1,60 +1,202 @@
 package publisherpackage;
 
-import org.eclipse.paho.client.mqttv3.MqttClient;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Publishes to the MQTT broker over a single long-lived connection.
+ * Up to maxInflight QoS 1 messages are on the wire at once; callers only block when that window is full.
+ * While the connection is down, publishes are buffered (up to bufferSize) and sent once it is back.
+ */
 @Service
-public class MqttServiceImpl implements MqttService {
+public class MqttServiceImpl implements MqttService, MqttCallbackExtended {
     private static final Logger logger = LoggerFactory.getLogger(MqttServiceImpl.class);
-    private MqttClient client;
+    private static final int QOS = 1;
+    private static final long MAX_RECONNECT_DELAY = 30_000;
+
+    private final IMqttAsyncClient client;
     private final String brokerUrl;
+    private final MqttConnectOptions options;
+    private final Semaphore inflight;
+    // oldest first, a message sent from the buffer that finds the connection gone goes back to the head
+    private final BlockingDeque<PendingPublish> pending;
+    private final AtomicBoolean connecting = new AtomicBoolean();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final ExecutorService drainExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mqtt-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Runnable> connectionListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean shuttingDown;
+    private long reconnectDelay = 1000;
+
+    @Autowired
+    public MqttServiceImpl(@Value("${mqtt.broker.url}") String brokerUrl,
+                           @Value("${mqtt.maxInflight:64}") int maxInflight,
+                           @Value("${mqtt.bufferSize:5000}") int bufferSize) throws MqttException {
+        this(new MqttAsyncClient(brokerUrl, MqttAsyncClient.generateClientId(), new MemoryPersistence()),
+                brokerUrl, maxInflight, bufferSize);
+    }
 
-    public MqttServiceImpl(@Value("${mqtt.broker.url}") String brokerUrl) {
+    MqttServiceImpl(IMqttAsyncClient client, String brokerUrl, int maxInflight, int bufferSize) {
+        this.client = client;
         this.brokerUrl = brokerUrl;
+        this.inflight = new Semaphore(maxInflight);
+        this.pending = new LinkedBlockingDeque<>(bufferSize);
+        this.options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setAutomaticReconnect(true);
+        options.setMaxInflight(maxInflight);
+        client.setCallback(this);
+    }
+
+    // open the connection once at startup instead of on the first publish
+    @PostConstruct
+    public void start() throws MqttException {
+        connect();
     }
 
     @PreDestroy
     public void cleanup() throws MqttException {
+        shuttingDown = true;
+        drainExecutor.shutdown();
         disconnect();
+        client.close();
     }
 
+    /**
+     * Publishes the message without waiting for the broker's acknowledgement
+     * Delivery failures are logged; use publishAsync to react to them
+     */
     @Override
     public void publish(String topic, String message) throws MqttException {
-        connect();
-        MqttMessage mqttMessage = new MqttMessage(message.getBytes(StandardCharsets.UTF_8));
-        mqttMessage.setQos(1);
-        client.publish(topic, mqttMessage);
-        logger.info("Published message to topic: " + topic);
+        publish(topic, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) throws MqttException {
+        publishAsync(topic, payload)
+                .exceptionally(e -> {
+                    logger.error("Failed to publish message to topic " + topic + ": " + e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Publishes the message, the returned future completes once the broker acknowledged it
+     * The time until the acknowledgement, including time spent in the buffer, is recorded as mqtt.publish
+     */
+    @Override
+    public CompletableFuture<Void> publishAsync(String topic, byte[] payload) throws MqttException {
+        PendingPublish publish = pendingPublish(topic, payload, true);
+        try {
+            // keep the order: as long as something is buffered or the drain may still be sending what it took from the buffer,
+            // new messages queue up behind it
+            if (!client.isConnected() || draining.get() || !pending.isEmpty()) {
+                buffer(publish);
+                drainIfConnected();
+            } else {
+                send(publish);
+            }
+        } catch (MqttException e) {
+            publish.future().completeExceptionally(e);
+            throw e;
+        }
+        return publish.future();
+    }
+
+    /**
+     * Like publishAsync, but the message never waits in the buffer: it fails if the connection is down,
+     * or if the connection is lost before the broker acknowledged it
+     * For a caller that keeps undelivered messages itself, e.g. the outbox, so a message is not also sent from the buffer
+     */
+    CompletableFuture<Void> publishUnbuffered(String topic, byte[] payload) {
+        PendingPublish publish = pendingPublish(topic, payload, false);
+        try {
+            if (!client.isConnected()) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+            }
+            send(publish);
+        } catch (MqttException e) {
+            publish.future().completeExceptionally(e);
+        }
+        return publish.future();
+    }
+
+    private static PendingPublish pendingPublish(String topic, byte[] payload, boolean buffered) {
+        PendingPublish publish = new PendingPublish(topic, payload, buffered, new CompletableFuture<>());
+        Timer.Sample sample = Timer.start();
+        publish.future().whenComplete((ignored, e) -> sample.stop(publishTimer(e == null ? "success" : "failure")));
+        return publish;
+    }
+
+    private static Timer publishTimer(String outcome) {
+        return Timer.builder("mqtt.publish")
+                .description("Time until the broker acknowledged a publish")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
     }
 
     @Override
     public void connect() throws MqttException {
-        logger.info("Connecting to MQTT broker... ");
-        if (client==null || !client.isConnected()) {
-            this.client = new MqttClient(brokerUrl, MqttClient.generateClientId());
-            MqttConnectOptions options = new MqttConnectOptions();
-            options.setCleanSession(true);
-            options.setAutomaticReconnect(true);
-            client.connect();
-            logger.info("Connected to MQTT broker at " + brokerUrl);
-        } else {
-            logger.warn("Already connected to MQTT broker.");
+        if (client.isConnected() || !connecting.compareAndSet(false, true)) {
+            return;
+        }
+        logger.info("Connecting to MQTT broker at " + brokerUrl);
+        try {
+            client.connect(options, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken token) {
+                    connecting.set(false);
+                }
+
+                @Override
+                public void onFailure(IMqttToken token, Throwable e) {
+                    connecting.set(false);
+                    scheduleReconnect(e);
+                }
+            });
+        } catch (MqttException e) {
+            connecting.set(false);
+            throw e;
         }
     }
 
     @Override
     public void disconnect() throws MqttException {
-        if (client != null && client.isConnected()) {
-            client.disconnect();
+        if (client.isConnected()) {
+            client.disconnect(5000).waitForCompletion(5000);
             logger.info("Disconnected from MQTT broker.");
         } else {
             logger.warn("Not connected to MQTT broker.");
@@ -63,6 +205,139 @@ public class MqttServiceImpl implements MqttService {
 
     @Override
     public boolean isConnected() {
-        return client != null && client.isConnected();
+        return client.isConnected();
+    }
+
+    @Override
+    public void connectComplete(boolean reconnect, String serverURI) {
+        logger.info((reconnect ? "Reconnected" : "Connected") + " to MQTT broker at " + serverURI);
+        synchronized (this) {
+            reconnectDelay = 1000;
+        }
+        drainIfConnected();
+        connectionListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Registers a listener that is called on the Paho callback thread whenever the connection is (re)established
+     */
+    void onConnected(Runnable listener) {
+        connectionListeners.add(listener);
+    }
+
+    @Override
+    public void connectionLost(Throwable cause) {
+        logger.warn("Lost connection to MQTT broker, buffering publishes until it is back: " + cause.getMessage());
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) {
+        // this client only publishes
+    }
+
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+        // completion is handled per message in send()
+    }
+
+    int pendingCount() {
+        return pending.size();
+    }
+
+    private void send(PendingPublish publish) throws MqttException {
+        try {
+            inflight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MqttException(e);
+        }
+        try {
+            client.publish(publish.topic(), publish.payload(), QOS, false, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken token) {
+                    inflight.release();
+                    publish.future().complete(null);
+                }
+
+                @Override
+                public void onFailure(IMqttToken token, Throwable e) {
+                    inflight.release();
+                    retryOrFail(publish, e);
+                }
+            });
+        } catch (MqttException e) {
+            inflight.release();
+            if (!publish.buffered() || e.getReasonCode() != MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
+                throw e;
+            }
+            // the connection dropped between the check and the publish, the message stays ahead of those buffered meanwhile
+            if (!pending.offerFirst(publish)) {
+                throw new MqttException(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL);
+            }
+        }
+    }
+
+    private void retryOrFail(PendingPublish publish, Throwable e) {
+        // it was sent before everything that is buffered, so it goes back to the head
+        if (publish.buffered() && !shuttingDown && !client.isConnected() && pending.offerFirst(publish)) {
+            logger.debug("Publish to " + publish.topic() + " interrupted by disconnect, buffered for retry");
+        } else {
+            publish.future().completeExceptionally(e);
+        }
+    }
+
+    private void buffer(PendingPublish publish) throws MqttException {
+        if (!pending.offer(publish)) {
+            throw new MqttException(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL);
+        }
+    }
+
+    // drains the buffer on its own thread, acks arrive on the Paho callback thread which must not block
+    private void drainIfConnected() {
+        if (!client.isConnected() || pending.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        drainExecutor.execute(() -> {
+            try {
+                PendingPublish next;
+                while (client.isConnected() && (next = pending.poll()) != null) {
+                    try {
+                        send(next);
+                    } catch (MqttException e) {
+                        // the caller (e.g. the outbox) waits on the future, so a message that cannot be sent must fail it
+                        logger.error("Failed to publish buffered message to topic " + next.topic() + ": " + e.getMessage());
+                        next.future().completeExceptionally(e);
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            // messages may have been buffered after the loop ended
+            drainIfConnected();
+        });
+    }
+
+    // automatic reconnect only covers connections that were established once, so retry the first one ourselves
+    private void scheduleReconnect(Throwable cause) {
+        if (shuttingDown) {
+            return;
+        }
+        long delay;
+        synchronized (this) {
+            delay = reconnectDelay;
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+        }
+        logger.warn("Could not connect to MQTT broker at " + brokerUrl + ", retrying in " + delay + " ms: " + cause.getMessage());
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+            try {
+                connect();
+            } catch (MqttException e) {
+                scheduleReconnect(e);
+            }
+        });
+    }
+
+    // an unbuffered message fails instead of going to the buffer
+    private record PendingPublish(String topic, byte[] payload, boolean buffered, CompletableFuture<Void> future) {
     }
 }
@@ -0,0 +1,56 @@
+package publisherpackage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Typed and validated snapshot of the publisher.* topics and timeouts.
+ * A publish reads one snapshot, so a batch goes to one topic even when the configuration is reloaded meanwhile.
+ * The MQTT connection and the outbox are configured through Spring properties and are not part of it.
+ */
+public record PublisherSettings(String topicUnambiguousEvent,
+                                String topicAmbiguousEvent,
+                                long batchAckTimeoutMillis) {
+
+    // used when publisher.batchAckTimeoutMillis is missing
+    static final long DEFAULT_BATCH_ACK_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Reads and validates the publisher configuration
+     *
+     * @param properties returns the value of a key, null if it is missing
+     * @return the settings
+     * @throws IllegalArgumentException listing every missing or invalid key
+     */
+    public static PublisherSettings from(Function<String, String> properties) {
+        List<String> problems = new ArrayList<>();
+        String topicUnambiguousEvent = required(properties, "publisher.topicUnambiguousEvent", problems);
+        String topicAmbiguousEvent = required(properties, "publisher.topicAmbiguousEvent", problems);
+        long batchAckTimeoutMillis = DEFAULT_BATCH_ACK_TIMEOUT_MILLIS;
+        String timeout = properties.apply("publisher.batchAckTimeoutMillis");
+        if (timeout != null && !timeout.isBlank()) {
+            try {
+                batchAckTimeoutMillis = Long.parseLong(timeout.trim());
+                if (batchAckTimeoutMillis <= 0) {
+                    problems.add("publisher.batchAckTimeoutMillis must be positive but is " + timeout);
+                }
+            } catch (NumberFormatException e) {
+                problems.add("publisher.batchAckTimeoutMillis must be a whole number but is '" + timeout + "'");
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new IllegalArgumentException("Invalid publisher configuration: " + String.join(", ", problems));
+        }
+        return new PublisherSettings(topicUnambiguousEvent, topicAmbiguousEvent, batchAckTimeoutMillis);
+    }
+
+    private static String required(Function<String, String> properties, String key, List<String> problems) {
+        String value = properties.apply(key);
+        if (value == null || value.isBlank()) {
+            problems.add(key + " is missing");
+            return null;
+        }
+        return value.trim();
+    }
+}
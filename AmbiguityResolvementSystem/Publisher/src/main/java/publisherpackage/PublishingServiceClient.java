@@ -1,9 +1,21 @@
 package publisherpackage;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.eclipse.paho.client.mqttv3.MqttException;
 
+import java.io.InputStream;
+import java.util.List;
+
 public interface PublishingServiceClient {
-    void publishResolvedAmbiguousEvent(String mlOutput, String originalJsonEvents) throws MqttException;
+    boolean publishResolvedAmbiguousEvent(String mlOutput, String originalJsonEvents) throws MqttException;
     void publishUnambiguousEvent(String message) throws MqttException;
+    // the request body ({"events": {...}}) is converted to XES while it is read, without building a String of it
+    void publishUnambiguousEvent(InputStream message) throws MqttException;
+    // an event that is already parsed, e.g. by the detection
+    void publishUnambiguousEvent(JsonNode event) throws MqttException;
+    // publishes the events unresolved to the ambiguous topic, e.g. when there was no time left to resolve them
+    void publishAmbiguousEvents(String ambiguousJsonEvents) throws MqttException;
+    // body is a JSON array or newline delimited JSON of unambiguous events
+    List<EventPublishStatus> publishUnambiguousEvents(String events);
 
 }
@@ -11,8 +11,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
 
 @Service
 public class PublishingServiceClientImpl implements PublishingServiceClient {
@@ -21,9 +30,10 @@ public class PublishingServiceClientImpl implements PublishingServiceClient {
     private final MqttService mqttService;
     private final JsonToXesMapper jsonToXesMapper;
     private final ObjectMapper objectMapper;
+    private final ConfigLoader config;
 
-    private final String topicUnambiguousEvents;
-    private final String topicAmbiguousEvents;
+    // replaced by reloadSettings(), a publish reads it once
+    private volatile PublisherSettings settings;
 
     public PublishingServiceClientImpl(MqttService mqttService,
                                        JsonToXesMapper jsonToXesMapper,
@@ -32,9 +42,28 @@ public class PublishingServiceClientImpl implements PublishingServiceClient {
         this.mqttService = mqttService;
         this.jsonToXesMapper = jsonToXesMapper;
         this.objectMapper = objectMapper;
-        this.topicUnambiguousEvents = config.get("publisher.topicUnambiguousEvent");
-        this.topicAmbiguousEvents = config.get("publisher.topicAmbiguousEvent");
+        this.config = config;
+        // validated like a reload, so a broken configuration stops the application at startup
+        this.settings = config.settings();
+    }
 
+    /**
+     * @return the topics and timeouts the next publish uses
+     */
+    public PublisherSettings settings() {
+        return settings;
+    }
+
+    /**
+     * This method reads the configuration again and applies it to the next publish, publishes in progress keep their topic
+     *
+     * @return the new settings
+     * @throws IllegalArgumentException if the new configuration is invalid, the current settings stay in use
+     */
+    public PublisherSettings reloadSettings() {
+        PublisherSettings reloaded = config.reload();
+        settings = reloaded;
+        return reloaded;
     }
 
     /**
@@ -44,9 +73,10 @@ public class PublishingServiceClientImpl implements PublishingServiceClient {
      *
      * @param mlOutput ML output from the ML model
      * @param ambiguousJsonEvents JSON string containing ambiguous events
+     * @return true if the ambiguity got resolved and the resolved event was published
      */
     @Override
-    public void publishResolvedAmbiguousEvent(String mlOutput, String ambiguousJsonEvents) {
+    public boolean publishResolvedAmbiguousEvent(String mlOutput, String ambiguousJsonEvents) {
 
         try {
             AmbiguityResolutionResult result = parseMlOutput(mlOutput);
@@ -60,26 +90,55 @@ public class PublishingServiceClientImpl implements PublishingServiceClient {
             } else {
                 handleUnresolvedAmbiguity(result, ambiguousEvents);
             }
+            return result.isResolved();
         } catch (Exception e) {
             logger.error("Error processing ML output: " + e.getMessage());
             throw new RuntimeException("Failed to process ML output", e);
         }
     }
-    private void handleResolvedAmbiguity(AmbiguityResolutionResult result, ArrayNode ambiguousEvents) throws JsonProcessingException, ParserConfigurationException, TransformerException, MqttException {
+    /**
+     * Publishes the ambiguous events to the ambiguous events topic without trying to resolve them
+     *
+     * @param ambiguousJsonEvents JSON string containing ambiguous events
+     */
+    @Override
+    public void publishAmbiguousEvents(String ambiguousJsonEvents) throws MqttException {
+        ArrayNode ambiguousEvents;
+        try {
+            ambiguousEvents = (ArrayNode) objectMapper.readTree(ambiguousJsonEvents).get("events");
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid ambiguous events: " + e.getMessage(), e);
+        }
+        String topic = settings.topicAmbiguousEvent();
+        logger.info("Publishing unresolved events to ambiguous events topic: " + topic);
+        mqttService.publish(topic, ambiguousEvents.toString());
+    }
+    private void handleResolvedAmbiguity(AmbiguityResolutionResult result, ArrayNode ambiguousEvents) throws MqttException {
         logger.info("Ambiguity resolved. Top class: " + result.getTopClass());
         ObjectNode resolvedEvent = createResolvedEvent(result.getTopClass(), ambiguousEvents);
-        String xesEvent = jsonToXesMapper.convertJsonToXes(resolvedEvent.toString());
-        mqttService.publish(topicUnambiguousEvents, xesEvent);
+        byte[] xesEvent = jsonToXesMapper.convertJsonToXesBytes(resolvedEvent);
+        mqttService.publish(settings.topicUnambiguousEvent(), xesEvent);
     }
     private void handleUnresolvedAmbiguity(AmbiguityResolutionResult result, ArrayNode ambiguousEvents) throws MqttException {
         logger.info("Confidence for classes: " + result.getClassConfidences());
         logger.info("Ambiguity not resolved. Manual intervention needed for events: ");
         ambiguousEvents.forEach(event -> logger.info(event.toString()));
-        logger.info("Publishing to ambiguous events topic: " + topicAmbiguousEvents);
-        mqttService.publish(topicAmbiguousEvents, ambiguousEvents.toString());
+        String topic = settings.topicAmbiguousEvent();
+        logger.info("Publishing to ambiguous events topic: " + topic);
+        mqttService.publish(topic, ambiguousEvents.toString());
     }
     private ObjectNode createResolvedEvent(String topClass, ArrayNode ambiguousEvents) {
-        ObjectNode resolvedEvent = objectMapper.createObjectNode();
+        return createResolvedEvent(objectMapper.createObjectNode(), topClass, ambiguousEvents);
+    }
+
+    /**
+     * Builds the event published for a resolved ambiguity: the attributes of the first ambiguous event, named after the top class
+     *
+     * @param resolvedEvent empty node the event is built in
+     * @param topClass activity the ML model recognized
+     * @param ambiguousEvents the events of the ambiguous window
+     */
+    public static ObjectNode createResolvedEvent(ObjectNode resolvedEvent, String topClass, ArrayNode ambiguousEvents) {
         resolvedEvent.put("concept:name", topClass);
 
         JsonNode firstEvent = ambiguousEvents.get(0);
@@ -98,26 +157,155 @@ public class PublishingServiceClientImpl implements PublishingServiceClient {
      */
     @Override
     public void publishUnambiguousEvent(String unambEvent) throws MqttException {
+        publishUnambiguousEvent(new ByteArrayInputStream(unambEvent.getBytes(StandardCharsets.UTF_8)));
+    }
 
+    /**
+     * Constructs the xml event while the JSON is read and publishes it to the MQTT broker
+     * The XES bytes become the MQTT payload as they are, the event is parsed once and never held as a String
+     *
+     * @param unambEvent the unambiguous event in JSON format, e.g. the request body
+     */
+    @Override
+    public void publishUnambiguousEvent(InputStream unambEvent) throws MqttException {
         try {
-            // get the unambiguous event
-            JsonNode root = objectMapper.readTree(unambEvent);
-            JsonNode eventsNode = root.get("events");
-            String eventsAsString = eventsNode.toString();
-
-            // convert the JSON event to XES format
-            String xesEvent = jsonToXesMapper.convertJsonToXes(eventsAsString);
-            logger.info("Publishing unambiguous event: " + xesEvent);
-            mqttService.publish(topicUnambiguousEvents, xesEvent);
+            byte[] xesEvent = jsonToXesMapper.convertEventsJsonToXes(unambEvent);
+            mqttService.publish(settings.topicUnambiguousEvent(), xesEvent);
         } catch (Exception e) {
             logger.error("Error publishing unambiguous event: " + e.getMessage());
             throw new RuntimeException("Failed to publish unambiguous event", e);
         }
     }
 
+    /**
+     * Constructs the xml event from the parsed JSON event and publishes it to the MQTT broker
+     *
+     * @param event the unambiguous event, the object inside the events field
+     */
+    @Override
+    public void publishUnambiguousEvent(JsonNode event) throws MqttException {
+        try {
+            mqttService.publish(settings.topicUnambiguousEvent(), jsonToXesMapper.convertJsonToXesBytes(event));
+        } catch (Exception e) {
+            logger.error("Error publishing unambiguous event: " + e.getMessage());
+            throw new RuntimeException("Failed to publish unambiguous event", e);
+        }
+    }
+
+    /**
+     * Converts a batch of unambiguous events in parallel and publishes them in one burst
+     * The events are published in batch order and are pipelined by the MQTT client, then the acknowledgements are awaited
+     * Each event is either wrapped like the body of a single unambiguous event ({"events": {...}}) or the bare event object
+     *
+     * @param events JSON array of events, or newline delimited JSON with one event per line
+     * @return the status of every event, in batch order
+     * @throws IllegalArgumentException if the body starts like a JSON array but is not valid JSON
+     */
+    @Override
+    public List<EventPublishStatus> publishUnambiguousEvents(String events) {
+        // the whole batch goes to one topic and shares one ack timeout, even if the configuration is reloaded meanwhile
+        PublisherSettings settings = this.settings;
+        List<JsonNode> batch = parseBatch(events);
+        // conversion is CPU bound and independent per event, an event that cannot be converted only invalidates itself
+        Conversion[] xesEvents = IntStream.range(0, batch.size()).parallel()
+                .mapToObj(i -> toXes(batch.get(i)))
+                .toArray(Conversion[]::new);
+
+        List<CompletableFuture<Void>> acks = new ArrayList<>(batch.size());
+        List<EventPublishStatus> statuses = new ArrayList<>(batch.size());
+        for (int i = 0; i < xesEvents.length; i++) {
+            acks.add(null);
+            statuses.add(null);
+            if (xesEvents[i].xes() == null) {
+                statuses.set(i, new EventPublishStatus(i, EventPublishStatus.Status.INVALID, xesEvents[i].error()));
+                continue;
+            }
+            try {
+                acks.set(i, mqttService.publishAsync(settings.topicUnambiguousEvent(), xesEvents[i].xes()));
+            } catch (MqttException e) {
+                statuses.set(i, new EventPublishStatus(i, EventPublishStatus.Status.FAILED, e.getMessage()));
+            }
+        }
+        awaitAcks(acks, settings.batchAckTimeoutMillis());
+
+        for (int i = 0; i < acks.size(); i++) {
+            CompletableFuture<Void> ack = acks.get(i);
+            if (ack == null) {
+                continue;
+            }
+            if (!ack.isDone()) {
+                statuses.set(i, EventPublishStatus.of(i, EventPublishStatus.Status.PENDING));
+                continue;
+            }
+            try {
+                ack.join();
+                statuses.set(i, EventPublishStatus.of(i, EventPublishStatus.Status.PUBLISHED));
+            } catch (CompletionException e) {
+                statuses.set(i, new EventPublishStatus(i, EventPublishStatus.Status.FAILED, e.getCause().getMessage()));
+            }
+        }
+        logger.info("Published batch of " + statuses.size() + " unambiguous events");
+        return statuses;
+    }
+
+    // a JSON array is parsed as a whole, newline delimited JSON line by line so one broken line only invalidates itself
+    private List<JsonNode> parseBatch(String events) {
+        List<JsonNode> batch = new ArrayList<>();
+        if (events.stripLeading().startsWith("[")) {
+            try {
+                objectMapper.readTree(events).forEach(batch::add);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Batch is not a valid JSON array: " + e.getOriginalMessage(), e);
+            }
+            return batch;
+        }
+        for (String line : events.split("\\R")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                batch.add(objectMapper.readTree(line));
+            } catch (JsonProcessingException e) {
+                batch.add(null);
+            }
+        }
+        return batch;
+    }
+
+    // the XES of an event of a batch, or why it has none
+    private record Conversion(byte[] xes, String error) {
+    }
+
+    private Conversion toXes(JsonNode event) {
+        if (event != null && event.size() == 1 && event.path("events").isObject()) {
+            event = event.get("events");
+        }
+        if (event == null || !event.isObject()) {
+            return new Conversion(null, "Not a JSON event object");
+        }
+        try {
+            return new Conversion(jsonToXesMapper.convertJsonToXesBytes(event), null);
+        } catch (RuntimeException e) {
+            // e.g. a control character in a value, which XML cannot hold
+            logger.warn("Leaving out an event of the batch that cannot be converted to XES: " + e.getMessage());
+            return new Conversion(null, e.getMessage());
+        }
+    }
+
+    private void awaitAcks(List<CompletableFuture<Void>> acks, long timeoutMillis) {
+        CompletableFuture<?>[] sent = acks.stream().filter(ack -> ack != null).toArray(CompletableFuture<?>[]::new);
+        try {
+            CompletableFuture.allOf(sent).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // reported per event
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private AmbiguityResolutionResult parseMlOutput(String mlOutput) throws JsonProcessingException {
         JsonNode rootMlOutput = objectMapper.readTree(mlOutput);
-        System.out.println("ML output: " + rootMlOutput);
+        logger.debug("ML output: " + rootMlOutput);
         return new AmbiguityResolutionResult(
                 rootMlOutput.get("top_class").asText(),
                 rootMlOutput.get("all_class_probabilities").toString(),
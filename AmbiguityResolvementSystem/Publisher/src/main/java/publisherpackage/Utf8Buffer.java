@@ -0,0 +1,108 @@
+package publisherpackage;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that encodes appended characters as UTF-8 right away.
+ * The XES of an event is written into it and copied out once as the MQTT payload, so no String of the event is built.
+ * Not thread-safe, JsonToXesMapper keeps one per thread and reuses it for every event.
+ */
+final class Utf8Buffer implements Appendable {
+
+    // a buffer that grew beyond this for an unusually large event is not kept for the next one
+    static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private byte[] bytes;
+    private int size;
+
+    Utf8Buffer(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    Utf8Buffer reset() {
+        size = 0;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    /**
+     * @return copy of the bytes written since the last reset, the buffer itself is reused
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    @Override
+    public Utf8Buffer append(CharSequence csq) {
+        return csq == null ? append("null") : append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Utf8Buffer append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+        ensureCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            char c = csq.charAt(i);
+            if (c < 0x80) {
+                if (size == bytes.length) {
+                    ensureCapacity(end - i);
+                }
+                bytes[size++] = (byte) c;
+            } else {
+                i = appendNonAscii(csq, i, end);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Utf8Buffer append(char c) {
+        if (c < 0x80) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) c;
+            return this;
+        }
+        appendNonAscii(String.valueOf(c), 0, 1);
+        return this;
+    }
+
+    // returns the index of the last char consumed, a surrogate pair takes two
+    private int appendNonAscii(CharSequence csq, int i, int end) {
+        ensureCapacity(4);
+        char c = csq.charAt(i);
+        if (c < 0x800) {
+            bytes[size++] = (byte) (0xC0 | (c >> 6));
+            bytes[size++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(csq.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, csq.charAt(i + 1));
+            bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+            bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            return i + 1;
+        } else if (Character.isSurrogate(c)) {
+            // a lone surrogate has no UTF-8 encoding, String.getBytes replaces it the same way
+            bytes[size++] = '?';
+        } else {
+            bytes[size++] = (byte) (0xE0 | (c >> 12));
+            bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+        }
+    }
+}
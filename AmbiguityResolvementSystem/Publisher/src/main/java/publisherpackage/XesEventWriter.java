@@ -0,0 +1,98 @@
+package publisherpackage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes a single flat XES event straight to an Appendable, without building a DOM first.
+ * The output is the same as serializing the equivalent DOM with the default JAXP Transformer:
+ * no XML declaration, no indentation, and the same attribute escaping.
+ * <p>
+ * Usage: start(), then one attribute(...) per field, then end(). Not thread-safe, use one writer per event.
+ */
+public class XesEventWriter {
+
+    private final Appendable out;
+    private boolean hasAttributes;
+
+    public XesEventWriter(Appendable out) {
+        this.out = out;
+    }
+
+    public XesEventWriter start() {
+        hasAttributes = false;
+        return write("<event");
+    }
+
+    /**
+     * Writes an attribute element, date for timestamps and string for everything else
+     *
+     * @param key XES attribute key, e.g. concept:name
+     * @param value attribute value
+     * @param date whether to write a date instead of a string element
+     */
+    public XesEventWriter attribute(String key, String value, boolean date) {
+        if (!hasAttributes) {
+            write(">");
+            hasAttributes = true;
+        }
+        write(date ? "<date key=\"" : "<string key=\"");
+        escape(key);
+        write("\" value=\"");
+        escape(value);
+        return write("\"/>");
+    }
+
+    public XesEventWriter end() {
+        return write(hasAttributes ? "</event>" : "/>");
+    }
+
+    private XesEventWriter write(String s) {
+        try {
+            out.append(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    // same escaping the JAXP serializer applies to attribute values
+    private void escape(String value) {
+        try {
+            int length = value.length();
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                String replacement = switch (c) {
+                    case '&' -> "&amp;";
+                    case '<' -> "&lt;";
+                    case '>' -> "&gt;";
+                    case '"' -> "&quot;";
+                    case '\t' -> "&#9;";
+                    case '\n' -> "&#10;";
+                    case '\r' -> "&#13;";
+                    default -> null;
+                };
+                if (replacement == null) {
+                    if (c >= 0x20 && !Character.isSurrogate(c)) {
+                        continue;
+                    }
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        replacement = "&#" + Character.toCodePoint(c, value.charAt(i + 1)) + ";";
+                        out.append(value, start, i).append(replacement);
+                        start = i + 2;
+                        i++;
+                        continue;
+                    }
+                    throw new IllegalArgumentException("Invalid XML character (Unicode: 0x"
+                            + Integer.toHexString(c) + ") in XES attribute value");
+                }
+                out.append(value, start, i).append(replacement);
+                start = i + 1;
+            }
+            out.append(value, start, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package publisherpackage;
+
+import io.moquette.BrokerConstants;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.IConfig;
+import io.moquette.broker.config.MemoryConfig;
+import io.moquette.interception.AbstractInterceptHandler;
+import io.moquette.interception.messages.InterceptPublishMessage;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Publishes through the outbox to an embedded MQTT broker
+ */
+class DurableMqttServiceTest {
+
+    @TempDir
+    Path outboxDirectory;
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private Server broker;
+    private int port;
+    private MqttServiceImpl mqttService;
+    private DurableMqttService durableService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (durableService != null) {
+            durableService.cleanup();
+        }
+        if (mqttService != null) {
+            mqttService.cleanup();
+        }
+        if (broker != null) {
+            broker.stopServer();
+        }
+    }
+
+    @Test
+    void start_ReplaysMessagesThatWereNotAcknowledgedBeforeRestart() throws Exception {
+        try (MqttOutbox outbox = MqttOutbox.open(outboxDirectory, 4096, 1 << 20, false)) {
+            outbox.append("clean-events", bytes("<event>1</event>"));
+            outbox.append("clean-events", bytes("<event>2</event>"));
+        }
+        startBroker();
+
+        startService();
+
+        assertEquals("<event>1</event>", received.poll(10, TimeUnit.SECONDS));
+        assertEquals("<event>2</event>", received.poll(10, TimeUnit.SECONDS));
+        awaitOutboxEmpty();
+    }
+
+    @Test
+    void publishAsync_BrokerDown_DeliversOnceItIsBack() throws Exception {
+        startService();
+
+        CompletableFuture<Void> acknowledged = durableService.publishAsync("clean-events", bytes("<event>resolved</event>"));
+        assertFalse(acknowledged.isDone());
+        assertEquals(1, durableService.unacknowledgedCount());
+        // the outbox is the only buffer of the message
+        assertEquals(0, mqttService.pendingCount());
+
+        startBroker();
+
+        acknowledged.get(15, TimeUnit.SECONDS);
+        assertEquals("<event>resolved</event>", received.poll(5, TimeUnit.SECONDS));
+        awaitOutboxEmpty();
+        assertNull(received.poll(1, TimeUnit.SECONDS), "The message was published twice");
+    }
+
+    @Test
+    void publishAsync_BrokerUp_AcknowledgesMessages() throws Exception {
+        startBroker();
+        startService();
+
+        durableService.publishAsync("clean-events", bytes("<event>1</event>")).get(10, TimeUnit.SECONDS);
+
+        assertEquals("<event>1</event>", received.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, durableService.unacknowledgedCount());
+    }
+
+    private void startService() throws Exception {
+        mqttService = new MqttServiceImpl("tcp://127.0.0.1:" + port, 16, 16);
+        mqttService.start();
+        durableService = new DurableMqttService(mqttService,
+                MqttOutbox.open(outboxDirectory, 4096, 1 << 20, false), 10, 5000);
+    }
+
+    private void startBroker() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(IConfig.HOST_PROPERTY_NAME, "127.0.0.1");
+        properties.setProperty(IConfig.PORT_PROPERTY_NAME, String.valueOf(port));
+        properties.setProperty(IConfig.WEB_SOCKET_PORT_PROPERTY_NAME, BrokerConstants.DISABLED_PORT_BIND);
+        properties.setProperty(IConfig.ALLOW_ANONYMOUS_PROPERTY_NAME, "true");
+        properties.setProperty(IConfig.PERSISTENCE_ENABLED_PROPERTY_NAME, "false");
+        properties.setProperty(BrokerConstants.ENABLE_TELEMETRY_NAME, "false");
+        broker = new Server();
+        broker.startServer(new MemoryConfig(properties), List.of(new AbstractInterceptHandler() {
+            @Override
+            public String getID() {
+                return "outbox-test";
+            }
+
+            @Override
+            public void onPublish(InterceptPublishMessage message) {
+                received.add(new String(ByteBufUtil.getBytes(message.getPayload()), StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void onSessionLoopError(Throwable error) {
+            }
+        }));
+    }
+
+    private void awaitOutboxEmpty() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (durableService.unacknowledgedCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, durableService.unacknowledgedCount());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
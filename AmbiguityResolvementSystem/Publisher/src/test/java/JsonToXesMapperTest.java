@@ -2,6 +2,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import publisherpackage.JsonToXesMapper;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.regex.Pattern;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -65,4 +67,71 @@ public class JsonToXesMapperTest {
         // Rough check for XML format: starts with <event>, ends with </event> or self-closing
         assertTrue(Pattern.compile("^<event.*>.*</event>$|^<event/>$", Pattern.DOTALL).matcher(xes.trim()).find());
     }
+
+    // expected strings below are what the previous DOM + Transformer implementation produced
+    @Test
+    public void testOutputMatchesDomSerialization() throws Exception {
+        String json = "{\"concept:name\": \"EJUB\", \"time:timestamp\": \"2024-09-11T15:56:16.000+00:00\", "
+                + "\"perform:donor\": \"D001\", \"location:station\": \"Left station\"}";
+
+        assertEquals("<event>"
+                + "<string key=\"concept:name\" value=\"EJUB\"/>"
+                + "<date key=\"time:timestamp\" value=\"2024-09-11T15:56:16.000+00:00\"/>"
+                + "<string key=\"perform:donor\" value=\"D001\"/>"
+                + "<string key=\"location:station\" value=\"Left station\"/>"
+                + "</event>", mapper.convertJsonToXes(json));
+    }
+
+    @Test
+    public void testEscapingMatchesDomSerialization() throws Exception {
+        String json = "{\"concept:name\": \"a&b <c> \\\"d\\\" 'e'\\t\\n\\r \\u00e9 \\ud83d\\ude00\"}";
+
+        assertEquals("<event><string key=\"concept:name\" value=\"a&amp;b &lt;c&gt; &quot;d&quot; 'e'&#9;&#10;&#13; \u00e9 &#128512;\"/></event>",
+                mapper.convertJsonToXes(json));
+    }
+
+    @Test
+    public void testNonTextualValuesMatchDomSerialization() throws Exception {
+        String json = "{\"time:timestamp\": 1700000000, \"org:resource\": null, \"count\": 2.5, \"flag\": true, \"nested\": {\"a\": 1}}";
+
+        assertEquals("<event>"
+                + "<string key=\"time:timestamp\" value=\"1700000000\"/>"
+                + "<string key=\"org:resource\" value=\"null\"/>"
+                + "<string key=\"count\" value=\"2.5\"/>"
+                + "<string key=\"flag\" value=\"true\"/>"
+                + "<string key=\"nested\" value=\"\"/>"
+                + "</event>", mapper.convertJsonToXes(json));
+    }
+
+    @Test
+    public void testArrayInputGivesEmptyEvent() throws Exception {
+        assertEquals("<event/>", mapper.convertJsonToXes("[{\"concept:name\": \"Test\"}]"));
+    }
+
+    @Test
+    public void testInvalidXmlCharacterThrowsException() {
+        String json = "{\"concept:name\": \"a\\u0001b\"}";
+
+        assertThrows(IllegalArgumentException.class, () -> mapper.convertJsonToXes(json));
+    }
+
+    @Test
+    public void testEventsStreamWithLargeEventMatchesTreeConversion() throws Exception {
+        // larger than the reused buffer, with characters that take two to four bytes in UTF-8
+        String name = "Ärztin \uD83D\uDE91 ".repeat(20000);
+        String json = "{\"events\": {\"concept:name\": \"" + name + "\", \"count\": 12345678901234}}";
+
+        byte[] xes = mapper.convertEventsJsonToXes(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        String expected = mapper.convertJsonToXes("{\"concept:name\": \"" + name + "\", \"count\": 12345678901234}");
+        assertEquals(expected, new String(xes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEventsStreamWithoutEventsFieldThrowsException() {
+        assertThrows(IllegalArgumentException.class, () -> mapper.convertEventsJsonToXes(
+                new ByteArrayInputStream("{\"concept:name\": \"Test\"}".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(IllegalArgumentException.class, () -> mapper.convertEventsJsonToXes(
+                new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8))));
+    }
 }
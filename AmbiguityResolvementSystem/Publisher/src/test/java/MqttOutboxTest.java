@@ -0,0 +1,133 @@
+package publisherpackage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MqttOutboxTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void open_AfterRestart_RecoversUnacknowledgedMessagesInOrder() throws Exception {
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 4096, 1 << 20, false)) {
+            outbox.append("clean-events", bytes("<event>1</event>"));
+            MqttOutbox.Entry second = outbox.append("clean-events", bytes("<event>2</event>"));
+            outbox.append("ambiguous-events", bytes("[3]"));
+            outbox.acknowledge(second);
+        }
+
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 4096, 1 << 20, false)) {
+            List<MqttOutbox.Entry> entries = outbox.unacknowledged();
+
+            assertEquals(2, entries.size());
+            assertEquals("<event>1</event>", text(outbox.read(entries.get(0))));
+            MqttOutbox.Message third = outbox.read(entries.get(1));
+            assertEquals("ambiguous-events", third.topic());
+            assertEquals("[3]", text(third));
+            // new messages continue after the recovered ones
+            assertTrue(outbox.append("clean-events", bytes("4")).sequence() > entries.get(1).sequence());
+        }
+    }
+
+    @Test
+    void acknowledge_AllMessagesOfASegment_DeletesIt() throws Exception {
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 128, 1 << 20, false)) {
+            MqttOutbox.Entry first = outbox.append("clean-events", new byte[80]);
+            MqttOutbox.Entry second = outbox.append("clean-events", new byte[80]);
+            assertEquals(2, outbox.segmentCount());
+
+            outbox.acknowledge(first);
+            assertEquals(1, outbox.segmentCount());
+            assertTrue(first.acknowledged().isDone());
+
+            outbox.acknowledge(second);
+            assertEquals(0, outbox.size());
+        }
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 128, 1 << 20, false)) {
+            assertEquals(0, outbox.size());
+            assertEquals(0, segmentFiles());
+        }
+    }
+
+    @Test
+    void acknowledge_MostMessagesOfASealedSegment_CompactsIt() throws Exception {
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 300, 1 << 20, false)) {
+            MqttOutbox.Entry[] entries = new MqttOutbox.Entry[4];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = outbox.append("clean-events", bytes("message " + i + " " + "x".repeat(30)));
+            }
+            // the fifth message seals the first segment
+            outbox.append("clean-events", bytes("message 4 " + "x".repeat(30)));
+            assertEquals(2, outbox.segmentCount());
+
+            outbox.acknowledge(entries[0]);
+            outbox.acknowledge(entries[1]);
+            outbox.acknowledge(entries[2]);
+
+            assertEquals(1, outbox.segmentCount(), "The last message of the sealed segment should be moved to the active one");
+            assertEquals("message 3 " + "x".repeat(30), text(outbox.read(entries[3])));
+        }
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 300, 1 << 20, false)) {
+            List<MqttOutbox.Entry> entries = outbox.unacknowledged();
+            assertEquals(2, entries.size());
+            assertEquals("message 3 " + "x".repeat(30), text(outbox.read(entries.get(0))));
+        }
+    }
+
+    @Test
+    void open_TornRecord_IsIgnored() throws Exception {
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 4096, 1 << 20, false)) {
+            outbox.append("clean-events", bytes("complete"));
+            outbox.append("clean-events", bytes("torn"));
+        }
+        // a crash in the middle of the second record leaves its payload half written
+        try (Stream<Path> files = Files.list(directory);
+             FileChannel channel = FileChannel.open(files.findFirst().orElseThrow(), StandardOpenOption.WRITE)) {
+            int secondRecord = 19 + "clean-events".length() + "complete".length();
+            channel.write(ByteBuffer.wrap(bytes("XX")), secondRecord + 19 + "clean-events".length());
+        }
+
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 4096, 1 << 20, false)) {
+            assertEquals(1, outbox.size());
+            assertEquals("complete", text(outbox.read(outbox.unacknowledged().get(0))));
+        }
+    }
+
+    @Test
+    void append_OutboxFull_ThrowsOutboxFullException() throws Exception {
+        try (MqttOutbox outbox = MqttOutbox.open(directory, 128, 256, false)) {
+            outbox.append("clean-events", new byte[80]);
+            outbox.append("clean-events", new byte[80]);
+
+            assertThrows(MqttOutbox.OutboxFullException.class, () -> outbox.append("clean-events", new byte[80]));
+            assertEquals(2, outbox.size());
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static String text(MqttOutbox.Message message) {
+        return new String(message.payload(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,207 @@
+package publisherpackage;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MqttServiceImplTest {
+
+    private IMqttAsyncClient client;
+    private MqttServiceImpl mqttService;
+
+    @BeforeEach
+    void setUp() {
+        client = mock(IMqttAsyncClient.class);
+        mqttService = new MqttServiceImpl(client, "tcp://localhost:1883", 2, 2);
+    }
+
+    @Test
+    void publishAsync_Connected_CompletesOnBrokerAck() throws Exception {
+        when(client.isConnected()).thenReturn(true);
+
+        CompletableFuture<Void> future = mqttService.publishAsync("clean-events", bytes("<event/>"));
+
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client).publish(eq("clean-events"), aryEq(bytes("<event/>")), eq(1), eq(false), isNull(), listener.capture());
+        assertFalse(future.isDone());
+
+        listener.getValue().onSuccess(null);
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    void publishAsync_Disconnected_BuffersUntilReconnect() throws Exception {
+        when(client.isConnected()).thenReturn(false);
+
+        CompletableFuture<Void> future = mqttService.publishAsync("clean-events", bytes("<event/>"));
+
+        assertEquals(1, mqttService.pendingCount());
+        verify(client, never()).publish(anyString(), any(byte[].class), anyInt(), anyBoolean(), any(), any());
+
+        when(client.isConnected()).thenReturn(true);
+        mqttService.connectComplete(true, "tcp://localhost:1883");
+
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client, timeout(1000)).publish(eq("clean-events"), any(byte[].class), eq(1), eq(false), isNull(), listener.capture());
+        listener.getValue().onSuccess(null);
+        assertTrue(future.isDone());
+        assertEquals(0, mqttService.pendingCount());
+    }
+
+    @Test
+    void drain_SendFails_FailsThatMessageAndSendsTheRest() throws Exception {
+        when(client.isConnected()).thenReturn(false);
+        CompletableFuture<Void> first = mqttService.publishAsync("clean-events", bytes("1"));
+        CompletableFuture<Void> second = mqttService.publishAsync("clean-events", bytes("2"));
+        when(client.publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), any()))
+                .thenThrow(new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION));
+
+        when(client.isConnected()).thenReturn(true);
+        mqttService.connectComplete(true, "tcp://localhost:1883");
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> first.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(MqttException.class, failure.getCause());
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client, timeout(1000)).publish(eq("clean-events"), aryEq(bytes("2")), eq(1), eq(false), isNull(), listener.capture());
+        listener.getValue().onSuccess(null);
+        assertTrue(second.isDone());
+        assertEquals(0, mqttService.pendingCount());
+    }
+
+    @Test
+    void drain_ConnectionLostWhileSending_KeepsTheOrder() throws Exception {
+        when(client.isConnected()).thenReturn(false);
+        mqttService.publishAsync("clean-events", bytes("1"));
+        mqttService.publishAsync("clean-events", bytes("2"));
+        AtomicBoolean dropConnection = new AtomicBoolean(true);
+        when(client.publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), any()))
+                .thenAnswer(invocation -> {
+                    if (dropConnection.getAndSet(false)) {
+                        when(client.isConnected()).thenReturn(false);
+                        throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+                    }
+                    return null;
+                });
+        when(client.isConnected()).thenReturn(true);
+        mqttService.connectComplete(true, "tcp://localhost:1883");
+        verify(client, timeout(1000)).publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), any());
+        long deadline = System.currentTimeMillis() + 1000;
+        while (mqttService.pendingCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        when(client.isConnected()).thenReturn(true);
+        mqttService.connectComplete(true, "tcp://localhost:1883");
+
+        verify(client, timeout(1000)).publish(anyString(), aryEq(bytes("2")), anyInt(), anyBoolean(), any(), any());
+        InOrder sent = inOrder(client);
+        sent.verify(client, times(2)).publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), any());
+        sent.verify(client).publish(anyString(), aryEq(bytes("2")), anyInt(), anyBoolean(), any(), any());
+    }
+
+    @Test
+    void publishAsync_WhileTheDrainSends_QueuesBehindIt() throws Exception {
+        when(client.isConnected()).thenReturn(false);
+        mqttService.publishAsync("clean-events", bytes("1"));
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        when(client.publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), any()))
+                .thenAnswer(invocation -> {
+                    sending.countDown();
+                    proceed.await(1, TimeUnit.SECONDS);
+                    return null;
+                });
+        when(client.isConnected()).thenReturn(true);
+        mqttService.connectComplete(true, "tcp://localhost:1883");
+        assertTrue(sending.await(1, TimeUnit.SECONDS));
+
+        // the buffer is empty, but the drain has not sent 1 yet
+        mqttService.publishAsync("clean-events", bytes("2"));
+        verify(client, never()).publish(anyString(), aryEq(bytes("2")), anyInt(), anyBoolean(), any(), any());
+        proceed.countDown();
+
+        verify(client, timeout(1000)).publish(anyString(), aryEq(bytes("2")), anyInt(), anyBoolean(), any(), any());
+        InOrder sent = inOrder(client);
+        sent.verify(client).publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), any());
+        sent.verify(client).publish(anyString(), aryEq(bytes("2")), anyInt(), anyBoolean(), any(), any());
+    }
+
+    @Test
+    void publishAsync_DeliveryInterruptedByDisconnect_RetriedAheadOfTheBuffer() throws Exception {
+        when(client.isConnected()).thenReturn(true);
+        mqttService.publishAsync("clean-events", bytes("1"));
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client).publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), listener.capture());
+        when(client.isConnected()).thenReturn(false);
+        mqttService.publishAsync("clean-events", bytes("2"));
+
+        listener.getValue().onFailure(null, new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+        when(client.isConnected()).thenReturn(true);
+        mqttService.connectComplete(true, "tcp://localhost:1883");
+
+        verify(client, timeout(1000)).publish(anyString(), aryEq(bytes("2")), anyInt(), anyBoolean(), any(), any());
+        InOrder sent = inOrder(client);
+        sent.verify(client, times(2)).publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), any());
+        sent.verify(client).publish(anyString(), aryEq(bytes("2")), anyInt(), anyBoolean(), any(), any());
+    }
+
+    @Test
+    void publishUnbuffered_Disconnected_FailsWithoutBuffering() throws Exception {
+        when(client.isConnected()).thenReturn(false);
+
+        CompletableFuture<Void> future = mqttService.publishUnbuffered("clean-events", bytes("<event/>"));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        assertEquals(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED, ((MqttException) failure.getCause()).getReasonCode());
+        assertEquals(0, mqttService.pendingCount());
+        verify(client, never()).publish(anyString(), any(byte[].class), anyInt(), anyBoolean(), any(), any());
+    }
+
+    @Test
+    void publishUnbuffered_DeliveryInterruptedByDisconnect_FailsInsteadOfRetrying() throws Exception {
+        when(client.isConnected()).thenReturn(true);
+        CompletableFuture<Void> future = mqttService.publishUnbuffered("clean-events", bytes("1"));
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client).publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), listener.capture());
+        when(client.isConnected()).thenReturn(false);
+
+        listener.getValue().onFailure(null, new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+
+        assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        assertEquals(0, mqttService.pendingCount());
+        when(client.isConnected()).thenReturn(true);
+        mqttService.connectComplete(true, "tcp://localhost:1883");
+        verify(client, after(200).times(1)).publish(anyString(), aryEq(bytes("1")), anyInt(), anyBoolean(), any(), any());
+    }
+
+    @Test
+    void publishAsync_BufferFull_ThrowsMqttException() throws Exception {
+        when(client.isConnected()).thenReturn(false);
+        mqttService.publishAsync("clean-events", bytes("1"));
+        mqttService.publishAsync("clean-events", bytes("2"));
+
+        MqttException exception = assertThrows(MqttException.class,
+                () -> mqttService.publishAsync("clean-events", bytes("3")));
+        assertEquals(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL, exception.getReasonCode());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -4,16 +4,28 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import publisherpackage.ConfigLoader;
+import publisherpackage.EventPublishStatus;
 import publisherpackage.JsonToXesMapper;
 import publisherpackage.MqttService;
+import publisherpackage.PublisherSettings;
 import publisherpackage.PublishingServiceClientImpl;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -48,20 +60,31 @@ class PublishingServiceClientImplTest {
                         +     "}"
                         +   "]"
                         + "}";
-        // parse with real ObjectMapper so mockRoot.get("events") is non-null
-        ObjectMapper realMapper = new ObjectMapper();
-        JsonNode mockRoot = realMapper.readTree(inputJson);
-        JsonNode eventsNode = mockRoot.get("events");
+        byte[] xesEvent = "<event>…</event>".getBytes(StandardCharsets.UTF_8);
 
-        when(configLoader.get("publisher.topicUnambiguousEvent")).thenReturn(topic);
-        when(objectMapper.readTree(inputJson)).thenReturn(mockRoot);
-        when(jsonToXesMapper.convertJsonToXes(eventsNode.toString()))
-                .thenReturn("<event>…</event>");
+        when(configLoader.settings()).thenReturn(new PublisherSettings(topic, "ambiguous-events", 5000));
+        when(jsonToXesMapper.convertEventsJsonToXes(any(InputStream.class))).thenReturn(xesEvent);
 
         PublishingServiceClientImpl publishingService = new PublishingServiceClientImpl(
                 mqttService, jsonToXesMapper, objectMapper, configLoader);
         publishingService.publishUnambiguousEvent(inputJson);
-        verify(mqttService).publish(eq(topic), contains("<event>"));
+        verify(mqttService).publish(eq(topic), same(xesEvent));
+        verifyNoInteractions(objectMapper);
+    }
+    @Test
+    void publishUnambiguousEvent_Stream_PublishesSameXesAsTreeConversion() throws Exception {
+        String inputJson = "{\"source\": \"detector\", \"events\": {\"concept:name\": \"Apply tourniquet\","
+                + " \"time:timestamp\": \"2024-09-11T15:56:16.000+00:00\", \"org:resource\": \"Müller & Søn\","
+                + " \"count\": 3, \"weight\": 1.5, \"valid\": true, \"nested\": {\"a\": [1]}}}";
+        JsonToXesMapper mapper = new JsonToXesMapper();
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events", "ambiguous-events", 5000));
+        PublishingServiceClientImpl publishingService = new PublishingServiceClientImpl(
+                mqttService, mapper, new ObjectMapper(), configLoader);
+
+        publishingService.publishUnambiguousEvent(new ByteArrayInputStream(inputJson.getBytes(StandardCharsets.UTF_8)));
+
+        String expected = mapper.convertJsonToXes(new ObjectMapper().readTree(inputJson).get("events"));
+        verify(mqttService).publish(eq("clean-events"), aryEq(expected.getBytes(StandardCharsets.UTF_8)));
     }
     @Test
     void publishResolvedAmbiguousEvent_UnresolvedAmbiguity() throws Exception {
@@ -79,8 +102,7 @@ class PublishingServiceClientImplTest {
         JsonNode mockRootMlOutput = new ObjectMapper().readTree(mlOutput);
 
         // Stub all required configuration keys
-        when(configLoader.get("publisher.topicAmbiguousEvent")).thenReturn(topicAmbiguous);
-        when(configLoader.get("publisher.topicUnambiguousEvent")).thenReturn(topicUnambiguous);
+        when(configLoader.settings()).thenReturn(new PublisherSettings(topicUnambiguous, topicAmbiguous, 5000));
 
         // Stub JSON inputs and ObjectNode creation
         when(objectMapper.readTree(ambiguousJsonEvents)).thenReturn(mockRootEvents);
@@ -93,6 +115,22 @@ class PublishingServiceClientImplTest {
 
         verify(mqttService).publish(eq(topicAmbiguous), eq(mockRootEvents.get("events").toString()));
     }
+    @Test
+    void publishAmbiguousEvents_PublishesEventsToAmbiguousTopic() throws Exception {
+        String topicAmbiguous = "ambiguous-events-test";
+        String ambiguousJsonEvents = "{ \"events\": [{ \"concept:name\": \"Event1\" }, { \"concept:name\": \"Event2\" }] }";
+        JsonNode mockRootEvents = new ObjectMapper().readTree(ambiguousJsonEvents);
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events-test", topicAmbiguous, 5000));
+        when(objectMapper.readTree(ambiguousJsonEvents)).thenReturn(mockRootEvents);
+        PublishingServiceClientImpl publishingService = new PublishingServiceClientImpl(
+                mqttService, jsonToXesMapper, objectMapper, configLoader);
+
+        publishingService.publishAmbiguousEvents(ambiguousJsonEvents);
+
+        verify(mqttService).publish(topicAmbiguous, mockRootEvents.get("events").toString());
+        verifyNoInteractions(jsonToXesMapper);
+    }
+
     @Test
     void publishResolvedAmbiguousEvent_ResolvedAmbiguity() throws Exception {
         String topicUnambiguous = "clean-events"; // Define the expected topic
@@ -104,35 +142,37 @@ class PublishingServiceClientImplTest {
         ObjectNode mockResolvedEvent = new ObjectMapper().createObjectNode(); // Create a mock ObjectNode
 
         // Stub ConfigLoader to return the correct topic
-        when(configLoader.get("publisher.topicUnambiguousEvent")).thenReturn(topicUnambiguous);
+        when(configLoader.settings()).thenReturn(new PublisherSettings(topicUnambiguous, "ambiguous-events", 5000));
         // Stub JSON inputs and ObjectNode creation
         when(objectMapper.readTree(ambiguousJsonEvents)).thenReturn(mockRootEvents);
         when(objectMapper.readTree(mlOutput)).thenReturn(mockRootMlOutput);
         when(objectMapper.createObjectNode()).thenReturn(mockResolvedEvent); // Mock ObjectNode creation
-        when(jsonToXesMapper.convertJsonToXes(anyString())).thenReturn("<event>ResolvedEvent</event>");
+        byte[] xesEvent = "<event>ResolvedEvent</event>".getBytes(StandardCharsets.UTF_8);
+        when(jsonToXesMapper.convertJsonToXesBytes(any(JsonNode.class))).thenReturn(xesEvent);
 
         PublishingServiceClientImpl publishingService = new PublishingServiceClientImpl(
                 mqttService, jsonToXesMapper, objectMapper, configLoader);
         publishingService.publishResolvedAmbiguousEvent(mlOutput, ambiguousJsonEvents);
 
         // Verify the correct topic and payload are used
-        verify(mqttService).publish(eq(topicUnambiguous), contains("<event>ResolvedEvent</event>"));
+        verify(mqttService).publish(eq(topicUnambiguous), same(xesEvent));
     }
     @Test
     void constructor_MissingConfigKey_ThrowsException() {
-        when(configLoader.get("publisher.topicUnambiguousEvent")).thenThrow(new IllegalArgumentException("Missing config value for key: publisher.topicUnambiguousEvent"));
+        when(configLoader.settings()).thenThrow(new IllegalArgumentException("Invalid publisher configuration: publisher.topicUnambiguousEvent is missing"));
 
         Exception exception = assertThrows(IllegalArgumentException.class, () ->
                 new PublishingServiceClientImpl(mqttService, jsonToXesMapper, objectMapper, configLoader)
         );
 
-        assertEquals("Missing config value for key: publisher.topicUnambiguousEvent", exception.getMessage());
+        assertEquals("Invalid publisher configuration: publisher.topicUnambiguousEvent is missing", exception.getMessage());
     }
     @Test
     void publishUnambiguousEvent_InvalidJson_ThrowsException() throws Exception {
         String invalidJson = "{ invalid }";
 
-        when(objectMapper.readTree(invalidJson)).thenThrow(new com.fasterxml.jackson.core.JsonParseException(null, "Invalid JSON"));
+        when(jsonToXesMapper.convertEventsJsonToXes(any(InputStream.class)))
+                .thenThrow(new com.fasterxml.jackson.core.JsonParseException(null, "Invalid JSON"));
 
         Exception exception = assertThrows(RuntimeException.class, () ->
                 publishingService.publishUnambiguousEvent(invalidJson)
@@ -143,11 +183,12 @@ class PublishingServiceClientImplTest {
     @Test
     void publishUnambiguousEvent_MqttPublishFailure_ThrowsException() throws Exception {
         String inputJson = "{ \"events\": [{ \"concept:name\": \"Event1\" }] }";
-        JsonNode mockRoot = new ObjectMapper().readTree(inputJson);
 
-        when(objectMapper.readTree(inputJson)).thenReturn(mockRoot);
-        when(jsonToXesMapper.convertJsonToXes(anyString())).thenReturn("<event>Event1</event>");
-        doThrow(new MqttException(0)).when(mqttService).publish(anyString(), anyString());
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events", "ambiguous-events", 5000));
+        when(jsonToXesMapper.convertEventsJsonToXes(any(InputStream.class))).thenReturn("<event>Event1</event>".getBytes(StandardCharsets.UTF_8));
+        doThrow(new MqttException(0)).when(mqttService).publish(anyString(), any(byte[].class));
+        PublishingServiceClientImpl publishingService = new PublishingServiceClientImpl(
+                mqttService, jsonToXesMapper, objectMapper, configLoader);
 
         Exception exception = assertThrows(RuntimeException.class, () ->
                 publishingService.publishUnambiguousEvent(inputJson)
@@ -155,4 +196,91 @@ class PublishingServiceClientImplTest {
 
         assertTrue(exception.getMessage().contains("Failed to publish unambiguous event"));
     }
-}
\ No newline at end of file
+    @Test
+    void publishUnambiguousEvents_Ndjson_ReportsStatusPerEvent() throws Exception {
+        String batch = "{\"events\": {\"concept:name\": \"Apply tourniquet\"}}\n"
+                + "{ broken\n"
+                + "\n"
+                + "{\"concept:name\": \"HCW check-out\"}\n";
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events", "ambiguous-events", 1000));
+        when(mqttService.publishAsync(eq("clean-events"), any(byte[].class))).thenReturn(CompletableFuture.completedFuture(null));
+        PublishingServiceClientImpl batchService = new PublishingServiceClientImpl(
+                mqttService, new JsonToXesMapper(), new ObjectMapper(), configLoader);
+
+        List<EventPublishStatus> statuses = batchService.publishUnambiguousEvents(batch);
+
+        assertEquals(List.of(EventPublishStatus.Status.PUBLISHED, EventPublishStatus.Status.INVALID, EventPublishStatus.Status.PUBLISHED),
+                statuses.stream().map(EventPublishStatus::status).toList());
+        InOrder inOrder = inOrder(mqttService);
+        inOrder.verify(mqttService).publishAsync(eq("clean-events"), argThat(payload -> new String(payload).contains("Apply tourniquet")));
+        inOrder.verify(mqttService).publishAsync(eq("clean-events"), argThat(payload -> new String(payload).contains("HCW check-out")));
+    }
+    @Test
+    void publishUnambiguousEvents_JsonArray_ReportsFailedAndPendingAcks() throws Exception {
+        String batch = "[{\"concept:name\": \"Event1\"}, {\"concept:name\": \"Event2\"}, \"not an event\"]";
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events", "ambiguous-events", 50));
+        when(mqttService.publishAsync(eq("clean-events"), any(byte[].class)))
+                .thenReturn(CompletableFuture.failedFuture(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST)))
+                .thenReturn(new CompletableFuture<>());
+        PublishingServiceClientImpl batchService = new PublishingServiceClientImpl(
+                mqttService, new JsonToXesMapper(), new ObjectMapper(), configLoader);
+
+        List<EventPublishStatus> statuses = batchService.publishUnambiguousEvents(batch);
+
+        assertEquals(EventPublishStatus.Status.FAILED, statuses.get(0).status());
+        assertNotNull(statuses.get(0).error());
+        assertEquals(EventPublishStatus.Status.PENDING, statuses.get(1).status());
+        assertEquals(EventPublishStatus.Status.INVALID, statuses.get(2).status());
+    }
+    @Test
+    void publishUnambiguousEvents_EventNotValidInXes_OnlyThatEventIsInvalid() throws Exception {
+        String batch = "[{\"concept:name\": \"Event1\"}, {\"concept:name\": \"Bell\\u0007\"}, {\"concept:name\": \"Event3\"}]";
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events", "ambiguous-events", 1000));
+        when(mqttService.publishAsync(eq("clean-events"), any(byte[].class))).thenReturn(CompletableFuture.completedFuture(null));
+        PublishingServiceClientImpl batchService = new PublishingServiceClientImpl(
+                mqttService, new JsonToXesMapper(), new ObjectMapper(), configLoader);
+
+        List<EventPublishStatus> statuses = batchService.publishUnambiguousEvents(batch);
+
+        assertEquals(List.of(EventPublishStatus.Status.PUBLISHED, EventPublishStatus.Status.INVALID, EventPublishStatus.Status.PUBLISHED),
+                statuses.stream().map(EventPublishStatus::status).toList());
+        assertTrue(statuses.get(1).error().contains("Invalid XML character"));
+        verify(mqttService, times(2)).publishAsync(eq("clean-events"), any(byte[].class));
+    }
+    @Test
+    void publishUnambiguousEvents_InvalidArray_ThrowsIllegalArgumentException() {
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events", "ambiguous-events", 5000));
+        PublishingServiceClientImpl batchService = new PublishingServiceClientImpl(
+                mqttService, new JsonToXesMapper(), new ObjectMapper(), configLoader);
+
+        assertThrows(IllegalArgumentException.class, () -> batchService.publishUnambiguousEvents("[{\"concept:name\": "));
+        verifyNoInteractions(mqttService);
+    }
+    @Test
+    void reloadSettings_NextEventGoesToNewTopic() throws Exception {
+        String inputJson = "{\"events\": {\"concept:name\": \"Apply tourniquet\"}}";
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events", "ambiguous-events", 5000));
+        when(configLoader.reload()).thenReturn(new PublisherSettings("clean-events-v2", "ambiguous-events", 1000));
+        PublishingServiceClientImpl publishingService = new PublishingServiceClientImpl(
+                mqttService, new JsonToXesMapper(), new ObjectMapper(), configLoader);
+
+        publishingService.publishUnambiguousEvent(inputJson);
+        publishingService.reloadSettings();
+        publishingService.publishUnambiguousEvent(inputJson);
+
+        InOrder inOrder = inOrder(mqttService);
+        inOrder.verify(mqttService).publish(eq("clean-events"), argThat((byte[] payload) -> new String(payload).contains("Apply tourniquet")));
+        inOrder.verify(mqttService).publish(eq("clean-events-v2"), argThat((byte[] payload) -> new String(payload).contains("Apply tourniquet")));
+    }
+    @Test
+    void reloadSettings_InvalidConfiguration_KeepsCurrentTopic() throws Exception {
+        when(configLoader.settings()).thenReturn(new PublisherSettings("clean-events", "ambiguous-events", 5000));
+        when(configLoader.reload()).thenThrow(new IllegalArgumentException("Invalid publisher configuration: publisher.topicUnambiguousEvent is missing"));
+        PublishingServiceClientImpl publishingService = new PublishingServiceClientImpl(
+                mqttService, new JsonToXesMapper(), new ObjectMapper(), configLoader);
+
+        assertThrows(IllegalArgumentException.class, publishingService::reloadSettings);
+
+        assertEquals("clean-events", publishingService.settings().topicUnambiguousEvent());
+    }
+}